@@ -23,8 +23,13 @@
 
 package com.symphony.oss.fugue.aws.kv.table;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -34,6 +39,11 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -45,11 +55,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.GetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemCollection;
 import com.amazonaws.services.dynamodbv2.document.ItemUtils;
@@ -58,7 +71,9 @@ import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
 import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchWriteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
@@ -67,6 +82,7 @@ import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.BillingMode;
 import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
 import com.amazonaws.services.dynamodbv2.model.Delete;
@@ -75,10 +91,12 @@ import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveResult;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 import com.amazonaws.services.dynamodbv2.model.Put;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import com.amazonaws.services.dynamodbv2.model.StreamSpecification;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
@@ -88,26 +106,35 @@ import com.amazonaws.services.dynamodbv2.model.TimeToLiveDescription;
 import com.amazonaws.services.dynamodbv2.model.TimeToLiveSpecification;
 import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
 import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
 import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.amazonaws.services.dynamodbv2.model.Update;
 import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveRequest;
 import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveResult;
 import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
 import com.symphony.oss.commons.fault.CodingFault;
 import com.symphony.oss.commons.fault.FaultAccumulator;
 import com.symphony.oss.commons.hash.Hash;
 import com.symphony.oss.fugue.Fugue;
 import com.symphony.oss.fugue.aws.AwsTags;
+import com.symphony.oss.fugue.concurrent.SingleFlight;
 import com.symphony.oss.fugue.kv.IKvItem;
 import com.symphony.oss.fugue.kv.IKvPagination;
 import com.symphony.oss.fugue.kv.IKvPartitionKeyProvider;
 import com.symphony.oss.fugue.kv.IKvPartitionSortKeyProvider;
 import com.symphony.oss.fugue.kv.KvCondition;
+import com.symphony.oss.fugue.kv.KvItemWithPayload;
 import com.symphony.oss.fugue.kv.KvPagination;
 import com.symphony.oss.fugue.kv.KvPartitionUser;
 import com.symphony.oss.fugue.kv.table.AbstractKvTable;
 import com.symphony.oss.fugue.kv.table.IKvTableTransaction;
+import com.symphony.oss.fugue.kv.table.capacity.CapacityController;
+import com.symphony.oss.fugue.kv.table.spool.IKvWriteSpoolSink;
+import com.symphony.oss.fugue.kv.table.spool.KvWriteSpool;
+import com.symphony.oss.fugue.resilience.ResilienceException;
+import com.symphony.oss.fugue.resilience.ResilientExecutor;
 import com.symphony.oss.fugue.store.NoSuchObjectException;
 import com.symphony.oss.fugue.store.TransactionFailedException;
 import com.symphony.oss.fugue.trace.ITraceContext;
@@ -148,8 +175,15 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   protected final int                 payloadLimit_;
   protected final boolean             validate_;
   protected final StreamSpecification streamSpecification_;
+  protected final KvWriteSpool        writeSpool_;
+  protected final ResilientExecutor   readExecutor_;
+  protected final SingleFlight<String, String> readFlight_;
+  protected final CapacityController  capacityController_;
+  protected final ThreadPoolExecutor  secondaryFetchExecutor_ = new ThreadPoolExecutor(0, 16, 60L, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), new NamedThreadFactory("DynamoDbSecondaryFetch", true), new ThreadPoolExecutor.CallerRunsPolicy());
   
   private static final int MAX_TRANSACTION_SIZE = 25;
+  private static final int MAX_BATCH_GET_SIZE   = 100;
   
   protected AbstractDynamoDbKvTable(AbstractBuilder<?,?> builder)
   {
@@ -159,6 +193,9 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     payloadLimit_           = builder.payloadLimit_ != null ? builder.payloadLimit_ : MAX_RECORD_SIZE ;
     validate_               = builder.validate_;
     streamSpecification_    = builder.streamSpecification_;
+    writeSpool_             = builder.writeSpool_;
+    readExecutor_           = builder.readExecutor_;
+    readFlight_             = builder.coalesceReads_ ? new SingleFlight<>() : null;
   
     log_.info("Starting storage...");
     
@@ -169,6 +206,10 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     dynamoDB_               = new DynamoDB(amazonDynamoDB_);
     objectTableName_        = nameFactory_.getTableName("objects").toString();
     objectTable_            = dynamoDB_.getTable(objectTableName_);
+    capacityController_     = builder.capacityControllerBuilder_ == null ? null : builder.capacityControllerBuilder_
+        .withTableName(objectTableName_)
+        .withControlPlane(new DynamoDbCapacityControlPlane(amazonDynamoDB_))
+        .build();
     
         
     validate();
@@ -207,14 +248,26 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   @Override
   public String fetch(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace) throws NoSuchObjectException
   {
-    return doDynamoReadTask(() ->
+    if(writeSpool_ != null)
     {
-      GetItemSpec spec = new GetItemSpec().withPrimaryKey(ColumnNamePartitionKey, getPartitionKey(partitionSortKey), ColumnNameSortKey, partitionSortKey.getSortKey().toString());
-
-      Item item = objectTable_.getItem(spec);
+      String spooledPayload = writeSpool_.fetch(partitionSortKey);
       
-      if(item == null)
-        throw new NoSuchObjectException("Item (" + getPartitionKey(partitionSortKey) + ", " + partitionSortKey.getSortKey() + ") not found.");
+      if(spooledPayload != null)
+      {
+        trace.trace("READ-SPOOL");
+        return spooledPayload;
+      }
+    }
+    
+    return coalesce("fetch" + Separator + getPartitionKey(partitionSortKey) + Separator + partitionSortKey.getSortKey(),
+        () -> doFetch(partitionSortKey, trace));
+  }
+  
+  private String doFetch(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace) throws NoSuchObjectException
+  {
+    return doDynamoReadTask(resilientRead(() ->
+    {
+      Item item = getItem(partitionSortKey);
       
       String payloadString = item.getString(ColumnNameDocument);
       
@@ -226,7 +279,182 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       }
       
       return payloadString;
-    });
+    }));
+  }
+
+  private Item getItem(IKvPartitionSortKeyProvider partitionSortKey) throws NoSuchObjectException
+  {
+    GetItemSpec spec = new GetItemSpec().withPrimaryKey(ColumnNamePartitionKey, getPartitionKey(partitionSortKey), ColumnNameSortKey, partitionSortKey.getSortKey().toString());
+
+    if(capacityController_ != null)
+      spec.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    
+    GetItemOutcome outcome = objectTable_.getItemOutcome(spec);
+    Item item = outcome.getItem();
+    
+    recordConsumedCapacity(false, outcome.getGetItemResult().getConsumedCapacity());
+    
+    if(item == null)
+      throw new NoSuchObjectException("Item (" + getPartitionKey(partitionSortKey) + ", " + partitionSortKey.getSortKey() + ") not found.");
+    
+    return item;
+  }
+  
+  @Override
+  public void fetch(IKvPartitionSortKeyProvider partitionSortKey, OutputStream out, ITraceContext trace) throws NoSuchObjectException, IOException
+  {
+    if(writeSpool_ != null)
+    {
+      String spooledPayload = writeSpool_.fetch(partitionSortKey);
+      
+      if(spooledPayload != null)
+      {
+        trace.trace("READ-SPOOL");
+        out.write(spooledPayload.getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+    }
+    
+    // Only the item is read inside the retry so that a retry can never repeat a partial write to out.
+    Item   item          = doDynamoReadTask(resilientRead(() -> getItem(partitionSortKey)));
+    String payloadString = item.getString(ColumnNameDocument);
+    
+    if(payloadString == null)
+      fetchFromSecondaryStorage(Hash.ofBase64String(item.getString(ColumnNameAbsoluteHash)), out, trace);
+    else
+      out.write(payloadString.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public Map<IKvPartitionSortKeyProvider, String> fetch(Collection<? extends IKvPartitionSortKeyProvider> partitionSortKeys, ITraceContext trace)
+  {
+    Map<IKvPartitionSortKeyProvider, String>        result    = new HashMap<>();
+    Map<String, List<IKvPartitionSortKeyProvider>>  keyMap    = new HashMap<>();
+    Map<String, Hash>                               secondary = new HashMap<>();
+    
+    for(IKvPartitionSortKeyProvider partitionSortKey : partitionSortKeys)
+    {
+      String spooledPayload = writeSpool_ == null ? null : writeSpool_.fetch(partitionSortKey);
+      
+      if(spooledPayload == null)
+        keyMap.computeIfAbsent(getPartitionKey(partitionSortKey) + Separator + partitionSortKey.getSortKey(), (k) -> new ArrayList<>())
+          .add(partitionSortKey);
+      else
+        result.put(partitionSortKey, spooledPayload);
+    }
+    
+    List<String> keys = new ArrayList<>(keyMap.keySet());
+    
+    for(int start = 0 ; start < keys.size() ; start += MAX_BATCH_GET_SIZE)
+    {
+      TableKeysAndAttributes tableKeys = new TableKeysAndAttributes(objectTableName_);
+      
+      for(String key : keys.subList(start, Math.min(keys.size(), start + MAX_BATCH_GET_SIZE)))
+      {
+        IKvPartitionSortKeyProvider partitionSortKey = keyMap.get(key).get(0);
+        
+        tableKeys.addHashAndRangePrimaryKey(ColumnNamePartitionKey, getPartitionKey(partitionSortKey),
+            ColumnNameSortKey, partitionSortKey.getSortKey().toString());
+      }
+      
+      batchGet(tableKeys, (item) ->
+      {
+        String key            = item.getString(ColumnNamePartitionKey) + Separator + item.getString(ColumnNameSortKey);
+        String payloadString  = item.getString(ColumnNameDocument);
+        
+        if(payloadString == null)
+        {
+          secondary.put(key, Hash.ofBase64String(item.getString(ColumnNameAbsoluteHash)));
+        }
+        else
+        {
+          for(IKvPartitionSortKeyProvider partitionSortKey : keyMap.get(key))
+            result.put(partitionSortKey, payloadString);
+        }
+      }, trace);
+    }
+    
+    // Payloads in secondary storage are fetched in parallel.
+    Map<String, Future<String>> futures = new HashMap<>();
+    
+    for(Entry<String, Hash> entry : secondary.entrySet())
+      futures.put(entry.getKey(), secondaryFetchExecutor_.submit(() -> fetchFromSecondaryStorage(entry.getValue(), trace)));
+    
+    for(Entry<String, Future<String>> entry : futures.entrySet())
+    {
+      try
+      {
+        String payloadString = entry.getValue().get();
+        
+        for(IKvPartitionSortKeyProvider partitionSortKey : keyMap.get(entry.getKey()))
+          result.put(partitionSortKey, payloadString);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted fetching from secondary storage", e);
+      }
+      catch (ExecutionException e)
+      {
+        if(!(e.getCause() instanceof NoSuchObjectException))
+          throw new IllegalStateException("Failed to fetch from secondary storage", e.getCause());
+        
+        log_.warn("Item " + entry.getKey() + " is missing from secondary storage");
+      }
+    }
+    
+    trace.trace("FETCHED-BATCH");
+    
+    return result;
+  }
+  
+  private void batchGet(TableKeysAndAttributes tableKeys, Consumer<Item> consumer, ITraceContext trace)
+  {
+    try
+    {
+      BatchGetItemOutcome outcome = doDynamoReadTask(() -> dynamoDB_.batchGetItem(returnConsumedCapacity(), tableKeys), trace);
+      long                delay   = 4;
+      
+      while(true)
+      {
+        recordConsumedCapacity(false, outcome.getBatchGetItemResult().getConsumedCapacity());
+        
+        List<Item> items = outcome.getTableItems().get(objectTableName_);
+        
+        if(items != null)
+          items.forEach(consumer);
+        
+        Map<String, KeysAndAttributes> unprocessedKeys = outcome.getUnprocessedKeys();
+        
+        if(unprocessedKeys == null || unprocessedKeys.isEmpty())
+          return;
+        
+        // Unprocessed keys in a batch read are the result of throttling.
+        if(capacityController_ != null)
+          capacityController_.recordReadThrottle();
+        
+        log_.info("Retry unprocessed keys after " + delay + "ms.");
+        
+        try
+        {
+          Thread.sleep(delay);
+          
+          if (delay < 1000)
+            delay *= 1.2;
+        }
+        catch (InterruptedException e)
+        {
+          log_.warn("Sleep interrupted", e);
+        }
+        
+        outcome = doDynamoReadTask(() -> dynamoDB_.batchGetItemUnprocessed(returnConsumedCapacity(), unprocessedKeys), trace);
+      }
+    }
+    catch(NoSuchObjectException e)
+    {
+      // Not thrown by a batch read
+      throw new CodingFault(e);
+    }
   }
 
   @Override
@@ -243,7 +471,51 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
 
   private String fetchOne(IKvPartitionKeyProvider partitionKey, boolean scanForwards, ITraceContext trace) throws NoSuchObjectException
   {
-    return doDynamoReadTask(() ->
+    return coalesce((scanForwards ? "first" : "last") + Separator + getPartitionKey(partitionKey),
+        () -> doFetchOne(partitionKey, scanForwards, trace));
+  }
+  
+  /**
+   * Execute the given read, sharing the result with any concurrent identical reads if read coalescing is enabled.
+   * 
+   * @param key   A key which identifies identical reads.
+   * @param read  The read to be executed.
+   * 
+   * @return The result of the read.
+   * 
+   * @throws NoSuchObjectException If the required object does not exist.
+   */
+  private String coalesce(String key, Callable<String> read) throws NoSuchObjectException
+  {
+    try
+    {
+      if(readFlight_ == null)
+        return read.call();
+      
+      return readFlight_.execute(key, read);
+    }
+    catch(NoSuchObjectException | RuntimeException e)
+    {
+      throw e;
+    }
+    catch(Exception e) // Callable made me do this...
+    {
+      throw new IllegalStateException("Failed to read object", e);
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of reads which were satisfied by waiting for an identical concurrent read.
+   */
+  public long getCoalescedReadCount()
+  {
+    return readFlight_ == null ? 0 : readFlight_.getCoalescedCount();
+  }
+  
+  private String doFetchOne(IKvPartitionKeyProvider partitionKey, boolean scanForwards, ITraceContext trace) throws NoSuchObjectException
+  {
+    return doDynamoReadTask(resilientRead(() ->
     {
       trace.trace("START_FETCH_ONE");
       QuerySpec spec = new QuerySpec()
@@ -253,10 +525,16 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
             .withString(":v_partition", getPartitionKey(partitionKey)))
         .withScanIndexForward(scanForwards)
         ;
+      
+      if(capacityController_ != null)
+        spec.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
     
       ItemCollection<QueryOutcome> items = objectTable_.query(spec);
+      Page<Item, QueryOutcome> page = items.firstPage();
+      
+      recordConsumedCapacity(false, page.getLowLevelResult().getQueryResult().getConsumedCapacity());
       
-      Iterator<Item> it = items.firstPage().iterator();
+      Iterator<Item> it = page.iterator();
       
       if(it.hasNext())
       {
@@ -276,7 +554,60 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       }
       
       throw new NoSuchObjectException(partitionKey + " not found");
-    });
+    }));
+  }
+  
+  private ReturnConsumedCapacity returnConsumedCapacity()
+  {
+    return capacityController_ == null ? ReturnConsumedCapacity.NONE : ReturnConsumedCapacity.TOTAL;
+  }
+  
+  private void recordConsumedCapacity(boolean write, @Nullable List<ConsumedCapacity> consumedCapacity)
+  {
+    if(consumedCapacity != null)
+    {
+      for(ConsumedCapacity capacity : consumedCapacity)
+        recordConsumedCapacity(write, capacity);
+    }
+  }
+  
+  private void recordConsumedCapacity(boolean write, @Nullable ConsumedCapacity consumedCapacity)
+  {
+    if(capacityController_ == null || consumedCapacity == null || consumedCapacity.getCapacityUnits() == null)
+      return;
+    
+    if(write)
+      capacityController_.recordWrite(consumedCapacity.getCapacityUnits());
+    else
+      capacityController_.recordRead(consumedCapacity.getCapacityUnits());
+  }
+
+  /**
+   * Return the capacity controller for this table.
+   * 
+   * @return The capacity controller for this table, or null if capacity is not controlled.
+   */
+  public @Nullable CapacityController getCapacityController()
+  {
+    return capacityController_;
+  }
+  
+  /**
+   * Wrap the given idempotent read task so that it is executed by the read executor, if there is one.
+   * 
+   * NoSuchObjectException is a valid response and is not counted as a failure by the circuit breaker.
+   * 
+   * @param <CT>  The type returned by the task.
+   * @param task  An idempotent read task.
+   * 
+   * @return A task which executes the given task with hedging, deadlines and circuit breaking as configured.
+   */
+  protected <CT> Callable<CT> resilientRead(Callable<CT> task)
+  {
+    if(readExecutor_ == null)
+      return task;
+    
+    return () -> readExecutor_.call(task, true, (e) -> !(e instanceof NoSuchObjectException));
   }
   
   protected <CT> CT doDynamoQueryTask(Callable<CT> task)
@@ -310,6 +641,107 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
 
   @Override
   public void store(Collection<IKvItem> kvItems, ITraceContext trace)
+  {
+    if(writeSpool_ == null)
+      doStore(kvItems, trace);
+    else
+      storeOrSpool(kvItems, true, trace);
+  }
+  
+  @Override
+  public void storeNonTransactional(Collection<IKvItem> kvItems, ITraceContext trace)
+  {
+    if(writeSpool_ == null)
+      doStoreNonTransactional(kvItems, trace);
+    else
+      storeOrSpool(kvItems, false, trace);
+  }
+  
+  private void storeOrSpool(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+  {
+    if(!writeSpool_.isEmpty())
+    {
+      // Earlier writes are still waiting to be replayed, this one has to go behind them to preserve ordering.
+      trace.trace("SPOOLED-DYNAMODB");
+      writeSpool_.append(kvItems, transactional, null);
+      return;
+    }
+    
+    try
+    {
+      write(kvItems, transactional, trace);
+    }
+    catch(RuntimeException e)
+    {
+      if(!isSpoolable(e))
+        throw e;
+      
+      log_.warn("Spooling " + kvItems.size() + " items after failed write", e);
+      trace.trace("SPOOLED-DYNAMODB");
+      writeSpool_.append(kvItems, transactional, e);
+    }
+  }
+  
+  private void write(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+  {
+    if(transactional)
+      doStore(kvItems, trace);
+    else
+      doStoreNonTransactional(kvItems, trace);
+  }
+  
+  /**
+   * Determine if the given write failure is one which should be spooled and retried later.
+   * 
+   * Throttling, server side errors and client side (network) errors are spooled, anything which indicates
+   * that the request itself is bad is not.
+   * 
+   * @param exception A write failure.
+   * 
+   * @return true if the write should be spooled.
+   */
+  protected boolean isSpoolable(Throwable exception)
+  {
+    for(Throwable e = exception ; e != null ; e = e.getCause())
+    {
+      if(e instanceof ProvisionedThroughputExceededException)
+        return true;
+      
+      if(e instanceof TransactionCanceledException)
+      {
+        if(((TransactionCanceledException)e).getCancellationReasons() == null)
+          return false;
+        
+        for(CancellationReason reason : ((TransactionCanceledException)e).getCancellationReasons())
+        {
+          switch(reason.getCode())
+          {
+            case "ThrottlingError":
+            case "ProvisionedThroughputExceeded":
+              return true;
+          }
+        }
+        
+        return false;
+      }
+      
+      if(e instanceof AmazonServiceException)
+      {
+        AmazonServiceException ase = (AmazonServiceException)e;
+        
+        return ase.getErrorType() == AmazonServiceException.ErrorType.Service
+            || "ThrottlingException".equals(ase.getErrorCode())
+            || "RequestLimitExceeded".equals(ase.getErrorCode());
+      }
+      
+      if(e instanceof SdkClientException)
+        return true;
+    }
+    
+    return false;
+  }
+  
+  private void doStore(Collection<IKvItem> kvItems, ITraceContext trace)
   {
     try
     {
@@ -328,7 +760,32 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   }
   
   @Override
-  public void storeNonTransactional(Collection<IKvItem> kvItems, ITraceContext trace)
+  public void store(IKvItem kvItem, InputStream payload, long contentLength, ITraceContext trace) throws IOException
+  {
+    // Payloads small enough for the table row are read into memory as usual. While there are spooled writes
+    // a direct write could be overtaken by an older spooled version of the same item, so it goes via the spool.
+    if(contentLength < payloadLimit_ || !kvItem.isSaveToSecondaryStorage() || (writeSpool_ != null && !writeSpool_.isEmpty())
+        || !storeToSecondaryStorage(kvItem.getAbsoluteHash(), payload, contentLength, trace))
+    {
+      super.store(kvItem, payload, contentLength, trace);
+      return;
+    }
+    
+    String partitionKey = getPartitionKey(kvItem);
+    String sortKey = kvItem.getSortKey().asString();
+    
+    // The payload is only in secondary storage, a limit of zero keeps it out of the row.
+    UpdateOrPut updateOrPut = new UpdateOrPut(new KvItemWithPayload(kvItem, ""), partitionKey, sortKey, 0);
+    
+    putItems(Collections.singletonList(ItemUtils.toItem(updateOrPut.updateItem_).withPrimaryKey(new PrimaryKey(
+        new KeyAttribute(ColumnNamePartitionKey,  partitionKey),
+        new KeyAttribute(ColumnNameSortKey,       sortKey)
+        ))));
+    
+    trace.trace("STORED-STREAMED", kvItem);
+  }
+  
+  private void doStoreNonTransactional(Collection<IKvItem> kvItems, ITraceContext trace)
   {
     ArrayList<UpdateOrPut> itemsToPut = new ArrayList<>();
 
@@ -348,15 +805,24 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     }
     
     
+    putItems(items);
+  }
+  
+  private void putItems(List<Item> items)
+  {
     TableWriteItems tableWriteItems = new TableWriteItems(objectTable_.getTableName())
           .withItemsToPut(items);
     
-    BatchWriteItemOutcome outcome = dynamoDB_.batchWriteItem(tableWriteItems);
+    BatchWriteItemOutcome outcome = batchWrite(new BatchWriteItemSpec().withTableWriteItems(tableWriteItems));
 
     long                          delay                 = 4;
     Map<String, List<WriteRequest>> unprocessedItems = outcome.getUnprocessedItems();
+    
+    // Unprocessed items in a batch write are the result of throttling.
+    if(capacityController_ != null && !unprocessedItems.isEmpty())
+      capacityController_.recordWriteThrottle();
 
-    while(outcome.getUnprocessedItems().size()>0)
+    while(!unprocessedItems.isEmpty())
     {
         log_.info("Retry " + unprocessedItems.size()  + " unprocessed items after " + delay + "ms.");
         try
@@ -371,10 +837,19 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
           log_.warn("Sleep interrupted", e);
         }
         
-        unprocessedItems = dynamoDB_.batchWriteItemUnprocessed(unprocessedItems).getUnprocessedItems();
+        unprocessedItems = batchWrite(new BatchWriteItemSpec().withUnprocessedItems(unprocessedItems)).getUnprocessedItems();
 
     }
   }
+  
+  private BatchWriteItemOutcome batchWrite(BatchWriteItemSpec spec)
+  {
+    BatchWriteItemOutcome outcome = dynamoDB_.batchWriteItem(spec.withReturnConsumedCapacity(returnConsumedCapacity()));
+    
+    recordConsumedCapacity(true, outcome.getBatchWriteItemResult().getConsumedCapacity());
+    
+    return outcome;
+  }
 
 
 //  @Override
@@ -441,6 +916,12 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   
   @Override
   public void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
+  {
+    tryStore(kvItem, kvCondition, trace);
+  }
+  
+  @Override
+  public boolean tryStore(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
   {
     Hash        absoluteHash = kvItem.getAbsoluteHash();
     List<TransactWriteItem> actions = new ArrayList<>(1);
@@ -476,6 +957,8 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       trace.trace("ABOUT_TO_STORE_CONDITIONAL", kvItem);
       write(actions, absoluteHash.toStringBase64(), "Conditions not met.", trace);
       trace.trace("STORED_CONDITIONAL", kvItem);
+      
+      return true;
     }
     catch (NoSuchObjectException e)
     {
@@ -491,6 +974,8 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
           log_.error("Failed to delete secondary copy of " + secondaryStoredHash, e2);
         }
       }
+      
+      return false;
     }
   }
   
@@ -589,7 +1074,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       TableWriteItems tableWriteItems = new TableWriteItems(objectTable_.getTableName())
           .withPrimaryKeysToDelete(primaryKeysToDelete_.toArray(new PrimaryKey[primaryKeysToDelete_.size()]));
       
-      BatchWriteItemOutcome outcome = dynamoDB_.batchWriteItem(tableWriteItems);
+      BatchWriteItemOutcome outcome = batchWrite(new BatchWriteItemSpec().withTableWriteItems(tableWriteItems));
       int totalRequestItems = primaryKeysToDelete_.size();
       long  delay = 4;
       do
@@ -621,7 +1106,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
               log_.warn("Sleep interrupted", e);
             }
             
-            outcome = dynamoDB_.batchWriteItemUnprocessed(unprocessedItems);
+            outcome = batchWrite(new BatchWriteItemSpec().withUnprocessedItems(unprocessedItems));
           }
       } while (outcome.getUnprocessedItems().size() > 0);
     }
@@ -1007,6 +1492,9 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   {
     TransactWriteItemsRequest request = new TransactWriteItemsRequest()
         .withTransactItems(actions);
+    
+    if(capacityController_ != null)
+      request.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
      
     doDynamoConditionalWriteTask(() -> 
     {
@@ -1019,8 +1507,10 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
         try
         {
           trace.trace("ABOUT_TO_STORE_TRANSACTIONAL", "OBJECT", txnId);
-          amazonDynamoDB_.transactWriteItems(request);
+          TransactWriteItemsResult result = amazonDynamoDB_.transactWriteItems(request);
           trace.trace("STORED_TRANSACTIONAL", "OBJECT", txnId);
+          
+          recordConsumedCapacity(true, result.getConsumedCapacity());
           return null;
         }
         catch (TransactionCanceledException tce)
@@ -1087,6 +1577,24 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
    */
   protected abstract @Nonnull String fetchFromSecondaryStorage(Hash absoluteHash, ITraceContext trace) throws NoSuchObjectException;
   
+  /**
+   * Fetch the given item from secondary storage, writing it to the given stream.
+   * 
+   * The default implementation calls fetchFromSecondaryStorage(Hash, ITraceContext), implementations
+   * should override this to copy the object to the stream as it is read.
+   * 
+   * @param absoluteHash      Absolute hash of the required object.
+   * @param out               A stream to receive the object, which is not closed.
+   * @param trace             Trace context.
+   * 
+   * @throws NoSuchObjectException If the required object does not exist.
+   * @throws IOException           If the object cannot be written to the given stream.
+   */
+  protected void fetchFromSecondaryStorage(Hash absoluteHash, OutputStream out, ITraceContext trace) throws NoSuchObjectException, IOException
+  {
+    out.write(fetchFromSecondaryStorage(absoluteHash, trace).getBytes(StandardCharsets.UTF_8));
+  }
+  
   /**
    * Store the given item to secondary storage.
    * 
@@ -1096,6 +1604,24 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
    * @return true if the object was stored
    */
   protected abstract boolean storeToSecondaryStorage(IKvItem kvItem, boolean payloadNotStored, ITraceContext trace);
+  
+  /**
+   * Store the payload read from the given stream to secondary storage.
+   * 
+   * The default implementation returns false without reading the stream, implementations with secondary
+   * storage should override this to copy the payload as it is read.
+   * 
+   * @param absoluteHash  The absolute hash of the object.
+   * @param payload       A stream from which the UTF-8 encoded payload is read.
+   * @param contentLength The length of the payload in bytes.
+   * @param trace         A trace context.
+   * 
+   * @return true if the payload was stored, false if this table cannot stream to secondary storage.
+   */
+  protected boolean storeToSecondaryStorage(Hash absoluteHash, InputStream payload, long contentLength, ITraceContext trace)
+  {
+    return false;
+  }
 
   /**
    * Delete the given object from secondary storage.
@@ -1129,14 +1655,14 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     {
       log_.warn(message + " - Provisioned Throughput Exceeded", e);
       trace.trace("FAILED-THROUGHPUT-DYNAMODB");
-//      try
-//      {
-//        objectTableHelper_.scaleOutWrite();
-//      }
-//      catch(RuntimeException e2)
-//      {
-//        log_.error("Failed to scale out", e2);
-//      }
+      
+      if(capacityController_ != null)
+      {
+        if("read".equals(accessMode))
+          capacityController_.recordReadThrottle();
+        else
+          capacityController_.recordWriteThrottle();
+      }
       
       throw new IllegalStateException(message, e);
     } 
@@ -1150,6 +1676,12 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     {
       throw e;
     } 
+    catch (ResilienceException e)
+    {
+      trace.trace("FAILED-RESILIENCE-DYNAMODB");
+      log_.warn(message + " - " + e.getMessage());
+      throw e;
+    }
     catch (Exception e) // Callable made me do this...
     {
       trace.trace("FAILED-UNEXPECTED-DYNAMODB");
@@ -1598,11 +2130,40 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   @Override
   public void start()
   {
+    if(writeSpool_ != null)
+      writeSpool_.start(new IKvWriteSpoolSink()
+      {
+        @Override
+        public void replay(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+        {
+          write(kvItems, transactional, trace);
+        }
+
+        @Override
+        public boolean isRetryable(RuntimeException failure)
+        {
+          return isSpoolable(failure);
+        }
+      });
+    
+    if(capacityController_ != null)
+      capacityController_.start();
   }
 
   @Override
   public void stop()
   {
+    if(capacityController_ != null)
+      capacityController_.stop();
+    
+    if(writeSpool_ != null)
+      writeSpool_.stop();
+    
+    if(readExecutor_ != null)
+      readExecutor_.stop();
+    
+    secondaryFetchExecutor_.shutdown();
+    
     if(amazonDynamoDB_ != null)
       amazonDynamoDB_.shutdown();
   }
@@ -1989,6 +2550,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
           .withKeyConditionExpression(keyConditionExpression)
           .withValueMap(valueMap)
           .withScanIndexForward(scanForwards)
+          .withReturnConsumedCapacity(returnConsumedCapacity())
           ;
       
       if(filter != null)
@@ -2022,6 +2584,8 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       String before = null;
       for(Page<Item, QueryOutcome> page : items.pages())
       {
+        recordConsumedCapacity(false, page.getLowLevelResult().getQueryResult().getConsumedCapacity());
+        
         Iterator<Item> it = page.iterator();
         
         trace.trace("Read page "+(p++));
@@ -2237,6 +2801,10 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     protected boolean             enableSecondaryStorage_ = false;
 
     protected StreamSpecification streamSpecification_    = new StreamSpecification().withStreamEnabled(false);
+    protected KvWriteSpool        writeSpool_;
+    protected ResilientExecutor   readExecutor_;
+    protected boolean             coalesceReads_          = false;
+    protected CapacityController.Builder capacityControllerBuilder_;
     
     protected AbstractBuilder(Class<T> type)
     {
@@ -2267,6 +2835,93 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       return self();
     }
 
+    /**
+     * Set a local write spool.
+     * 
+     * If set, unconditional writes which fail due to throttling or a transient outage are appended to the
+     * spool instead of failing, and are replayed to the table in order once the table is started. While
+     * there are spooled writes all further unconditional writes go to the spool, and fetch returns the
+     * spooled version of an item if there is one.
+     * 
+     * Read your writes applies only to point reads (the single, streaming and batch forms of fetch).
+     * fetchFirst, fetchLast and fetchPartitionObjects read the table directly and do not see spooled writes
+     * until they have been replayed.
+     * 
+     * A spooled write which fails on replay with an error which is not spoolable (for example a validation
+     * error) is moved to the spool's quarantine file, so it is never stored even though the original call
+     * to store succeeded.
+     * 
+     * Both store and storeNonTransactional may be spooled. A batch passed to store is spooled as a single
+     * record and replayed in a single DynamoDB transaction, so it is still applied all or nothing, but when
+     * it is spooled the call returns before the batch is visible in the table, and other writers may see
+     * the table without it until it has been replayed.
+     * 
+     * Conditional writes and the commit of a transaction from createTransaction are never spooled.
+     * 
+     * @param writeSpool A write spool, which must not be shared with any other table.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWriteSpool(KvWriteSpool writeSpool)
+    {
+      writeSpool_ = writeSpool;
+      
+      return self();
+    }
+
+    /**
+     * Set an executor for reads.
+     * 
+     * If set, single item reads are executed with the deadlines, hedging and circuit breaking configured
+     * in the given executor. Reads which scan partitions are never hedged.
+     * 
+     * @param readExecutor An executor for idempotent reads.
+     * 
+     * @return This (fluent method).
+     */
+    public T withReadExecutor(ResilientExecutor readExecutor)
+    {
+      readExecutor_ = readExecutor;
+      
+      return self();
+    }
+
+    /**
+     * Enable coalescing of concurrent identical reads.
+     * 
+     * If enabled, concurrent calls to fetch, fetchFirst or fetchLast for the same key share a single
+     * call to DynamoDB and its result or failure. Nothing is cached beyond the duration of the call.
+     * 
+     * @param coalesceReads true to enable read coalescing.
+     * 
+     * @return This (fluent method).
+     */
+    public T withCoalesceReads(boolean coalesceReads)
+    {
+      coalesceReads_ = coalesceReads;
+      
+      return self();
+    }
+
+    /**
+     * Enable capacity control.
+     * 
+     * If set, consumed capacity and throttled requests are recorded and the provisioned capacity of the table
+     * is adjusted by a CapacityController built from the given builder. The table name and control plane are
+     * set by the table. Tables with on demand capacity, which is the default when a table is created, are
+     * not changed.
+     * 
+     * @param capacityControllerBuilder A builder for the capacity controller.
+     * 
+     * @return This (fluent method).
+     */
+    public T withCapacityController(CapacityController.Builder capacityControllerBuilder)
+    {
+      capacityControllerBuilder_ = capacityControllerBuilder;
+      
+      return self();
+    }
+
     public T withEnableSecondaryStorage(boolean enableSecondaryStorage)
     {
       enableSecondaryStorage_ = enableSecondaryStorage;
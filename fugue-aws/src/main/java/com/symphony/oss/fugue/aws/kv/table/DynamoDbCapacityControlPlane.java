@@ -0,0 +1,80 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.aws.kv.table;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.BillingMode;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
+import com.symphony.oss.fugue.kv.table.capacity.ICapacityControlPlane;
+import com.symphony.oss.fugue.kv.table.capacity.TableCapacity;
+
+/**
+ * DynamoDB implementation of ICapacityControlPlane.
+ * 
+ * @author Bruce Skingle
+ */
+public class DynamoDbCapacityControlPlane implements ICapacityControlPlane
+{
+  private final AmazonDynamoDB amazonDynamoDB_;
+
+  /**
+   * Constructor.
+   * 
+   * @param amazonDynamoDB A DynamoDB client.
+   */
+  public DynamoDbCapacityControlPlane(AmazonDynamoDB amazonDynamoDB)
+  {
+    amazonDynamoDB_ = amazonDynamoDB;
+  }
+
+  @Override
+  public TableCapacity describeCapacity(String tableName)
+  {
+    TableDescription tableInfo = amazonDynamoDB_.describeTable(tableName).getTable();
+    
+    if(tableInfo.getBillingModeSummary() != null &&
+        BillingMode.PAY_PER_REQUEST.toString().equals(tableInfo.getBillingModeSummary().getBillingMode()))
+    {
+      return new TableCapacity(false, 0, 0, 0);
+    }
+    
+    ProvisionedThroughputDescription throughput = tableInfo.getProvisionedThroughput();
+    
+    return new TableCapacity(true,
+        throughput.getReadCapacityUnits(),
+        throughput.getWriteCapacityUnits(),
+        throughput.getNumberOfDecreasesToday() == null ? 0 : throughput.getNumberOfDecreasesToday().intValue());
+  }
+
+  @Override
+  public void updateCapacity(String tableName, long readUnits, long writeUnits)
+  {
+    amazonDynamoDB_.updateTable(new UpdateTableRequest()
+        .withTableName(tableName)
+        .withProvisionedThroughput(new ProvisionedThroughput(readUnits, writeUnits)));
+  }
+}
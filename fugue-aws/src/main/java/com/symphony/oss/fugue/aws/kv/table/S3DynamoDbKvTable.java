@@ -27,6 +27,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,6 +46,7 @@ import com.symphony.oss.commons.hash.Hash;
 import com.symphony.oss.fugue.Fugue;
 import com.symphony.oss.fugue.aws.config.S3Helper;
 import com.symphony.oss.fugue.kv.IKvItem;
+import com.symphony.oss.fugue.resilience.ResilientExecutor;
 import com.symphony.oss.fugue.store.NoSuchObjectException;
 import com.symphony.oss.fugue.trace.ITraceContext;
 
@@ -61,6 +63,7 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
   protected final String   objectBucketName_;
   protected final AmazonS3 s3Client_;
   private final boolean deferSecondaryStorage_;
+  private final ResilientExecutor secondaryReadExecutor_;
   
   protected S3DynamoDbKvTable(S3DynamoDbKvTable.AbstractBuilder<?,?> builder)
   {
@@ -72,11 +75,54 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
         .withPathStyleAccessEnabled(true)
       .build();
     deferSecondaryStorage_ = builder.deferSecondaryStorage_;
+    secondaryReadExecutor_ = builder.secondaryReadExecutor_;
+  }
+  
+  @Override
+  public void stop()
+  {
+    if(secondaryReadExecutor_ != null)
+      secondaryReadExecutor_.stop();
+    
+    super.stop();
   }
 
   @Override
   protected String fetchFromSecondaryStorage(Hash absoluteHash, ITraceContext trace)
       throws NoSuchObjectException
+  {
+    if(secondaryReadExecutor_ == null)
+      return doFetchFromSecondaryStorage(absoluteHash, trace);
+    
+    try
+    {
+      return secondaryReadExecutor_.call(() -> doFetchFromSecondaryStorage(absoluteHash, trace), true, (e) -> isSecondaryStorageFailure(e));
+    }
+    catch(NoSuchObjectException | RuntimeException e)
+    {
+      throw e;
+    }
+    catch(Exception e) // Callable made me do this...
+    {
+      throw new IllegalStateException("Failed to read object from S3", e);
+    }
+  }
+  
+  private static boolean isSecondaryStorageFailure(Exception e)
+  {
+    if(e instanceof NoSuchObjectException)
+    {
+      // A missing object is a valid response, an I/O error or a server error is a failure.
+      Throwable cause = e.getCause();
+      
+      return cause instanceof IOException || (cause instanceof AmazonS3Exception && ((AmazonS3Exception)cause).getStatusCode() >= 500);
+    }
+    
+    return true;
+  }
+
+  private String doFetchFromSecondaryStorage(Hash absoluteHash, ITraceContext trace)
+      throws NoSuchObjectException
   {
     try
     {
@@ -115,19 +161,120 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
     // we only call for objects which we know exist and are not in dynamo
   }
   
+  @Override
+  protected void fetchFromSecondaryStorage(Hash absoluteHash, OutputStream out, ITraceContext trace)
+      throws NoSuchObjectException, IOException
+  {
+    S3Object object;
+    
+    // Only opening the object is retried, once bytes have been written to out the read cannot be repeated.
+    if(secondaryReadExecutor_ == null)
+    {
+      object = doOpenSecondaryStorage(absoluteHash, trace);
+    }
+    else
+    {
+      try
+      {
+        // A hedged open which loses, or completes after the deadline, holds a pooled connection which must be released.
+        object = secondaryReadExecutor_.call(() -> doOpenSecondaryStorage(absoluteHash, trace), true, (e) -> isSecondaryStorageFailure(e),
+            (unused) -> abort(unused));
+      }
+      catch(NoSuchObjectException | RuntimeException e)
+      {
+        throw e;
+      }
+      catch(Exception e) // Callable made me do this...
+      {
+        throw new IllegalStateException("Failed to read object from S3", e);
+      }
+    }
+    
+    try(InputStream in = object.getObjectContent())
+    {
+      byte[] buf = new byte[8192];
+      int nbytes;
+      
+      while((nbytes = in.read(buf)) > 0)
+      {
+        out.write(buf, 0, nbytes);
+      }
+
+      trace.trace("READ-S3", "OBJECT", absoluteHash.toStringBase64());
+    }
+    catch(IOException e)
+    {
+      trace.trace("FAILED-TO-READ-S3", "OBJECT", absoluteHash.toStringBase64());
+      throw e;
+    }
+  }
+  
+  private static void abort(S3Object object)
+  {
+    // Closing an unread object would drain the rest of its content, aborting drops the connection instead.
+    object.getObjectContent().abort();
+  }
+  
+  private S3Object doOpenSecondaryStorage(Hash absoluteHash, ITraceContext trace) throws NoSuchObjectException
+  {
+    try
+    {
+      trace.trace("ABOUT-TO-READ-S3", "OBJECT", absoluteHash.toStringBase64());
+      return s3Client_.getObject(new GetObjectRequest(objectBucketName_, s3Key(absoluteHash)));
+    }
+    catch(AmazonS3Exception e)
+    {
+      trace.trace("FAILED-TO-READ-S3", "OBJECT", absoluteHash.toStringBase64());
+      throw new NoSuchObjectException("Failed to read object from S3", e);
+    }
+  }
+  
+  /**
+   * Store the given payload to secondary storage.
+   * 
+   * @param absoluteHash  The absolute hash of the object.
+   * @param payload       The payload.
+   * @param trace         A trace context.
+   */
   public void storeToSecondaryStorage(Hash absoluteHash, String payload, ITraceContext trace)
   {
     byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
     
     try(InputStream in = new ByteArrayInputStream(bytes))
     {
-      s3Client_.putObject(new PutObjectRequest(objectBucketName_, s3Key(absoluteHash), in, getS3MetaData(absoluteHash, bytes.length)));
-      trace.trace("WRITTEN-S3");
+      storeToSecondaryStorage(absoluteHash, in, bytes.length, trace);
     }
     catch (IOException e)
     {
       throw new CodingFault("In memory I/O - can't happen", e);
     }
+  }
+  
+  /**
+   * Store the payload read from the given stream to secondary storage.
+   * 
+   * The payload is streamed to S3 as it is read, so the given content length must be exact, otherwise
+   * the S3 client would have to buffer the whole payload in memory to determine it.
+   * 
+   * @param absoluteHash  The absolute hash of the object.
+   * @param in            A stream from which the UTF-8 encoded payload is read.
+   * @param contentLength The length of the payload in bytes.
+   * @param trace         A trace context.
+   * 
+   * @return true, the payload is always stored.
+   */
+  @Override
+  public boolean storeToSecondaryStorage(Hash absoluteHash, InputStream in, long contentLength, ITraceContext trace)
+  {
+    if(contentLength < 0)
+      throw new IllegalArgumentException("contentLength must be known");
+    
+    try
+    {
+      s3Client_.putObject(new PutObjectRequest(objectBucketName_, s3Key(absoluteHash), in, getS3MetaData(absoluteHash, contentLength)));
+      trace.trace("WRITTEN-S3");
+      return true;
+    }
     catch(RuntimeException e)
     {
       trace.trace("FAILED-TO-WRITE-S3");
@@ -208,6 +355,7 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
   {
     protected final AmazonS3ClientBuilder       s3ClientBuilder_;
     protected boolean deferSecondaryStorage_;
+    protected ResilientExecutor secondaryReadExecutor_;
     
     protected AbstractBuilder(Class<T> type)
     {
@@ -246,6 +394,23 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
       return self();
     }
 
+    /**
+     * Set an executor for reads from secondary storage.
+     * 
+     * If set, reads from S3 are executed with the deadlines, hedging and circuit breaking configured
+     * in the given executor.
+     * 
+     * @param secondaryReadExecutor An executor for S3 reads.
+     * 
+     * @return This (fluent method).
+     */
+    public T withSecondaryStorageReadExecutor(ResilientExecutor secondaryReadExecutor)
+    {
+      secondaryReadExecutor_ = secondaryReadExecutor;
+      
+      return self();
+    }
+
     @Override
     public T withCredentials(AWSCredentialsProvider credentials)
     {
@@ -0,0 +1,120 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.aws.sns;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.model.BatchResultErrorEntry;
+import com.amazonaws.services.sns.model.PublishBatchRequest;
+import com.amazonaws.services.sns.model.PublishBatchRequestEntry;
+import com.symphony.oss.fugue.pubsub.AsyncBatchFailure;
+import com.symphony.oss.fugue.pubsub.IAsyncBatchSink;
+import com.symphony.oss.fugue.pubsub.IPubSubMessage;
+
+/**
+ * Batch publication of messages to an SNS topic with PublishBatch.
+ * 
+ * @author Bruce Skingle
+ */
+/* package */ class SnsPublishBatchSink implements IAsyncBatchSink<IPubSubMessage>
+{
+  /* package */ static final int MAX_BATCH_SIZE = 10;
+  
+  private final AmazonSNS     snsClient_;
+  private final String        topicArn_;
+
+  /* package */ SnsPublishBatchSink(AmazonSNS snsClient, String topicArn)
+  {
+    snsClient_  = snsClient;
+    topicArn_   = topicArn;
+  }
+
+  @Override
+  public int getMaxBatchSize()
+  {
+    return MAX_BATCH_SIZE;
+  }
+
+  @Override
+  public int getMaxBatchBytes()
+  {
+    // The limit on the total size of a batch is the same as the limit for a single message.
+    return SnsPublisherBase.MAX_MESSAGE_SIZE;
+  }
+
+  @Override
+  public int getSize(IPubSubMessage item)
+  {
+    // SNS counts the message body and the name, type and value of each attribute.
+    int size = item.getPayload().getBytes(StandardCharsets.UTF_8).length;
+    
+    for(Entry<String, Object> entry : item.getAttributes().entrySet())
+    {
+      size += entry.getKey().getBytes(StandardCharsets.UTF_8).length
+          + SnsPublisherBase.getAttribute(entry.getValue()).getDataType().length()
+          + entry.getValue().toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+    
+    return size;
+  }
+
+  @Override
+  public List<AsyncBatchFailure> send(List<IPubSubMessage> batch)
+  {
+    List<PublishBatchRequestEntry> entries = new ArrayList<>(batch.size());
+    
+    // The entry ID is the index of the message, so that failures can be mapped back to messages.
+    for(int i=0 ; i<batch.size() ; i++)
+    {
+      IPubSubMessage            message = batch.get(i);
+      PublishBatchRequestEntry  entry   = new PublishBatchRequestEntry()
+          .withId(Integer.toString(i))
+          .withMessage(message.getPayload());
+      
+      if(!message.getAttributes().isEmpty())
+        entry.withMessageAttributes(SnsPublisherBase.getMessageAttributes(message));
+      
+      entries.add(entry);
+    }
+    
+    List<BatchResultErrorEntry> failures = snsClient_.publishBatch(new PublishBatchRequest()
+        .withTopicArn(topicArn_)
+        .withPublishBatchRequestEntries(entries)).getFailed();
+    
+    List<AsyncBatchFailure> result = new ArrayList<>(failures.size());
+    
+    for(BatchResultErrorEntry failure : failures)
+    {
+      // A sender fault, for example an invalid attribute, will fail again if retried.
+      result.add(new AsyncBatchFailure(Integer.parseInt(failure.getId()), !Boolean.TRUE.equals(failure.getSenderFault()),
+          failure.getCode() + " " + failure.getMessage()));
+    }
+    
+    return result;
+  }
+}
@@ -23,7 +23,13 @@
 
 package com.symphony.oss.fugue.aws.sns;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.symphony.oss.fugue.naming.TopicName;
+import com.symphony.oss.fugue.pubsub.AsyncBatcher;
 import com.symphony.oss.fugue.pubsub.IPubSubMessage;
 import com.symphony.oss.fugue.pubsub.IPublisher;
 import com.symphony.oss.fugue.trace.ITraceContext;
@@ -31,15 +37,22 @@ import com.symphony.oss.fugue.trace.ITraceContext;
 
 class SnsPublisher implements IPublisher
 {
-  private final String              topicName_;
-  private final String              topicArn_;
-  private final SnsPublisherBase<?> manager_;
+  private static final Logger                  log_          = LoggerFactory.getLogger(SnsPublisher.class);
+
+  /** The maximum time to wait for batched messages to be sent on close. */
+  private static final long                    CLOSE_TIMEOUT = 30000;
+
+  private final String                         topicName_;
+  private final String                         topicArn_;
+  private final SnsPublisherBase<?>            manager_;
+  private final AsyncBatcher<IPubSubMessage>   batcher_;
 
-  SnsPublisher(TopicName topicName, String topicArn, SnsPublisherBase<?> manager)
+  SnsPublisher(TopicName topicName, String topicArn, SnsPublisherBase<?> manager, AsyncBatcher<IPubSubMessage> batcher)
   {
     topicName_ = topicName.toString();
     topicArn_ = topicArn;
     manager_ = manager;
+    batcher_ = batcher;
   }
 
   @Override
@@ -54,9 +67,21 @@ class SnsPublisher implements IPublisher
     manager_.send(topicName_, topicArn_, item, item.getTraceContext());
   }
 
+  @Override
+  public CompletableFuture<Void> consumeAsync(IPubSubMessage item)
+  {
+    ITraceContext trace = item.getTraceContext();
+    
+    trace.trace("ABOUT-TO-PUBLISH", "SNS_TOPIC", topicName_);
+    
+    return batcher_.submit(item).thenRun(() -> trace.trace("PUBLISHED", "SNS_TOPIC", topicName_));
+  }
+
   @Override
   public void close()
   {
+    if(!batcher_.close(CLOSE_TIMEOUT))
+      log_.error("Failed to send " + batcher_.getPendingCount() + " batched messages to " + topicName_);
   }
 
   @Override
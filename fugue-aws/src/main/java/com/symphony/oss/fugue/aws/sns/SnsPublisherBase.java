@@ -30,6 +30,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,11 +46,13 @@ import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.amazonaws.services.sns.model.MessageAttributeValue;
 import com.amazonaws.services.sns.model.PublishRequest;
 import com.google.common.collect.ImmutableList;
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
 import com.symphony.oss.commons.fault.FaultAccumulator;
 import com.symphony.oss.commons.type.provider.IIntegerProvider;
 import com.symphony.oss.fugue.config.IConfiguration;
 import com.symphony.oss.fugue.naming.TopicName;
 import com.symphony.oss.fugue.pubsub.AbstractPublisherManager;
+import com.symphony.oss.fugue.pubsub.AsyncBatcher;
 import com.symphony.oss.fugue.pubsub.IPubSubMessage;
 import com.symphony.oss.fugue.pubsub.IPublisher;
 import com.symphony.oss.fugue.trace.ITraceContext;
@@ -53,6 +60,13 @@ import com.symphony.oss.fugue.trace.ITraceContext;
 /**
  * Amazon SNS implementation of PublisherManager.
  * 
+ * Messages published with consumeAsync are sent in batches with PublishBatch, the following
+ * configuration under org/symphonyoss/s2/fugue/aws/sns controls batching:
+ * 
+ * batchLingerMillis      The maximum time a message waits for a batch to fill, default 10.
+ * batchMaxPending        The maximum number of unsent messages per topic, default 1000.
+ * batchSenderThreads     The number of threads sending batches, default 4.
+ * 
  * @author Bruce Skingle
  *
  * @param <T> Type of concrete manager, needed for fluent methods.
@@ -74,6 +88,11 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
 
   protected final ImmutableList<String>       subscriberAccountIds_;
 
+  private final ScheduledExecutorService       batchScheduler_;
+  private final ThreadPoolExecutor             batchExecutor_;
+  private final long                           batchLinger_;
+  private final int                            batchMaxPending_;
+
   
   protected SnsPublisherBase(Class<T> type, Builder<?,T> builder)
   {
@@ -86,6 +105,17 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
     subscriberAccountIds_ =  ImmutableList.copyOf(
         builder.config_.getConfiguration("amazon").getListOfString("subscriberAccountIds", new ArrayList<>()));
     
+    IConfiguration snsConfig  = builder.config_.getConfiguration("org/symphonyoss/s2/fugue/aws/sns");
+    int            threads    = snsConfig.getInt("batchSenderThreads", 4);
+    
+    batchLinger_      = snsConfig.getLong("batchLingerMillis", 10);
+    batchMaxPending_  = snsConfig.getInt("batchMaxPending", 1000);
+    batchScheduler_   = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("SNS-batch-linger", true));
+    batchExecutor_    = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        new NamedThreadFactory("SNS-batch-send", true));
+    
+    batchExecutor_.allowCoreThreadTimeOut(true);
+    
     int errorCnt = 0;
     
     for(TopicName topicName : builder.topicNames_)
@@ -101,9 +131,22 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
     
     for(TopicName topicName : builder.topicNames_)
     {
-      publisherNameMap_.put(topicName, new SnsPublisher(topicName, getTopicARN(topicName), this));
+      String topicArn = getTopicARN(topicName);
+      
+      publisherNameMap_.put(topicName, new SnsPublisher(topicName, topicArn, this, createBatcher(topicArn)));
     }
   }
+  
+  private AsyncBatcher<IPubSubMessage> createBatcher(String topicArn)
+  {
+    return new AsyncBatcher.Builder<IPubSubMessage>()
+        .withSink(new SnsPublishBatchSink(snsClient_, topicArn))
+        .withScheduler(batchScheduler_)
+        .withExecutor(batchExecutor_)
+        .withLinger(batchLinger_)
+        .withMaxPending(batchMaxPending_)
+        .build();
+  }
 
   /**
    * Builder.
@@ -312,12 +355,15 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
   @Override
   public void stop()
   {
-    snsClient_.shutdown();
-    
-    for(SnsPublisher publisher : publishers_)
+    // Send any batched messages before the client is shut down.
+    for(SnsPublisher publisher : publisherNameMap_.values())
     {
       publisher.close();
     }
+    
+    batchScheduler_.shutdown();
+    batchExecutor_.shutdown();
+    snsClient_.shutdown();
   }
 
   @Override
@@ -341,21 +387,26 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
     
     if(!pubSubMessage.getAttributes().isEmpty())
     {
-      Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
-      
-      for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
-      {
-        messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
-      }
-      
-      publishRequest.withMessageAttributes(messageAttributes);
+      publishRequest.withMessageAttributes(getMessageAttributes(pubSubMessage));
     }
     
     snsClient_.publish(publishRequest);
     trace.trace("PUBLISHED", "SNS_TOPIC", topicName);
   }
+  
+  /* package */ static Map<String, MessageAttributeValue> getMessageAttributes(IPubSubMessage pubSubMessage)
+  {
+    Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+    
+    for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
+    {
+      messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
+    }
+    
+    return messageAttributes;
+  }
 
-  private static MessageAttributeValue getAttribute(Object value)
+  /* package */ static MessageAttributeValue getAttribute(Object value)
   {
     if(value instanceof Number || value instanceof IIntegerProvider)
     {
@@ -0,0 +1,112 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.aws.sqs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.symphony.oss.fugue.pubsub.IAckBatchSink;
+
+/**
+ * Batch acknowledgement of SQS messages with DeleteMessageBatch and ChangeMessageVisibilityBatch.
+ * 
+ * @author Bruce Skingle
+ */
+/* package */ class SqsAckBatchSink implements IAckBatchSink
+{
+  /* package */ static final int MAX_BATCH_SIZE = 10;
+  
+  private static final Logger log_ = LoggerFactory.getLogger(SqsAckBatchSink.class);
+
+  private final AmazonSQS     sqsClient_;
+  private final String        queueUrl_;
+
+  /* package */ SqsAckBatchSink(AmazonSQS sqsClient, String queueUrl)
+  {
+    sqsClient_  = sqsClient;
+    queueUrl_   = queueUrl;
+  }
+
+  @Override
+  public int getMaxBatchSize()
+  {
+    return MAX_BATCH_SIZE;
+  }
+
+  @Override
+  public Collection<String> acknowledge(List<String> handles)
+  {
+    List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(handles.size());
+    
+    // The entry ID is the index of the handle, so that failures can be mapped back to handles.
+    for(int i=0 ; i<handles.size() ; i++)
+      entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), handles.get(i)));
+    
+    return failed("delete", handles, sqsClient_.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl_, entries)).getFailed());
+  }
+
+  @Override
+  public Collection<String> modifyVisibility(List<String> handles, int timeoutSeconds)
+  {
+    List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(handles.size());
+    
+    for(int i=0 ; i<handles.size() ; i++)
+      entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(i), handles.get(i))
+          .withVisibilityTimeout(timeoutSeconds));
+    
+    return failed("change visibility of", handles, sqsClient_.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(queueUrl_, entries)).getFailed());
+  }
+  
+  private Collection<String> failed(String operation, List<String> handles, List<BatchResultErrorEntry> failures)
+  {
+    List<String> retry = new ArrayList<>();
+    
+    for(BatchResultErrorEntry failure : failures)
+    {
+      String handle = handles.get(Integer.parseInt(failure.getId()));
+      
+      if(Boolean.TRUE.equals(failure.getSenderFault()))
+      {
+        // For example the receipt handle has expired, retrying will not help.
+        log_.warn("Failed to " + operation + " message " + handle + ": " + failure.getCode() + " " + failure.getMessage());
+      }
+      else
+      {
+        retry.add(handle);
+      }
+    }
+    
+    return retry;
+  }
+}
@@ -26,7 +26,14 @@ package com.symphony.oss.fugue.aws.sqs;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,11 +49,15 @@ import com.amazonaws.services.sqs.model.TagQueueRequest;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
 import com.symphony.oss.commons.fault.CodingFault;
 import com.symphony.oss.commons.fault.FaultAccumulator;
 import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.pubsub.AsyncBatcher;
+import com.symphony.oss.fugue.pubsub.IPubSubMessage;
 import com.symphony.oss.fugue.pubsub.IQueueManager;
 import com.symphony.oss.fugue.pubsub.IQueueReceiver;
 import com.symphony.oss.fugue.pubsub.IQueueSender;
@@ -55,6 +66,9 @@ import com.symphony.oss.fugue.pubsub.QueueNotFoundException;
 /**
  * AWS SQS implementation of QueueManager.
  * 
+ * Messages sent with sendMessageAsync are sent in batches with SendMessageBatch, the linger time,
+ * maximum number of unsent messages per queue and number of sending threads can be set on the builder.
+ * Call stop() before exit so that batched messages are not lost.
  * 
  * @author Bruce Skingle
  *
@@ -73,15 +87,24 @@ public class SqsQueueManager implements IQueueManager
   //private Map<String, SqsQueueSender>          senderMap_ = new HashMap<>();
   private boolean gateway_;
   
+  private final ScheduledExecutorService     batchScheduler_;
+  private final ThreadPoolExecutor           batchExecutor_;
+  private final long                         batchLinger_;
+  private final int                          batchMaxPending_;
+  
+  /** Senders evicted from senderCache_ which may still have batches in flight, closed by stop(). */
+  private final Set<SqsQueueSender>          evictedSenders_ = ConcurrentHashMap.newKeySet();
+  
   private final LoadingCache<String, SqsQueueSender>          senderCache_ = CacheBuilder.newBuilder()
       .maximumSize(250)
+      .removalListener((RemovalNotification<String, SqsQueueSender> notification) -> evict(notification.getValue()))
       .build(
           new CacheLoader<String, SqsQueueSender>()
           {
             @Override
             public SqsQueueSender load(String queueName)
             {
-              return new SqsQueueSender(sqsClient_, gateway_, queueName);
+              return new SqsQueueSender(sqsClient_, gateway_, queueName, (queueUrl) -> createBatcher(queueUrl));
             }
           });
   private final LoadingCache<String, SqsQueueReceiver>          receiverCache_ = CacheBuilder.newBuilder()
@@ -122,6 +145,37 @@ public class SqsQueueManager implements IQueueManager
      .build();
     
     gateway_ = builder.gateway_;
+    
+    batchLinger_      = builder.batchLinger_;
+    batchMaxPending_  = builder.batchMaxPending_;
+    batchScheduler_   = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("SQS-batch-linger", true));
+    batchExecutor_    = new ThreadPoolExecutor(builder.batchSenderThreads_, builder.batchSenderThreads_, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), new NamedThreadFactory("SQS-batch-send", true));
+    
+    batchExecutor_.allowCoreThreadTimeOut(true);
+  }
+  
+  private void evict(SqsQueueSender sender)
+  {
+    // The sender may still be referenced by a caller, or have batches in flight, so it is
+    // flushed rather than closed and held until it is idle or stop() is called.
+    sender.flush();
+    
+    evictedSenders_.removeIf((evicted) -> evicted.getPendingCount() == 0);
+    
+    if(sender.getPendingCount() > 0)
+      evictedSenders_.add(sender);
+  }
+  
+  private AsyncBatcher<IPubSubMessage> createBatcher(String queueUrl)
+  {
+    return new AsyncBatcher.Builder<IPubSubMessage>()
+        .withSink(new SqsSendBatchSink(sqsClient_, queueUrl))
+        .withScheduler(batchScheduler_)
+        .withExecutor(batchExecutor_)
+        .withLinger(batchLinger_)
+        .withMaxPending(batchMaxPending_)
+        .build();
   }
   
   @Override
@@ -160,6 +214,32 @@ public class SqsQueueManager implements IQueueManager
     }
   }
 
+  /**
+   * Send any batched messages, then shut down the batch sending threads and the SQS client.
+   * 
+   * The manager cannot be used after this call.
+   */
+  public void stop()
+  {
+    // Send any batched messages before the client is shut down.
+    for(SqsQueueSender sender : senderCache_.asMap().values())
+    {
+      sender.close();
+    }
+    
+    // Evicted senders may still have batches in flight which need the client and executors.
+    for(SqsQueueSender sender : evictedSenders_)
+    {
+      sender.close();
+    }
+    
+    evictedSenders_.clear();
+    
+    batchScheduler_.shutdown();
+    batchExecutor_.shutdown();
+    sqsClient_.shutdown();
+  }
+
   @Override
   public int getMaximumMessageSize()
   {
@@ -188,6 +268,9 @@ public class SqsQueueManager implements IQueueManager
     private String                        proxyUsername_;
     private URL                           proxyUrl_;
     private String                        proxyPassword_;
+    private long                          batchLinger_        = 10;
+    private int                           batchMaxPending_    = 1000;
+    private int                           batchSenderThreads_ = 4;
 
     /**
      * Constructor.
@@ -322,6 +405,24 @@ public class SqsQueueManager implements IQueueManager
       return self();
     }
 
+    /**
+     * Set the parameters for batching of messages sent with sendMessageAsync.
+     * 
+     * @param linger        The maximum time in milliseconds for which a message waits for a batch to fill, default 10.
+     * @param maxPending    The maximum number of unsent messages per queue, after which sendMessageAsync blocks, default 1000.
+     * @param senderThreads The number of threads sending batches, default 4.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withBatching(long linger, int maxPending, int senderThreads)
+    {
+      batchLinger_        = linger;
+      batchMaxPending_    = maxPending;
+      batchSenderThreads_ = senderThreads;
+      
+      return self();
+    }
+
     @Override
     public void validate(FaultAccumulator faultAccumulator)
     {
@@ -329,6 +430,15 @@ public class SqsQueueManager implements IQueueManager
       
       faultAccumulator.checkNotNull(region_,    "region");
       faultAccumulator.checkNotNull(accountId_, "accountId");
+      
+      if(batchLinger_ < 0)
+        faultAccumulator.error("batch linger must not be negative");
+      
+      if(batchMaxPending_ < 1)
+        faultAccumulator.error("batch maxPending must be positive");
+      
+      if(batchSenderThreads_ < 1)
+        faultAccumulator.error("batch senderThreads must be positive");
     }
 
     @Override
@@ -25,7 +25,10 @@ package com.symphony.oss.fugue.aws.sqs;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -56,6 +59,7 @@ public class SqsQueueReceiver implements IQueueReceiver
 
   private final AmazonSQS     sqsClient_;
   private String        queueUrl_;
+  private final SqsAckBatchSink ackSink_;
   
   private    static final int                   MAX_SQS_MESSAGES  = 10;  
 
@@ -73,6 +77,8 @@ public class SqsQueueReceiver implements IQueueReceiver
     
     queueUrl_ = gateway ?  queueName : sqsClient_.getQueueUrl(queueName).getQueueUrl();
 
+    ackSink_ = new SqsAckBatchSink(sqsClient_, queueUrl_);
+
     log_.info("Queue " + queueName + " exists as " + queueUrl_);
   }
   
@@ -83,38 +89,60 @@ public class SqsQueueReceiver implements IQueueReceiver
     
     List<IQueueMessage> messages = new ArrayList<>(maxMessages);
     
+    List<String> deleteHandles = new ArrayList<>(deleteMessages.size());
+    
     for(IQueueMessageDelete delete : deleteMessages)
+      deleteHandles.add(delete.getReceiptHandle());
+    
+    for(List<String> batch : partition(deleteHandles))
     {
       try
       {
-        sqsClient_.deleteMessage(queueUrl_, delete.getReceiptHandle());
-        log_.debug("Deleteed message " + delete.getReceiptHandle());
+        Collection<String> failed = ackSink_.acknowledge(batch);
+        
+        if(!failed.isEmpty())
+          log_.warn("Failed to delete " + failed.size() + " messages");
+        
+        log_.debug("Deleted " + batch.size() + " messages");
       }
       catch(AmazonSQSException e)
       {
-        log_.warn("Failed to delete message", e);
+        log_.warn("Failed to delete messages", e);
       }
     }
     
-
+    Map<Integer, List<String>> extendHandles = new HashMap<>();
+    
     for(IQueueMessageExtend extend : extendMessages)
     {
       if(extend.getVisibilityTimeout() != null) 
+      {
+        extendHandles.computeIfAbsent(extend.getVisibilityTimeout(), (k) -> new ArrayList<>()).add(extend.getReceiptHandle());
+      }
+      else
+      {
+        log_.debug("Extended message " + extend.getReceiptHandle() + " with default delay delay (actually did nothing)");
+      }
+    }
+    
+    for(Entry<Integer, List<String>> entry : extendHandles.entrySet())
+    {
+      for(List<String> batch : partition(entry.getValue()))
       {
         try
         {
-          sqsClient_.changeMessageVisibility(queueUrl_, extend.getReceiptHandle(), extend.getVisibilityTimeout());
-          log_.debug("Extended message " + extend.getReceiptHandle() + " with delay " +  extend.getVisibilityTimeout());
+          Collection<String> failed = ackSink_.modifyVisibility(batch, entry.getKey());
+          
+          if(!failed.isEmpty())
+            log_.warn("Failed to extend " + failed.size() + " messages");
+          
+          log_.debug("Extended " + batch.size() + " messages with delay " + entry.getKey());
         }
         catch(AmazonSQSException e)
         {
-          log_.warn("Failed to extend message", e);
+          log_.warn("Failed to extend messages", e);
         }
       }
-      else
-      {
-        log_.debug("Extended message " + extend.getReceiptHandle() + " with default delay delay (actually did nothing)");
-      }
     }
     
     if(maxMessages > 0)
@@ -135,6 +163,16 @@ public class SqsQueueReceiver implements IQueueReceiver
     return messages;
   }
   
+  private List<List<String>> partition(List<String> handles)
+  {
+    List<List<String>> batches = new ArrayList<>();
+    
+    for(int i=0 ; i<handles.size() ; i += SqsAckBatchSink.MAX_BATCH_SIZE)
+      batches.add(handles.subList(i, Math.min(handles.size(), i + SqsAckBatchSink.MAX_BATCH_SIZE)));
+    
+    return batches;
+  }
+  
   private class SqsQueueMessage implements IQueueMessage
   {
     private final Message receivedMessage_;
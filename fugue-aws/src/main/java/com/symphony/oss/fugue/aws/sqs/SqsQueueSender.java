@@ -26,6 +26,8 @@ package com.symphony.oss.fugue.aws.sqs;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +36,7 @@ import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.symphony.oss.fugue.pubsub.AsyncBatcher;
 import com.symphony.oss.fugue.pubsub.IPubSubMessage;
 import com.symphony.oss.fugue.pubsub.IQueueSender;
 
@@ -48,22 +51,28 @@ public class SqsQueueSender implements IQueueSender
 {
   private static final Logger log_ = LoggerFactory.getLogger(SqsQueueSender.class);
 
+  /** The maximum time to wait for batched messages to be sent on close. */
+  private static final long   CLOSE_TIMEOUT = 30000;
+
   private final AmazonSQS     sqsClient_;
   private String        queueUrl_;
+  private final AsyncBatcher<IPubSubMessage> batcher_;
 
   /**
    * Constructor.
    * 
-   * @param sqsClient An SQS client.
-   * @param queueName The name of a queue
+   * @param sqsClient       An SQS client.
+   * @param queueName       The name of a queue
+   * @param batcherFactory  A factory for the batcher used by sendMessageAsync, given the queue URL.
    * 
    * @throws QueueDoesNotExistException if the queue does not exist.
    */
-  SqsQueueSender(AmazonSQS sqsClient, boolean gateway, String queueName)
+  SqsQueueSender(AmazonSQS sqsClient, boolean gateway, String queueName, Function<String, AsyncBatcher<IPubSubMessage>> batcherFactory)
   {
     sqsClient_     = sqsClient;
       
     queueUrl_ = gateway ?  queueName : sqsClient_.getQueueUrl(queueName).getQueueUrl();
+    batcher_  = batcherFactory.apply(queueUrl_);
 
     log_.info("Queue " + queueName + " exists as " + queueUrl_);
   }
@@ -80,21 +89,61 @@ public class SqsQueueSender implements IQueueSender
     
     if(!pubSubMessage.getAttributes().isEmpty())
     {
-      Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
-      
-      for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
-      {
-        messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
-      }
-      
-      sendRequest.withMessageAttributes(messageAttributes);
+      sendRequest.withMessageAttributes(getMessageAttributes(pubSubMessage));
     }
     
     sqsClient_.sendMessage(sendRequest);
     pubSubMessage.getTraceContext().trace("SENT", "SQS_QUEUE", queueUrl_);
   }
+  
+  @Override
+  public CompletableFuture<Void> sendMessageAsync(IPubSubMessage pubSubMessage)
+  {
+    pubSubMessage.getTraceContext().trace("ABOUT-TO-SEND", "SQS_QUEUE", queueUrl_);
+    
+    return batcher_.submit(pubSubMessage)
+        .thenRun(() -> pubSubMessage.getTraceContext().trace("SENT", "SQS_QUEUE", queueUrl_));
+  }
+  
+  /**
+   * Send any messages which are waiting for a batch to fill.
+   */
+  void flush()
+  {
+    batcher_.flush();
+  }
+  
+  /**
+   * 
+   * @return The number of messages submitted to sendMessageAsync which have not yet completed.
+   */
+  int getPendingCount()
+  {
+    return batcher_.getPendingCount();
+  }
+  
+  /**
+   * Send any batched messages and wait for them to complete, after which sendMessageAsync will fail.
+   */
+  void close()
+  {
+    if(!batcher_.close(CLOSE_TIMEOUT))
+      log_.error("Failed to send " + batcher_.getPendingCount() + " batched messages to " + queueUrl_);
+  }
+  
+  /* package */ static Map<String, MessageAttributeValue> getMessageAttributes(IPubSubMessage pubSubMessage)
+  {
+    Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+    
+    for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
+    {
+      messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
+    }
+    
+    return messageAttributes;
+  }
 
-  private static MessageAttributeValue getAttribute(Object value)
+  /* package */ static MessageAttributeValue getAttribute(Object value)
   {
     if(value instanceof Number)
     {
@@ -24,15 +24,20 @@
 package com.symphony.oss.fugue.aws.sqs;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 import com.symphony.oss.fugue.Fugue;
@@ -40,6 +45,7 @@ import com.symphony.oss.fugue.counter.IBusyCounter;
 import com.symphony.oss.fugue.counter.ICounter;
 import com.symphony.oss.fugue.pipeline.IThreadSafeRetryableConsumer;
 import com.symphony.oss.fugue.pubsub.AbstractPullSubscriber;
+import com.symphony.oss.fugue.pubsub.AckBatcher;
 import com.symphony.oss.fugue.pubsub.IPullSubscriberContext;
 import com.symphony.oss.fugue.pubsub.IPullSubscriberMessage;
 import com.symphony.oss.fugue.trace.ITraceContext;
@@ -56,6 +62,7 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
 {
   private static final int EXTENSION_TIMEOUT_SECONDS = 30;
   private static final int EXTENSION_FREQUENCY_MILLIS = 15000;
+  private static final String ALL_ATTRIBUTES = "All";
   
   private static final Logger                        log_              = LoggerFactory.getLogger(SqsSubscriber.class);
 
@@ -66,6 +73,7 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
   private final IThreadSafeRetryableConsumer<String> consumer_;
   private final NonIdleSubscriber                                nonIdleSubscriber_;
   private final String                               tenantId_;
+  private final AckBatcher                           ackBatcher_;
   private int                                        messageBatchSize_ = 10;
 
   private final ReceiveMessageRequest                blockingPullRequest_;
@@ -74,7 +82,8 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
 
   /* package */ SqsSubscriber(SqsSubscriberManager manager, AmazonSQS sqsClient, String queueUrl,
       String subscriptionName, ITraceContextTransactionFactory traceFactory,
-      IThreadSafeRetryableConsumer<String> consumer, ICounter counter, IBusyCounter busyCounter, String tenantId)
+      IThreadSafeRetryableConsumer<String> consumer, ICounter counter, IBusyCounter busyCounter, String tenantId,
+      AckBatcher ackBatcher)
   {
     super(manager, subscriptionName, counter, busyCounter, EXTENSION_FREQUENCY_MILLIS, consumer);
     
@@ -90,13 +99,16 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
     consumer_ = consumer;
     nonIdleSubscriber_ = new NonIdleSubscriber();
     tenantId_ = tenantId;
+    ackBatcher_ = ackBatcher;
 
     blockingPullRequest_ = new ReceiveMessageRequest(queueUrl_)
         .withMaxNumberOfMessages(messageBatchSize_ )
+        .withMessageAttributeNames(ALL_ATTRIBUTES)
         .withWaitTimeSeconds(20);
     
     nonBlockingPullRequest_ = new ReceiveMessageRequest(queueUrl_)
-        .withMaxNumberOfMessages(messageBatchSize_ );
+        .withMaxNumberOfMessages(messageBatchSize_ )
+        .withMessageAttributeNames(ALL_ATTRIBUTES);
   }
   
   class NonIdleSubscriber implements Runnable
@@ -139,6 +151,26 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
       return pull(blockingPullRequest_);
     }
 
+    @Override
+    public Collection<IPullSubscriberMessage> nonBlockingPull(int maxMessages)
+    {
+      return pull(limit(nonBlockingPullRequest_, maxMessages));
+    }
+
+    @Override
+    public Collection<IPullSubscriberMessage> blockingPull(int maxMessages)
+    {
+      return pull(limit(blockingPullRequest_, maxMessages));
+    }
+    
+    private ReceiveMessageRequest limit(ReceiveMessageRequest pullRequest, int maxMessages)
+    {
+      if(maxMessages >= messageBatchSize_)
+        return pullRequest;
+      
+      return pullRequest.clone().withMaxNumberOfMessages(Math.max(1, maxMessages));
+    }
+
     private Collection<IPullSubscriberMessage> pull(ReceiveMessageRequest pullRequest)
     {
       try(ITraceContextTransaction traceTransaction = traceFactory_.createTransaction("PubSubPull:SQS", UUID.randomUUID().toString(), tenantId_))
@@ -170,6 +202,7 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
   {
     private final Message message_;
     private boolean       running_ = true;
+    private final ReentrantLock lock_ = new ReentrantLock();
     private ITraceContext trace_;
     
     private SqsPullSubscriberMessage(Message message, ITraceContext trace)
@@ -184,6 +217,27 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
       return message_.getMessageId();
     }
 
+    @Override
+    public Map<String, Object> getAttributes()
+    {
+      Map<String, Object> attributes = new HashMap<>();
+      
+      for(Entry<String, MessageAttributeValue> entry : message_.getMessageAttributes().entrySet())
+      {
+        MessageAttributeValue value = entry.getValue();
+        
+        attributes.put(entry.getKey(), value.getStringValue() == null ? value.getBinaryValue() : value.getStringValue());
+      }
+      
+      return attributes;
+    }
+
+    @Override
+    public int getPayloadSize()
+    {
+      return message_.getBody().length();
+    }
+
     @Override
     public void run()
     {
@@ -193,7 +247,8 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
         
         long retryTime = manager_.handleMessage(consumer_, message_.getBody(), trace, message_.getMessageId());
         
-        synchronized(this)
+        lock_.lock();
+        try
         {
           // There is no point trying to extend the ack deadline now
           running_ = false;
@@ -201,7 +256,7 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
           if(retryTime < 0)
           {
             trace.trace("ABOUT_TO_ACK");
-            sqsClient_.deleteMessage(queueUrl_, message_.getReceiptHandle());
+            ackBatcher_.acknowledge(message_.getReceiptHandle());
             traceTransaction.finished();
           }
           else
@@ -210,10 +265,14 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
             
             int visibilityTimout = (int) (retryTime / 1000);
             
-            sqsClient_.changeMessageVisibility(queueUrl_, message_.getReceiptHandle(), visibilityTimout);
+            ackBatcher_.modifyVisibility(message_.getReceiptHandle(), visibilityTimout);
             traceTransaction.aborted();
           }
         }
+        finally
+        {
+          lock_.unlock();
+        }
       }
       catch(RuntimeException e)
       {
@@ -222,19 +281,27 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
     }
 
     @Override
-    public synchronized void extend()
+    public void extend()
     {
-      if(running_)
+      lock_.lock();
+      try
       {
-        try
+        if(running_)
         {
-          sqsClient_.changeMessageVisibility(queueUrl_, message_.getReceiptHandle(), EXTENSION_TIMEOUT_SECONDS);
-        }
-        catch(RuntimeException e)
-        {
-          log_.error("Failed to extend message " + getMessageId(), e);
+          try
+          {
+            ackBatcher_.modifyVisibility(message_.getReceiptHandle(), EXTENSION_TIMEOUT_SECONDS);
+          }
+          catch(RuntimeException e)
+          {
+            log_.error("Failed to extend message " + getMessageId(), e);
+          }
         }
       }
+      finally
+      {
+        lock_.unlock();
+      }
     }
   }
 }
@@ -57,7 +57,8 @@ import com.symphony.oss.fugue.pubsub.ISubscription;
             "sqs":
             {
               "subscriberThreadPoolSize": 40,
-              "handlerThreadPoolSize": 360
+              "handlerThreadPoolSize": 360,
+              "ackFlushIntervalMillis": 100
             }
           }
         }
@@ -185,7 +186,8 @@ public class SqsSubscriberManager extends AbstractPullSubscriberManager<String,
       String queueUrl = sqsClient_.getQueueUrl(subscriptionName.toString()).getQueueUrl();
       
       SqsSubscriber subscriber = new SqsSubscriber(this, sqsClient_, queueUrl, subscriptionName.toString(), getTraceFactory(), subscription.getConsumer(),
-          getCounter(), createBusyCounter(subscriptionName), nameFactory_.getPodName());
+          getCounter(), createBusyCounter(subscriptionName), nameFactory_.getPodName(),
+          createAckBatcher(new SqsAckBatchSink(sqsClient_, queueUrl)));
 
       subscribers_.add(subscriber); 
     }
@@ -0,0 +1,161 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.aws.sqs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.symphony.oss.fugue.pubsub.AsyncBatchFailure;
+import com.symphony.oss.fugue.pubsub.AsyncBatcher;
+import com.symphony.oss.fugue.pubsub.IPubSubMessage;
+import com.symphony.oss.fugue.pubsub.PubSubMessage;
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestSqsSendBatchSink
+{
+  private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/123456789012/test";
+  
+  private final ScheduledExecutorService scheduler_ = Executors.newSingleThreadScheduledExecutor();
+  
+  class Sqs extends AbstractAmazonSQS
+  {
+    final List<SendMessageBatchRequest> requests_ = new ArrayList<>();
+    final List<BatchResultErrorEntry>   failed_   = new ArrayList<>();
+    
+    @Override
+    public synchronized SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request)
+    {
+      requests_.add(request);
+      
+      return new SendMessageBatchResult().withFailed(failed_);
+    }
+  }
+  
+  @After
+  public void after()
+  {
+    scheduler_.shutdown();
+  }
+  
+  private IPubSubMessage message(String payload)
+  {
+    Map<String, Object> attributes = new HashMap<>();
+    
+    attributes.put("type", "test");
+    
+    return new PubSubMessage(payload, NoOpTraceContext.INSTANCE, attributes);
+  }
+  
+  @Test
+  public void testSend()
+  {
+    Sqs               sqs     = new Sqs();
+    SqsSendBatchSink  sink    = new SqsSendBatchSink(sqs, QUEUE_URL);
+    
+    List<AsyncBatchFailure> failures = sink.send(Arrays.asList(message("a"), message("b"), message("c")));
+    
+    assertTrue(failures.isEmpty());
+    assertEquals(1, sqs.requests_.size());
+    
+    SendMessageBatchRequest request = sqs.requests_.get(0);
+    
+    assertEquals(QUEUE_URL, request.getQueueUrl());
+    assertEquals(3, request.getEntries().size());
+    
+    for(int i=0 ; i<3 ; i++)
+    {
+      SendMessageBatchRequestEntry entry = request.getEntries().get(i);
+      
+      assertEquals(Integer.toString(i), entry.getId());
+      assertEquals("abc".substring(i, i + 1), entry.getMessageBody());
+      assertEquals("test", entry.getMessageAttributes().get("type").getStringValue());
+    }
+  }
+  
+  @Test
+  public void testFailures()
+  {
+    Sqs               sqs     = new Sqs();
+    SqsSendBatchSink  sink    = new SqsSendBatchSink(sqs, QUEUE_URL);
+    
+    sqs.failed_.add(new BatchResultErrorEntry().withId("1").withSenderFault(true).withCode("InvalidParameterValue"));
+    sqs.failed_.add(new BatchResultErrorEntry().withId("2").withSenderFault(false).withCode("InternalError"));
+    
+    List<AsyncBatchFailure> failures = sink.send(Arrays.asList(message("a"), message("b"), message("c")));
+    
+    assertEquals(2, failures.size());
+    
+    assertEquals(1, failures.get(0).getIndex());
+    assertFalse(failures.get(0).isRetryable());
+    
+    assertEquals(2, failures.get(1).getIndex());
+    assertTrue(failures.get(1).isRetryable());
+  }
+  
+  @Test
+  public void testBatcher()
+  {
+    Sqs                           sqs     = new Sqs();
+    AsyncBatcher<IPubSubMessage>  batcher = new AsyncBatcher.Builder<IPubSubMessage>()
+        .withSink(new SqsSendBatchSink(sqs, QUEUE_URL))
+        .withScheduler(scheduler_)
+        .withExecutor((r) -> r.run())
+        .withLinger(60000)
+        .build();
+    
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    
+    for(int i=0 ; i<25 ; i++)
+      futures.add(batcher.submit(message("Message " + i)));
+    
+    assertTrue(batcher.close(1000));
+    
+    for(CompletableFuture<Void> future : futures)
+      assertTrue(future.isDone() && !future.isCompletedExceptionally());
+    
+    assertEquals(3, sqs.requests_.size());
+    
+    for(SendMessageBatchRequest request : sqs.requests_)
+      assertTrue(request.getEntries().size() <= SqsSendBatchSink.MAX_BATCH_SIZE);
+  }
+}
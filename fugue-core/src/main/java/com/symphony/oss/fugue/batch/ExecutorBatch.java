@@ -29,10 +29,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +50,9 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  * 
  * We assume that any exception from any task is program fatal.
  * 
+ * A lock is used rather than synchronized methods because waitForAllTasks blocks while holding it,
+ * which would pin the carrier thread if the caller is a virtual thread.
+ * 
  * @param <T> The type of tasks in the batch
  * 
  * @author Bruce Skingle
@@ -62,13 +66,14 @@ public class ExecutorBatch<T extends Runnable> implements IBatch<T>
   private boolean              closed_;
   private List<T>              taskList_ = new LinkedList<>();
   private int                  taskCnt_;
+  private final ReentrantLock  lock_     = new ReentrantLock();
   
   /**
    * Constructor.
    * 
    * @param executor The executor to process tasks.
    */
-  public ExecutorBatch(ExecutorService executor)
+  public ExecutorBatch(Executor executor)
   {
 //    executor_ = executor;
     
@@ -93,16 +98,24 @@ public class ExecutorBatch<T extends Runnable> implements IBatch<T>
     doSubmit(task);
   }
   
-  private synchronized T poll()
+  private T poll()
   {
-    Future<T> future = completionService_.poll();
-    
-    if(future == null)
-      return null;
-    
-
-    taskCnt_--;
-    return remove(future);
+    lock_.lock();
+    try
+    {
+      Future<T> future = completionService_.poll();
+      
+      if(future == null)
+        return null;
+      
+  
+      taskCnt_--;
+      return remove(future);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
   }
 
   @SuppressFBWarnings("BC_UNCONFIRMED_CAST_OF_RETURN_VALUE")
@@ -136,41 +149,57 @@ public class ExecutorBatch<T extends Runnable> implements IBatch<T>
     }
   }
 
-  private synchronized void doSubmit(T task)
+  private void doSubmit(T task)
   {
-    if(closed_)
-      throw new IllegalStateException("waitForAllTasks() has already been called");
-    
-    taskList_.add(task);
-    taskCnt_++;
-    
-    completionService_.submit(task, task);
+    lock_.lock();
+    try
+    {
+      if(closed_)
+        throw new IllegalStateException("waitForAllTasks() has already been called");
+      
+      taskList_.add(task);
+      taskCnt_++;
+      
+      completionService_.submit(task, task);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
   }
 
   /**
    * Block until all tasks have completed.
    */
   @Override
-  public synchronized void waitForAllTasks()
+  public void waitForAllTasks()
   {
-    if(closed_)
-      throw new IllegalStateException("waitForAllTasks() has already been called");
-    
-    closed_ = true;
-
-    while(taskCnt_>0)
+    lock_.lock();
+    try
     {
-      taskCnt_--;
+      if(closed_)
+        throw new IllegalStateException("waitForAllTasks() has already been called");
       
-      try
-      {
-        remove(completionService_.take());
-      }
-      catch (InterruptedException e)
+      closed_ = true;
+  
+      while(taskCnt_>0)
       {
-        throw new IllegalStateException("Batch task failed", e);
+        taskCnt_--;
+        
+        try
+        {
+          remove(completionService_.take());
+        }
+        catch (InterruptedException e)
+        {
+          throw new IllegalStateException("Batch task failed", e);
+        }
       }
     }
+    finally
+    {
+      lock_.unlock();
+    }
   }
   
 
@@ -182,44 +211,52 @@ public class ExecutorBatch<T extends Runnable> implements IBatch<T>
    * @return The number of incomplete tasks in the batch.
    */
   @Override
-  public synchronized Collection<T> waitForAllTasks(long timeoutMillis)
+  public Collection<T> waitForAllTasks(long timeoutMillis)
   {
-    log_.debug("Wait for " + timeoutMillis + ", taskCnt_=" + taskCnt_);
-    closed_ = true;
-    
-    long expiryTime = System.currentTimeMillis() + timeoutMillis;
-
-    while(taskCnt_>0)
+    lock_.lock();
+    try
     {
-      long timeout = expiryTime - System.currentTimeMillis();
-      
-      if(timeout < 1)
-      {
-        log_.debug("Time is up, taskCnt=" + taskCnt_);
-        return new ArrayList<T>(taskList_);
-      }
+      log_.debug("Wait for " + timeoutMillis + ", taskCnt_=" + taskCnt_);
+      closed_ = true;
       
-      try
+      long expiryTime = System.currentTimeMillis() + timeoutMillis;
+  
+      while(taskCnt_>0)
       {
-        Future<T> future = completionService_.poll(timeout, TimeUnit.MILLISECONDS);
+        long timeout = expiryTime - System.currentTimeMillis();
         
-        if(future == null)
+        if(timeout < 1)
         {
-          log_.debug("All done, taskCnt=" + taskCnt_);
+          log_.debug("Time is up, taskCnt=" + taskCnt_);
           return new ArrayList<T>(taskList_);
         }
-
-        taskCnt_--;
         
-        remove(future);
-      }
-      catch (InterruptedException e)
-      {
-        throw new IllegalStateException("Batch task failed", e);
+        try
+        {
+          Future<T> future = completionService_.poll(timeout, TimeUnit.MILLISECONDS);
+          
+          if(future == null)
+          {
+            log_.debug("All done, taskCnt=" + taskCnt_);
+            return new ArrayList<T>(taskList_);
+          }
+  
+          taskCnt_--;
+          
+          remove(future);
+        }
+        catch (InterruptedException e)
+        {
+          throw new IllegalStateException("Batch task failed", e);
+        }
       }
+      log_.debug("All done2, taskCnt_=" + taskCnt_);
+      
+      return new ArrayList<T>(taskList_);
+    }
+    finally
+    {
+      lock_.unlock();
     }
-    log_.debug("All done2, taskCnt_=" + taskCnt_);
-    
-    return new ArrayList<T>(taskList_);
   }
 }
@@ -0,0 +1,246 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
+
+/**
+ * An ExecutorService which runs each task on its own thread, with the number of tasks running
+ * at once limited by a semaphore rather than by the size of a thread pool.
+ * 
+ * When running on a JVM which supports virtual threads (Java 21 or later) each task runs on a new
+ * virtual thread, otherwise threads are taken from an unbounded cached pool and retired when idle.
+ * 
+ * A task which is submitted when the limit has been reached waits for a permit on its own thread,
+ * so execute never blocks, and waiting tasks are run in approximately the order in which they were
+ * submitted. This means that with platform threads a burst of submissions creates a thread for each
+ * waiting task, callers are expected to bound the number of outstanding tasks themselves.
+ * 
+ * @author Bruce Skingle
+ */
+@ThreadSafe
+public class ElasticExecutor extends AbstractExecutorService
+{
+  private static final Logger          log_                      = LoggerFactory.getLogger(ElasticExecutor.class);
+  private static final Method          VIRTUAL_EXECUTOR_FACTORY  = findVirtualExecutorFactory();
+
+  private final ExecutorService        delegate_;
+  private final boolean                virtual_;
+  private final int                    maxConcurrency_;
+  private final Semaphore              permits_;
+  private final AtomicInteger          waitingCount_             = new AtomicInteger();
+
+  /**
+   * Constructor.
+   * 
+   * @param name            The name prefix for platform threads.
+   * @param maxConcurrency  The maximum number of tasks which may run at once.
+   * @param allowVirtual    If true then use virtual threads if they are supported by the JVM.
+   */
+  public ElasticExecutor(String name, int maxConcurrency, boolean allowVirtual)
+  {
+    if(maxConcurrency < 1)
+      throw new IllegalArgumentException("maxConcurrency must be positive");
+    
+    ExecutorService virtualExecutor = allowVirtual ? createVirtualExecutor() : null;
+    
+    virtual_        = virtualExecutor != null;
+    delegate_       = virtual_ ? virtualExecutor : Executors.newCachedThreadPool(new NamedThreadFactory(name, true));
+    maxConcurrency_ = maxConcurrency;
+    permits_        = new Semaphore(maxConcurrency, true);
+  }
+  
+  private static Method findVirtualExecutorFactory()
+  {
+    try
+    {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    }
+    catch(NoSuchMethodException e)
+    {
+      return null;
+    }
+  }
+  
+  private static ExecutorService createVirtualExecutor()
+  {
+    if(VIRTUAL_EXECUTOR_FACTORY == null)
+    {
+      log_.info("Virtual threads are not supported, using platform threads");
+      
+      return null;
+    }
+    
+    try
+    {
+      return (ExecutorService) VIRTUAL_EXECUTOR_FACTORY.invoke(null);
+    }
+    catch(IllegalAccessException | InvocationTargetException e)
+    {
+      log_.warn("Unable to create virtual thread executor, using platform threads", e);
+      
+      return null;
+    }
+  }
+  
+  /**
+   * 
+   * @return True if virtual threads are supported by the running JVM.
+   */
+  public static boolean isVirtualThreadSupported()
+  {
+    return VIRTUAL_EXECUTOR_FACTORY != null;
+  }
+
+  @Override
+  public void execute(Runnable command)
+  {
+    waitingCount_.incrementAndGet();
+    
+    try
+    {
+      delegate_.execute(() -> run(command));
+    }
+    catch(RejectedExecutionException e)
+    {
+      waitingCount_.decrementAndGet();
+      
+      throw e;
+    }
+  }
+  
+  private void run(Runnable command)
+  {
+    try
+    {
+      permits_.acquire();
+    }
+    catch(InterruptedException e)
+    {
+      waitingCount_.decrementAndGet();
+      
+      // We are being shut down, make sure that anyone waiting for the task finds out.
+      if(command instanceof Future)
+        ((Future<?>)command).cancel(false);
+      
+      Thread.currentThread().interrupt();
+      
+      return;
+    }
+    
+    waitingCount_.decrementAndGet();
+    
+    try
+    {
+      command.run();
+    }
+    finally
+    {
+      permits_.release();
+    }
+  }
+
+  /**
+   * 
+   * @return True if tasks run on virtual threads.
+   */
+  public boolean isVirtual()
+  {
+    return virtual_;
+  }
+
+  /**
+   * 
+   * @return The maximum number of tasks which may run at once.
+   */
+  public int getMaxConcurrency()
+  {
+    return maxConcurrency_;
+  }
+
+  /**
+   * 
+   * @return The number of tasks which are currently running.
+   */
+  public int getActiveCount()
+  {
+    return maxConcurrency_ - permits_.availablePermits();
+  }
+
+  /**
+   * 
+   * @return The number of tasks which have been submitted and are waiting for a permit to run.
+   */
+  public int getWaitingCount()
+  {
+    return waitingCount_.get();
+  }
+
+  @Override
+  public void shutdown()
+  {
+    delegate_.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow()
+  {
+    return delegate_.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown()
+  {
+    return delegate_.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated()
+  {
+    return delegate_.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return delegate_.awaitTermination(timeout, unit);
+  }
+}
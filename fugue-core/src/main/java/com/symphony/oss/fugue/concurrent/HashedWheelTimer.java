@@ -0,0 +1,367 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
+
+/**
+ * A timer which runs tasks after a delay, based on a hashed timing wheel.
+ * 
+ * The wheel is an array of buckets, each of which covers one tick. A task is placed in the bucket for its
+ * deadline together with the number of complete rotations of the wheel which must pass before it expires,
+ * so scheduling and cancelling a task take constant time whatever the number of pending tasks, unlike a
+ * heap based delay queue. The price is that tasks run up to one tick late.
+ * 
+ * Scheduling and cancellation never block, they queue the change for the timer thread which applies
+ * it on the next tick. Expired tasks run on the timer thread and must therefore be short, any task
+ * which might block should hand off to an executor.
+ * 
+ * The timer thread is a daemon thread which is started when the first task is scheduled. Ticks are
+ * counted from the construction of the timer.
+ * 
+ * @author Bruce Skingle
+ */
+@ThreadSafe
+public class HashedWheelTimer
+{
+  private static final Logger     log_          = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+  private static final int        PENDING       = 0;
+  private static final int        CANCELLED     = 1;
+  private static final int        EXPIRED       = 2;
+
+  private final String            name_;
+  private final long              tickNanos_;
+  private final Bucket[]          wheel_;
+  private final int               mask_;
+  private final Queue<Timeout>    additions_    = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout>    cancellations_ = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger     pendingCount_ = new AtomicInteger();
+  private final AtomicBoolean     started_      = new AtomicBoolean();
+  private final long              startTime_    = System.nanoTime();
+  private volatile boolean        stopped_;
+  private long                    tick_;
+
+  /**
+   * Constructor.
+   * 
+   * @param name        The name of the timer thread.
+   * @param tickMillis  The duration of one tick in milliseconds, which is the resolution of the timer.
+   * @param wheelSize   The number of buckets in the wheel, which is rounded up to a power of 2.
+   */
+  public HashedWheelTimer(String name, long tickMillis, int wheelSize)
+  {
+    if(tickMillis < 1)
+      throw new IllegalArgumentException("tickMillis must be positive");
+    
+    if(wheelSize < 1 || wheelSize > 1 << 30)
+      throw new IllegalArgumentException("wheelSize must be between 1 and 2^30");
+    
+    int size = Integer.highestOneBit(wheelSize);
+    
+    if(size < wheelSize)
+      size <<= 1;
+    
+    name_       = name;
+    tickNanos_  = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    wheel_      = new Bucket[size];
+    mask_       = size - 1;
+    
+    for(int i=0 ; i<size ; i++)
+      wheel_[i] = new Bucket();
+  }
+  
+  /**
+   * Schedule the given task to run after the given delay.
+   * 
+   * @param task        The task to run.
+   * @param delayMillis The delay in milliseconds.
+   * 
+   * @return A handle through which the task may be cancelled.
+   * 
+   * @throws IllegalStateException If the timer has been stopped.
+   */
+  public Timeout schedule(Runnable task, long delayMillis)
+  {
+    if(stopped_)
+      throw new IllegalStateException("Timer " + name_ + " has been stopped");
+    
+    start();
+    
+    Timeout timeout = new Timeout(task, System.nanoTime() - startTime_ + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+    
+    pendingCount_.incrementAndGet();
+    additions_.add(timeout);
+    
+    return timeout;
+  }
+  
+  private void start()
+  {
+    if(started_.compareAndSet(false, true))
+      new NamedThreadFactory(name_, true).newThread(() -> run()).start();
+  }
+  
+  /**
+   * Stop the timer, pending tasks will not be run.
+   * 
+   * @return The number of pending tasks which were abandoned.
+   */
+  public int stop()
+  {
+    stopped_ = true;
+    
+    return pendingCount_.get();
+  }
+  
+  /**
+   * 
+   * @return The number of tasks which have been scheduled and have neither run nor been cancelled.
+   */
+  public int getPendingCount()
+  {
+    return pendingCount_.get();
+  }
+  
+  private void run()
+  {
+    while(!stopped_)
+    {
+      long deadline = tickNanos_ * (tick_ + 1);
+      long sleep    = deadline - (System.nanoTime() - startTime_);
+      
+      if(sleep > 0)
+      {
+        try
+        {
+          TimeUnit.NANOSECONDS.sleep(sleep);
+        }
+        catch(InterruptedException e)
+        {
+          log_.warn("Timer " + name_ + " interrupted, stopping");
+          stopped_ = true;
+          return;
+        }
+        
+        continue;
+      }
+      
+      processCancellations();
+      transferAdditions();
+      
+      wheel_[(int)(tick_ & mask_)].expire();
+      
+      tick_++;
+    }
+  }
+  
+  private void processCancellations()
+  {
+    Timeout timeout;
+    
+    while((timeout = cancellations_.poll()) != null)
+    {
+      if(timeout.bucket_ != null)
+        timeout.bucket_.remove(timeout);
+    }
+  }
+  
+  private void transferAdditions()
+  {
+    Timeout timeout;
+    
+    // Bound the work per tick in case tasks are being added faster than we can process them.
+    for(int i=0 ; i<100000 && (timeout = additions_.poll()) != null ; i++)
+    {
+      if(timeout.state_.get() != PENDING)
+        continue;
+      
+      long calculated = timeout.deadline_ / tickNanos_;
+      
+      timeout.remainingRounds_ = (calculated - tick_) / wheel_.length;
+      
+      // Anything already overdue goes in the current bucket.
+      wheel_[(int)(Math.max(calculated, tick_) & mask_)].add(timeout);
+    }
+  }
+  
+  /**
+   * A handle on a scheduled task.
+   */
+  public class Timeout
+  {
+    private final Runnable      task_;
+    private final long          deadline_;
+    private final AtomicInteger state_ = new AtomicInteger(PENDING);
+    
+    // These fields are accessed only by the timer thread.
+    private long                remainingRounds_;
+    private Bucket              bucket_;
+    private Timeout             next_;
+    private Timeout             prev_;
+    
+    private Timeout(Runnable task, long deadline)
+    {
+      task_     = task;
+      deadline_ = deadline;
+    }
+    
+    /**
+     * Cancel the task.
+     * 
+     * @return True if the task was cancelled, false if it has already run or been cancelled.
+     */
+    public boolean cancel()
+    {
+      if(!state_.compareAndSet(PENDING, CANCELLED))
+        return false;
+      
+      pendingCount_.decrementAndGet();
+      cancellations_.add(this);
+      
+      return true;
+    }
+    
+    /**
+     * 
+     * @return True if the task has been cancelled.
+     */
+    public boolean isCancelled()
+    {
+      return state_.get() == CANCELLED;
+    }
+    
+    /**
+     * 
+     * @return True if the task has run.
+     */
+    public boolean isExpired()
+    {
+      return state_.get() == EXPIRED;
+    }
+    
+    private void expire()
+    {
+      if(!state_.compareAndSet(PENDING, EXPIRED))
+        return;
+      
+      pendingCount_.decrementAndGet();
+      
+      try
+      {
+        task_.run();
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Timer task failed", e);
+      }
+    }
+  }
+  
+  /*
+   * A doubly linked list of timeouts, accessed only by the timer thread.
+   */
+  private static class Bucket
+  {
+    private Timeout head_;
+    private Timeout tail_;
+    
+    void add(Timeout timeout)
+    {
+      timeout.bucket_ = this;
+      
+      if(head_ == null)
+      {
+        head_ = tail_ = timeout;
+      }
+      else
+      {
+        tail_.next_ = timeout;
+        timeout.prev_ = tail_;
+        tail_ = timeout;
+      }
+    }
+    
+    void expire()
+    {
+      Timeout timeout = head_;
+      
+      while(timeout != null)
+      {
+        Timeout next = timeout.next_;
+        
+        if(timeout.remainingRounds_ <= 0)
+        {
+          remove(timeout);
+          timeout.expire();
+        }
+        else if(timeout.isCancelled())
+        {
+          remove(timeout);
+        }
+        else
+        {
+          timeout.remainingRounds_--;
+        }
+        
+        timeout = next;
+      }
+    }
+    
+    void remove(Timeout timeout)
+    {
+      if(timeout.bucket_ != this)
+        return;
+      
+      Timeout next = timeout.next_;
+      
+      if(timeout.prev_ != null)
+        timeout.prev_.next_ = next;
+      
+      if(next != null)
+        next.prev_ = timeout.prev_;
+      
+      if(timeout == head_)
+        head_ = next;
+      
+      if(timeout == tail_)
+        tail_ = timeout.prev_;
+      
+      timeout.prev_   = null;
+      timeout.next_   = null;
+      timeout.bucket_ = null;
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a delegate Executor such that tasks with the same key run one at a time in the
+ * order in which they were submitted, while tasks with different keys run concurrently.
+ * 
+ * Each key has a FIFO lane which exists only while it has tasks, so the number of lanes never
+ * exceeds the number of pending tasks. The total number of pending tasks is limited and execute
+ * blocks until the limit allows another task to be accepted.
+ * 
+ * A lane submits one task at a time to the delegate and goes to the back of the delegate queue
+ * again after each task, so a key with a large backlog can not starve other keys.
+ * 
+ * @author Bruce Skingle
+ */
+@ThreadSafe
+public class KeyedSerialExecutor
+{
+  private static final Logger     log_        = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+  private final Executor          delegate_;
+  private final int               maxPending_;
+  private final ReentrantLock     lock_       = new ReentrantLock();
+  private final Condition         notFull_    = lock_.newCondition();
+  private final Map<Object, Lane> lanes_      = new HashMap<>();
+  private int                     pendingCount_;
+
+  /**
+   * Constructor.
+   * 
+   * @param delegate    The executor on which tasks are run.
+   * @param maxPending  The maximum number of tasks which may be queued or running at once.
+   */
+  public KeyedSerialExecutor(Executor delegate, int maxPending)
+  {
+    if(maxPending < 1)
+      throw new IllegalArgumentException("maxPending must be positive");
+    
+    delegate_   = delegate;
+    maxPending_ = maxPending;
+  }
+
+  /**
+   * Execute the given task after all previously submitted tasks with the same key have completed.
+   * 
+   * A task with a null key has no ordering constraint and is passed directly to the delegate.
+   * 
+   * @param key   The ordering key for the task, or null.
+   * @param task  The task to execute.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting for the pending limit.
+   * @throws RejectedExecutionException If the delegate rejects the task.
+   */
+  public void execute(@Nullable Object key, Runnable task) throws InterruptedException
+  {
+    if(key == null)
+    {
+      delegate_.execute(task);
+      return;
+    }
+    
+    Lane lane;
+    
+    lock_.lock();
+    try
+    {
+      while(pendingCount_ >= maxPending_)
+        notFull_.await();
+      
+      pendingCount_++;
+      
+      lane = lanes_.get(key);
+      
+      if(lane != null)
+      {
+        // The lane is already scheduled and will pick this task up in turn.
+        lane.tasks_.add(task);
+        return;
+      }
+      
+      lane = new Lane(key);
+      lane.tasks_.add(task);
+      lanes_.put(key, lane);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+    
+    try
+    {
+      delegate_.execute(lane);
+    }
+    catch(RejectedExecutionException e)
+    {
+      discard(lane);
+      
+      throw e;
+    }
+  }
+
+  private void discard(Lane lane)
+  {
+    int discarded;
+    
+    lock_.lock();
+    try
+    {
+      lanes_.remove(lane.key_);
+      discarded = lane.tasks_.size();
+      pendingCount_ -= discarded;
+      notFull_.signalAll();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+    
+    log_.warn("Delegate rejected lane for key " + lane.key_ + ", discarding " + discarded + " tasks");
+    
+    // Make sure that anyone waiting for these tasks finds out.
+    Runnable task;
+    
+    while((task = lane.tasks_.poll()) != null)
+    {
+      if(task instanceof Future)
+        ((Future<?>)task).cancel(false);
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of tasks with a non-null key which are queued or running.
+   */
+  public int getPendingCount()
+  {
+    lock_.lock();
+    try
+    {
+      return pendingCount_;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of keys which currently have tasks queued or running.
+   */
+  public int getKeyCount()
+  {
+    lock_.lock();
+    try
+    {
+      return lanes_.size();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The maximum number of tasks which may be queued or running at once.
+   */
+  public int getMaxPending()
+  {
+    return maxPending_;
+  }
+  
+  private class Lane implements Runnable
+  {
+    private final Object               key_;
+    private final ArrayDeque<Runnable> tasks_ = new ArrayDeque<>();
+    
+    private Lane(Object key)
+    {
+      key_ = key;
+    }
+
+    @Override
+    public void run()
+    {
+      Runnable task;
+      
+      lock_.lock();
+      try
+      {
+        // The head of the lane stays queued until it completes so that the lane is not removed.
+        task = tasks_.peek();
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+      
+      try
+      {
+        task.run();
+      }
+      finally
+      {
+        boolean more;
+        
+        lock_.lock();
+        try
+        {
+          tasks_.poll();
+          pendingCount_--;
+          notFull_.signal();
+          
+          more = !tasks_.isEmpty();
+          
+          if(!more)
+            lanes_.remove(key_);
+        }
+        finally
+        {
+          lock_.unlock();
+        }
+        
+        if(more)
+        {
+          try
+          {
+            delegate_.execute(this);
+          }
+          catch(RejectedExecutionException e)
+          {
+            // The delegate is shutting down, there is nobody to throw this to.
+            discard(this);
+          }
+        }
+      }
+    }
+  }
+}
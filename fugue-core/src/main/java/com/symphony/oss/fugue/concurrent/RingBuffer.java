@@ -0,0 +1,185 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A bounded, lock free, multiple producer multiple consumer queue.
+ * 
+ * Each slot has a sequence number which records whether it is ready to be written or read for a given
+ * position, so producers and consumers only contend on a compare and set of the tail or head position
+ * respectively. Neither offer nor poll ever blocks, callers which need to wait for space or for an
+ * item must implement their own back off.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of the elements.
+ */
+@ThreadSafe
+public class RingBuffer<T>
+{
+  private final int                     capacity_;
+  private final int                     mask_;
+  private final AtomicReferenceArray<T> items_;
+  private final AtomicLongArray         sequences_;
+  private final AtomicLong              head_     = new AtomicLong();
+  private final AtomicLong              tail_     = new AtomicLong();
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity The minimum capacity of the buffer, which is rounded up to a power of 2.
+   */
+  public RingBuffer(int capacity)
+  {
+    if(capacity < 1 || capacity > (1 << 30))
+      throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+    
+    capacity_   = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+    mask_       = capacity_ - 1;
+    items_      = new AtomicReferenceArray<>(capacity_);
+    sequences_  = new AtomicLongArray(capacity_);
+    
+    for(int i=0 ; i<capacity_ ; i++)
+      sequences_.set(i, i);
+  }
+
+  /**
+   * Add an item to the tail of the buffer if there is space.
+   * 
+   * @param item The item to be added.
+   * 
+   * @return true if the item was added, false if the buffer is full.
+   */
+  public boolean offer(T item)
+  {
+    if(item == null)
+      throw new NullPointerException("item");
+    
+    long position = tail_.get();
+    
+    for(;;)
+    {
+      int   index     = (int)position & mask_;
+      long  available = sequences_.get(index) - position;
+      
+      if(available == 0)
+      {
+        if(tail_.compareAndSet(position, position + 1))
+        {
+          items_.lazySet(index, item);
+          sequences_.lazySet(index, position + 1);
+          
+          return true;
+        }
+        
+        position = tail_.get();
+      }
+      else if(available < 0)
+      {
+        // The slot has not been read since the last time round.
+        return false;
+      }
+      else
+      {
+        position = tail_.get();
+      }
+    }
+  }
+
+  /**
+   * Remove the item at the head of the buffer.
+   * 
+   * @return The item at the head of the buffer, or null if it is empty.
+   */
+  public @Nullable T poll()
+  {
+    long position = head_.get();
+    
+    for(;;)
+    {
+      int   index     = (int)position & mask_;
+      long  available = sequences_.get(index) - (position + 1);
+      
+      if(available == 0)
+      {
+        if(head_.compareAndSet(position, position + 1))
+        {
+          T item = items_.get(index);
+          
+          items_.lazySet(index, null);
+          sequences_.lazySet(index, position + capacity_);
+          
+          return item;
+        }
+        
+        position = head_.get();
+      }
+      else if(available < 0)
+      {
+        // The slot has not been written yet.
+        return null;
+      }
+      else
+      {
+        position = head_.get();
+      }
+    }
+  }
+
+  /**
+   * 
+   * @return The approximate number of items in the buffer.
+   */
+  public int size()
+  {
+    long size = tail_.get() - head_.get();
+    
+    return (int)Math.max(0, Math.min(capacity_, size));
+  }
+
+  /**
+   * 
+   * @return true if the buffer is approximately empty.
+   */
+  public boolean isEmpty()
+  {
+    return size() == 0;
+  }
+
+  /**
+   * 
+   * @return The capacity of the buffer.
+   */
+  public int getCapacity()
+  {
+    return capacity_;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Coalesces concurrent identical calls so that only one of them is actually executed.
+ * 
+ * The first caller for a given key executes the call in its own thread, any other callers for the same key
+ * which arrive while that call is in flight wait for it and receive the same result or exception. Results
+ * are not cached, once the call completes the next caller for that key executes the call again.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <K> The type of the key which identifies identical calls.
+ * @param <V> The type of the result.
+ */
+@ThreadSafe
+public class SingleFlight<K, V>
+{
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight_       = new ConcurrentHashMap<>();
+  private final AtomicLong                                  executedCount_  = new AtomicLong();
+  private final AtomicLong                                  coalescedCount_ = new AtomicLong();
+
+  /**
+   * Execute the given call, or wait for an identical call which is already in flight.
+   * 
+   * @param key   The key identifying the call.
+   * @param call  The call to be made.
+   * 
+   * @return The result of the call.
+   * 
+   * @throws Exception Any exception thrown by the call, or InterruptedException if interrupted while waiting.
+   */
+  public V execute(K key, Callable<V> call) throws Exception
+  {
+    CompletableFuture<V> future   = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight_.putIfAbsent(key, future);
+    
+    if(existing != null)
+    {
+      coalescedCount_.incrementAndGet();
+      
+      try
+      {
+        return existing.get();
+      }
+      catch(ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+        
+        if(cause instanceof Error)
+          throw (Error)cause;
+        
+        if(cause instanceof Exception)
+          throw (Exception)cause;
+        
+        throw e;
+      }
+    }
+    
+    executedCount_.incrementAndGet();
+    
+    try
+    {
+      V result = call.call();
+      
+      // Remove before completing so that a caller arriving after completion makes a new call.
+      inFlight_.remove(key, future);
+      future.complete(result);
+      
+      return result;
+    }
+    catch(Throwable e)
+    {
+      inFlight_.remove(key, future);
+      future.completeExceptionally(e);
+      
+      throw e;
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of calls which were actually executed.
+   */
+  public long getExecutedCount()
+  {
+    return executedCount_.get();
+  }
+  
+  /**
+   * 
+   * @return The number of calls which were satisfied by waiting for an identical call.
+   */
+  public long getCoalescedCount()
+  {
+    return coalescedCount_.get();
+  }
+  
+  /**
+   * 
+   * @return The number of calls currently in flight.
+   */
+  public int getInFlightCount()
+  {
+    return inFlight_.size();
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pipeline;
+
+import com.symphony.oss.fugue.trace.ITraceContext;
+
+/**
+ * An item in a batch passed to an IThreadSafeBatchConsumer, through which the consumer reports the
+ * outcome of the item.
+ * 
+ * The outcomes correspond to the exceptions which an IThreadSafeRetryableConsumer may throw for a
+ * single item, and are handled in the same way.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of payload consumed.
+ */
+public class BatchConsumerItem<T>
+{
+  private final T             payload_;
+  private final ITraceContext trace_;
+  private Exception           outcome_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param payload The item to be consumed.
+   * @param trace   A trace context.
+   */
+  public BatchConsumerItem(T payload, ITraceContext trace)
+  {
+    payload_ = payload;
+    trace_   = trace;
+  }
+
+  /**
+   * 
+   * @return The item to be consumed.
+   */
+  public T getPayload()
+  {
+    return payload_;
+  }
+
+  /**
+   * 
+   * @return The trace context for the item.
+   */
+  public ITraceContext getTraceContext()
+  {
+    return trace_;
+  }
+  
+  /**
+   * The item could not be processed but a retry might be successful, the item is retried after the
+   * retry time of the given exception, without limit.
+   * 
+   * @param cause The reason for the failure.
+   */
+  public synchronized void retry(RetryableConsumerException cause)
+  {
+    outcome_ = cause;
+  }
+  
+  /**
+   * The item could not be processed, the item is retried a limited number of times after which
+   * it is treated as unprocessable.
+   * 
+   * @param cause The reason for the failure.
+   */
+  public synchronized void fail(RuntimeException cause)
+  {
+    outcome_ = cause;
+  }
+  
+  /**
+   * The item could not be processed and a retry is unlikely to be successful, the item is passed
+   * to the unprocessable message consumer.
+   * 
+   * @param cause The reason for the failure.
+   */
+  public synchronized void abort(FatalConsumerException cause)
+  {
+    outcome_ = cause;
+  }
+  
+  /**
+   * 
+   * @return True if retry, fail or abort has been called.
+   */
+  public synchronized boolean hasOutcome()
+  {
+    return outcome_ != null;
+  }
+  
+  /**
+   * Set the outcome of this item if it has not already been set.
+   * 
+   * @param cause The reason for the failure.
+   */
+  synchronized void setDefaultOutcome(Exception cause)
+  {
+    if(outcome_ == null)
+      outcome_ = cause;
+  }
+  
+  /**
+   * Throw the exception which an IThreadSafeRetryableConsumer would have thrown for this item.
+   * 
+   * @throws RetryableConsumerException If retry was called.
+   * @throws FatalConsumerException     If abort was called.
+   */
+  synchronized void complete() throws RetryableConsumerException, FatalConsumerException
+  {
+    if(outcome_ instanceof RetryableConsumerException)
+      throw (RetryableConsumerException)outcome_;
+    
+    if(outcome_ instanceof FatalConsumerException)
+      throw (FatalConsumerException)outcome_;
+    
+    if(outcome_ instanceof RuntimeException)
+      throw (RuntimeException)outcome_;
+  }
+}
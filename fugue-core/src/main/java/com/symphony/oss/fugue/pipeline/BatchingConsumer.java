@@ -0,0 +1,329 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.trace.ITraceContext;
+
+/**
+ * An IThreadSafeRetryableConsumer which passes items to an IThreadSafeBatchConsumer in batches.
+ * 
+ * Items passed to consume concurrently from different threads are collected into a batch, which
+ * is passed to the batch consumer when it reaches the maximum batch size or when the linger time has
+ * passed since the first item was added to it. The batch consumer is called on the thread which added
+ * the first item, and each call to consume returns, or throws the exception corresponding to the
+ * outcome of its item, when the batch has been processed.
+ * 
+ * This allows a batch consumer to be used anywhere an IThreadSafeRetryableConsumer can be, for example
+ * as the consumer of a subscription, where the handlers for the messages of each pull run concurrently
+ * and are combined into a single batch, and the outcome of each message is handled by the usual
+ * retry and dead letter processing. The number of items in a batch can not exceed the number of
+ * threads calling consume at once.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of payload consumed.
+ */
+public class BatchingConsumer<T> implements IThreadSafeRetryableConsumer<T>
+{
+  private final IThreadSafeBatchConsumer<T> consumer_;
+  private final int                         maxBatchSize_;
+  private final long                        lingerNanos_;
+  private final ReentrantLock               lock_          = new ReentrantLock();
+  private final Condition                   windowClosed_  = lock_.newCondition();
+  private final Condition                   batchDone_     = lock_.newCondition();
+  private final AtomicLong                  batchCount_    = new AtomicLong();
+  private final AtomicLong                  itemCount_     = new AtomicLong();
+  private Window<T>                         window_;
+
+  protected BatchingConsumer(AbstractBuilder<T,?,?> builder)
+  {
+    consumer_     = builder.consumer_;
+    maxBatchSize_ = builder.maxBatchSize_;
+    lingerNanos_  = TimeUnit.MILLISECONDS.toNanos(builder.lingerMillis_);
+  }
+  
+  private static class Window<T>
+  {
+    final List<BatchConsumerItem<T>> items_ = new ArrayList<>();
+    boolean                          closed_;
+    boolean                          done_;
+  }
+
+  @Override
+  public void consume(T item, ITraceContext trace) throws RetryableConsumerException, FatalConsumerException
+  {
+    BatchConsumerItem<T>  batchItem = new BatchConsumerItem<>(item, trace);
+    Window<T>             window;
+    boolean               leader;
+    
+    lock_.lock();
+    try
+    {
+      window = window_;
+      leader = window == null;
+      
+      if(leader)
+      {
+        window = new Window<>();
+        window_ = window;
+      }
+      
+      window.items_.add(batchItem);
+      
+      if(window.items_.size() >= maxBatchSize_)
+      {
+        close(window);
+        windowClosed_.signalAll();
+      }
+      
+      if(leader)
+        awaitClosed(window);
+      else
+        awaitDone(window);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+    
+    if(leader)
+      process(window);
+    
+    batchItem.complete();
+  }
+
+  /*
+   * Must be called while locked.
+   */
+  private void awaitClosed(Window<T> window)
+  {
+    try
+    {
+      long remaining = lingerNanos_;
+      
+      while(!window.closed_ && remaining > 0)
+        remaining = windowClosed_.awaitNanos(remaining);
+    }
+    catch(InterruptedException e)
+    {
+      // Nobody else will process this window so process it now.
+      Thread.currentThread().interrupt();
+    }
+    
+    close(window);
+  }
+  
+  /*
+   * Must be called while locked.
+   */
+  private void awaitDone(Window<T> window) throws RetryableConsumerException
+  {
+    try
+    {
+      while(!window.done_)
+        batchDone_.await();
+    }
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      
+      throw new RetryableConsumerException("Interrupted waiting for batch", e);
+    }
+  }
+
+  /*
+   * Must be called while locked, no further items are added to a window once it is closed.
+   */
+  private void close(Window<T> window)
+  {
+    window.closed_ = true;
+    
+    if(window_ == window)
+      window_ = null;
+  }
+  
+  private void process(Window<T> window)
+  {
+    batchCount_.incrementAndGet();
+    itemCount_.addAndGet(window.items_.size());
+    
+    try
+    {
+      consumer_.consume(window.items_);
+    }
+    catch(RetryableConsumerException | FatalConsumerException | RuntimeException e)
+    {
+      for(BatchConsumerItem<T> item : window.items_)
+        item.setDefaultOutcome(e);
+    }
+    catch(Error e)
+    {
+      IllegalStateException cause = new IllegalStateException("Batch consumer failed", e);
+      
+      for(BatchConsumerItem<T> item : window.items_)
+        item.setDefaultOutcome(cause);
+      
+      throw e;
+    }
+    finally
+    {
+      lock_.lock();
+      try
+      {
+        window.done_ = true;
+        batchDone_.signalAll();
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    consumer_.close();
+  }
+  
+  /**
+   * 
+   * @return The number of batches passed to the batch consumer.
+   */
+  public long getBatchCount()
+  {
+    return batchCount_.get();
+  }
+  
+  /**
+   * 
+   * @return The number of items passed to the batch consumer.
+   */
+  public long getItemCount()
+  {
+    return itemCount_.get();
+  }
+  
+  /**
+   * Builder for BatchingConsumer.
+   * 
+   * @author Bruce Skingle
+   *
+   * @param <T> The type of payload consumed.
+   */
+  public static class Builder<T> extends AbstractBuilder<T, Builder<T>, BatchingConsumer<T>>
+  {
+    /**
+     * Constructor.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Builder()
+    {
+      super((Class<Builder<T>>) (Class) Builder.class);
+    }
+
+    @Override
+    protected BatchingConsumer<T> construct()
+    {
+      return new BatchingConsumer<>(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T, B extends AbstractBuilder<T,B,C>, C extends BatchingConsumer<T>> extends BaseAbstractBuilder<B,C>
+  {
+    protected IThreadSafeBatchConsumer<T> consumer_;
+    protected int                         maxBatchSize_ = 25;
+    protected long                        lingerMillis_ = 5;
+
+    protected AbstractBuilder(Class<B> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(consumer_, "consumer");
+      
+      if(maxBatchSize_ < 1)
+        faultAccumulator.error("maxBatchSize must be positive");
+      
+      if(lingerMillis_ < 0)
+        faultAccumulator.error("lingerMillis must not be negative");
+    }
+
+    /**
+     * Set the batch consumer.
+     * 
+     * @param consumer The consumer to which batches are passed.
+     * 
+     * @return This (fluent method).
+     */
+    public B withConsumer(IThreadSafeBatchConsumer<T> consumer)
+    {
+      consumer_ = consumer;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of items in a batch, the default is 25.
+     * 
+     * @param maxBatchSize The maximum number of items in a batch.
+     * 
+     * @return This (fluent method).
+     */
+    public B withMaxBatchSize(int maxBatchSize)
+    {
+      maxBatchSize_ = maxBatchSize;
+      
+      return self();
+    }
+
+    /**
+     * Set the time to wait for a batch to fill, the default is 5ms.
+     * 
+     * @param lingerMillis The maximum time to wait after the first item is added to a batch before it is processed.
+     * 
+     * @return This (fluent method).
+     */
+    public B withLingerMillis(long lingerMillis)
+    {
+      lingerMillis_ = lingerMillis;
+      
+      return self();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pipeline;
+
+import java.util.List;
+
+/**
+ * A thread safe consumer of batches of some payload which supports retries.
+ * 
+ * The outcome of each item in a batch is reported individually by calling retry, fail or abort
+ * on the item. Items for which none of these methods is called have been processed successfully.
+ * 
+ * Implementations of this interface <b>MUST</b> be thread safe, callers can safely call the consume
+ * method multiple times concurrently from different threads.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of payload consumed.
+ */
+public interface IThreadSafeBatchConsumer<T> extends ICloseableConsumer
+{
+  /**
+   * Consume the given batch of items.
+   * 
+   * If this method throws an exception then it is the outcome of every item in the batch
+   * whose outcome has not already been set.
+   * 
+   * @param batch The items to be consumed.
+   * 
+   * @throws RetryableConsumerException If the consumer failed to process the batch but
+   * a retry might be successful.
+   * 
+   * @throws FatalConsumerException If the consumer failed to process the batch and
+   * a retry is unlikely to be be successful. 
+   */
+  void consume(List<BatchConsumerItem<T>> batch) throws RetryableConsumerException, FatalConsumerException;
+}
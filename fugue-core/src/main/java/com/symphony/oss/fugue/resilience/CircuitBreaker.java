@@ -0,0 +1,205 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.resilience;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A count based circuit breaker.
+ * 
+ * The outcomes of the most recent calls are kept in a sliding window. When the window holds at least
+ * minimumCalls outcomes and the percentage of failures reaches the threshold the circuit opens and all
+ * calls are rejected for the open period. After that a limited number of trial calls are allowed, if
+ * they all succeed the circuit closes again, if any fails it opens for another period.
+ * 
+ * @author Bruce Skingle
+ */
+@ThreadSafe
+public class CircuitBreaker
+{
+  private static final Logger log_ = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  private final String    name_;
+  private final boolean[] window_;
+  private final int       minimumCalls_;
+  private final int       failureRateThreshold_;
+  private final long      openMillis_;
+  private final int       halfOpenCalls_;
+
+  private CircuitState    state_ = CircuitState.CLOSED;
+  private int             windowPos_;
+  private int             windowCount_;
+  private int             failureCount_;
+  private long            openUntil_;
+  private int             halfOpenPermits_;
+  private int             halfOpenSuccesses_;
+
+  /**
+   * Constructor.
+   * 
+   * @param name                  A name for log messages.
+   * @param windowSize            The number of recent calls whose outcomes are considered.
+   * @param minimumCalls          The minimum number of outcomes needed before the circuit can open.
+   * @param failureRateThreshold  The percentage of failures at which the circuit opens.
+   * @param openMillis            The time in milliseconds for which the circuit stays open.
+   * @param halfOpenCalls         The number of successful trial calls needed to close the circuit.
+   */
+  public CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRateThreshold, long openMillis, int halfOpenCalls)
+  {
+    if(windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize)
+      throw new IllegalArgumentException("minimumCalls must be between 1 and windowSize");
+    
+    if(failureRateThreshold < 1 || failureRateThreshold > 100)
+      throw new IllegalArgumentException("failureRateThreshold must be between 1 and 100");
+    
+    if(halfOpenCalls < 1)
+      throw new IllegalArgumentException("halfOpenCalls must be positive");
+    
+    name_                 = name;
+    window_               = new boolean[windowSize];
+    minimumCalls_         = minimumCalls;
+    failureRateThreshold_ = failureRateThreshold;
+    openMillis_           = openMillis;
+    halfOpenCalls_        = halfOpenCalls;
+  }
+  
+  /**
+   * Request permission to make a call.
+   * 
+   * If this method returns true the caller must report the outcome by calling either onSuccess() or onFailure().
+   * 
+   * @return true if the call may proceed, false if it should be rejected.
+   */
+  public synchronized boolean tryAcquire()
+  {
+    switch(state_)
+    {
+      case CLOSED:
+        return true;
+        
+      case OPEN:
+        if(System.currentTimeMillis() < openUntil_)
+          return false;
+        
+        log_.info("Circuit breaker " + name_ + " is half open");
+        state_              = CircuitState.HALF_OPEN;
+        halfOpenPermits_    = halfOpenCalls_;
+        halfOpenSuccesses_  = 0;
+        // FALL THROUGH
+        
+      case HALF_OPEN:
+      default:
+        if(halfOpenPermits_ > 0)
+        {
+          halfOpenPermits_--;
+          return true;
+        }
+        return false;
+    }
+  }
+  
+  /**
+   * Record a successful call.
+   */
+  public synchronized void onSuccess()
+  {
+    if(state_ == CircuitState.HALF_OPEN)
+    {
+      if(++halfOpenSuccesses_ >= halfOpenCalls_)
+      {
+        log_.info("Circuit breaker " + name_ + " is closed");
+        state_ = CircuitState.CLOSED;
+        resetWindow();
+      }
+    }
+    else if(state_ == CircuitState.CLOSED)
+    {
+      record(false);
+    }
+  }
+  
+  /**
+   * Record a failed call.
+   */
+  public synchronized void onFailure()
+  {
+    if(state_ == CircuitState.HALF_OPEN)
+    {
+      open();
+    }
+    else if(state_ == CircuitState.CLOSED)
+    {
+      record(true);
+      
+      if(windowCount_ >= minimumCalls_ && failureCount_ * 100 >= failureRateThreshold_ * windowCount_)
+        open();
+    }
+  }
+  
+  /**
+   * 
+   * @return The current state.
+   */
+  public synchronized CircuitState getState()
+  {
+    return state_;
+  }
+  
+  private void open()
+  {
+    log_.warn("Circuit breaker " + name_ + " is open for " + openMillis_ + "ms, " + failureCount_ + " failures in " + windowCount_ + " calls");
+    state_      = CircuitState.OPEN;
+    openUntil_  = System.currentTimeMillis() + openMillis_;
+  }
+  
+  private void record(boolean failure)
+  {
+    if(windowCount_ == window_.length)
+    {
+      if(window_[windowPos_])
+        failureCount_--;
+    }
+    else
+    {
+      windowCount_++;
+    }
+    
+    window_[windowPos_] = failure;
+    
+    if(failure)
+      failureCount_++;
+    
+    windowPos_ = (windowPos_ + 1) % window_.length;
+  }
+  
+  private void resetWindow()
+  {
+    windowPos_    = 0;
+    windowCount_  = 0;
+    failureCount_ = 0;
+  }
+}
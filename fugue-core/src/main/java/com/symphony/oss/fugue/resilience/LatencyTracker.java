@@ -0,0 +1,86 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.resilience;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Tracks the latency of recent calls so that a percentile can be used as a hedging delay.
+ * 
+ * @author Bruce Skingle
+ */
+@ThreadSafe
+class LatencyTracker
+{
+  private static final int RECALCULATE_INTERVAL = 64;
+
+  private final long[]  samples_;
+  private final int     percentile_;
+  private int           pos_;
+  private int           count_;
+  private int           sinceRecalculate_;
+  private long          value_ = -1;
+
+  LatencyTracker(int sampleSize, int percentile)
+  {
+    samples_    = new long[sampleSize];
+    percentile_ = percentile;
+  }
+  
+  synchronized void record(long latencyMillis)
+  {
+    samples_[pos_] = latencyMillis;
+    pos_ = (pos_ + 1) % samples_.length;
+    
+    if(count_ < samples_.length)
+      count_++;
+    
+    sinceRecalculate_++;
+  }
+  
+  /**
+   * 
+   * @return The configured percentile of recent latencies in milliseconds, or -1 if there are not yet enough samples.
+   */
+  synchronized long getPercentile()
+  {
+    if(count_ < RECALCULATE_INTERVAL)
+      return -1;
+    
+    // Sorting on every call would be expensive so we only do it every so often.
+    if(value_ == -1 || sinceRecalculate_ >= RECALCULATE_INTERVAL)
+    {
+      long[] sorted = Arrays.copyOf(samples_, count_);
+      
+      Arrays.sort(sorted);
+      
+      value_            = sorted[Math.min(count_ - 1, (count_ * percentile_) / 100)];
+      sinceRecalculate_ = 0;
+    }
+    
+    return value_;
+  }
+}
@@ -0,0 +1,695 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.resilience;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.IFugueComponent;
+import com.symphony.oss.fugue.config.IConfiguration;
+
+/**
+ * Executes calls to a remote service with per call deadlines, hedging of idempotent calls and a circuit breaker.
+ * 
+ * When hedging is enabled an idempotent call which has not completed after the hedge delay is duplicated, and
+ * the first successful result is returned. The hedge delay is the configured percentile of recent call latencies,
+ * bounded by the minimum and maximum hedge delays.
+ * 
+ * When the circuit breaker is enabled calls fail fast with a CircuitOpenException while the recent failure rate is
+ * above the threshold.
+ * 
+ * A hedged call, or one which exceeds its deadline, may still produce a result after the caller has been given
+ * another result or an exception. Where the result holds a resource, such as an open stream, a discard function
+ * can be given which is called for every result which is not returned to the caller.
+ * 
+ * Counts of calls, hedges, deadline failures and rejections are kept for monitoring.
+ * 
+ * @author Bruce Skingle
+ */
+public class ResilientExecutor implements IFugueComponent
+{
+  private static final Logger log_ = LoggerFactory.getLogger(ResilientExecutor.class);
+  
+  /** A failure predicate which treats every exception as a failure. */
+  public static final Predicate<Exception> ALL_FAILURES = (e) -> true;
+
+  private final String                name_;
+  private final boolean               hedgeEnabled_;
+  private final long                  minHedgeDelay_;
+  private final long                  maxHedgeDelay_;
+  private final long                  deadline_;
+  private final CircuitBreaker        circuitBreaker_;
+  private final LatencyTracker        latencyTracker_;
+  private final ThreadPoolExecutor    executor_;
+
+  private final AtomicLong            callCount_              = new AtomicLong();
+  private final AtomicLong            failureCount_           = new AtomicLong();
+  private final AtomicLong            hedgeCount_             = new AtomicLong();
+  private final AtomicLong            hedgeWinCount_          = new AtomicLong();
+  private final AtomicLong            deadlineExceededCount_  = new AtomicLong();
+  private final AtomicLong            rejectedCount_          = new AtomicLong();
+
+  protected ResilientExecutor(AbstractBuilder<?,?> builder)
+  {
+    name_           = builder.name_;
+    hedgeEnabled_   = builder.hedgeEnabled_;
+    minHedgeDelay_  = builder.minHedgeDelay_;
+    maxHedgeDelay_  = builder.maxHedgeDelay_;
+    deadline_       = builder.deadline_;
+    latencyTracker_ = new LatencyTracker(builder.latencySampleSize_, builder.hedgePercentile_);
+    circuitBreaker_ = builder.circuitBreakerEnabled_ ?
+        new CircuitBreaker(name_, builder.windowSize_, builder.minimumCalls_, builder.failureRateThreshold_, builder.openMillis_, builder.halfOpenCalls_) :
+        null;
+    
+    // If the pool is exhausted the call runs in the caller's thread, losing the deadline and hedge but still completing.
+    executor_ = new ThreadPoolExecutor(0, builder.maxThreads_, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new NamedThreadFactory(name_, true), new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+  
+  @Override
+  public void start()
+  {
+  }
+
+  @Override
+  public void stop()
+  {
+    executor_.shutdownNow();
+  }
+
+  /**
+   * Execute the given call, treating every exception as a failure.
+   * 
+   * @param <T>         The type of the result.
+   * @param task        The call to be made.
+   * @param idempotent  If true the call may be hedged.
+   * 
+   * @return The result of the call.
+   * 
+   * @throws Exception  Any exception thrown by the task, or a ResilienceException.
+   */
+  public <T> T call(Callable<T> task, boolean idempotent) throws Exception
+  {
+    return call(task, idempotent, ALL_FAILURES);
+  }
+
+  /**
+   * Execute the given call.
+   * 
+   * @param <T>         The type of the result.
+   * @param task        The call to be made.
+   * @param idempotent  If true the call may be hedged.
+   * @param isFailure   Predicate which returns true if the given exception indicates a failure of the
+   *                    remote service, as opposed to a valid response such as "not found".
+   * 
+   * @return The result of the call.
+   * 
+   * @throws Exception  Any exception thrown by the task, or a ResilienceException.
+   */
+  public <T> T call(Callable<T> task, boolean idempotent, Predicate<Exception> isFailure) throws Exception
+  {
+    return call(task, idempotent, isFailure, null);
+  }
+
+  /**
+   * Execute the given call, passing any result which is not returned to the caller to the given discard function.
+   * 
+   * Results are discarded when a hedged call completes after the other call has been returned, or a call
+   * completes after it has exceeded its deadline. The discard function may be called by a pool thread after
+   * this method has returned.
+   * 
+   * @param <T>         The type of the result.
+   * @param task        The call to be made.
+   * @param idempotent  If true the call may be hedged.
+   * @param isFailure   Predicate which returns true if the given exception indicates a failure of the
+   *                    remote service, as opposed to a valid response such as "not found".
+   * @param discard     A function to release the resources held by a result which is not used, or null.
+   * 
+   * @return The result of the call.
+   * 
+   * @throws Exception  Any exception thrown by the task, or a ResilienceException.
+   */
+  public <T> T call(Callable<T> task, boolean idempotent, Predicate<Exception> isFailure, @Nullable Consumer<? super T> discard) throws Exception
+  {
+    callCount_.incrementAndGet();
+    
+    if(circuitBreaker_ != null && !circuitBreaker_.tryAcquire())
+    {
+      rejectedCount_.incrementAndGet();
+      throw new CircuitOpenException("Circuit breaker " + name_ + " is open");
+    }
+    
+    ResultTracker<T> tracker = discard == null ? null : new ResultTracker<>(discard);
+    
+    Callable<T> timedTask = () ->
+    {
+      long  start   = System.currentTimeMillis();
+      T     result  = task.call();
+      
+      latencyTracker_.record(System.currentTimeMillis() - start);
+      
+      if(tracker != null)
+        tracker.completed(result);
+      
+      return result;
+    };
+    
+    boolean failed  = true;
+    T       result  = null;
+    
+    try
+    {
+      if(idempotent && hedgeEnabled_)
+        result = hedgedCall(timedTask);
+      else if(deadline_ > 0)
+        result = deadlineCall(timedTask);
+      else
+        result = timedTask.call();
+      
+      failed = false;
+      
+      return result;
+    }
+    catch(Exception e)
+    {
+      failed = isFailure.test(e);
+      
+      throw e;
+    }
+    finally
+    {
+      if(tracker != null)
+        tracker.finish(result);
+      
+      if(failed)
+        failureCount_.incrementAndGet();
+      
+      if(circuitBreaker_ != null)
+      {
+        if(failed)
+          circuitBreaker_.onFailure();
+        else
+          circuitBreaker_.onSuccess();
+      }
+    }
+  }
+  
+  private <T> T deadlineCall(Callable<T> task) throws Exception
+  {
+    Future<T> future = executor_.submit(task);
+    
+    try
+    {
+      return future.get(deadline_, TimeUnit.MILLISECONDS);
+    }
+    catch(TimeoutException e)
+    {
+      deadlineExceededCount_.incrementAndGet();
+      throw new DeadlineExceededException("Call to " + name_ + " did not complete within " + deadline_ + "ms", e);
+    }
+    catch(ExecutionException e)
+    {
+      throw unwrap(e);
+    }
+    finally
+    {
+      future.cancel(true);
+    }
+  }
+  
+  private <T> T hedgedCall(Callable<T> task) throws Exception
+  {
+    CompletionService<T>  completionService = new ExecutorCompletionService<>(executor_);
+    List<Future<T>>       futures           = new ArrayList<>(2);
+    long                  deadline          = deadline_ > 0 ? System.currentTimeMillis() + deadline_ : Long.MAX_VALUE;
+    long                  hedgeDelay        = getHedgeDelay();
+    Exception             failure           = null;
+    int                   outstanding       = 1;
+    
+    try
+    {
+      futures.add(completionService.submit(task));
+      
+      while(outstanding > 0)
+      {
+        long remaining = deadline - System.currentTimeMillis();
+        
+        if(remaining <= 0)
+        {
+          deadlineExceededCount_.incrementAndGet();
+          throw new DeadlineExceededException("Call to " + name_ + " did not complete within " + deadline_ + "ms", failure);
+        }
+        
+        Future<T> done;
+        
+        if(futures.size() == 1)
+        {
+          done = completionService.poll(Math.min(remaining, hedgeDelay), TimeUnit.MILLISECONDS);
+          
+          if(done == null)
+          {
+            if(remaining > hedgeDelay)
+            {
+              hedgeCount_.incrementAndGet();
+              futures.add(completionService.submit(task));
+              outstanding++;
+            }
+            continue;
+          }
+        }
+        else
+        {
+          done = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+          
+          if(done == null)
+            continue;
+        }
+        
+        outstanding--;
+        
+        try
+        {
+          T result = done.get();
+          
+          if(done != futures.get(0))
+            hedgeWinCount_.incrementAndGet();
+          
+          return result;
+        }
+        catch(ExecutionException e)
+        {
+          // If the other call is still outstanding it may yet succeed.
+          failure = unwrap(e);
+        }
+      }
+      
+      throw failure;
+    }
+    finally
+    {
+      for(Future<T> future : futures)
+        future.cancel(true);
+    }
+  }
+  
+  /**
+   * Keeps the results of the attempts of one call so that every result but the one returned is discarded,
+   * including those of attempts which complete after the call has returned.
+   */
+  private static class ResultTracker<T>
+  {
+    private final Consumer<? super T> discard_;
+    private final List<T>             completed_  = new ArrayList<>(2);
+    private boolean                   finished_;
+    
+    ResultTracker(Consumer<? super T> discard)
+    {
+      discard_ = discard;
+    }
+    
+    void completed(T result)
+    {
+      synchronized(this)
+      {
+        if(!finished_)
+        {
+          completed_.add(result);
+          return;
+        }
+      }
+      
+      discard(result);
+    }
+    
+    void finish(@Nullable T returned)
+    {
+      List<T> unused = new ArrayList<>(2);
+      
+      synchronized(this)
+      {
+        finished_ = true;
+        
+        for(T result : completed_)
+        {
+          if(result != returned)
+            unused.add(result);
+        }
+        
+        completed_.clear();
+      }
+      
+      for(T result : unused)
+        discard(result);
+    }
+    
+    private void discard(T result)
+    {
+      if(result == null)
+        return;
+      
+      try
+      {
+        discard_.accept(result);
+      }
+      catch(RuntimeException e)
+      {
+        log_.warn("Failed to discard unused result", e);
+      }
+    }
+  }
+  
+  private long getHedgeDelay()
+  {
+    long percentile = latencyTracker_.getPercentile();
+    
+    if(percentile < 0)
+      return maxHedgeDelay_;
+    
+    return Math.max(minHedgeDelay_, Math.min(maxHedgeDelay_, percentile));
+  }
+  
+  private static Exception unwrap(ExecutionException e)
+  {
+    Throwable cause = e.getCause();
+    
+    if(cause instanceof Error)
+      throw (Error)cause;
+    
+    if(cause instanceof Exception)
+      return (Exception)cause;
+    
+    return e;
+  }
+
+  /**
+   * 
+   * @return The name of this executor.
+   */
+  public String getName()
+  {
+    return name_;
+  }
+
+  /**
+   * 
+   * @return The state of the circuit breaker, or null if it is disabled.
+   */
+  public @Nullable CircuitState getCircuitState()
+  {
+    return circuitBreaker_ == null ? null : circuitBreaker_.getState();
+  }
+
+  /**
+   * 
+   * @return The total number of calls, including rejected calls.
+   */
+  public long getCallCount()
+  {
+    return callCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of calls which failed, including deadline failures but not rejected calls.
+   */
+  public long getFailureCount()
+  {
+    return failureCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of hedged duplicate calls made.
+   */
+  public long getHedgeCount()
+  {
+    return hedgeCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of calls where the hedged duplicate returned first.
+   */
+  public long getHedgeWinCount()
+  {
+    return hedgeWinCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of calls which failed because their deadline expired.
+   */
+  public long getDeadlineExceededCount()
+  {
+    return deadlineExceededCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of calls rejected because the circuit breaker was open.
+   */
+  public long getRejectedCount()
+  {
+    return rejectedCount_.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return name_ + "{calls=" + callCount_ + ", failures=" + failureCount_ + ", hedges=" + hedgeCount_ +
+        ", hedgeWins=" + hedgeWinCount_ + ", deadlineExceeded=" + deadlineExceededCount_ + ", rejected=" + rejectedCount_ +
+        ", circuit=" + getCircuitState() + "}";
+  }
+
+  /**
+   * Builder.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, ResilientExecutor>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected ResilientExecutor construct()
+    {
+      return new ResilientExecutor(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends ResilientExecutor> extends BaseAbstractBuilder<T,B>
+  {
+    protected String  name_;
+    protected int     maxThreads_             = 64;
+    protected boolean hedgeEnabled_           = false;
+    protected int     hedgePercentile_        = 95;
+    protected int     latencySampleSize_      = 1024;
+    protected long    minHedgeDelay_          = 10;
+    protected long    maxHedgeDelay_          = 1000;
+    protected long    deadline_               = 0;
+    protected boolean circuitBreakerEnabled_  = false;
+    protected int     windowSize_             = 100;
+    protected int     minimumCalls_           = 20;
+    protected int     failureRateThreshold_   = 50;
+    protected long    openMillis_             = 10000;
+    protected int     halfOpenCalls_          = 5;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(name_, "name");
+      
+      if(maxThreads_ < 1)
+        faultAccumulator.error("maxThreads must be positive");
+      
+      if(hedgePercentile_ < 1 || hedgePercentile_ > 99)
+        faultAccumulator.error("hedgePercentile must be between 1 and 99");
+      
+      if(minHedgeDelay_ < 0 || maxHedgeDelay_ < minHedgeDelay_)
+        faultAccumulator.error("maxHedgeDelay must be at least minHedgeDelay which must not be negative");
+      
+      if(deadline_ < 0)
+        faultAccumulator.error("deadline must not be negative");
+      
+      if(circuitBreakerEnabled_)
+      {
+        if(minimumCalls_ < 1 || minimumCalls_ > windowSize_)
+          faultAccumulator.error("minimumCalls must be between 1 and windowSize");
+        
+        if(failureRateThreshold_ < 1 || failureRateThreshold_ > 100)
+          faultAccumulator.error("failureRateThreshold must be between 1 and 100");
+        
+        if(halfOpenCalls_ < 1)
+          faultAccumulator.error("halfOpenCalls must be positive");
+      }
+    }
+
+    /**
+     * Set all parameters from the given configuration.
+     * 
+     * Any value not present in the configuration is unchanged.
+     * 
+     * @param config A configuration containing some or all of hedgeEnabled, hedgePercentile, minHedgeDelayMillis,
+     *          maxHedgeDelayMillis, deadlineMillis, maxThreads, circuitBreakerEnabled, windowSize, minimumCalls,
+     *          failureRateThreshold, openMillis and halfOpenCalls.
+     * 
+     * @return This (fluent method).
+     */
+    public T withConfiguration(IConfiguration config)
+    {
+      hedgeEnabled_           = config.getBoolean("hedgeEnabled",           hedgeEnabled_);
+      hedgePercentile_        = config.getInt(    "hedgePercentile",        hedgePercentile_);
+      minHedgeDelay_          = config.getLong(   "minHedgeDelayMillis",    minHedgeDelay_);
+      maxHedgeDelay_          = config.getLong(   "maxHedgeDelayMillis",    maxHedgeDelay_);
+      deadline_               = config.getLong(   "deadlineMillis",         deadline_);
+      maxThreads_             = config.getInt(    "maxThreads",             maxThreads_);
+      circuitBreakerEnabled_  = config.getBoolean("circuitBreakerEnabled",  circuitBreakerEnabled_);
+      windowSize_             = config.getInt(    "windowSize",             windowSize_);
+      minimumCalls_           = config.getInt(    "minimumCalls",           minimumCalls_);
+      failureRateThreshold_   = config.getInt(    "failureRateThreshold",   failureRateThreshold_);
+      openMillis_             = config.getLong(   "openMillis",             openMillis_);
+      halfOpenCalls_          = config.getInt(    "halfOpenCalls",          halfOpenCalls_);
+      
+      return self();
+    }
+
+    /**
+     * Set the name, used for threads, log messages and exceptions.
+     * 
+     * @param name The name of this executor.
+     * 
+     * @return This (fluent method).
+     */
+    public T withName(String name)
+    {
+      name_ = name;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of threads used to execute calls with a deadline or hedge.
+     * 
+     * @param maxThreads The maximum number of threads.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxThreads(int maxThreads)
+    {
+      maxThreads_ = maxThreads;
+      
+      return self();
+    }
+
+    /**
+     * Enable hedging of idempotent calls.
+     * 
+     * @param hedgePercentile The percentile of recent latencies after which a hedged call is made.
+     * @param minHedgeDelay   The minimum delay in milliseconds before a hedged call is made.
+     * @param maxHedgeDelay   The maximum delay in milliseconds before a hedged call is made, this
+     *                        is also used until enough calls have been made to calculate the percentile.
+     * 
+     * @return This (fluent method).
+     */
+    public T withHedging(int hedgePercentile, long minHedgeDelay, long maxHedgeDelay)
+    {
+      hedgeEnabled_     = true;
+      hedgePercentile_  = hedgePercentile;
+      minHedgeDelay_    = minHedgeDelay;
+      maxHedgeDelay_    = maxHedgeDelay;
+      
+      return self();
+    }
+
+    /**
+     * Set the deadline for each call.
+     * 
+     * @param deadline The deadline in milliseconds, or zero for no deadline.
+     * 
+     * @return This (fluent method).
+     */
+    public T withDeadline(long deadline)
+    {
+      deadline_ = deadline;
+      
+      return self();
+    }
+
+    /**
+     * Enable the circuit breaker.
+     * 
+     * @param windowSize            The number of recent calls whose outcomes are considered.
+     * @param minimumCalls          The minimum number of outcomes needed before the circuit can open.
+     * @param failureRateThreshold  The percentage of failures at which the circuit opens.
+     * @param openMillis            The time in milliseconds for which the circuit stays open.
+     * @param halfOpenCalls         The number of successful trial calls needed to close the circuit.
+     * 
+     * @return This (fluent method).
+     */
+    public T withCircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, long openMillis, int halfOpenCalls)
+    {
+      circuitBreakerEnabled_  = true;
+      windowSize_             = windowSize;
+      minimumCalls_           = minimumCalls;
+      failureRateThreshold_   = failureRateThreshold;
+      openMillis_             = openMillis;
+      halfOpenCalls_          = halfOpenCalls;
+      
+      return self();
+    }
+  }
+}
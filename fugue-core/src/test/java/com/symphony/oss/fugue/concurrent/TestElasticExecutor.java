@@ -0,0 +1,113 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.batch.ExecutorBatch;
+
+@SuppressWarnings("javadoc")
+public class TestElasticExecutor
+{
+  @Test
+  public void testConcurrencyLimit() throws InterruptedException
+  {
+    ElasticExecutor executor    = new ElasticExecutor("test", 3, true);
+    AtomicInteger   running     = new AtomicInteger();
+    AtomicInteger   maxRunning  = new AtomicInteger();
+    CountDownLatch  release     = new CountDownLatch(1);
+    CountDownLatch  done        = new CountDownLatch(10);
+    
+    try
+    {
+      for(int i=0 ; i<10 ; i++)
+      {
+        executor.execute(() ->
+        {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          
+          try
+          {
+            release.await();
+          }
+          catch(InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+          
+          running.decrementAndGet();
+          done.countDown();
+        });
+      }
+      
+      for(int i=0 ; i<100 && executor.getActiveCount() < 3 ; i++)
+        Thread.sleep(10);
+      
+      assertEquals(3, executor.getActiveCount());
+      assertEquals(7, executor.getWaitingCount());
+      
+      release.countDown();
+      
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(3, maxRunning.get());
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+    
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(0, executor.getActiveCount());
+    assertEquals(0, executor.getWaitingCount());
+  }
+  
+  @Test
+  public void testBatch()
+  {
+    ElasticExecutor         executor  = new ElasticExecutor("test", 2, false);
+    ExecutorBatch<Runnable> batch     = new ExecutorBatch<>(executor);
+    AtomicInteger           count     = new AtomicInteger();
+    
+    try
+    {
+      for(int i=0 ; i<20 ; i++)
+        batch.submit(() -> count.incrementAndGet());
+      
+      batch.waitForAllTasks();
+      
+      assertEquals(20, count.get());
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+}
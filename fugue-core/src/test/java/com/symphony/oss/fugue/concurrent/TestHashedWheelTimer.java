@@ -0,0 +1,98 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestHashedWheelTimer
+{
+  @Test
+  public void testDelay() throws Exception
+  {
+    HashedWheelTimer  timer = new HashedWheelTimer("test-timer", 10, 8);
+    CountDownLatch    done  = new CountDownLatch(1);
+    long              start = System.nanoTime();
+    
+    // More than one rotation of the wheel.
+    timer.schedule(() -> done.countDown(), 200);
+    
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    
+    assertTrue("Ran after " + elapsed + "ms", elapsed >= 200);
+    assertEquals(0, timer.getPendingCount());
+    
+    timer.stop();
+  }
+  
+  @Test
+  public void testCancel() throws Exception
+  {
+    HashedWheelTimer                  timer     = new HashedWheelTimer("test-timer", 10, 64);
+    AtomicInteger                     runCount  = new AtomicInteger();
+    CountDownLatch                    done      = new CountDownLatch(500);
+    List<HashedWheelTimer.Timeout>    timeouts  = new ArrayList<>();
+    
+    for(int i=0 ; i<1000 ; i++)
+    {
+      timeouts.add(timer.schedule(() ->
+      {
+        runCount.incrementAndGet();
+        done.countDown();
+      }, 50 + i % 100));
+    }
+    
+    assertEquals(1000, timer.getPendingCount());
+    
+    for(int i=0 ; i<1000 ; i+=2)
+      assertTrue(timeouts.get(i).cancel());
+    
+    assertFalse(timeouts.get(0).cancel());
+    assertEquals(500, timer.getPendingCount());
+    
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    
+    // Give any wrongly scheduled cancelled task the chance to run.
+    Thread.sleep(200);
+    
+    assertEquals(500, runCount.get());
+    assertEquals(0, timer.getPendingCount());
+    assertTrue(timeouts.get(0).isCancelled());
+    assertTrue(timeouts.get(1).isExpired());
+    
+    timer.stop();
+  }
+}
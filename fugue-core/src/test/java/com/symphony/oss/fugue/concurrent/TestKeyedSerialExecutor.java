@@ -0,0 +1,192 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestKeyedSerialExecutor
+{
+  private static final int KEYS   = 8;
+  private static final int TASKS  = 1000;
+  
+  @Test
+  public void testOrderPerKey() throws Exception
+  {
+    ExecutorService       delegate  = Executors.newFixedThreadPool(4);
+    KeyedSerialExecutor   executor  = new KeyedSerialExecutor(delegate, 64);
+    List<List<Integer>>   results   = new ArrayList<>();
+    AtomicInteger[]       running   = new AtomicInteger[KEYS];
+    AtomicBoolean         overlap   = new AtomicBoolean();
+    CountDownLatch        done      = new CountDownLatch(KEYS * TASKS);
+    
+    for(int k=0 ; k<KEYS ; k++)
+    {
+      results.add(new ArrayList<>());
+      running[k] = new AtomicInteger();
+    }
+    
+    for(int i=0 ; i<TASKS ; i++)
+    {
+      for(int k=0 ; k<KEYS ; k++)
+      {
+        int key   = k;
+        int value = i;
+        
+        executor.execute(key, () ->
+        {
+          if(running[key].incrementAndGet() != 1)
+            overlap.set(true);
+          
+          results.get(key).add(value);
+          
+          running[key].decrementAndGet();
+          done.countDown();
+        });
+      }
+    }
+    
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    assertFalse(overlap.get());
+    
+    for(int k=0 ; k<KEYS ; k++)
+    {
+      List<Integer> result = results.get(k);
+      
+      assertEquals(TASKS, result.size());
+      
+      for(int i=0 ; i<TASKS ; i++)
+        assertEquals(Integer.valueOf(i), result.get(i));
+    }
+    
+    delegate.shutdown();
+    assertTrue(delegate.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getPendingCount());
+    assertEquals(0, executor.getKeyCount());
+  }
+  
+  @Test
+  public void testKeysRunConcurrently() throws Exception
+  {
+    ExecutorService       delegate  = Executors.newFixedThreadPool(2);
+    KeyedSerialExecutor   executor  = new KeyedSerialExecutor(delegate, 64);
+    CountDownLatch        started   = new CountDownLatch(2);
+    CountDownLatch        release   = new CountDownLatch(1);
+    CountDownLatch        done      = new CountDownLatch(12);
+    
+    for(int k=0 ; k<2 ; k++)
+    {
+      executor.execute(k, () ->
+      {
+        started.countDown();
+        
+        try
+        {
+          release.await();
+        }
+        catch(InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      });
+    }
+    
+    // A backlog on one key must not delay the other.
+    for(int i=0 ; i<10 ; i++)
+      executor.execute(0, () -> done.countDown());
+    
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertEquals(2, executor.getKeyCount());
+    assertEquals(12, executor.getPendingCount());
+    
+    release.countDown();
+    
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    
+    delegate.shutdown();
+    assertTrue(delegate.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getKeyCount());
+  }
+  
+  @Test
+  public void testPendingLimit() throws Exception
+  {
+    ExecutorService       delegate  = Executors.newFixedThreadPool(1);
+    KeyedSerialExecutor   executor  = new KeyedSerialExecutor(delegate, 2);
+    CountDownLatch        release   = new CountDownLatch(1);
+    CountDownLatch        accepted  = new CountDownLatch(1);
+    
+    executor.execute("a", () ->
+    {
+      try
+      {
+        release.await();
+      }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    });
+    executor.execute("a", () -> {});
+    
+    Thread submitter = new Thread(() ->
+    {
+      try
+      {
+        executor.execute("b", () -> {});
+        accepted.countDown();
+      }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    });
+    
+    submitter.start();
+    
+    assertFalse(accepted.await(200, TimeUnit.MILLISECONDS));
+    
+    release.countDown();
+    
+    assertTrue(accepted.await(10, TimeUnit.SECONDS));
+    
+    delegate.shutdown();
+    assertTrue(delegate.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getPendingCount());
+  }
+}
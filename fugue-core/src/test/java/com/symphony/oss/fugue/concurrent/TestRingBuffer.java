@@ -0,0 +1,116 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestRingBuffer
+{
+  private static final int THREADS  = 4;
+  private static final int ITEMS    = 100000;
+  
+  @Test
+  public void testBounded()
+  {
+    RingBuffer<Integer> buffer = new RingBuffer<>(3);
+    
+    assertEquals(4, buffer.getCapacity());
+    assertNull(buffer.poll());
+    
+    for(int i=0 ; i<4 ; i++)
+      assertTrue(buffer.offer(i));
+    
+    assertFalse(buffer.offer(4));
+    assertEquals(4, buffer.size());
+    
+    for(int i=0 ; i<4 ; i++)
+      assertEquals(Integer.valueOf(i), buffer.poll());
+    
+    assertNull(buffer.poll());
+    assertTrue(buffer.isEmpty());
+  }
+  
+  @Test
+  public void testConcurrent() throws Exception
+  {
+    RingBuffer<Long>  buffer    = new RingBuffer<>(128);
+    AtomicLong        sum       = new AtomicLong();
+    AtomicLong        count     = new AtomicLong();
+    ExecutorService   executor  = Executors.newFixedThreadPool(THREADS * 2);
+    List<Future<?>>   futures   = new ArrayList<>();
+    
+    for(int t=0 ; t<THREADS ; t++)
+    {
+      futures.add(executor.submit(() ->
+      {
+        for(long i=1 ; i<=ITEMS ; i++)
+        {
+          while(!buffer.offer(i))
+            Thread.yield();
+        }
+      }));
+      
+      futures.add(executor.submit(() ->
+      {
+        while(count.get() < THREADS * ITEMS)
+        {
+          Long item = buffer.poll();
+          
+          if(item == null)
+          {
+            Thread.yield();
+          }
+          else
+          {
+            sum.addAndGet(item);
+            count.incrementAndGet();
+          }
+        }
+      }));
+    }
+    
+    for(Future<?> future : futures)
+      future.get(60, TimeUnit.SECONDS);
+    
+    executor.shutdown();
+    
+    assertEquals(THREADS * ITEMS, count.get());
+    assertEquals(THREADS * ((long)ITEMS * (ITEMS + 1) / 2), sum.get());
+    assertTrue(buffer.isEmpty());
+  }
+}
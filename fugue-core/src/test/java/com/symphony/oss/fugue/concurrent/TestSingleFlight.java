@@ -0,0 +1,135 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestSingleFlight
+{
+  private static final int THREADS = 10;
+  
+  @Test
+  public void testCoalesce() throws Exception
+  {
+    SingleFlight<String, String>  singleFlight  = new SingleFlight<>();
+    AtomicInteger                 callCount     = new AtomicInteger();
+    CountDownLatch                release       = new CountDownLatch(1);
+    ExecutorService               executor      = Executors.newFixedThreadPool(THREADS);
+    List<Future<String>>          results       = new ArrayList<>();
+    
+    for(int i=0 ; i<THREADS ; i++)
+    {
+      results.add(executor.submit(() -> singleFlight.execute("key", () ->
+      {
+        callCount.incrementAndGet();
+        release.await();
+        return "value";
+      })));
+    }
+    
+    while(singleFlight.getExecutedCount() + singleFlight.getCoalescedCount() < THREADS)
+      Thread.sleep(10);
+    
+    release.countDown();
+    
+    for(Future<String> result : results)
+      assertEquals("value", result.get(5, TimeUnit.SECONDS));
+    
+    assertEquals(1, callCount.get());
+    assertEquals(1, singleFlight.getExecutedCount());
+    assertEquals(THREADS - 1, singleFlight.getCoalescedCount());
+    assertEquals(0, singleFlight.getInFlightCount());
+    
+    // Nothing is cached once the call completes.
+    assertEquals("value", singleFlight.execute("key", () -> "value"));
+    assertEquals(2, singleFlight.getExecutedCount());
+    
+    executor.shutdown();
+  }
+  
+  @Test
+  public void testSharedFailure() throws Exception
+  {
+    SingleFlight<String, String>  singleFlight  = new SingleFlight<>();
+    CountDownLatch                release       = new CountDownLatch(1);
+    ExecutorService               executor      = Executors.newFixedThreadPool(THREADS);
+    List<Future<String>>          results       = new ArrayList<>();
+    
+    for(int i=0 ; i<THREADS ; i++)
+    {
+      results.add(executor.submit(() -> singleFlight.execute("key", () ->
+      {
+        release.await();
+        throw new IllegalStateException("Barf!");
+      })));
+    }
+    
+    while(singleFlight.getExecutedCount() + singleFlight.getCoalescedCount() < THREADS)
+      Thread.sleep(10);
+    
+    release.countDown();
+    
+    for(Future<String> result : results)
+    {
+      try
+      {
+        result.get(5, TimeUnit.SECONDS);
+        fail("Expected exception");
+      }
+      catch(ExecutionException e)
+      {
+        assertEquals(IllegalStateException.class, e.getCause().getClass());
+      }
+    }
+    
+    assertEquals(1, singleFlight.getExecutedCount());
+    
+    executor.shutdown();
+  }
+  
+  @Test
+  public void testDifferentKeys() throws Exception
+  {
+    SingleFlight<String, String>  singleFlight  = new SingleFlight<>();
+    
+    assertEquals("a", singleFlight.execute("a", () -> "a"));
+    assertEquals("b", singleFlight.execute("b", () -> "b"));
+    assertEquals(2, singleFlight.getExecutedCount());
+    assertEquals(0, singleFlight.getCoalescedCount());
+  }
+}
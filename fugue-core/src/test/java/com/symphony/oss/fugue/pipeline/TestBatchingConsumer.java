@@ -0,0 +1,170 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestBatchingConsumer
+{
+  private static final int ITEMS = 100;
+  
+  private static class Consumer implements IThreadSafeBatchConsumer<Integer>
+  {
+    final Map<Integer, Integer> batchSizes_ = new ConcurrentHashMap<>();
+    
+    @Override
+    public void consume(List<BatchConsumerItem<Integer>> batch) throws RetryableConsumerException, FatalConsumerException
+    {
+      for(BatchConsumerItem<Integer> item : batch)
+      {
+        int value = item.getPayload();
+        
+        batchSizes_.put(value, batch.size());
+        
+        if(value % 10 == 1)
+          item.retry(new RetryableConsumerException("retry " + value));
+        else if(value % 10 == 2)
+          item.abort(new FatalConsumerException("abort " + value));
+        else if(value % 10 == 3)
+          item.fail(new IllegalStateException("fail " + value));
+      }
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+  
+  @Test
+  public void testOutcomes() throws Exception
+  {
+    Consumer                  batchConsumer = new Consumer();
+    BatchingConsumer<Integer> consumer      = new BatchingConsumer.Builder<Integer>()
+        .withConsumer(batchConsumer)
+        .withMaxBatchSize(10)
+        .withLingerMillis(100)
+        .build();
+    ExecutorService           executor      = Executors.newFixedThreadPool(10);
+    List<Future<String>>      futures       = new ArrayList<>();
+    
+    for(int i=0 ; i<ITEMS ; i++)
+    {
+      int value = i;
+      
+      futures.add(executor.submit(() ->
+      {
+        try
+        {
+          consumer.consume(value, NoOpTraceContext.INSTANCE);
+          return "ok";
+        }
+        catch(RetryableConsumerException e)
+        {
+          return e.getMessage();
+        }
+        catch(FatalConsumerException e)
+        {
+          return e.getMessage();
+        }
+        catch(IllegalStateException e)
+        {
+          return e.getMessage();
+        }
+      }));
+    }
+    
+    for(int i=0 ; i<ITEMS ; i++)
+    {
+      String result = futures.get(i).get(10, TimeUnit.SECONDS);
+      
+      switch(i % 10)
+      {
+        case 1:   assertEquals("retry " + i, result); break;
+        case 2:   assertEquals("abort " + i, result); break;
+        case 3:   assertEquals("fail " + i, result); break;
+        default:  assertEquals("ok", result);
+      }
+    }
+    
+    executor.shutdown();
+    
+    assertEquals(ITEMS, consumer.getItemCount());
+    assertTrue("Items were not batched", consumer.getBatchCount() < ITEMS);
+    
+    for(int size : batchConsumer.batchSizes_.values())
+      assertTrue(size <= 10);
+  }
+  
+  @Test
+  public void testBatchException() throws Exception
+  {
+    BatchingConsumer<Integer> consumer = new BatchingConsumer.Builder<Integer>()
+        .withConsumer(new IThreadSafeBatchConsumer<Integer>()
+        {
+          @Override
+          public void consume(List<BatchConsumerItem<Integer>> batch) throws RetryableConsumerException
+          {
+            batch.get(0).abort(new FatalConsumerException("first"));
+            
+            throw new RetryableConsumerException("all");
+          }
+
+          @Override
+          public void close()
+          {
+          }
+        })
+        .withLingerMillis(0)
+        .build();
+    
+    try
+    {
+      consumer.consume(1, NoOpTraceContext.INSTANCE);
+      fail("Expected FatalConsumerException");
+    }
+    catch(FatalConsumerException e)
+    {
+      assertEquals("first", e.getMessage());
+    }
+    
+    assertEquals(1, consumer.getBatchCount());
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.resilience;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestResilientExecutor
+{
+  private static void sleep(long millis)
+  {
+    try
+    {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+  
+  @Test
+  public void testHedge() throws Exception
+  {
+    ResilientExecutor executor = new ResilientExecutor.Builder()
+        .withName("testHedge")
+        .withHedging(95, 10, 50)
+        .build();
+    
+    AtomicInteger attempt = new AtomicInteger();
+    
+    String result = executor.call(() ->
+    {
+      // The first attempt is very slow, the hedge is fast.
+      if(attempt.getAndIncrement() == 0)
+        sleep(5000);
+      
+      return "OK";
+    }, true);
+    
+    assertEquals("OK", result);
+    assertEquals(1, executor.getHedgeCount());
+    assertEquals(1, executor.getHedgeWinCount());
+    
+    executor.stop();
+  }
+  
+  @Test
+  public void testHedgeLoserIsDiscarded() throws Exception
+  {
+    ResilientExecutor executor = new ResilientExecutor.Builder()
+        .withName("testHedgeLoserIsDiscarded")
+        .withHedging(95, 10, 50)
+        .build();
+    
+    AtomicInteger   attempt   = new AtomicInteger();
+    CountDownLatch  release   = new CountDownLatch(1);
+    List<String>    discarded = Collections.synchronizedList(new ArrayList<>());
+    
+    String result = executor.call(() ->
+    {
+      if(attempt.getAndIncrement() == 0)
+      {
+        // The slow attempt ignores the cancellation and completes after the hedge has been returned.
+        while(release.getCount() > 0)
+        {
+          try
+          {
+            release.await();
+          }
+          catch(InterruptedException e)
+          {
+            // ignore
+          }
+        }
+        
+        return "SLOW";
+      }
+      
+      return "FAST";
+    }, true, ResilientExecutor.ALL_FAILURES, (r) -> discarded.add(r));
+    
+    assertEquals("FAST", result);
+    assertEquals(0, discarded.size());
+    
+    release.countDown();
+    
+    long deadline = System.currentTimeMillis() + 5000;
+    
+    while(discarded.isEmpty() && System.currentTimeMillis() < deadline)
+      TimeUnit.MILLISECONDS.sleep(10);
+    
+    assertEquals(Collections.singletonList("SLOW"), discarded);
+    
+    executor.stop();
+  }
+  
+  @Test
+  public void testNoHedgeForNonIdempotent() throws Exception
+  {
+    ResilientExecutor executor = new ResilientExecutor.Builder()
+        .withName("testNoHedge")
+        .withHedging(95, 10, 10)
+        .build();
+    
+    assertEquals("OK", executor.call(() ->
+    {
+      sleep(100);
+      return "OK";
+    }, false));
+    
+    assertEquals(0, executor.getHedgeCount());
+    
+    executor.stop();
+  }
+  
+  @Test
+  public void testDeadline() throws Exception
+  {
+    ResilientExecutor executor = new ResilientExecutor.Builder()
+        .withName("testDeadline")
+        .withDeadline(50)
+        .build();
+    
+    try
+    {
+      executor.call(() ->
+      {
+        sleep(5000);
+        return "OK";
+      }, false);
+      
+      fail("Expected DeadlineExceededException");
+    }
+    catch(DeadlineExceededException e)
+    {
+      // expected
+    }
+    
+    assertEquals(1, executor.getDeadlineExceededCount());
+    
+    executor.stop();
+  }
+  
+  @Test
+  public void testCircuitBreaker() throws Exception
+  {
+    ResilientExecutor executor = new ResilientExecutor.Builder()
+        .withName("testCircuitBreaker")
+        .withCircuitBreaker(10, 4, 50, 100, 2)
+        .build();
+    
+    for(int i=0 ; i<4 ; i++)
+    {
+      try
+      {
+        executor.call(() ->
+        {
+          throw new IllegalStateException("Barf!");
+        }, false);
+        
+        fail("Expected IllegalStateException");
+      }
+      catch(CircuitOpenException e)
+      {
+        fail("Circuit opened too soon");
+      }
+      catch(IllegalStateException e)
+      {
+        // expected
+      }
+    }
+    
+    assertEquals(CircuitState.OPEN, executor.getCircuitState());
+    
+    try
+    {
+      executor.call(() -> "OK", false);
+      fail("Expected CircuitOpenException");
+    }
+    catch(CircuitOpenException e)
+    {
+      // expected
+    }
+    
+    assertEquals(1, executor.getRejectedCount());
+    
+    sleep(150);
+    
+    assertEquals("OK", executor.call(() -> "OK", false));
+    assertEquals(CircuitState.HALF_OPEN, executor.getCircuitState());
+    assertEquals("OK", executor.call(() -> "OK", false));
+    assertEquals(CircuitState.CLOSED, executor.getCircuitState());
+    
+    executor.stop();
+  }
+  
+  @Test
+  public void testNonFailureDoesNotOpenCircuit() throws Exception
+  {
+    ResilientExecutor executor = new ResilientExecutor.Builder()
+        .withName("testNonFailure")
+        .withCircuitBreaker(10, 2, 50, 1000, 1)
+        .build();
+    
+    for(int i=0 ; i<5 ; i++)
+    {
+      try
+      {
+        executor.call(() ->
+        {
+          throw new IllegalArgumentException("Not found");
+        }, false, (e) -> !(e instanceof IllegalArgumentException));
+      }
+      catch(IllegalArgumentException e)
+      {
+        // expected
+      }
+    }
+    
+    assertEquals(CircuitState.CLOSED, executor.getCircuitState());
+    assertEquals(0, executor.getFailureCount());
+    
+    executor.stop();
+  }
+}
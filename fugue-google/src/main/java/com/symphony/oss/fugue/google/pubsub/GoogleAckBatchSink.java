@@ -0,0 +1,89 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.google.pubsub;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.symphony.oss.fugue.pubsub.IAckBatchSink;
+
+/**
+ * Batch acknowledgement of Google pubsub messages with multi-id acknowledge and modifyAckDeadline requests.
+ * 
+ * Requests are made on the stub pool of the subscriber manager, which is closed by the manager.
+ * 
+ * @author Bruce Skingle
+ */
+/* package */ class GoogleAckBatchSink implements IAckBatchSink
+{
+  private static final int    MAX_BATCH_SIZE = 1000;
+  
+  private final String                    subscriptionName_;
+  private final GoogleSubscriberStubPool  stubPool_;
+
+  /* package */ GoogleAckBatchSink(String subscriptionName, GoogleSubscriberStubPool stubPool)
+  {
+    subscriptionName_ = subscriptionName;
+    stubPool_         = stubPool;
+  }
+
+  @Override
+  public int getMaxBatchSize()
+  {
+    return MAX_BATCH_SIZE;
+  }
+
+  @Override
+  public Collection<String> acknowledge(List<String> handles)
+  {
+    AcknowledgeRequest acknowledgeRequest = AcknowledgeRequest
+        .newBuilder()
+        .setSubscription(subscriptionName_)
+        .addAllAckIds(handles)
+        .build();
+    
+    // The request succeeds or fails as a whole, a failure is thrown and all handles are retried.
+    stubPool_.call((stub) -> stub.acknowledgeCallable().call(acknowledgeRequest));
+    
+    return Collections.emptyList();
+  }
+
+  @Override
+  public Collection<String> modifyVisibility(List<String> handles, int timeoutSeconds)
+  {
+    ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest
+        .newBuilder()
+        .setSubscription(subscriptionName_)
+        .setAckDeadlineSeconds(timeoutSeconds)
+        .addAllAckIds(handles)
+        .build();
+
+    stubPool_.call((stub) -> stub.modifyAckDeadlineCallable().call(request));
+    
+    return Collections.emptyList();
+  }
+}
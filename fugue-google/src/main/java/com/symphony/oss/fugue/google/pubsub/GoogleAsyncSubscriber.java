@@ -24,10 +24,10 @@
 package com.symphony.oss.fugue.google.pubsub;
 
 import java.time.Instant;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,11 +36,12 @@ import com.google.cloud.pubsub.v1.MessageReceiver;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Timestamp;
 import com.google.pubsub.v1.PubsubMessage;
-import com.symphony.oss.commons.concurrent.NamedThreadFactory;
 import com.symphony.oss.commons.immutable.ImmutableByteArray;
 import com.symphony.oss.commons.immutable.protobuf.ByteStringImmutableByteArray;
 import com.symphony.oss.fugue.counter.ICounter;
 import com.symphony.oss.fugue.pipeline.IThreadSafeRetryableConsumer;
+import com.symphony.oss.fugue.pubsub.AdaptiveConcurrencyLimiter;
+import com.symphony.oss.fugue.pubsub.RetryScheduler;
 import com.symphony.oss.fugue.trace.ITraceContext;
 import com.symphony.oss.fugue.trace.ITraceContextTransaction;
 import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
@@ -54,8 +55,9 @@ import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
 public class GoogleAsyncSubscriber implements MessageReceiver
 {
   private static final Logger           log_      = LoggerFactory.getLogger(GoogleAsyncSubscriber.class);
-  private static final ScheduledThreadPoolExecutor  executor_ = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("google-failed-msg-ack", true));
-  private static final int MAX_PENDING_RETRY_COUNT = 10000;
+  
+  /** Set by the client library when the subscription has a dead letter policy. */
+  private static final String           DELIVERY_ATTEMPT_ATTRIBUTE = "googclient_deliveryattempt";
   
 //  static PrintStream debug_;
 //  
@@ -79,11 +81,14 @@ public class GoogleAsyncSubscriber implements MessageReceiver
   private final String                                           subscriptionName_;
   private final ICounter                                         counter_;
   private final String                                           tenantId_;
+  private final AdaptiveConcurrencyLimiter                       limiter_;
+  private final RetryScheduler                                   retryScheduler_;
 
   private AtomicBoolean                                          stopped_                = new AtomicBoolean();
 
   /* package */ GoogleAsyncSubscriber(GoogleAsyncSubscriberManager manager, ITraceContextTransactionFactory traceFactory,
-      IThreadSafeRetryableConsumer<String> consumer, String subscriptionName, ICounter counter, String tenantId)
+      IThreadSafeRetryableConsumer<String> consumer, String subscriptionName, ICounter counter, String tenantId,
+      @Nullable AdaptiveConcurrencyLimiter limiter)
   {
     manager_ = manager;
     traceFactory_ = traceFactory;
@@ -91,6 +96,8 @@ public class GoogleAsyncSubscriber implements MessageReceiver
     subscriptionName_ = subscriptionName;
     counter_ = counter;
     tenantId_ = tenantId;
+    limiter_ = limiter;
+    retryScheduler_ = manager.getRetryScheduler();
   }
 
   @Override
@@ -120,7 +127,7 @@ public class GoogleAsyncSubscriber implements MessageReceiver
       trace.trace("RECEIVED");
       ImmutableByteArray byteArray = new ByteStringImmutableByteArray(message.getData());
       
-      long retryTime = manager_.handleMessage(consumer_, byteArray.toString(), trace, message.getMessageId());
+      long retryTime = handleMessage(byteArray.toString(), trace, message.getMessageId());
       
       if(retryTime < 0)
       {
@@ -129,16 +136,21 @@ public class GoogleAsyncSubscriber implements MessageReceiver
       }
       else
       {
-        if(executor_.getQueue().size() > MAX_PENDING_RETRY_COUNT)
-          log_.error("We are holding " + executor_.getQueue().size() + " failed messages, this message will not be re-tried for up to 60 mins.");
-        else
-          executor_.schedule(() -> {consumer.nack();}, retryTime, TimeUnit.MILLISECONDS);
+        if(retryScheduler_.schedule(subscriptionName_, retryTime, getDeliveryAttempt(message), () -> consumer.nack()) == null)
+          log_.error("We are holding " + retryScheduler_.getPendingCount(subscriptionName_) + " failed messages for " + subscriptionName_ +
+              ", this message will not be re-tried for up to 60 mins.");
       }
       traceTransaction.finished();
 //      long end = System.currentTimeMillis();
 //      debug_.println(">F" + (end - now) + " " + trace.getSubjectId());
 //      debug_.flush();
     }
+    catch (InterruptedException e)
+    {
+      // We are being shut down while waiting for the concurrency limiter.
+      Thread.currentThread().interrupt();
+      consumer.nack();
+    }
     catch (Throwable e)
     {
       /*
@@ -152,6 +164,48 @@ public class GoogleAsyncSubscriber implements MessageReceiver
     }
   }
 
+  private static int getDeliveryAttempt(PubsubMessage message)
+  {
+    String attempt = message.getAttributesOrDefault(DELIVERY_ATTEMPT_ATTRIBUTE, null);
+    
+    if(attempt == null)
+      return 0;
+    
+    try
+    {
+      return Integer.parseInt(attempt);
+    }
+    catch(NumberFormatException e)
+    {
+      return 0;
+    }
+  }
+
+  private long handleMessage(String payload, ITraceContext trace, String messageId) throws InterruptedException
+  {
+    if(limiter_ == null)
+      return manager_.handleMessage(consumer_, payload, trace, messageId);
+    
+    // Messages waiting here remain outstanding, so their ack deadlines are extended by the Subscriber.
+    limiter_.acquire();
+    
+    long    start     = System.nanoTime();
+    boolean success   = false;
+    
+    try
+    {
+      long retryTime = manager_.handleMessage(consumer_, payload, trace, messageId);
+      
+      success = retryTime < 0;
+      
+      return retryTime;
+    }
+    finally
+    {
+      limiter_.release(System.nanoTime() - start, success);
+    }
+  }
+
   public void stop()
   {
     stopped_.set(true);
@@ -12,7 +12,11 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.threeten.bp.Duration;
 
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController.LimitExceededBehavior;
+import com.google.api.gax.core.InstantiatingExecutorProvider;
 import com.google.api.gax.rpc.NotFoundException;
 import com.google.cloud.pubsub.v1.Subscriber;
 import com.google.cloud.pubsub.v1.SubscriptionAdminClient;
@@ -24,6 +28,7 @@ import com.symphony.oss.fugue.naming.INameFactory;
 import com.symphony.oss.fugue.naming.Name;
 import com.symphony.oss.fugue.pipeline.IThreadSafeErrorConsumer;
 import com.symphony.oss.fugue.pubsub.AbstractSubscriberManager;
+import com.symphony.oss.fugue.pubsub.AdaptiveConcurrencyLimiter;
 import com.symphony.oss.fugue.pubsub.ISubscription;
 import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
 
@@ -46,13 +51,34 @@ import io.grpc.StatusRuntimeException;
           {
             "pubsub":
             {
-              "subscriberThreadPoolSize": 40
+              "executorThreadCount": 8,
+              "parallelPullCount": 1,
+              "maxOutstandingElementCount": 1000,
+              "maxOutstandingRequestBytes": 104857600,
+              "maxAckExtensionPeriodSeconds": 3600,
+              "adaptiveConcurrency": true,
+              "subscriptions":
+              {
+                "my-subscription":
+                {
+                  "executorThreadCount": 32
+                }
+              }
             }
           }
         }
       }
     }
   }
+ * 
+ * Values under subscriptions/subscription-name override the defaults above for that subscription.
+ * 
+ * executorThreadCount is the number of threads on which messages are handled and parallelPullCount the
+ * number of streams, for each subscription. The outstanding element and byte counts limit the number
+ * of messages which have been received but not yet acked or nacked, including messages waiting for a
+ * retry. If adaptiveConcurrency is true then the number of messages handled at once is reduced, down to
+ * one, when handler latency rises and increased again, up to executorThreadCount, when it recovers.
+ * 
  * @author Bruce Skingle
  *
  */
@@ -147,38 +173,46 @@ public class GoogleAsyncSubscriberManager extends AbstractSubscriberManager<Stri
       throw new IllegalStateException("There are " + subscriptionErrorCnt_ + " subscription errors.");
     }
     
-    long threadsPerSubscription = config_.getLong("subscriberThreadsPerSubscription", 10L);
-    int subscriberThreadPoolSize = config_.getInt("subscriberThreadPoolSize", 4);
-    long maxOutstandingElementCount = config_.getLong("maxOutstandingElementCount", threadsPerSubscription);
-    
-    threadsPerSubscription = 1L;
-    subscriberThreadPoolSize = 1;
-    maxOutstandingElementCount = 1L;
-    
-    log_.info("Starting subscriptions threadsPerSubscription=" + threadsPerSubscription +
-        " subscriberThreadPoolSize=" + subscriberThreadPoolSize +
-        " maxOutstandingElementCount=" + maxOutstandingElementCount +
-        " ...");
-
+    IConfiguration pubSubConfig = config_.getConfiguration(GoogleConstants.CONFIG_PATH);
     
     for(Name subscriptionName : subscription.getSubscriptionNames())
     {
-      log_.info("Subscribing to " + subscriptionName + " ...");
+      IConfiguration subscriptionConfig           = pubSubConfig.getConfiguration("subscriptions/" + subscriptionName);
+      int            executorThreadCount          = getInt(subscriptionConfig, pubSubConfig, "executorThreadCount", 8);
+      int            parallelPullCount            = getInt(subscriptionConfig, pubSubConfig, "parallelPullCount", 1);
+      long           maxOutstandingElementCount   = getLong(subscriptionConfig, pubSubConfig, "maxOutstandingElementCount", 1000L);
+      long           maxOutstandingRequestBytes   = getLong(subscriptionConfig, pubSubConfig, "maxOutstandingRequestBytes", 100L * 1024L * 1024L);
+      long           maxAckExtensionPeriod        = getLong(subscriptionConfig, pubSubConfig, "maxAckExtensionPeriodSeconds", 3600L);
+      boolean        adaptiveConcurrency          = subscriptionConfig.getBoolean("adaptiveConcurrency", pubSubConfig.getBoolean("adaptiveConcurrency", true));
+      
+      log_.info("Subscribing to " + subscriptionName + " executorThreadCount=" + executorThreadCount +
+          " parallelPullCount=" + parallelPullCount +
+          " maxOutstandingElementCount=" + maxOutstandingElementCount +
+          " maxOutstandingRequestBytes=" + maxOutstandingRequestBytes +
+          " maxAckExtensionPeriodSeconds=" + maxAckExtensionPeriod +
+          " adaptiveConcurrency=" + adaptiveConcurrency +
+          " ...");
       
-      GoogleAsyncSubscriber   receiver                = new GoogleAsyncSubscriber(this, getTraceFactory(), subscription.getConsumer(), subscriptionName.toString(), counter_, nameFactory_.getPodName());
+      AdaptiveConcurrencyLimiter limiter = adaptiveConcurrency && executorThreadCount > 1
+          ? new AdaptiveConcurrencyLimiter.Builder()
+              .withLimits(1, executorThreadCount)
+              .build()
+          : null;
+      
+      GoogleAsyncSubscriber   receiver                = new GoogleAsyncSubscriber(this, getTraceFactory(), subscription.getConsumer(), subscriptionName.toString(), counter_, nameFactory_.getPodName(), limiter);
       ProjectSubscriptionName projectSubscriptionName = ProjectSubscriptionName.of(projectId_, subscriptionName.toString());      
-      Subscriber.Builder      builder = Subscriber.newBuilder(projectSubscriptionName, receiver);
+      Subscriber.Builder      builder = Subscriber.newBuilder(projectSubscriptionName, receiver)
+          .setExecutorProvider(InstantiatingExecutorProvider.newBuilder()
+              .setExecutorThreadCount(executorThreadCount)
+              .build())
+          .setParallelPullCount(parallelPullCount)
+          .setMaxAckExtensionPeriod(Duration.ofSeconds(maxAckExtensionPeriod))
+          .setFlowControlSettings(FlowControlSettings.newBuilder()
+              .setMaxOutstandingElementCount(maxOutstandingElementCount)
+              .setMaxOutstandingRequestBytes(maxOutstandingRequestBytes)
+              .setLimitExceededBehavior(LimitExceededBehavior.Block)
+              .build());
       
-//        ExecutorProvider executorProvider =
-//            InstantiatingExecutorProvider.newBuilder()
-//              .setExecutorThreadCount(subscriberThreadPoolSize)
-//              .build();
-//        builder.setExecutorProvider(executorProvider);
-//        
-//        
-//        
-//        builder.setFlowControlSettings(FlowControlSettings.newBuilder()
-//            .setMaxOutstandingElementCount(maxOutstandingElementCount).build());
       Subscriber              subscriber              = builder.build();
       
       subscriber.addListener(new Subscriber.Listener()
@@ -200,6 +234,16 @@ public class GoogleAsyncSubscriberManager extends AbstractSubscriberManager<Stri
     }
   }
   
+  private static int getInt(IConfiguration subscriptionConfig, IConfiguration pubSubConfig, String name, int defaultValue)
+  {
+    return subscriptionConfig.getInt(name, pubSubConfig.getInt(name, defaultValue));
+  }
+  
+  private static long getLong(IConfiguration subscriptionConfig, IConfiguration pubSubConfig, String name, long defaultValue)
+  {
+    return subscriptionConfig.getLong(name, pubSubConfig.getLong(name, defaultValue));
+  }
+  
   @Override
   protected void startSubscriptions()
   {
@@ -0,0 +1,66 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.google.pubsub;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batch acknowledgement of Google pubsub messages over a StreamingPull stream.
+ * 
+ * While the stream is disconnected, for example during a reconnect or after it has been closed on
+ * shutdown, acknowledge and modifyAckDeadline requests are made on the stub pool instead.
+ * 
+ * @author Bruce Skingle
+ */
+/* package */ class GoogleStreamingAckBatchSink extends GoogleAckBatchSink
+{
+  private final GoogleStreamingPull streamingPull_;
+
+  /* package */ GoogleStreamingAckBatchSink(String subscriptionName, GoogleSubscriberStubPool stubPool, GoogleStreamingPull streamingPull)
+  {
+    super(subscriptionName, stubPool);
+    
+    streamingPull_ = streamingPull;
+  }
+
+  @Override
+  public Collection<String> acknowledge(List<String> handles)
+  {
+    if(streamingPull_.acknowledge(handles))
+      return Collections.emptyList();
+    
+    return super.acknowledge(handles);
+  }
+
+  @Override
+  public Collection<String> modifyVisibility(List<String> handles, int timeoutSeconds)
+  {
+    if(streamingPull_.modifyAckDeadline(handles, timeoutSeconds))
+      return Collections.emptyList();
+    
+    return super.modifyVisibility(handles, timeoutSeconds);
+  }
+}
@@ -0,0 +1,466 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.google.pubsub;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.gax.rpc.ClientStream;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.pubsub.v1.ReceivedMessage;
+import com.google.pubsub.v1.StreamingPullRequest;
+import com.google.pubsub.v1.StreamingPullResponse;
+
+/**
+ * A persistent StreamingPull connection to a single subscription.
+ * 
+ * Received messages are buffered until they are polled by a subscriber. Inbound flow control is
+ * manual, the next response is only requested from the server while the number and size of
+ * outstanding messages, which have been received but not yet released, are below the given limits.
+ * Because the buffer can hold more messages than the subscriber consumes within the stream ack deadline,
+ * extendBuffered must be called periodically to extend the deadlines of messages which are still buffered.
+ * 
+ * Acknowledgements and deadline modifications are sent over the stream while it is connected.
+ * If the stream fails it is re-opened on the next poll after an exponential backoff with jitter,
+ * a stream which is closed normally by the server is re-opened immediately.
+ * 
+ * @author Bruce Skingle
+ */
+/* package */ class GoogleStreamingPull
+{
+  private static final Logger                     log_                = LoggerFactory.getLogger(GoogleStreamingPull.class);
+  private static final long                       INITIAL_BACKOFF     = 100;
+  private static final long                       MAX_BACKOFF         = 10000;
+
+  private final String                            subscriptionName_;
+  private final GoogleSubscriberStubPool          stubPool_;
+  private final int                               streamAckDeadlineSeconds_;
+  private final long                              maxOutstandingElementCount_;
+  private final long                              maxOutstandingRequestBytes_;
+
+  private final ReentrantLock                     lock_               = new ReentrantLock();
+  private final Condition                         available_          = lock_.newCondition();
+  private final ArrayDeque<ReceivedMessage>       buffer_             = new ArrayDeque<>();
+
+  private ClientStream<StreamingPullRequest>      stream_;
+  private StreamObserver                          observer_;
+  private StreamController                        controller_;
+  private boolean                                 requested_;
+  private long                                    outstandingCount_;
+  private long                                    outstandingBytes_;
+  private long                                    backoff_            = INITIAL_BACKOFF;
+  private long                                    reconnectTime_;
+  private boolean                                 stopped_;
+
+  /* package */ GoogleStreamingPull(String subscriptionName, GoogleSubscriberStubPool stubPool,
+      int streamAckDeadlineSeconds, long maxOutstandingElementCount, long maxOutstandingRequestBytes)
+  {
+    subscriptionName_           = subscriptionName;
+    stubPool_                   = stubPool;
+    streamAckDeadlineSeconds_   = streamAckDeadlineSeconds;
+    maxOutstandingElementCount_ = maxOutstandingElementCount;
+    maxOutstandingRequestBytes_ = maxOutstandingRequestBytes;
+  }
+  
+  /**
+   * Take received messages from the buffer, connecting the stream if necessary.
+   * 
+   * Every message returned must eventually be passed to release.
+   * 
+   * @param maxMessages   The maximum number of messages to return.
+   * @param timeoutMillis The maximum time to wait for a message if none are buffered, zero to return immediately.
+   * 
+   * @return Up to maxMessages received messages, empty if the timeout expired or the stream has been stopped.
+   */
+  /* package */ List<ReceivedMessage> poll(int maxMessages, long timeoutMillis)
+  {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    
+    lock_.lock();
+    try
+    {
+      while(buffer_.isEmpty() && !stopped_)
+      {
+        connect();
+        
+        long now  = System.currentTimeMillis();
+        long wait = deadline - now;
+        
+        if(wait <= 0)
+          return Collections.emptyList();
+        
+        if(stream_ == null)
+          wait = Math.min(wait, Math.max(1, reconnectTime_ - now));
+        
+        try
+        {
+          available_.await(wait, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return Collections.emptyList();
+        }
+      }
+      
+      List<ReceivedMessage> result = new ArrayList<>(Math.min(maxMessages, buffer_.size()));
+      
+      while(result.size() < maxMessages && !buffer_.isEmpty())
+        result.add(buffer_.poll());
+      
+      return result;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Release the flow control allowance for a message which has been acknowledged or nacked.
+   * 
+   * @param message A message returned from poll.
+   */
+  /* package */ void release(ReceivedMessage message)
+  {
+    lock_.lock();
+    try
+    {
+      outstandingCount_--;
+      outstandingBytes_ -= message.getMessage().getSerializedSize();
+      
+      requestMore();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Extend the ack deadline of every message which has been received but not yet polled, so that messages
+   * which wait in the buffer for longer than the stream ack deadline are not redelivered.
+   * 
+   * This should be called at an interval of less than the stream ack deadline, see getExtendIntervalSeconds.
+   */
+  /* package */ void extendBuffered()
+  {
+    lock_.lock();
+    try
+    {
+      if(buffer_.isEmpty() || stream_ == null)
+        return;
+      
+      List<String> ackIds = new ArrayList<>(buffer_.size());
+      
+      for(ReceivedMessage message : buffer_)
+        ackIds.add(message.getAckId());
+      
+      if(!modifyAckDeadline(ackIds, streamAckDeadlineSeconds_))
+        log_.warn("Failed to extend the deadline of " + ackIds.size() + " buffered messages for " + subscriptionName_);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The interval at which extendBuffered should be called, half of the stream ack deadline.
+   */
+  /* package */ long getExtendIntervalSeconds()
+  {
+    return streamAckDeadlineSeconds_ / 2;
+  }
+  
+  /**
+   * Send acknowledgements over the stream.
+   * 
+   * @param ackIds The ack ids of the messages to acknowledge.
+   * 
+   * @return true if the acknowledgements were sent, false if the stream is not connected.
+   */
+  /* package */ boolean acknowledge(List<String> ackIds)
+  {
+    return send(StreamingPullRequest.newBuilder()
+        .addAllAckIds(ackIds)
+        .build());
+  }
+  
+  /**
+   * Send deadline modifications over the stream.
+   * 
+   * @param ackIds          The ack ids of the messages to modify.
+   * @param timeoutSeconds  The new ack deadline.
+   * 
+   * @return true if the modifications were sent, false if the stream is not connected.
+   */
+  /* package */ boolean modifyAckDeadline(List<String> ackIds, int timeoutSeconds)
+  {
+    StreamingPullRequest.Builder builder = StreamingPullRequest.newBuilder()
+        .addAllModifyDeadlineAckIds(ackIds);
+    
+    for(int i=0 ; i<ackIds.size() ; i++)
+      builder.addModifyDeadlineSeconds(timeoutSeconds);
+    
+    return send(builder.build());
+  }
+  
+  private boolean send(StreamingPullRequest request)
+  {
+    lock_.lock();
+    try
+    {
+      if(stream_ == null)
+        return false;
+      
+      stream_.send(request);
+      
+      return true;
+    }
+    catch(RuntimeException e)
+    {
+      log_.warn("Failed to send on stream for " + subscriptionName_, e);
+      
+      return false;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Stop receiving messages and wake any pollers.
+   * 
+   * The stream is left open so that acknowledgements of messages in progress can still be sent over it.
+   */
+  /* package */ void stop()
+  {
+    lock_.lock();
+    try
+    {
+      stopped_ = true;
+      available_.signalAll();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Close the stream, nacking any messages which were received but never polled.
+   */
+  /* package */ void close()
+  {
+    lock_.lock();
+    try
+    {
+      stopped_ = true;
+      
+      if(!buffer_.isEmpty())
+      {
+        List<String> ackIds = new ArrayList<>(buffer_.size());
+        
+        for(ReceivedMessage message : buffer_)
+          ackIds.add(message.getAckId());
+        
+        buffer_.clear();
+        
+        if(!modifyAckDeadline(ackIds, 0))
+          log_.info(ackIds.size() + " buffered messages for " + subscriptionName_ + " will be redelivered after their deadline");
+      }
+      
+      if(stream_ != null)
+      {
+        stream_.closeSend();
+        disconnected();
+      }
+      
+      available_.signalAll();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  private void connect()
+  {
+    if(stream_ != null || stopped_ || System.currentTimeMillis() < reconnectTime_)
+      return;
+    
+    log_.info("Opening stream for " + subscriptionName_);
+    
+    StreamObserver observer = new StreamObserver();
+    
+    try
+    {
+      observer_ = observer;
+      stream_   = stubPool_.call((stub) -> stub.streamingPullCallable().splitCall(observer));
+      
+      stream_.send(StreamingPullRequest.newBuilder()
+          .setSubscription(subscriptionName_)
+          .setStreamAckDeadlineSeconds(streamAckDeadlineSeconds_)
+          .build());
+      
+      requestMore();
+    }
+    catch(RuntimeException e)
+    {
+      log_.error("Failed to open stream for " + subscriptionName_, e);
+      
+      if(observer_ == observer)
+      {
+        disconnected();
+        backoff();
+      }
+    }
+  }
+  
+  private void requestMore()
+  {
+    if(controller_ != null && !requested_ && !stopped_ &&
+        outstandingCount_ < maxOutstandingElementCount_ && outstandingBytes_ < maxOutstandingRequestBytes_)
+    {
+      requested_ = true;
+      controller_.request(1);
+    }
+  }
+  
+  private void disconnected()
+  {
+    stream_     = null;
+    observer_   = null;
+    controller_ = null;
+    requested_  = false;
+  }
+  
+  private void backoff()
+  {
+    reconnectTime_  = System.currentTimeMillis() + backoff_ / 2 + ThreadLocalRandom.current().nextLong(backoff_ / 2 + 1);
+    backoff_        = Math.min(MAX_BACKOFF, backoff_ * 2);
+  }
+  
+  private class StreamObserver implements ResponseObserver<StreamingPullResponse>
+  {
+    @Override
+    public void onStart(StreamController controller)
+    {
+      controller.disableAutoInboundFlowControl();
+      
+      lock_.lock();
+      try
+      {
+        if(observer_ == this)
+          controller_ = controller;
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+    }
+
+    @Override
+    public void onResponse(StreamingPullResponse response)
+    {
+      lock_.lock();
+      try
+      {
+        if(observer_ != this)
+          return;
+        
+        backoff_    = INITIAL_BACKOFF;
+        requested_  = false;
+        
+        for(ReceivedMessage message : response.getReceivedMessagesList())
+        {
+          outstandingCount_++;
+          outstandingBytes_ += message.getMessage().getSerializedSize();
+          buffer_.add(message);
+        }
+        
+        requestMore();
+        available_.signalAll();
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+    }
+
+    @Override
+    public void onError(Throwable t)
+    {
+      lock_.lock();
+      try
+      {
+        if(observer_ != this)
+          return;
+        
+        log_.warn("Stream for " + subscriptionName_ + " failed, reconnecting in " + backoff_ + "ms", t);
+        
+        disconnected();
+        backoff();
+        available_.signalAll();
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+    }
+
+    @Override
+    public void onComplete()
+    {
+      lock_.lock();
+      try
+      {
+        if(observer_ != this)
+          return;
+        
+        log_.info("Stream for " + subscriptionName_ + " closed by server, reconnecting");
+        
+        disconnected();
+        available_.signalAll();
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.google.pubsub;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.Timestamp;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.ReceivedMessage;
+import com.symphony.oss.fugue.Fugue;
+import com.symphony.oss.fugue.counter.IBusyCounter;
+import com.symphony.oss.fugue.counter.ICounter;
+import com.symphony.oss.fugue.pipeline.IThreadSafeRetryableConsumer;
+import com.symphony.oss.fugue.pubsub.AbstractPullSubscriber;
+import com.symphony.oss.fugue.pubsub.AckBatcher;
+import com.symphony.oss.fugue.pubsub.IPullSubscriberContext;
+import com.symphony.oss.fugue.pubsub.IPullSubscriberMessage;
+import com.symphony.oss.fugue.trace.ITraceContext;
+import com.symphony.oss.fugue.trace.ITraceContextTransaction;
+import com.symphony.oss.fugue.trace.ITraceContextTransactionFactory;
+
+/**
+ * A subscriber to a single topic which receives messages over a persistent StreamingPull stream
+ * rather than with unary pull requests.
+ * 
+ * A blocking pull waits on the stream for up to BLOCKING_PULL_MILLIS, so an idle subscription
+ * makes no calls other than keepalive pings.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class GoogleStreamingSubscriber extends AbstractPullSubscriber
+{
+  private static final int  EXTENSION_TIMEOUT_SECONDS   = 10;
+  private static final int  EXTENSION_FREQUENCY_MILLIS  = 5000;
+  private static final long BLOCKING_PULL_MILLIS        = 20000;
+  
+  private static final Logger                                    log_     = LoggerFactory
+      .getLogger(GoogleStreamingSubscriber.class);
+
+  private final GoogleSubscriberManager                          manager_;
+  private final ITraceContextTransactionFactory                  traceFactory_;
+  private final IThreadSafeRetryableConsumer<String>             consumer_;
+  private final NonIdleSubscriber                                nonIdleSubscriber_;
+  private final String                                           tenantId_;
+  private final AckBatcher                                       ackBatcher_;
+  private final GoogleStreamingPull                              streamingPull_;
+  private final GoogleStreamingPullSubscriberContext             context_;
+  private int                                                    batchSize_;
+
+  /* package */ GoogleStreamingSubscriber(GoogleSubscriberManager manager,
+      String subscriptionName, ITraceContextTransactionFactory traceFactory,
+      IThreadSafeRetryableConsumer<String> consumer, ICounter counter, IBusyCounter busyCounter, String tenantId,
+      AckBatcher ackBatcher, GoogleStreamingPull streamingPull, int batchSize)
+  {
+    super(manager, subscriptionName, counter, busyCounter, EXTENSION_FREQUENCY_MILLIS, consumer);
+    
+    batchSize_ = batchSize;
+    
+    if(Fugue.isDebugSingleThread())
+    {
+      batchSize_ = 1;
+    }
+    
+    manager_ = manager;
+    traceFactory_ = traceFactory;
+    consumer_ = consumer;
+    nonIdleSubscriber_ = new NonIdleSubscriber();
+    tenantId_ = tenantId;
+    ackBatcher_ = ackBatcher;
+    streamingPull_ = streamingPull;
+    context_ = new GoogleStreamingPullSubscriberContext();
+  }
+  
+  @Override
+  public void stop()
+  {
+    super.stop();
+    
+    // Wake up any blocked pulls, the stream stays open for acknowledgements until it is closed.
+    streamingPull_.stop();
+  }
+
+  /**
+   * Close the stream.
+   * 
+   * Called by the manager after all acknowledgements have been flushed.
+   */
+  /* package */ void closeStream()
+  {
+    streamingPull_.close();
+  }
+
+  class NonIdleSubscriber implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      GoogleStreamingSubscriber.this.run(false);
+    }
+  }
+
+  @Override
+  protected NonIdleSubscriber getNonIdleSubscriber()
+  {
+    return nonIdleSubscriber_;
+  }
+
+  @Override
+  protected IPullSubscriberContext getContext() throws IOException
+  {
+    return context_;
+  }
+  
+  class GoogleStreamingPullSubscriberContext implements IPullSubscriberContext
+  {
+    @Override
+    public Collection<IPullSubscriberMessage> nonBlockingPull()
+    {
+      return pull(batchSize_, 0);
+    }
+
+    @Override
+    public Collection<IPullSubscriberMessage> blockingPull()
+    {
+      return pull(batchSize_, BLOCKING_PULL_MILLIS);
+    }
+
+    @Override
+    public Collection<IPullSubscriberMessage> nonBlockingPull(int maxMessages)
+    {
+      return pull(Math.min(batchSize_, maxMessages), 0);
+    }
+
+    @Override
+    public Collection<IPullSubscriberMessage> blockingPull(int maxMessages)
+    {
+      return pull(Math.min(batchSize_, maxMessages), BLOCKING_PULL_MILLIS);
+    }
+
+    private Collection<IPullSubscriberMessage> pull(int maxMessages, long timeoutMillis)
+    {
+      List<IPullSubscriberMessage>result = new LinkedList<>();
+      
+      for(ReceivedMessage receivedMessage : streamingPull_.poll(Math.max(1, maxMessages), timeoutMillis))
+      {
+        result.add(new GoogleStreamingPullSubscriberMessage(receivedMessage));
+      }
+      
+      return result;
+    }
+
+    @Override
+    public void close()
+    {
+      // The stream is persistent and is closed by the manager.
+    }
+  }
+
+  private class GoogleStreamingPullSubscriberMessage implements IPullSubscriberMessage
+  {
+    private final ReceivedMessage    receivedMessage_;
+    private boolean                  running_ = true;
+    private final ReentrantLock      lock_    = new ReentrantLock();
+    
+    private GoogleStreamingPullSubscriberMessage(ReceivedMessage receivedMessage)
+    {
+      receivedMessage_ = receivedMessage;
+    }
+
+    @Override
+    public String getMessageId()
+    {
+      return receivedMessage_.getMessage().getMessageId();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes()
+    {
+      return Collections.unmodifiableMap(receivedMessage_.getMessage().getAttributesMap());
+    }
+
+    @Override
+    public int getPayloadSize()
+    {
+      return receivedMessage_.getMessage().getData().size();
+    }
+
+    @Override
+    public String toString()
+    {
+      return receivedMessage_.toString();
+    }
+
+    @Override
+    public void run()
+    {
+      PubsubMessage message = receivedMessage_.getMessage();
+      Timestamp     ts      = message.getPublishTime();
+      
+      log_.debug("process message " + getMessageId());
+      
+      try(ITraceContextTransaction traceTransaction = traceFactory_.createTransaction("PubSub:Google", message.getMessageId(),
+          tenantId_, Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos())))
+      {
+        ITraceContext trace = traceTransaction.open();
+        
+        trace.trace("RECEIVED");
+        long retryTime = manager_.handleMessage(consumer_, message.getData().toStringUtf8(), trace, message.getMessageId());
+        
+        lock_.lock();
+        try
+        {
+          // There is no point trying to extend the ack deadline now
+          running_ = false;
+        
+          if(retryTime < 0)
+          {
+            trace.trace("ABOUT_TO_ACK");
+            
+            ackBatcher_.acknowledge(receivedMessage_.getAckId());
+            traceTransaction.finished();
+            log_.debug("ACK message " + getMessageId());
+          }
+          else
+          {
+            trace.trace("ABOUT_TO_NACK");
+            
+            int visibilityTimout = (int) (retryTime / 1000);
+            
+            ackBatcher_.modifyVisibility(receivedMessage_.getAckId(), visibilityTimout);
+            
+            traceTransaction.aborted();
+            log_.debug("NAK message " + getMessageId());
+          }
+        }
+        finally
+        {
+          lock_.unlock();
+        }
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Failed to process message " + getMessageId(), e);
+      }
+      finally
+      {
+        streamingPull_.release(receivedMessage_);
+      }
+    }
+
+    @Override
+    public void abandon()
+    {
+      lock_.lock();
+      try
+      {
+        if(!running_)
+          return;
+        
+        running_ = false;
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+      
+      // Otherwise the message would count against the flow control window of the stream for ever.
+      streamingPull_.release(receivedMessage_);
+    }
+
+    @Override
+    public void extend()
+    {
+      lock_.lock();
+      try
+      {
+        if(running_)
+        {
+          try
+          {
+            ackBatcher_.modifyVisibility(receivedMessage_.getAckId(), EXTENSION_TIMEOUT_SECONDS);
+          }
+          catch(RuntimeException e)
+          {
+            log_.error("Failed to extend message " + getMessageId(), e);
+          }
+        }
+      }
+      finally
+      {
+        lock_.unlock();
+      }
+    }
+  }
+}
@@ -26,27 +26,25 @@ package com.symphony.oss.fugue.google.pubsub;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.threeten.bp.Duration;
 
-import com.google.cloud.pubsub.v1.stub.GrpcSubscriberStub;
-import com.google.cloud.pubsub.v1.stub.SubscriberStubSettings;
 import com.google.protobuf.Timestamp;
-import com.google.pubsub.v1.AcknowledgeRequest;
-import com.google.pubsub.v1.ModifyAckDeadlineRequest;
 import com.google.pubsub.v1.PubsubMessage;
 import com.google.pubsub.v1.PullRequest;
 import com.google.pubsub.v1.ReceivedMessage;
-import com.symphony.oss.commons.fault.CodingFault;
 import com.symphony.oss.fugue.Fugue;
 import com.symphony.oss.fugue.counter.IBusyCounter;
 import com.symphony.oss.fugue.counter.ICounter;
 import com.symphony.oss.fugue.pipeline.IThreadSafeRetryableConsumer;
 import com.symphony.oss.fugue.pubsub.AbstractPullSubscriber;
+import com.symphony.oss.fugue.pubsub.AckBatcher;
 import com.symphony.oss.fugue.pubsub.IPullSubscriberContext;
 import com.symphony.oss.fugue.pubsub.IPullSubscriberMessage;
 import com.symphony.oss.fugue.trace.ITraceContext;
@@ -73,18 +71,22 @@ public class GoogleSubscriber extends AbstractPullSubscriber
   private final NonIdleSubscriber                                nonIdleSubscriber_;
   private final String                                           subscriptionName_;
   private final String                                           tenantId_;
-  private int                                                    batchSize_ = 10;
-  private SubscriberStubSettings subscriberStubSettings_;
+  private final AckBatcher                                       ackBatcher_;
+  private final GoogleSubscriberStubPool                         stubPool_;
+  private int                                                    batchSize_;
 
   private final PullRequest blockingPullRequest_;
   private final PullRequest nonBlockingPullRequest_;
 
   /* package */ GoogleSubscriber(GoogleSubscriberManager manager,
       String subscriptionName, ITraceContextTransactionFactory traceFactory,
-      IThreadSafeRetryableConsumer<String> consumer, ICounter counter, IBusyCounter busyCounter, String tenantId)
+      IThreadSafeRetryableConsumer<String> consumer, ICounter counter, IBusyCounter busyCounter, String tenantId,
+      AckBatcher ackBatcher, GoogleSubscriberStubPool stubPool, int batchSize)
   {
     super(manager, subscriptionName, counter, busyCounter, EXTENSION_FREQUENCY_MILLIS, consumer);
     
+    batchSize_ = batchSize;
+    
     if(Fugue.isDebugSingleThread())
     {
       batchSize_ = 1;
@@ -96,19 +98,8 @@ public class GoogleSubscriber extends AbstractPullSubscriber
     consumer_ = consumer;
     nonIdleSubscriber_ = new NonIdleSubscriber();
     tenantId_ = tenantId;
-    
-    try
-    {
-      // Set the timeout to 60 seconds, needed to overcome https://github.com/googleapis/google-cloud-java/issues/4246
-      
-      SubscriberStubSettings.Builder settingsBuilder = SubscriberStubSettings.newBuilder();
-      settingsBuilder.pullSettings().setSimpleTimeoutNoRetries(Duration.ofSeconds(60));
-      subscriberStubSettings_ = settingsBuilder.build();
-    }
-    catch (IOException e)
-    {
-      throw new CodingFault(e);
-    }
+    ackBatcher_ = ackBatcher;
+    stubPool_ = stubPool;
 
     blockingPullRequest_ = PullRequest.newBuilder().setMaxMessages(batchSize_)
         .setReturnImmediately(false) // return immediately if messages are not available
@@ -121,11 +112,6 @@ public class GoogleSubscriber extends AbstractPullSubscriber
         .build();
   }
   
-  String getSubscriptionName()
-  {
-    return subscriptionName_;
-  }
-
   class NonIdleSubscriber implements Runnable
   {
     @Override
@@ -149,13 +135,6 @@ public class GoogleSubscriber extends AbstractPullSubscriber
   
   class GooglePullSubscriberContext implements IPullSubscriberContext
   {
-    private final GrpcSubscriberStub subscriber_;
-
-    GooglePullSubscriberContext() throws IOException
-    {
-      subscriber_ = GrpcSubscriberStub.create(subscriberStubSettings_);
-    }
-    
     @Override
     public Collection<IPullSubscriberMessage> nonBlockingPull()
     {
@@ -168,13 +147,33 @@ public class GoogleSubscriber extends AbstractPullSubscriber
       return pull(blockingPullRequest_);
     }
 
+    @Override
+    public Collection<IPullSubscriberMessage> nonBlockingPull(int maxMessages)
+    {
+      return pull(limit(nonBlockingPullRequest_, maxMessages));
+    }
+
+    @Override
+    public Collection<IPullSubscriberMessage> blockingPull(int maxMessages)
+    {
+      return pull(limit(blockingPullRequest_, maxMessages));
+    }
+    
+    private PullRequest limit(PullRequest pullRequest, int maxMessages)
+    {
+      if(maxMessages >= batchSize_)
+        return pullRequest;
+      
+      return pullRequest.toBuilder().setMaxMessages(Math.max(1, maxMessages)).build();
+    }
+
     private Collection<IPullSubscriberMessage> pull(PullRequest pullRequest)
     {
       List<IPullSubscriberMessage>result = new LinkedList<>();
       
-      for(ReceivedMessage receivedMessage : subscriber_.pullCallable().call(pullRequest).getReceivedMessagesList())
+      for(ReceivedMessage receivedMessage : stubPool_.call((stub) -> stub.pullCallable().call(pullRequest)).getReceivedMessagesList())
       {
-        result.add(new GooglePullSubscriberMessage(subscriber_, receivedMessage));
+        result.add(new GooglePullSubscriberMessage(receivedMessage));
       }
       
       return result;
@@ -183,19 +182,18 @@ public class GoogleSubscriber extends AbstractPullSubscriber
     @Override
     public void close()
     {
-      subscriber_.close();
+      // The stub is shared and is closed by the manager.
     }
   }
 
   private class GooglePullSubscriberMessage implements IPullSubscriberMessage
   {
-    private final GrpcSubscriberStub subscriber_;
     private final ReceivedMessage    receivedMessage_;
     private boolean                  running_ = true;
+    private final ReentrantLock      lock_    = new ReentrantLock();
     
-    private GooglePullSubscriberMessage(GrpcSubscriberStub subscriber, ReceivedMessage receivedMessage)
+    private GooglePullSubscriberMessage(ReceivedMessage receivedMessage)
     {
-      subscriber_ = subscriber;
       receivedMessage_ = receivedMessage;
     }
 
@@ -205,6 +203,18 @@ public class GoogleSubscriber extends AbstractPullSubscriber
       return receivedMessage_.getMessage().getMessageId();
     }
 
+    @Override
+    public Map<String, Object> getAttributes()
+    {
+      return Collections.unmodifiableMap(receivedMessage_.getMessage().getAttributesMap());
+    }
+
+    @Override
+    public int getPayloadSize()
+    {
+      return receivedMessage_.getMessage().getData().size();
+    }
+
     @Override
     public String toString()
     {
@@ -227,7 +237,8 @@ public class GoogleSubscriber extends AbstractPullSubscriber
         trace.trace("RECEIVED");
         long retryTime = manager_.handleMessage(consumer_, message.getData().toStringUtf8(), trace, message.getMessageId());
         
-        synchronized(this)
+        lock_.lock();
+        try
         {
           // There is no point trying to extend the ack deadline now
           running_ = false;
@@ -236,13 +247,7 @@ public class GoogleSubscriber extends AbstractPullSubscriber
           {
             trace.trace("ABOUT_TO_ACK");
             
-            AcknowledgeRequest acknowledgeRequest = AcknowledgeRequest
-                .newBuilder()
-                .setSubscription(subscriptionName_)
-                .addAckIds(receivedMessage_.getAckId())
-                .build();
-            
-            subscriber_.acknowledgeCallable().call(acknowledgeRequest);
+            ackBatcher_.acknowledge(receivedMessage_.getAckId());
             traceTransaction.finished();
             log_.debug("ACK message " + getMessageId());
           }
@@ -252,19 +257,16 @@ public class GoogleSubscriber extends AbstractPullSubscriber
             
             int visibilityTimout = (int) (retryTime / 1000);
             
-            ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest
-              .newBuilder()
-              .setSubscription(subscriptionName_)
-              .setAckDeadlineSeconds(visibilityTimout)
-              .addAckIds(receivedMessage_.getAckId())
-              .build();
-  
-            subscriber_.modifyAckDeadlineCallable().call(request);
+            ackBatcher_.modifyVisibility(receivedMessage_.getAckId(), visibilityTimout);
             
             traceTransaction.aborted();
             log_.debug("NAK message " + getMessageId());
           }
         }
+        finally
+        {
+          lock_.unlock();
+        }
       }
       catch(RuntimeException e)
       {
@@ -273,26 +275,27 @@ public class GoogleSubscriber extends AbstractPullSubscriber
     }
 
     @Override
-    public synchronized void extend()
+    public void extend()
     {
-      if(running_)
+      lock_.lock();
+      try
       {
-        try
-        {
-          ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest
-            .newBuilder()
-            .setSubscription(subscriptionName_)
-            .setAckDeadlineSeconds(EXTENSION_TIMEOUT_SECONDS)
-            .addAckIds(receivedMessage_.getAckId())
-            .build();
-  
-          subscriber_.modifyAckDeadlineCallable().call(request);
-        }
-        catch(RuntimeException e)
+        if(running_)
         {
-          log_.error("Failed to extend message " + getMessageId(), e);
+          try
+          {
+            ackBatcher_.modifyVisibility(receivedMessage_.getAckId(), EXTENSION_TIMEOUT_SECONDS);
+          }
+          catch(RuntimeException e)
+          {
+            log_.error("Failed to extend message " + getMessageId(), e);
+          }
         }
       }
+      finally
+      {
+        lock_.unlock();
+      }
     }
   }
 }
@@ -9,6 +9,7 @@ package com.symphony.oss.fugue.google.pubsub;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,7 +18,9 @@ import com.google.api.gax.rpc.NotFoundException;
 import com.google.cloud.pubsub.v1.SubscriptionAdminClient;
 import com.google.pubsub.v1.ProjectSubscriptionName;
 import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.fugue.config.IConfiguration;
 import com.symphony.oss.fugue.naming.Name;
+import com.symphony.oss.fugue.pubsub.AbstractPullSubscriber;
 import com.symphony.oss.fugue.pubsub.AbstractPullSubscriberManager;
 import com.symphony.oss.fugue.pubsub.ISubscription;
 
@@ -41,13 +44,30 @@ import io.grpc.StatusRuntimeException;
             "pubsub":
             {
               "subscriberThreadPoolSize": 40,
-              "handlerThreadPoolSize": 360
+              "handlerThreadPoolSize": 360,
+              "channelCount": 4,
+              "keepAliveSeconds": 30,
+              "maxChannelFailures": 3,
+              "pullBatchSize": 10,
+              "streamingPull": false,
+              "streamAckDeadlineSeconds": 60,
+              "maxOutstandingElementCount": 1000,
+              "maxOutstandingRequestBytes": 104857600
             }
           }
         }
       }
     }
   }
+ * 
+ * All pull, acknowledge and modify deadline requests share a pool of channelCount gRPC channels
+ * which is shut down when the manager stops. Each pull request asks for up to pullBatchSize messages.
+ * 
+ * If streamingPull is true then each subscription receives messages over a persistent StreamingPull
+ * stream, over which acknowledgements are also sent, instead of making unary pull requests. No more
+ * than maxOutstandingElementCount messages or maxOutstandingRequestBytes bytes are received but not
+ * yet acknowledged or nacked for each subscription.
+ * 
  * @author Bruce Skingle
  *
  */
@@ -56,14 +76,41 @@ public class GoogleSubscriberManager extends AbstractPullSubscriberManager<Strin
   private static final Logger          log_            = LoggerFactory.getLogger(GoogleSubscriberManager.class);
 
   private final String                 projectId_;
+  private final GoogleSubscriberStubPool stubPool_;
+  private final int                    pullBatchSize_;
+  private final boolean                streamingPull_;
+  private final int                    streamAckDeadlineSeconds_;
+  private final long                   maxOutstandingElementCount_;
+  private final long                   maxOutstandingRequestBytes_;
 
-  private List<GoogleSubscriber> subscribers_ = new LinkedList<>();
+  private List<AbstractPullSubscriber>    subscribers_          = new LinkedList<>();
+  private List<GoogleStreamingSubscriber> streamingSubscribers_ = new LinkedList<>();
   
   private GoogleSubscriberManager(Builder builder)
   {
     super(builder);
     
     projectId_ = builder.projectId_;
+    
+    IConfiguration subscriberConfig = config_.getConfiguration(GoogleConstants.CONFIG_PATH);
+    
+    stubPool_ = new GoogleSubscriberStubPool(
+        subscriberConfig.getInt("channelCount", 4),
+        subscriberConfig.getLong("keepAliveSeconds", 30),
+        subscriberConfig.getInt("maxChannelFailures", 3));
+    
+    pullBatchSize_ = subscriberConfig.getInt("pullBatchSize", 10);
+    
+    if(pullBatchSize_ < 1 || pullBatchSize_ > 1000)
+      throw new IllegalArgumentException("pullBatchSize must be between 1 and 1000");
+    
+    streamingPull_              = subscriberConfig.getBoolean("streamingPull", false);
+    streamAckDeadlineSeconds_   = subscriberConfig.getInt("streamAckDeadlineSeconds", 60);
+    maxOutstandingElementCount_ = subscriberConfig.getLong("maxOutstandingElementCount", 1000L);
+    maxOutstandingRequestBytes_ = subscriberConfig.getLong("maxOutstandingRequestBytes", 100L * 1024L * 1024L);
+    
+    if(streamAckDeadlineSeconds_ < 10 || streamAckDeadlineSeconds_ > 600)
+      throw new IllegalArgumentException("streamAckDeadlineSeconds must be between 10 and 600");
   }
   
   /**
@@ -131,10 +178,30 @@ public class GoogleSubscriberManager extends AbstractPullSubscriberManager<Strin
         
         validateSubcription(subscriptionAdminClient, subscriptionName.toString());
         
-        GoogleSubscriber subscriber = new GoogleSubscriber(this, ProjectSubscriptionName.format(projectId_,  subscriptionName.toString()),
-            getTraceFactory(), subscription.getConsumer(), getCounter(), createBusyCounter(subscriptionName), nameFactory_.getPodName());
-  
-        subscribers_.add(subscriber);
+        String           projectSubscriptionName = ProjectSubscriptionName.format(projectId_,  subscriptionName.toString());
+        
+        if(streamingPull_)
+        {
+          GoogleStreamingPull       streamingPull = new GoogleStreamingPull(projectSubscriptionName, stubPool_,
+              streamAckDeadlineSeconds_, maxOutstandingElementCount_, maxOutstandingRequestBytes_);
+          
+          schedulePeriodic(() -> streamingPull.extendBuffered(), streamingPull.getExtendIntervalSeconds(), TimeUnit.SECONDS);
+          
+          GoogleStreamingSubscriber subscriber    = new GoogleStreamingSubscriber(this, projectSubscriptionName,
+              getTraceFactory(), subscription.getConsumer(), getCounter(), createBusyCounter(subscriptionName), nameFactory_.getPodName(),
+              createAckBatcher(new GoogleStreamingAckBatchSink(projectSubscriptionName, stubPool_, streamingPull)), streamingPull, pullBatchSize_);
+          
+          subscribers_.add(subscriber);
+          streamingSubscribers_.add(subscriber);
+        }
+        else
+        {
+          GoogleSubscriber subscriber = new GoogleSubscriber(this, projectSubscriptionName,
+              getTraceFactory(), subscription.getConsumer(), getCounter(), createBusyCounter(subscriptionName), nameFactory_.getPodName(),
+              createAckBatcher(new GoogleAckBatchSink(projectSubscriptionName, stubPool_)), stubPool_, pullBatchSize_);
+    
+          subscribers_.add(subscriber);
+        }
         log_.info("Subscribing to " + subscriptionName + "...");  
       }
     }
@@ -167,7 +234,7 @@ public class GoogleSubscriberManager extends AbstractPullSubscriberManager<Strin
   @Override
   protected void startSubscriptions()
   {
-    for(GoogleSubscriber subscriber : subscribers_)
+    for(AbstractPullSubscriber subscriber : subscribers_)
     {
       log_.info("Starting subscription to " + subscriber.getSubscriptionName() + "...");
       submit(subscriber, true);
@@ -177,10 +244,16 @@ public class GoogleSubscriberManager extends AbstractPullSubscriberManager<Strin
   @Override
   protected void stopSubscriptions()
   {
-     for(GoogleSubscriber subscriber : subscribers_)
+     for(AbstractPullSubscriber subscriber : subscribers_)
         subscriber.stop();
       
      super.stopSubscriptions();
+     
+     // Acknowledgements have been flushed so the streams and channels can be closed.
+     for(GoogleStreamingSubscriber subscriber : streamingSubscribers_)
+       subscriber.closeStream();
+     
+     stubPool_.close();
   }
 
 //  @Override
@@ -0,0 +1,196 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.google.pubsub;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.threeten.bp.Duration;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.pubsub.v1.stub.GrpcSubscriberStub;
+import com.google.cloud.pubsub.v1.stub.SubscriberStubSettings;
+
+/**
+ * A fixed size pool of subscriber stubs, each with its own gRPC channel, shared by all of the pull
+ * subscribers and acknowledgement sinks of a subscriber manager.
+ * 
+ * Calls are spread over the stubs round robin. Channels are kept alive with gRPC keepalive pings,
+ * and a stub whose calls fail as UNAVAILABLE the given number of times in a row is shut down and
+ * replaced with a new one on its next use.
+ * 
+ * @author Bruce Skingle
+ */
+/* package */ class GoogleSubscriberStubPool
+{
+  private static final Logger             log_              = LoggerFactory.getLogger(GoogleSubscriberStubPool.class);
+  private static final long               SHUTDOWN_TIMEOUT  = 10;
+  private static final long               KEEPALIVE_TIMEOUT = 20;
+
+  private final SubscriberStubSettings    settings_;
+  private final int                       maxFailures_;
+  private final GrpcSubscriberStub[]      stubs_;
+  private final int[]                     failures_;
+  private final AtomicInteger             next_             = new AtomicInteger();
+  private boolean                         closed_;
+
+  /* package */ GoogleSubscriberStubPool(int channelCount, long keepAliveSeconds, int maxFailures)
+  {
+    maxFailures_  = maxFailures;
+    stubs_        = new GrpcSubscriberStub[channelCount];
+    failures_     = new int[channelCount];
+    
+    try
+    {
+      SubscriberStubSettings.Builder settingsBuilder = SubscriberStubSettings.newBuilder()
+          .setTransportChannelProvider(SubscriberStubSettings.defaultGrpcTransportProviderBuilder()
+              .setKeepAliveTime(Duration.ofSeconds(keepAliveSeconds))
+              .setKeepAliveTimeout(Duration.ofSeconds(KEEPALIVE_TIMEOUT))
+              .setKeepAliveWithoutCalls(true)
+              .build());
+      
+      // Set the timeout to 60 seconds, needed to overcome https://github.com/googleapis/google-cloud-java/issues/4246
+      settingsBuilder.pullSettings().setSimpleTimeoutNoRetries(Duration.ofSeconds(60));
+      
+      settings_ = settingsBuilder.build();
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException("Unable to create subscriber stub settings", e);
+    }
+  }
+  
+  /**
+   * Make a call on one of the stubs in the pool.
+   * 
+   * @param <R>   The type of the result.
+   * @param call  The call to make.
+   * 
+   * @return The result of the call.
+   */
+  /* package */ <R> R call(Function<GrpcSubscriberStub, R> call)
+  {
+    int                 index = Math.floorMod(next_.getAndIncrement(), stubs_.length);
+    GrpcSubscriberStub  stub  = getStub(index);
+    
+    try
+    {
+      R result = call.apply(stub);
+      
+      synchronized(this)
+      {
+        failures_[index] = 0;
+      }
+      
+      return result;
+    }
+    catch(ApiException e)
+    {
+      if(e.getStatusCode().getCode() == StatusCode.Code.UNAVAILABLE)
+        failed(index, stub);
+      
+      throw e;
+    }
+  }
+  
+  private synchronized GrpcSubscriberStub getStub(int index)
+  {
+    if(closed_)
+      throw new IllegalStateException("Subscriber stub pool is closed");
+    
+    if(stubs_[index] == null)
+    {
+      try
+      {
+        stubs_[index] = GrpcSubscriberStub.create(settings_);
+      }
+      catch (IOException e)
+      {
+        throw new IllegalStateException("Unable to create subscriber stub", e);
+      }
+    }
+    
+    return stubs_[index];
+  }
+  
+  private synchronized void failed(int index, GrpcSubscriberStub stub)
+  {
+    // Another caller may already have replaced this stub.
+    if(stubs_[index] != stub)
+      return;
+    
+    if(++failures_[index] >= maxFailures_)
+    {
+      log_.warn("Subscriber channel " + index + " failed " + failures_[index] + " times, replacing it");
+      
+      stubs_[index]    = null;
+      failures_[index] = 0;
+      
+      // Calls in progress on the old stub are allowed to complete.
+      stub.shutdown();
+    }
+  }
+  
+  /**
+   * Shut down all of the stubs in the pool, waiting for calls in progress to complete.
+   */
+  /* package */ void close()
+  {
+    GrpcSubscriberStub[] stubs;
+    
+    synchronized(this)
+    {
+      closed_ = true;
+      stubs   = stubs_.clone();
+    }
+    
+    for(GrpcSubscriberStub stub : stubs)
+    {
+      if(stub != null)
+        stub.shutdown();
+    }
+    
+    for(GrpcSubscriberStub stub : stubs)
+    {
+      if(stub != null)
+      {
+        try
+        {
+          if(!stub.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+            stub.shutdownNow();
+        }
+        catch (InterruptedException e)
+        {
+          stub.shutdownNow();
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.symphony.oss.fugue.kv.table.capacity.ICapacityControlPlane;
+import com.symphony.oss.fugue.kv.table.capacity.TableCapacity;
+
+/**
+ * An in memory implementation of ICapacityControlPlane, for testing.
+ * 
+ * Tables are on demand unless they have been provisioned by a call to updateCapacity().
+ * 
+ * @author Bruce Skingle
+ */
+public class InMemoryCapacityControlPlane implements ICapacityControlPlane
+{
+  private final Map<String, TableCapacity> capacityMap_ = new HashMap<>();
+  private int                              updateCount_;
+
+  @Override
+  public synchronized TableCapacity describeCapacity(String tableName)
+  {
+    TableCapacity capacity = capacityMap_.get(tableName);
+    
+    if(capacity == null)
+      return new TableCapacity(false, 0, 0, 0);
+    
+    return capacity;
+  }
+
+  @Override
+  public synchronized void updateCapacity(String tableName, long readUnits, long writeUnits)
+  {
+    TableCapacity current = capacityMap_.get(tableName);
+    int           decreases = 0;
+    
+    if(current != null)
+    {
+      decreases = current.getNumberOfDecreasesToday();
+      
+      if(readUnits < current.getReadUnits() || writeUnits < current.getWriteUnits())
+        decreases++;
+    }
+    
+    capacityMap_.put(tableName, new TableCapacity(true, readUnits, writeUnits, decreases));
+    updateCount_++;
+  }
+
+  /**
+   * 
+   * @return The number of calls to updateCapacity().
+   */
+  public synchronized int getUpdateCount()
+  {
+    return updateCount_;
+  }
+}
@@ -23,10 +23,8 @@
 
 package com.symphony.oss.fugue.inmemory.kv.table;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -36,7 +34,9 @@ import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -86,7 +86,13 @@ public class InMemoryKvTable implements IKvTable
   protected final String         serviceId_;
 
   private final Map<String, TreeMap<String, IKvItem>>  partitionMap_ = new HashMap<>();
-  private final Map<String,   Deque<IQueueMessage>>    queueMap_     = new HashMap<>();
+  private final Map<String,   InMemoryQueue>           queueMap_     = new ConcurrentHashMap<>();
+  
+  /** The suffix of the name of the dead letter queue of each queue, if queueMaxReceiveCount is set. */
+  public static final String     DEAD_LETTER_QUEUE_SUFFIX = "-dead-letter";
+
+  private final long             queueVisibilityTimeout_;
+  private final int              queueMaxReceiveCount_;
   
   private static final String KEY_EXISTS = "An object with given partition and sort key already exists.";
   private static final String KEY_EXISTS_OR_OBJECT_CHANGED = "An object with given partition and sort key already exists, or the object to be updated has changed.";
@@ -95,7 +101,9 @@ public class InMemoryKvTable implements IKvTable
   
   protected InMemoryKvTable(AbstractBuilder<?,?> builder)
   {
-    serviceId_    = builder.serviceId_;
+    serviceId_              = builder.serviceId_;
+    queueVisibilityTimeout_ = TimeUnit.SECONDS.toMillis(builder.queueVisibilityTimeout_);
+    queueMaxReceiveCount_   = builder.queueMaxReceiveCount_;
   }
   
   private IQueueManager queueManager_;
@@ -109,32 +117,44 @@ public class InMemoryKvTable implements IKvTable
   
   public class InMemoryQueueMessage implements IQueueMessage
   {
+    private final String messageId_;
+    private final String receiptHandle_;
+    private final String payload_;
 
-	private String payload;
+    InMemoryQueueMessage(InMemoryQueue.ReceivedMessage message)
+    {
+      messageId_      = message.messageId_;
+      receiptHandle_  = message.receiptHandle_;
+      payload_        = message.payload_;
+    }
 
-	public InMemoryQueueMessage(IPubSubMessage msg) 
-	{
-		payload = msg.getPayload();
-	}
-	  
-	@Override
-	public String getReceiptHandle()
-	{
-		return null;
-	}
+    @Override
+    public String getReceiptHandle()
+    {
+      return receiptHandle_;
+    }
 
-	@Override
-	public String getMessageId() 
-	{
-		return null;
-	}
+    @Override
+    public String getMessageId()
+    {
+      return messageId_;
+    }
 
-	@Override
-	public String getPayload()
-	{
-		return payload;
-	}
-	  
+    @Override
+    public String getPayload()
+    {
+      return payload_;
+    }
+  }
+  
+  private InMemoryQueue getQueue(String queueName)
+  {
+    InMemoryQueue queue = queueMap_.get(queueName);
+    
+    if(queue == null)
+      throw new IllegalStateException("Queue " + queueName + " does not exist");
+    
+    return queue;
   }
 
 	class InMemoryQueueSender implements IQueueSender 
@@ -152,10 +172,8 @@ public class InMemoryKvTable implements IKvTable
 		{
 			pubSubMessage.getTraceContext().trace("ABOUT-TO-SEND", "SQS_QUEUE", queueName_);
 
-			synchronized(queueMap_)
-			{
-				queueMap_.get(queueName_).add(new InMemoryQueueMessage(pubSubMessage));
-			}
+			getQueue(queueName_).send(pubSubMessage.getPayload());
+			
 			pubSubMessage.getTraceContext().trace("SENT", "SQS_QUEUE", queueName_);
 		}
 	}
@@ -172,20 +190,24 @@ public class InMemoryKvTable implements IKvTable
 		@Override
 		public Collection<IQueueMessage> receiveMessages(int maxMessages, int waitTimeSeconds,
 				Set<? extends IQueueMessageDelete> ackMessages, Set<? extends IQueueMessageExtend> nakMessages) {
-			List<IQueueMessage> messages = new ArrayList<>(maxMessages);
-
-			if (maxMessages > 0)
-			{
-        synchronized (queueMap_)
-        {
-          Deque<IQueueMessage> queue = queueMap_.get(queueName_);
-
-          log_.debug("About to receive messages...");
-
-          for (int i = 0; i < maxMessages && queue.size() > 0; i++)
-            messages.add(queue.pollFirst());
-        }
+		  InMemoryQueue queue = getQueue(queueName_);
+		  
+      for(IQueueMessageDelete ackMessage : ackMessages)
+        queue.delete(ackMessage.getReceiptHandle());
+      
+      for(IQueueMessageExtend nakMessage : nakMessages)
+      {
+        // As with SQS, a null timeout leaves the existing visibility timeout in place.
+        if(nakMessage.getVisibilityTimeout() != null)
+          queue.changeVisibility(nakMessage.getReceiptHandle(), TimeUnit.SECONDS.toMillis(nakMessage.getVisibilityTimeout()));
       }
+      
+			List<IQueueMessage> messages = new ArrayList<>(Math.max(0, maxMessages));
+
+      log_.debug("About to receive messages...");
+      
+      for(InMemoryQueue.ReceivedMessage message : queue.receive(maxMessages, TimeUnit.SECONDS.toMillis(waitTimeSeconds)))
+        messages.add(new InMemoryQueueMessage(message));
 
 			log_.debug("Returning " + messages.size() + " messages");
 			
@@ -231,9 +253,22 @@ public class InMemoryKvTable implements IKvTable
         {
           log_.info("Queue " + queueName + " already exists");
         }
+        else if(dryRun)
+        {
+          log_.info("Queue " + queueName + " would be created (dry run)");
+        }
         else
         {
-          queueMap_.put(queueName, new ArrayDeque<IQueueMessage>());
+          InMemoryQueue deadLetterQueue = null;
+          
+          if(queueMaxReceiveCount_ > 0)
+          {
+            String deadLetterQueueName = queueName + DEAD_LETTER_QUEUE_SUFFIX;
+            
+            deadLetterQueue = queueMap_.computeIfAbsent(deadLetterQueueName, (k) -> new InMemoryQueue(k, queueVisibilityTimeout_, 0, null));
+          }
+          
+          queueMap_.put(queueName, new InMemoryQueue(queueName, queueVisibilityTimeout_, queueMaxReceiveCount_, deadLetterQueue));
 
           log_.info("Created queue " + queueName);
         }
@@ -255,7 +290,7 @@ public class InMemoryKvTable implements IKvTable
           }
           else
           {
-            queueMap_     .remove(queueName);
+            queueMap_     .remove(queueName).deleted();
             senderCache_  .invalidate(queueName);
             receiverCache_.invalidate(queueName);
 
@@ -405,7 +440,13 @@ public void start()
   }
 
   @Override
-  public synchronized void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
+  public void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
+  {
+    tryStore(kvItem, kvCondition, trace);
+  }
+
+  @Override
+  public synchronized boolean tryStore(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
   {
     String partitionKey = getPartitionKey(kvItem);
     String sortKey = kvItem.getSortKey().asString();
@@ -418,31 +459,33 @@ public void start()
       Object value = existingItem.getAdditionalAttributes().get(kvCondition.getName());
       
       if(value == null)
-        return;
+        return false;
       
       switch(kvCondition.getComparison())
       {
         case EQUALS:
           if(!kvCondition.getValue().equals(value.toString()))
-            return;
+            return false;
           break;
         case NOT_EQUALS:
           if(kvCondition.getValue().compareTo(value.toString()) == 0)
-            return;
+            return false;
           
         case GREATER_THAN:
           if(kvCondition.getValue().compareTo(value.toString()) >= 0)
-            return;
+            return false;
           break;
           
         case LESS_THAN:
           if(kvCondition.getValue().compareTo(value.toString()) <= 0)
-            return;
+            return false;
           break;
       }
     }
     
     partition.put(sortKey, kvItem);
+    
+    return true;
   }
   
   @Override
@@ -937,6 +980,8 @@ public void start()
   protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends InMemoryKvTable> extends BaseAbstractBuilder<T,B>
   {
     protected String         serviceId_;
+    protected int            queueVisibilityTimeout_ = 30;
+    protected int            queueMaxReceiveCount_;
     
     protected AbstractBuilder(Class<T> type)
     {
@@ -949,6 +994,43 @@ public void start()
       super.validate(faultAccumulator);
       
       faultAccumulator.checkNotNull(serviceId_,   "serviceId");
+      
+      if(queueVisibilityTimeout_ < 0)
+        faultAccumulator.error("queueVisibilityTimeout must not be negative");
+      
+      if(queueMaxReceiveCount_ < 0)
+        faultAccumulator.error("queueMaxReceiveCount must not be negative");
+    }
+    
+    /**
+     * Set the time after which a received queue message which has not been deleted becomes visible again.
+     * 
+     * @param queueVisibilityTimeout The visibility timeout in seconds, the default is 30.
+     * 
+     * @return This (fluent method).
+     */
+    public T withQueueVisibilityTimeout(int queueVisibilityTimeout)
+    {
+      queueVisibilityTimeout_ = queueVisibilityTimeout;
+      
+      return self();
+    }
+    
+    /**
+     * Set the maximum number of times a queue message can be received.
+     * 
+     * If this is set then each queue is created with a dead letter queue, named with DEAD_LETTER_QUEUE_SUFFIX,
+     * to which messages are moved instead of being received again.
+     * 
+     * @param queueMaxReceiveCount The maximum receive count, the default of zero means unlimited.
+     * 
+     * @return This (fluent method).
+     */
+    public T withQueueMaxReceiveCount(int queueMaxReceiveCount)
+    {
+      queueMaxReceiveCount_ = queueMaxReceiveCount;
+      
+      return self();
     }
 
     /**
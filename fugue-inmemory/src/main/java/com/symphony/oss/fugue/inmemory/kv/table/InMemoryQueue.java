@@ -0,0 +1,398 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in memory queue with the delivery semantics of SQS.
+ * 
+ * A received message is invisible until it is deleted, or until its visibility timeout expires or it
+ * is nacked, after which it becomes visible again. Each receive of a message increments its receive
+ * count, and if a maximum receive count is set a message which would be received more often than that
+ * is moved to the dead letter queue instead.
+ * 
+ * Each queue has its own lock, receivers wait on a condition which is signalled when a message is sent
+ * or becomes visible again, up to the time when the next invisible message is due.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+class InMemoryQueue
+{
+  private static final Logger         log_          = LoggerFactory.getLogger(InMemoryQueue.class);
+
+  private final String                name_;
+  private final long                  visibilityTimeout_;
+  private final int                   maxReceiveCount_;
+  private final InMemoryQueue         deadLetterQueue_;
+
+  private final ReentrantLock         lock_         = new ReentrantLock();
+  private final Condition             available_    = lock_.newCondition();
+  private final ArrayDeque<Entry>     visible_      = new ArrayDeque<>();
+  private final Map<String, Lease>    inFlight_     = new HashMap<>();
+  private final PriorityQueue<Lease>  invisible_    = new PriorityQueue<>((a, b) -> Long.compare(a.visibleAt_, b.visibleAt_));
+  private boolean                     deleted_;
+
+  /**
+   * Constructor.
+   * 
+   * @param name              The name of the queue.
+   * @param visibilityTimeout The default visibility timeout in milliseconds.
+   * @param maxReceiveCount   The maximum number of times a message can be received, zero for no limit.
+   * @param deadLetterQueue   The queue to which messages which exceed maxReceiveCount are moved.
+   */
+  InMemoryQueue(String name, long visibilityTimeout, int maxReceiveCount, @Nullable InMemoryQueue deadLetterQueue)
+  {
+    name_               = name;
+    visibilityTimeout_  = visibilityTimeout;
+    maxReceiveCount_    = deadLetterQueue == null ? 0 : maxReceiveCount;
+    deadLetterQueue_    = deadLetterQueue;
+  }
+  
+  private static class Entry
+  {
+    private final String  messageId_;
+    private final String  payload_;
+    private int           receiveCount_;
+    
+    private Entry(String messageId, String payload)
+    {
+      messageId_  = messageId;
+      payload_    = payload;
+    }
+  }
+  
+  private static class Lease
+  {
+    private final Entry   entry_;
+    private final String  receiptHandle_;
+    private final long    visibleAt_;
+    
+    private Lease(Entry entry, String receiptHandle, long visibleAt)
+    {
+      entry_          = entry;
+      receiptHandle_  = receiptHandle;
+      visibleAt_      = visibleAt;
+    }
+  }
+  
+  /**
+   * A received message.
+   */
+  static class ReceivedMessage
+  {
+    final String  messageId_;
+    final String  receiptHandle_;
+    final String  payload_;
+    final int     receiveCount_;
+    
+    private ReceivedMessage(Lease lease)
+    {
+      messageId_      = lease.entry_.messageId_;
+      receiptHandle_  = lease.receiptHandle_;
+      payload_        = lease.entry_.payload_;
+      receiveCount_   = lease.entry_.receiveCount_;
+    }
+  }
+
+  String getName()
+  {
+    return name_;
+  }
+
+  /**
+   * Add a message to the queue.
+   * 
+   * @param payload The message payload.
+   * 
+   * @return The ID of the message.
+   */
+  String send(String payload)
+  {
+    Entry entry = new Entry(UUID.randomUUID().toString(), payload);
+    
+    add(entry);
+    
+    return entry.messageId_;
+  }
+  
+  private void add(Entry entry)
+  {
+    lock_.lock();
+    try
+    {
+      if(deleted_)
+        throw new IllegalStateException("Queue " + name_ + " has been deleted");
+      
+      visible_.add(entry);
+      available_.signal();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Delete the given message.
+   * 
+   * @param receiptHandle The receipt handle from the receive of the message.
+   */
+  void delete(String receiptHandle)
+  {
+    lock_.lock();
+    try
+    {
+      // The lease is left in invisible_ and is skipped when it is due.
+      if(inFlight_.remove(receiptHandle) == null)
+        log_.debug("Message with receipt handle " + receiptHandle + " is no longer in flight on " + name_);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Change the visibility timeout of the given message, zero makes it visible immediately.
+   * 
+   * @param receiptHandle     The receipt handle from the receive of the message.
+   * @param visibilityTimeout The new visibility timeout in milliseconds.
+   */
+  void changeVisibility(String receiptHandle, long visibilityTimeout)
+  {
+    lock_.lock();
+    try
+    {
+      Lease lease = inFlight_.get(receiptHandle);
+      
+      if(lease == null)
+      {
+        log_.debug("Message with receipt handle " + receiptHandle + " is no longer in flight on " + name_);
+        return;
+      }
+      
+      Lease newLease = new Lease(lease.entry_, receiptHandle, System.currentTimeMillis() + visibilityTimeout);
+      
+      inFlight_.put(receiptHandle, newLease);
+      invisible_.add(newLease);
+      
+      if(visibilityTimeout <= 0)
+        available_.signal();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Receive messages, waiting for up to the given time if none are visible.
+   * 
+   * @param maxMessages   The maximum number of messages to receive.
+   * @param waitTimeMillis The maximum time to wait if no messages are visible.
+   * 
+   * @return Up to maxMessages messages, empty if none became visible within the wait time.
+   */
+  Collection<ReceivedMessage> receive(int maxMessages, long waitTimeMillis)
+  {
+    if(maxMessages < 1)
+      return Collections.emptyList();
+    
+    List<Entry> deadLetters = new ArrayList<>();
+    
+    try
+    {
+      return receive(maxMessages, waitTimeMillis, deadLetters);
+    }
+    finally
+    {
+      // Don't hold our lock while taking the lock of the dead letter queue.
+      for(Entry entry : deadLetters)
+      {
+        log_.warn("Message " + entry.messageId_ + " on " + name_ + " was received " + entry.receiveCount_ +
+            " times, moving to " + deadLetterQueue_.getName());
+        
+        try
+        {
+          deadLetterQueue_.add(new Entry(entry.messageId_, entry.payload_));
+        }
+        catch(RuntimeException e)
+        {
+          log_.error("Failed to dead letter message " + entry.messageId_ + " on " + name_, e);
+        }
+      }
+    }
+  }
+  
+  private Collection<ReceivedMessage> receive(int maxMessages, long waitTimeMillis, List<Entry> deadLetters)
+  {
+    long deadline = System.currentTimeMillis() + waitTimeMillis;
+    
+    lock_.lock();
+    try
+    {
+      for(;;)
+      {
+        long now = System.currentTimeMillis();
+        
+        restore(now);
+        
+        List<ReceivedMessage> result = new ArrayList<>();
+        
+        while(result.size() < maxMessages && !visible_.isEmpty())
+        {
+          Entry entry = visible_.poll();
+          
+          if(maxReceiveCount_ > 0 && entry.receiveCount_ >= maxReceiveCount_)
+          {
+            deadLetters.add(entry);
+          }
+          else
+          {
+            entry.receiveCount_++;
+            
+            Lease lease = new Lease(entry, entry.messageId_ + "#" + entry.receiveCount_, now + visibilityTimeout_);
+            
+            inFlight_.put(lease.receiptHandle_, lease);
+            invisible_.add(lease);
+            result.add(new ReceivedMessage(lease));
+          }
+        }
+        
+        if(!result.isEmpty() || deleted_ || now >= deadline)
+          return result;
+        
+        long wait = deadline - now;
+        
+        if(!invisible_.isEmpty())
+          wait = Math.min(wait, Math.max(1, invisible_.peek().visibleAt_ - now));
+        
+        try
+        {
+          available_.await(wait, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return result;
+        }
+      }
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Make messages whose visibility timeout has expired visible again.
+   */
+  private void restore(long now)
+  {
+    while(!invisible_.isEmpty() && invisible_.peek().visibleAt_ <= now)
+    {
+      Lease lease = invisible_.poll();
+      
+      // A lease which has been deleted or superseded by a change of visibility is ignored.
+      if(inFlight_.get(lease.receiptHandle_) == lease)
+      {
+        inFlight_.remove(lease.receiptHandle_);
+        visible_.add(lease.entry_);
+      }
+    }
+  }
+  
+  /**
+   * Mark the queue as deleted and wake any waiting receivers.
+   */
+  void deleted()
+  {
+    lock_.lock();
+    try
+    {
+      deleted_ = true;
+      available_.signalAll();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of visible messages.
+   */
+  int getVisibleCount()
+  {
+    lock_.lock();
+    try
+    {
+      restore(System.currentTimeMillis());
+      
+      return visible_.size();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of messages which have been received and not yet deleted or made visible again.
+   */
+  int getInFlightCount()
+  {
+    lock_.lock();
+    try
+    {
+      restore(System.currentTimeMillis());
+      
+      return inFlight_.size();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import com.symphony.oss.fugue.pubsub.IPubSubMessage;
+
+/**
+ * A message on an in memory subscription.
+ * 
+ * The time is the deadline after which the message is redelivered while it is in flight, and the
+ * time after which it can be received again while it is waiting for a retry.
+ * 
+ * Each redelivery is a new instance so that an acknowledgement or nack from a handler whose visibility
+ * timeout has expired does not affect the redelivered message.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+class InMemoryDelivery implements Delayed
+{
+  private final long            id_;
+  private final String          messageId_;
+  private final IPubSubMessage  message_;
+  private final int             deliveryCount_;
+  private volatile long         time_;
+
+  InMemoryDelivery(long id, String messageId, IPubSubMessage message)
+  {
+    this(id, messageId, message, 0, 0);
+  }
+
+  private InMemoryDelivery(long id, String messageId, IPubSubMessage message, int deliveryCount, long time)
+  {
+    id_             = id;
+    messageId_      = messageId;
+    message_        = message;
+    deliveryCount_  = deliveryCount;
+    time_           = time;
+  }
+  
+  /**
+   * Create a redelivery of this message.
+   * 
+   * @param time The time after which the message can be received again.
+   * 
+   * @return A new delivery of the same message.
+   */
+  InMemoryDelivery redeliver(long time)
+  {
+    return new InMemoryDelivery(id_, messageId_, message_, deliveryCount_ + 1, time);
+  }
+
+  long getId()
+  {
+    return id_;
+  }
+
+  String getMessageId()
+  {
+    return messageId_;
+  }
+
+  IPubSubMessage getMessage()
+  {
+    return message_;
+  }
+
+  int getDeliveryCount()
+  {
+    return deliveryCount_;
+  }
+
+  long getTime()
+  {
+    return time_;
+  }
+
+  void setTime(long time)
+  {
+    time_ = time;
+  }
+
+  @Override
+  public long getDelay(TimeUnit unit)
+  {
+    return unit.convert(time_ - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public int compareTo(Delayed other)
+  {
+    return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+  }
+}
@@ -21,10 +21,14 @@
 
 package com.symphony.oss.fugue.inmemory.pubsub;
 
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import com.symphony.oss.fugue.naming.TopicName;
 import com.symphony.oss.fugue.pubsub.IPubSubMessage;
@@ -32,46 +36,98 @@ import com.symphony.oss.fugue.pubsub.IPubSubMessage;
 /**
  * In memory implementation of pub sub.
  * 
+ * Each subscription to a topic receives every message sent to the topic. Sending blocks while the buffer
+ * of any subscription to the topic is full, for up to PUBLISH_TIMEOUT_MILLIS, so a slow subscriber
+ * applies back pressure to publishers rather than causing unbounded memory use.
+ * 
  * @author Bruce Skingle
  *
  */
 class InMemoryPubSub
 {
-  static Map<TopicName, List<LinkedList<IPubSubMessage>>>  topicMap_ = new HashMap<>();
+  static final long                                                     PUBLISH_TIMEOUT_MILLIS  = 60000;
+  
+  private static final long                                             MAX_PARK_NANOS          = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final Map<TopicName, List<InMemorySubscription>>       topicMap_               = new ConcurrentHashMap<>();
   
-  synchronized static void send(TopicName topicName, IPubSubMessage item)
+  // Guarded by the class lock, send uses only topicMap_.
+  private static final Map<TopicName, Map<String, InMemorySubscription>> subscriptionMap_       = new HashMap<>();
+  
+  static void send(TopicName topicName, IPubSubMessage item)
   {
-    List<LinkedList<IPubSubMessage>> list = topicMap_.get(topicName);
+    List<InMemorySubscription> list = topicMap_.get(topicName);
     
     if(list != null)
     {
-      for(LinkedList<IPubSubMessage> queue : list)
+      for(InMemorySubscription subscription : list)
       {
-        queue.add(item);
+        send(subscription, item);
       }
     }
   }
-
-  synchronized static void createTopic(TopicName topicName)
+  
+  private static void send(InMemorySubscription subscription, IPubSubMessage item)
   {
-    List<LinkedList<IPubSubMessage>> list = topicMap_.get(topicName);
+    if(subscription.offer(item))
+      return;
+    
+    long deadline   = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PUBLISH_TIMEOUT_MILLIS);
+    long parkNanos  = 1000;
     
-    if(list == null)
+    while(!subscription.offer(item))
     {
-      list = new LinkedList<>();
+      if(System.nanoTime() > deadline)
+        throw new IllegalStateException("Subscription " + subscription.getName() + " is full");
+      
+      LockSupport.parkNanos(parkNanos);
       
-      topicMap_.put(topicName, list);
+      parkNanos = Math.min(MAX_PARK_NANOS, parkNanos * 2);
     }
   }
+
+  static synchronized void createTopic(TopicName topicName)
+  {
+    topicMap_.computeIfAbsent(topicName, (k) -> new CopyOnWriteArrayList<>());
+  }
+  
+  /**
+   * Subscribe to the given topic, creating the topic if necessary.
+   * 
+   * Subscribers which use the same subscription name share a single subscription, so that each message
+   * is received by only one of them.
+   * 
+   * @param topicName         The topic to subscribe to.
+   * @param subscriptionName  The name of the subscription.
+   * @param capacity          The capacity of the buffer for a new subscription.
+   * 
+   * @return The subscription.
+   */
+  static synchronized InMemorySubscription subscribe(TopicName topicName, String subscriptionName, int capacity)
+  {
+    List<InMemorySubscription> list = topicMap_.computeIfAbsent(topicName, (k) -> new CopyOnWriteArrayList<>());
+    
+    InMemorySubscription subscription = subscriptionMap_.computeIfAbsent(topicName, (k) -> new HashMap<>()).computeIfAbsent(subscriptionName, (k) ->
+    {
+      InMemorySubscription newSubscription = new InMemorySubscription(subscriptionName, capacity);
+      
+      list.add(newSubscription);
+      
+      return newSubscription;
+    });
+    
+    return subscription;
+  }
   
-  synchronized static List<LinkedList<IPubSubMessage>> getSubscriptions(TopicName topicName)
+  static Collection<InMemorySubscription> getSubscriptions(TopicName topicName)
   {
     return topicMap_.get(topicName);
   }
 
-  synchronized static void deleteTopic(TopicName topicName)
+  static synchronized void deleteTopic(TopicName topicName)
   {
     topicMap_.remove(topicName);
+    subscriptionMap_.remove(topicName);
   }
 }
 
@@ -23,16 +23,14 @@
 
 package com.symphony.oss.fugue.inmemory.pubsub;
 
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.symphony.oss.fugue.naming.TopicName;
-import com.symphony.oss.fugue.pubsub.IPubSubMessage;
 import com.symphony.oss.fugue.pubsub.IPublisher;
 import com.symphony.oss.fugue.pubsub.IPublisherAdmin;
 
@@ -134,7 +132,7 @@ public class InMemoryPublisherAdmin extends InMemoryPublisherBase<InMemoryPublis
     {
       if(topicName.isLocal())
       {
-        List<LinkedList<IPubSubMessage>> subscriptions = InMemoryPubSub.getSubscriptions(topicName);
+        Collection<InMemorySubscription> subscriptions = InMemoryPubSub.getSubscriptions(topicName);
         
         if(subscriptions == null)
         {
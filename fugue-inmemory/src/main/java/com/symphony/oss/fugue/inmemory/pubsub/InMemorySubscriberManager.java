@@ -0,0 +1,311 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.fugue.naming.Name;
+import com.symphony.oss.fugue.naming.SubscriptionName;
+import com.symphony.oss.fugue.pipeline.IThreadSafeRetryableConsumer;
+import com.symphony.oss.fugue.pubsub.AbstractSubscriberManager;
+import com.symphony.oss.fugue.pubsub.ISubscription;
+import com.symphony.oss.fugue.trace.ITraceContext;
+import com.symphony.oss.fugue.trace.ITraceContextTransaction;
+
+/**
+ * In memory implementation of SubscriberManager.
+ * 
+ * Each subscription is served by a fixed number of handler threads which poll its ring buffer, so
+ * messages are handled without any locking on the normal path. Messages are acknowledged or nacked
+ * according to the result of handleMessage, nacked messages are redelivered after the retry time and
+ * messages which are not acknowledged or nacked within the visibility timeout are redelivered.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class InMemorySubscriberManager extends AbstractSubscriberManager<String, InMemorySubscriberManager>
+{
+  private static final Logger             log_            = LoggerFactory.getLogger(InMemorySubscriberManager.class);
+  private static final long               MAX_IDLE_NANOS  = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final int                SPIN_COUNT      = 100;
+
+  private final int                       bufferSize_;
+  private final int                       handlerThreads_;
+  private final long                      visibilityTimeout_;
+
+  private final List<Subscriber>          subscriberList_ = new ArrayList<>();
+  private ExecutorService                 handlerExecutor_;
+  private ScheduledExecutorService        sweeper_;
+  private volatile boolean                running_;
+
+  private InMemorySubscriberManager(Builder builder)
+  {
+    super(builder);
+    
+    bufferSize_         = builder.bufferSize_;
+    handlerThreads_     = builder.handlerThreads_;
+    visibilityTimeout_  = builder.visibilityTimeout_;
+  }
+  
+  /**
+   * Concrete builder.
+   * 
+   * @author Bruce Skingle
+   *
+   */
+  public static class Builder extends AbstractSubscriberManager.Builder<Builder, String, InMemorySubscriberManager>
+  {
+    private int  bufferSize_        = 64 * 1024;
+    private int  handlerThreads_    = 4;
+    private long visibilityTimeout_ = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+    
+    /**
+     * Set the capacity of the buffer of each subscription, beyond which publishers are blocked.
+     * 
+     * @param bufferSize The number of messages which each subscription can buffer, rounded up to a power of 2.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withBufferSize(int bufferSize)
+    {
+      bufferSize_ = bufferSize;
+      
+      return self();
+    }
+    
+    /**
+     * Set the number of threads which handle messages for each subscription.
+     * 
+     * @param handlerThreads The number of handler threads per subscription.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withHandlerThreads(int handlerThreads)
+    {
+      handlerThreads_ = handlerThreads;
+      
+      return self();
+    }
+    
+    /**
+     * Set the time after which a message which has not been acknowledged or nacked is redelivered.
+     * 
+     * @param visibilityTimeout The visibility timeout in milliseconds.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withVisibilityTimeout(long visibilityTimeout)
+    {
+      visibilityTimeout_ = visibilityTimeout;
+      
+      return self();
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      if(bufferSize_ < 1)
+        faultAccumulator.error("bufferSize must be at least 1");
+      
+      if(handlerThreads_ < 1)
+        faultAccumulator.error("handlerThreads must be at least 1");
+      
+      if(visibilityTimeout_ < 1)
+        faultAccumulator.error("visibilityTimeout must be at least 1");
+    }
+
+    @Override
+    protected InMemorySubscriberManager construct()
+    {
+      return new InMemorySubscriberManager(this);
+    }
+  }
+
+  @Override
+  protected void initSubscription(ISubscription<String> subscription)
+  {
+    for(Name subscriptionName : subscription.getSubscriptionNames())
+    {
+      if(!(subscriptionName instanceof SubscriptionName))
+        throw new IllegalStateException("In memory subscriptions must be to a topic, not " + subscriptionName);
+      
+      log_.info("Subscribing to " + subscriptionName + "...");
+      
+      subscriberList_.add(new Subscriber(InMemoryPubSub.subscribe(((SubscriptionName)subscriptionName).getTopicName(),
+          subscriptionName.toString(), bufferSize_), subscription.getConsumer()));
+    }
+  }
+
+  @Override
+  protected void startSubscriptions()
+  {
+    if(subscriberList_.isEmpty())
+    {
+      log_.info("No subscriptions, not starting.");
+      return;
+    }
+    
+    running_          = true;
+    handlerExecutor_  = Executors.newFixedThreadPool(subscriberList_.size() * handlerThreads_, new NamedThreadFactory("InMemory-handler", true));
+    sweeper_          = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("InMemory-sweeper", true));
+    
+    for(Subscriber subscriber : subscriberList_)
+    {
+      for(int i=0 ; i<handlerThreads_ ; i++)
+        handlerExecutor_.submit(subscriber);
+    }
+    
+    long sweepInterval = Math.max(10, visibilityTimeout_ / 4);
+    
+    sweeper_.scheduleWithFixedDelay(() ->
+    {
+      for(Subscriber subscriber : subscriberList_)
+        subscriber.subscription_.redeliverExpired();
+    }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  protected void stopSubscriptions()
+  {
+    running_ = false;
+    
+    if(sweeper_ != null)
+      sweeper_.shutdownNow();
+    
+    if(handlerExecutor_ != null)
+    {
+      handlerExecutor_.shutdown();
+      
+      try
+      {
+        if(!handlerExecutor_.awaitTermination(10, TimeUnit.SECONDS))
+          handlerExecutor_.shutdownNow();
+      }
+      catch (InterruptedException e)
+      {
+        handlerExecutor_.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private class Subscriber implements Runnable
+  {
+    private final InMemorySubscription                  subscription_;
+    private final IThreadSafeRetryableConsumer<String>  consumer_;
+
+    private Subscriber(InMemorySubscription subscription, IThreadSafeRetryableConsumer<String> consumer)
+    {
+      subscription_ = subscription;
+      consumer_     = consumer;
+    }
+
+    @Override
+    public void run()
+    {
+      int   idleCount = 0;
+      long  parkNanos = 1000;
+      
+      while(running_)
+      {
+        InMemoryDelivery delivery = subscription_.receive(visibilityTimeout_);
+        
+        if(delivery == null)
+        {
+          // Spin briefly before parking so that a busy subscription is not slowed down by wake up latency.
+          if(++idleCount < SPIN_COUNT)
+          {
+            Thread.yield();
+          }
+          else
+          {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(MAX_IDLE_NANOS, parkNanos * 2);
+          }
+        }
+        else
+        {
+          idleCount = 0;
+          parkNanos = 1000;
+          
+          handle(delivery);
+        }
+      }
+    }
+
+    private void handle(InMemoryDelivery delivery)
+    {
+      if(counter_ != null)
+        counter_.increment(1);
+      
+      try(ITraceContextTransaction traceTransaction = getTraceFactory().createTransaction("PubSub:InMemory", delivery.getMessageId()))
+      {
+        ITraceContext trace = traceTransaction.open();
+        
+        trace.trace("RECEIVED");
+        long retryTime = handleMessage(consumer_, delivery.getMessage().getPayload(), trace, delivery.getMessageId());
+        
+        if(retryTime < 0)
+        {
+          trace.trace("ABOUT_TO_ACK");
+          subscription_.ack(delivery);
+          traceTransaction.finished();
+        }
+        else
+        {
+          trace.trace("ABOUT_TO_NACK");
+          subscription_.nack(delivery, retryTime);
+          traceTransaction.aborted();
+        }
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Failed to process message " + delivery.getMessageId(), e);
+        
+        subscription_.nack(delivery, FAILED_CONSUMER_RETRY_TIME);
+      }
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.fugue.concurrent.RingBuffer;
+import com.symphony.oss.fugue.pubsub.IPubSubMessage;
+
+/**
+ * An in memory subscription, on which each published message is received by one of the subscribers.
+ * 
+ * New messages are held in a bounded lock free ring buffer. A received message is in flight until it
+ * is acknowledged or nacked, or its visibility timeout expires, after which it is queued for redelivery.
+ * Redeliveries and nacked messages are held in a delay queue, which is only used when messages fail,
+ * and take priority over new messages once they are due.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+class InMemorySubscription
+{
+  private static final Logger                     log_          = LoggerFactory.getLogger(InMemorySubscription.class);
+
+  private final String                            name_;
+  private final RingBuffer<InMemoryDelivery>      buffer_;
+  private final DelayQueue<InMemoryDelivery>      retryQueue_   = new DelayQueue<>();
+  private final Map<Long, InMemoryDelivery>       inFlight_     = new ConcurrentHashMap<>();
+  private final AtomicLong                        nextId_       = new AtomicLong();
+  private final AtomicLong                        redeliveries_ = new AtomicLong();
+
+  InMemorySubscription(String name, int capacity)
+  {
+    name_   = name;
+    buffer_ = new RingBuffer<>(capacity);
+  }
+
+  String getName()
+  {
+    return name_;
+  }
+
+  /**
+   * Add a message to the subscription if there is space.
+   * 
+   * @param message A published message.
+   * 
+   * @return true if the message was added, false if the buffer is full.
+   */
+  boolean offer(IPubSubMessage message)
+  {
+    long id = nextId_.getAndIncrement();
+    
+    return buffer_.offer(new InMemoryDelivery(id, name_ + "/" + id, message));
+  }
+
+  /**
+   * Receive the next message which is due, if any.
+   * 
+   * @param visibilityTimeout The time in milliseconds after which the message will be redelivered if
+   *                          it has not been acknowledged or nacked.
+   * 
+   * @return The next message, or null if there is none.
+   */
+  InMemoryDelivery receive(long visibilityTimeout)
+  {
+    InMemoryDelivery delivery = retryQueue_.isEmpty() ? null : retryQueue_.poll();
+    
+    if(delivery == null)
+      delivery = buffer_.poll();
+    
+    if(delivery != null)
+    {
+      delivery.setTime(System.currentTimeMillis() + visibilityTimeout);
+      inFlight_.put(delivery.getId(), delivery);
+    }
+    
+    return delivery;
+  }
+
+  /**
+   * Acknowledge a message, which will not be delivered again.
+   * 
+   * @param delivery A received message.
+   */
+  void ack(InMemoryDelivery delivery)
+  {
+    if(!inFlight_.remove(delivery.getId(), delivery))
+      log_.warn("Message " + delivery.getMessageId() + " was acknowledged after its visibility timeout expired");
+  }
+
+  /**
+   * Nack a message, which will be redelivered after the given delay.
+   * 
+   * @param delivery  A received message.
+   * @param delay     The delay in milliseconds before the message is redelivered.
+   */
+  void nack(InMemoryDelivery delivery, long delay)
+  {
+    if(inFlight_.remove(delivery.getId(), delivery))
+      retryQueue_.add(delivery.redeliver(System.currentTimeMillis() + delay));
+  }
+
+  /**
+   * Queue in flight messages whose visibility timeout has expired for redelivery.
+   * 
+   * @return The number of messages queued for redelivery.
+   */
+  int redeliverExpired()
+  {
+    long  now   = System.currentTimeMillis();
+    int   count = 0;
+    
+    for(InMemoryDelivery delivery : inFlight_.values())
+    {
+      if(delivery.getTime() < now && inFlight_.remove(delivery.getId(), delivery))
+      {
+        retryQueue_.add(delivery.redeliver(now));
+        count++;
+      }
+    }
+    
+    if(count > 0)
+    {
+      redeliveries_.addAndGet(count);
+      log_.warn(count + " messages on " + name_ + " exceeded their visibility timeout and will be redelivered");
+    }
+    
+    return count;
+  }
+
+  /**
+   * 
+   * @return The number of messages waiting to be received, including retries.
+   */
+  int getBacklog()
+  {
+    return buffer_.size() + retryQueue_.size();
+  }
+
+  /**
+   * 
+   * @return The number of messages which have been received but not acknowledged or nacked.
+   */
+  int getInFlightCount()
+  {
+    return inFlight_.size();
+  }
+
+  /**
+   * 
+   * @return The number of messages which have been redelivered after their visibility timeout expired.
+   */
+  long getRedeliveryCount()
+  {
+    return redeliveries_.get();
+  }
+}
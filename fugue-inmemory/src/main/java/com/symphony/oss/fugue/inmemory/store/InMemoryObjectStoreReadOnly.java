@@ -21,23 +21,28 @@
 
 package com.symphony.oss.fugue.inmemory.store;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.symphony.oss.commons.fault.FaultAccumulator;
 import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
 import com.symphony.oss.commons.hash.Hash;
 import com.symphony.oss.fugue.store.AbstractFugueObjectStore;
+import com.symphony.oss.fugue.store.BatchFetchResult;
 import com.symphony.oss.fugue.store.IFugueObjectStoreReadOnly;
 import com.symphony.oss.fugue.store.NoSuchObjectException;
 
@@ -49,10 +54,13 @@ import com.symphony.oss.fugue.store.NoSuchObjectException;
  */
 public class InMemoryObjectStoreReadOnly extends AbstractFugueObjectStore implements IFugueObjectStoreReadOnly
 {
-  protected Map<Hash, String>                     absoluteMap_ = new HashMap<>();
-  protected Map<Hash, TreeMap<String, String>>    currentMap_ = new HashMap<>();
-  protected Map<Hash, List<Hash>>                 baseMap_ = new HashMap<>();
-  protected Map<Hash, TreeMap<String, String>>    sequenceMap_ = new HashMap<>();
+  protected final Map<Hash, String>                                     absoluteMap_ = new ConcurrentHashMap<>();
+  protected final Map<Hash, ConcurrentNavigableMap<String, String>>     currentMap_  = new ConcurrentHashMap<>();
+  protected final Map<Hash, Collection<Hash>>                           baseMap_     = new ConcurrentHashMap<>();
+  protected final Map<Hash, ConcurrentNavigableMap<String, String>>     sequenceMap_ = new ConcurrentHashMap<>();
+  
+  private final Map<Hash, Object>                                       sequenceFollowers_ = new ConcurrentHashMap<>();
+  private final Object[]                                                stripes_;
   
   /**
    * Constructor.
@@ -61,6 +69,25 @@ public class InMemoryObjectStoreReadOnly extends AbstractFugueObjectStore implem
    */
   public InMemoryObjectStoreReadOnly(AbstractBuilder<?,?> builder)
   {
+    stripes_ = new Object[builder.lockStripes_];
+    
+    for(int i=0 ; i<stripes_.length ; i++)
+      stripes_[i] = new Object();
+  }
+  
+  /**
+   * Return the lock which serializes updates to the object with the given base hash.
+   * 
+   * Reads take no locks, so updates must write the absolute entry before the current entry
+   * which refers to it.
+   * 
+   * @param baseHash The base hash of an object.
+   * 
+   * @return The lock for the given object.
+   */
+  protected Object getLock(Hash baseHash)
+  {
+    return stripes_[(baseHash.hashCode() & 0x7fffffff) % stripes_.length];
   }
   
   /**
@@ -88,10 +115,37 @@ public class InMemoryObjectStoreReadOnly extends AbstractFugueObjectStore implem
 
   protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends InMemoryObjectStoreReadOnly> extends BaseAbstractBuilder<T,B>
   {
+    protected int lockStripes_ = 64;
+    
     protected AbstractBuilder(Class<T> type)
     {
       super(type);
     }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      if(lockStripes_ < 1)
+        faultAccumulator.error("lockStripes must be positive");
+    }
+    
+    /**
+     * Set the number of locks used to serialize updates.
+     * 
+     * Updates to different objects which map to different locks proceed in parallel, reads take no locks.
+     * 
+     * @param lockStripes The number of locks.
+     * 
+     * @return This (fluent method).
+     */
+    public T withLockStripes(int lockStripes)
+    {
+      lockStripes_ = lockStripes;
+      
+      return self();
+    }
   }
   
   @Override
@@ -106,159 +160,205 @@ public class InMemoryObjectStoreReadOnly extends AbstractFugueObjectStore implem
   public @Nonnull String fetchAbsolute(Hash absoluteHash)
       throws NoSuchObjectException
   {
-    synchronized(absoluteMap_)
+    String result = absoluteMap_.get(absoluteHash);
+    
+    if(result == null)
+      throw new NoSuchObjectException(absoluteHash + " not found");
+    
+    return result;
+  }
+  
+  @Override
+  public @Nonnull String fetchCurrent(Hash baseHash)
+      throws NoSuchObjectException
+  {
+    ConcurrentNavigableMap<String, String> versions = currentMap_.get(baseHash);
+    Entry<String, String>                  current  = versions == null ? null : versions.lastEntry();
+    
+    if(current == null)
+      throw new NoSuchObjectException(baseHash + " not found");
+    
+    return current.getValue();
+  }
+
+  @Override
+  public @Nonnull BatchFetchResult fetchAbsolute(Collection<Hash> absoluteHashes)
+  {
+    Map<Hash, String> found   = new HashMap<>();
+    Set<Hash>         missing = new HashSet<>();
+    
+    for(Hash absoluteHash : absoluteHashes)
     {
       String result = absoluteMap_.get(absoluteHash);
       
       if(result == null)
-        throw new NoSuchObjectException(absoluteHash + " not found");
-      
-      return result;
+        missing.add(absoluteHash);
+      else
+        found.put(absoluteHash, result);
     }
+    
+    return new BatchFetchResult(found, missing);
   }
-  
+
   @Override
-  public @Nonnull String fetchCurrent(Hash baseHash)
-      throws NoSuchObjectException
+  public @Nonnull BatchFetchResult fetchCurrent(Collection<Hash> baseHashes)
   {
-    synchronized(currentMap_)
+    Map<Hash, String> found   = new HashMap<>();
+    Set<Hash>         missing = new HashSet<>();
+    
+    for(Hash baseHash : baseHashes)
     {
-      TreeMap<String, String> versions = currentMap_.get(baseHash);
+      ConcurrentNavigableMap<String, String> versions = currentMap_.get(baseHash);
+      Entry<String, String>                  current  = versions == null ? null : versions.lastEntry();
       
-      if(versions == null || versions.isEmpty())
-        throw new NoSuchObjectException(baseHash + " not found");
-      
-      return versions.lastEntry().getValue();
-      //return versions.values().iterator().next();
+      if(current == null)
+        missing.add(baseHash);
+      else
+        found.put(baseHash, current.getValue());
     }
+    
+    return new BatchFetchResult(found, missing);
   }
 
   @Override
-  public String fetchVersions(Hash baseHash, boolean scanForwards, @Nullable Integer pLimit, @Nullable String after, Consumer<String> consumer)
+  public String fetchVersions(Hash baseHash, boolean scanForwards, @Nullable Integer limit, @Nullable String after, Consumer<String> consumer)
+  {
+    return fetchPage(currentMap_.get(baseHash), scanForwards, limit, after, consumer);
+  }
+  
+  @Override
+  public String fetchSequenceObjects(Hash sequenceHash, boolean scanForwards, @Nullable Integer limit, @Nullable String after, Consumer<String> consumer)
   {
-    TreeMap<String, String> sequence          = currentMap_.get(baseHash);
-    int                     limit             = pLimit == null ? Integer.MAX_VALUE : pLimit;
-    String                  lastEvaluatedKey  = null;
+    return fetchPage(sequenceMap_.get(sequenceHash), scanForwards, limit, after, consumer);
+  }
+  
+  @Override
+  public String followSequenceObjects(Hash sequenceHash, @Nullable Integer limit, @Nullable String after, long timeoutMillis,
+      Consumer<String> consumer) throws InterruptedException
+  {
+    long    deadline  = System.currentTimeMillis() + timeoutMillis;
+    Object  monitor   = sequenceFollowers_.computeIfAbsent(sequenceHash, (k) -> new Object());
     
-    if(sequence != null)
+    while(true)
     {
-      if(scanForwards)
+      int     remaining = limit == null ? Integer.MAX_VALUE : limit;
+      String  lastKey   = null;
+      
+      for(Entry<String, String> entry : followRange(sequenceHash, after).entrySet())
       {
-        for(Entry<String, String> entry : sequence.entrySet())
-        {
-          if(after != null)
-          {
-            if(entry.getKey().equals(after))
-              after = null;
-          }
-          else
-          {
-            consumer.accept(entry.getValue());
-            limit--;
-          }
-          lastEvaluatedKey = entry.getKey();
-          
-          if(limit < 0)
-            break;
-        }
+        if(remaining-- <= 0)
+          break;
+        
+        consumer.accept(entry.getValue());
+        lastKey = entry.getKey();
       }
-      else
+      
+      if(lastKey != null)
+        return encodeCursor(lastKey);
+      
+      // Check again under the monitor so that a save between the read above and the wait cannot be missed.
+      synchronized(monitor)
       {
-        int i = sequence.entrySet().size();
-        
-        @SuppressWarnings("unchecked")
-        Entry<String, String>[] list = new Entry[i];
-        
-        
-        for(Entry<String, String> entry : sequence.entrySet())
-          list[--i] = entry;
-        
-        for(Entry<String, String> entry : sequence.entrySet())
+        if(followRange(sequenceHash, after).isEmpty())
         {
-          if(after != null)
-          {
-            if(entry.getKey().equals(after))
-              after = null;
-          }
-          else
-          {
-            consumer.accept(entry.getValue());
-            limit--;
-          }
-          lastEvaluatedKey = entry.getKey();
+          long timeout = deadline - System.currentTimeMillis();
           
-          if(limit < 0)
-            break;
+          if(timeout <= 0)
+            return after;
+          
+          monitor.wait(timeout);
         }
       }
-      
-      
-      
     }
+  }
+  
+  private NavigableMap<String, String> followRange(Hash sequenceHash, @Nullable String after)
+  {
+    ConcurrentNavigableMap<String, String> index = sequenceMap_.get(sequenceHash);
     
-    return lastEvaluatedKey;
+    if(index == null)
+      return Collections.emptyNavigableMap();
+    
+    return after == null ? index : index.tailMap(decodeCursor(after), false);
   }
   
-  @Override
-  public @Nonnull String fetchSequenceObjects(Hash sequenceHash, boolean scanForwards, @Nullable Integer pLimit, @Nullable String after, Consumer<String> consumer)
+  /**
+   * Wake any callers of followSequenceObjects waiting on the given sequence.
+   * 
+   * Must be called after the sequence has been updated.
+   * 
+   * @param sequenceHash The hash ID of the sequence which has been updated.
+   */
+  protected void notifySequenceFollowers(Hash sequenceHash)
   {
-    TreeMap<String, String>             sequence          = sequenceMap_.get(sequenceHash);
-    int                                 limit             = pLimit == null ? Integer.MAX_VALUE : pLimit;
-    String                              lastEvaluatedKey  = null;
+    Object monitor = sequenceFollowers_.get(sequenceHash);
     
-    if(sequence != null)
+    if(monitor != null)
     {
-      if(scanForwards)
+      synchronized(monitor)
       {
-        for(Entry<String, String> entry : sequence.entrySet())
-        {
-          if(after != null)
-          {
-            if(entry.getKey().equals(after))
-              after = null;
-          }
-          else
-          {
-            consumer.accept(entry.getValue());
-            limit--;
-          }
-          lastEvaluatedKey = entry.getKey();
-          
-          if(limit < 0)
-            break;
-        }
-      }
-      else
-      {
-        int i = sequence.entrySet().size();
-        
-        @SuppressWarnings("unchecked")
-        Entry<String, String>[] list = new Entry[i];
-        
-        
-        for(Entry<String, String> entry : sequence.entrySet())
-          list[--i] = entry;
-        
-        for(Entry<String, String> entry : sequence.entrySet())
-        {
-          if(after != null)
-          {
-            if(entry.getKey().equals(after))
-              after = null;
-          }
-          else
-          {
-            consumer.accept(entry.getValue());
-            limit--;
-          }
-          lastEvaluatedKey = entry.getKey();
-          
-          if(limit < 0)
-            break;
-        }
+        monitor.notifyAll();
       }
     }
+  }
+  
+  /**
+   * Return a page of values from the given index, seeking directly to the given cursor.
+   * 
+   * The cursor encodes the key of the last value returned, so it remains valid when other
+   * entries are added or removed and costs O(log n) to resume from. The index is not locked,
+   * concurrent updates may or may not be seen.
+   * 
+   * @param index         A sorted index, may be null.
+   * @param scanForwards  If true then return entries in ascending key order, else in descending order.
+   * @param limit         An optional limit to the number of values returned.
+   * @param after         An optional cursor returned by a previous call.
+   * @param consumer      A consumer to receive the values.
+   * 
+   * @return A cursor to fetch the next page, or null if there are no more entries.
+   */
+  protected @Nullable String fetchPage(@Nullable NavigableMap<String, String> index, boolean scanForwards,
+      @Nullable Integer limit, @Nullable String after, Consumer<String> consumer)
+  {
+    if(index == null)
+      return null;
+    
+    NavigableMap<String, String> range;
+    
+    if(after == null)
+      range = scanForwards ? index : index.descendingMap();
+    else
+      range = scanForwards ? index.tailMap(decodeCursor(after), false) : index.headMap(decodeCursor(after), false).descendingMap();
+    
+    int     remaining = limit == null ? Integer.MAX_VALUE : limit;
+    String  lastKey   = null;
     
-    return lastEvaluatedKey;
+    for(Entry<String, String> entry : range.entrySet())
+    {
+      if(remaining-- <= 0)
+        return lastKey == null ? after : encodeCursor(lastKey);
+      
+      consumer.accept(entry.getValue());
+      lastKey = entry.getKey();
+    }
+    
+    return null;
+  }
+  
+  private static String encodeCursor(String key)
+  {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+  
+  private static String decodeCursor(String cursor)
+  {
+    try
+    {
+      return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+    catch(IllegalArgumentException e)
+    {
+      throw new IllegalArgumentException("Invalid page cursor \"" + cursor + "\"", e);
+    }
   }
 }
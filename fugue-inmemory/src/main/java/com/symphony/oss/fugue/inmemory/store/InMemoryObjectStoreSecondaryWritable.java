@@ -23,7 +23,8 @@ package com.symphony.oss.fugue.inmemory.store;
 
 import java.time.Instant;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import com.symphony.oss.commons.hash.Hash;
 import com.symphony.oss.fugue.store.FugueObjectDeletionType;
@@ -145,30 +146,19 @@ public class InMemoryObjectStoreSecondaryWritable extends InMemoryObjectStoreRea
   
   private void processSequences(String rangeKey, String payload, boolean deleted, Collection<Hash> sequenceHashes)
   {
-    synchronized (sequenceMap_)
+    for(Hash sequenceHash : sequenceHashes)
     {
-      for(Hash sequenceHash : sequenceHashes)
+      if(deleted)
       {
-        TreeMap<String, String> sequence = sequenceMap_.get(sequenceHash);
+        ConcurrentNavigableMap<String, String> sequence = sequenceMap_.get(sequenceHash);
         
-        if(deleted)
-        {
-          if(sequence != null)
-            sequence.remove(rangeKey);
-        }
-        else
-        {
-          if(sequence == null)
-          {
-            sequence = new TreeMap<>();
-            
-            sequenceMap_.put(sequenceHash, sequence);
-          }
-          
-          sequence.put(rangeKey, payload);
-        }
-        
-        //System.err.println("put " + hash + " to " + rangeKey.toBase64String());
+        if(sequence != null)
+          sequence.remove(rangeKey);
+      }
+      else
+      {
+        sequenceMap_.computeIfAbsent(sequenceHash, (k) -> new ConcurrentSkipListMap<>()).put(rangeKey, payload);
+        notifySequenceFollowers(sequenceHash);
       }
     }
   }
@@ -22,9 +22,8 @@
 package com.symphony.oss.fugue.inmemory.store;
 
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import com.symphony.oss.commons.hash.Hash;
 import com.symphony.oss.fugue.IFugueComponent;
@@ -84,7 +83,7 @@ public class InMemoryObjectStoreWritable extends InMemoryObjectStoreSecondaryWri
   {
     if(payload.getPayload() instanceof IFugueVersionedObject && ((IFugueVersionedObject)payload.getPayload()).getBaseHash().equals(idObject.getAbsoluteHash()))
     {
-      synchronized(absoluteMap_)
+      synchronized(getLock(idObject.getAbsoluteHash()))
       {
         String current = absoluteMap_.get(idObject.getAbsoluteHash());
         
@@ -121,27 +120,10 @@ public class InMemoryObjectStoreWritable extends InMemoryObjectStoreSecondaryWri
 
   private void doSaveCurrent(Hash baseHash, String rangeKey, String blob, Hash absoluteHash)
   {
-    synchronized(currentMap_)
+    synchronized(getLock(baseHash))
     {
-      TreeMap<String, String> versions = currentMap_.get(baseHash);
-      
-      if(versions == null)
-      {
-        versions = new TreeMap<>();
-        currentMap_.put(baseHash, versions);
-      }
-      
-      versions.put(rangeKey, blob);
-      
-      List<Hash> baseList = baseMap_.get(baseHash);
-      
-      if(baseList == null)
-      {
-        baseList = new LinkedList<>();
-        baseMap_.put(baseHash, baseList);
-      }
-      
-      baseList.add(absoluteHash);
+      currentMap_.computeIfAbsent(baseHash, (k) -> new ConcurrentSkipListMap<>()).put(rangeKey, blob);
+      baseMap_.computeIfAbsent(baseHash, (k) -> new ConcurrentLinkedQueue<>()).add(absoluteHash);
     }
   }
   
@@ -165,10 +147,7 @@ public class InMemoryObjectStoreWritable extends InMemoryObjectStoreSecondaryWri
 
   private void save(Hash absoluteHash, String blob)
   {
-    synchronized(absoluteMap_)
-    {
-      absoluteMap_.put(absoluteHash, blob);
-    }
+    absoluteMap_.put(absoluteHash, blob);
   }
 
   private void save( Hash absoluteHash, String blob, Hash baseHash, String rangeKey)
@@ -176,12 +155,11 @@ public class InMemoryObjectStoreWritable extends InMemoryObjectStoreSecondaryWri
     if(Hash.NIL_HASH.equals(baseHash))
       baseHash = absoluteHash;
     
-    synchronized(absoluteMap_)
+    synchronized(getLock(baseHash))
     {
       absoluteMap_.put(absoluteHash, blob);
+      doSaveCurrent(baseHash, rangeKey, blob, absoluteHash);
     }
     
-    doSaveCurrent(baseHash, rangeKey, blob, absoluteHash);
-    
   }
 }
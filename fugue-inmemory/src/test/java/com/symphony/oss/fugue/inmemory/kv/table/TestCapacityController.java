@@ -0,0 +1,131 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.kv.table.capacity.CapacityController;
+import com.symphony.oss.fugue.kv.table.capacity.TableCapacity;
+import com.symphony.oss.fugue.kv.table.capacity.TargetUtilizationCapacityPolicy;
+
+@SuppressWarnings("javadoc")
+public class TestCapacityController
+{
+  private static final String TABLE = "TestTable";
+  
+  private CapacityController createController(InMemoryCapacityControlPlane controlPlane, boolean dryRun)
+  {
+    return new CapacityController.Builder()
+        .withTableName(TABLE)
+        .withControlPlane(controlPlane)
+        .withPolicy(new TargetUtilizationCapacityPolicy(50, 20, 1, 2, 200))
+        .withEvaluationInterval(0)
+        .withCooldown(0, 0)
+        .withMaxDecreasesPerDay(2)
+        .withReadUnits(1, 1000)
+        .withWriteUnits(1, 1000)
+        .withDryRun(dryRun)
+        .build();
+  }
+  
+  @Test
+  public void testOnDemand()
+  {
+    InMemoryCapacityControlPlane  controlPlane = new InMemoryCapacityControlPlane();
+    CapacityController            controller = createController(controlPlane, false);
+    
+    controller.recordWriteThrottle();
+    controller.evaluate();
+    
+    assertEquals(0, controlPlane.getUpdateCount());
+  }
+  
+  @Test
+  public void testThrottleScalesUp()
+  {
+    InMemoryCapacityControlPlane  controlPlane = new InMemoryCapacityControlPlane();
+    CapacityController            controller = createController(controlPlane, false);
+    
+    controlPlane.updateCapacity(TABLE, 10, 10);
+    controller.recordWriteThrottle();
+    controller.evaluate();
+    
+    TableCapacity capacity = controlPlane.describeCapacity(TABLE);
+    
+    assertEquals(10, capacity.getReadUnits());
+    assertEquals(20, capacity.getWriteUnits());
+    assertEquals(1, controller.getIncreaseCount());
+  }
+  
+  @Test
+  public void testDecreaseLimit()
+  {
+    InMemoryCapacityControlPlane  controlPlane = new InMemoryCapacityControlPlane();
+    CapacityController            controller = createController(controlPlane, false);
+    
+    controlPlane.updateCapacity(TABLE, 100, 100);
+    
+    for(int i=0 ; i<20 ; i++)
+      controller.evaluate();
+    
+    TableCapacity capacity = controlPlane.describeCapacity(TABLE);
+    
+    // Idle, so scale down to the minimum after 2 periods, but only twice per day.
+    assertEquals(1, capacity.getReadUnits());
+    assertEquals(1, capacity.getWriteUnits());
+    assertEquals(1, controller.getDecreaseCount());
+    
+    controlPlane.updateCapacity(TABLE, 100, 100);
+    
+    for(int i=0 ; i<20 ; i++)
+      controller.evaluate();
+    
+    assertEquals(2, controller.getDecreaseCount());
+    
+    controlPlane.updateCapacity(TABLE, 100, 100);
+    
+    for(int i=0 ; i<20 ; i++)
+      controller.evaluate();
+    
+    assertEquals(2, controller.getDecreaseCount());
+    assertEquals(100, controlPlane.describeCapacity(TABLE).getReadUnits());
+  }
+  
+  @Test
+  public void testDryRun()
+  {
+    InMemoryCapacityControlPlane  controlPlane = new InMemoryCapacityControlPlane();
+    CapacityController            controller = createController(controlPlane, true);
+    
+    controlPlane.updateCapacity(TABLE, 10, 10);
+    controller.recordReadThrottle();
+    controller.evaluate();
+    
+    assertEquals(1, controlPlane.getUpdateCount());
+    assertEquals(10, controlPlane.describeCapacity(TABLE).getReadUnits());
+    assertEquals(1, controller.getIncreaseCount());
+  }
+}
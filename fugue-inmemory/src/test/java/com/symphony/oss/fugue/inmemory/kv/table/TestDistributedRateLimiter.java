@@ -0,0 +1,107 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.kv.table.limiter.DistributedRateLimiter;
+import com.symphony.oss.fugue.trace.ITraceContext;
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestDistributedRateLimiter
+{
+  private ITraceContext trace = NoOpTraceContext.INSTANCE;
+  
+  private DistributedRateLimiter createLimiter(InMemoryKvTable table, int maxLeaseShare)
+  {
+    return new DistributedRateLimiter.Builder()
+        .withKvTable(table)
+        .withName("TestLimiter")
+        .withLimit(0.001, 20)
+        .withLease(5, 60000, maxLeaseShare)
+        .build();
+  }
+  
+  @Test
+  public void testLocalLease()
+  {
+    InMemoryKvTable         table   = new InMemoryKvTable.Builder().withServiceId("test").build();
+    DistributedRateLimiter  limiter = createLimiter(table, 100);
+    
+    for(int i=0 ; i<20 ; i++)
+      assertTrue(limiter.tryAcquire("tenant1", trace));
+    
+    assertFalse(limiter.tryAcquire("tenant1", trace));
+    
+    // each lease is 5 tokens, plus one call to find the bucket empty.
+    assertEquals(5, limiter.getRemoteCount());
+    
+    assertTrue(limiter.tryAcquire("tenant2", 20, trace));
+    assertFalse(limiter.tryAcquire("tenant3", 21, trace));
+  }
+  
+  @Test
+  public void testSharedLimit()
+  {
+    InMemoryKvTable         table     = new InMemoryKvTable.Builder().withServiceId("test").build();
+    DistributedRateLimiter  limiter1  = createLimiter(table, 50);
+    DistributedRateLimiter  limiter2  = createLimiter(table, 50);
+    int                     granted1  = 0;
+    int                     granted2  = 0;
+    
+    for(int i=0 ; i<30 ; i++)
+    {
+      if(limiter1.tryAcquire("tenant1", trace))
+        granted1++;
+      
+      if(limiter2.tryAcquire("tenant1", trace))
+        granted2++;
+    }
+    
+    assertEquals(20, granted1 + granted2);
+    assertTrue(granted1 >= 5);
+    assertTrue(granted2 >= 5);
+  }
+  
+  @Test
+  public void testWait() throws InterruptedException
+  {
+    InMemoryKvTable         table   = new InMemoryKvTable.Builder().withServiceId("test").build();
+    DistributedRateLimiter  limiter = new DistributedRateLimiter.Builder()
+        .withKvTable(table)
+        .withName("TestLimiter")
+        .withLimit(100, 1)
+        .withLease(1, 60000, 100)
+        .build();
+    
+    assertTrue(limiter.tryAcquire("tenant1", trace));
+    assertFalse(limiter.tryAcquire("tenant1", trace));
+    assertTrue(limiter.tryAcquire("tenant1", 1, 1000, trace));
+  }
+}
@@ -7,14 +7,21 @@
 package com.symphony.oss.fugue.inmemory.kv.table;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import org.junit.Test;
@@ -32,6 +39,12 @@ import com.symphony.oss.fugue.kv.KvPartitionKeyProvider;
 import com.symphony.oss.fugue.kv.KvPartitionSortKeyProvider;
 import com.symphony.oss.fugue.kv.KvSortKey;
 import com.symphony.oss.fugue.kv.table.IKvTableTransaction;
+import com.symphony.oss.fugue.pubsub.IQueueManager;
+import com.symphony.oss.fugue.pubsub.IQueueMessage;
+import com.symphony.oss.fugue.pubsub.IQueueMessageExtend;
+import com.symphony.oss.fugue.pubsub.IQueueReceiver;
+import com.symphony.oss.fugue.pubsub.PubSubMessage;
+import com.symphony.oss.fugue.pubsub.QueueNotFoundException;
 import com.symphony.oss.fugue.store.IFuguePodId;
 import com.symphony.oss.fugue.store.NoSuchObjectException;
 import com.symphony.oss.fugue.store.TransactionFailedException;
@@ -246,6 +259,103 @@ public class TestInMemoryKvTable
     txn.commit(trace);
   }
   
+  @Test
+  public void testSendMessageAsync() throws QueueNotFoundException
+  {
+    InMemoryKvTable table         = createTable();
+    IQueueManager   queueManager  = table.getQueueManager();
+    
+    queueManager.createQueue("queue", null, false);
+    
+    CompletableFuture<Void> future = queueManager.getSender("queue").sendMessageAsync(new PubSubMessage("Hello", trace, "text"));
+    
+    assertTrue(future.isDone() && !future.isCompletedExceptionally());
+    
+    List<IQueueMessage> messages = new ArrayList<>(queueManager.getReceiver("queue").receiveMessages(10, 0, new HashSet<>(), new HashSet<>()));
+    
+    assertEquals(1, messages.size());
+    assertEquals("Hello", messages.get(0).getPayload());
+    
+    assertTrue(queueManager.getSender("missing").sendMessageAsync(new PubSubMessage("Hello", trace, "text")).isCompletedExceptionally());
+  }
+  
+  @Test
+  public void testQueueRedelivery() throws QueueNotFoundException
+  {
+    InMemoryKvTable table         = new InMemoryKvTable.Builder()
+        .withServiceId("test")
+        .withQueueVisibilityTimeout(1)
+        .withQueueMaxReceiveCount(2)
+        .build();
+    IQueueManager   queueManager  = table.getQueueManager();
+    
+    queueManager.createQueue("queue", null, false);
+    
+    assertTrue(queueManager.doesQueueExist("queue" + InMemoryKvTable.DEAD_LETTER_QUEUE_SUFFIX));
+    
+    IQueueReceiver  receiver      = queueManager.getReceiver("queue");
+    
+    // A long poll returns as soon as a message is sent.
+    new Thread(() ->
+    {
+      try
+      {
+        Thread.sleep(200);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      
+      queueManager.getSender("queue").sendMessage(new PubSubMessage("Hello", trace, "text"));
+    }).start();
+    
+    long                start     = System.currentTimeMillis();
+    List<IQueueMessage> messages  = new ArrayList<>(receiver.receiveMessages(10, 10, new HashSet<>(), new HashSet<>()));
+    
+    assertEquals(1, messages.size());
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    
+    IQueueMessage message = messages.get(0);
+    
+    // A nak with a zero timeout makes the message visible again immediately.
+    messages = new ArrayList<>(receiver.receiveMessages(10, 0, new HashSet<>(), Collections.singleton(new IQueueMessageExtend()
+    {
+      @Override
+      public String getReceiptHandle()
+      {
+        return message.getReceiptHandle();
+      }
+      
+      @Override
+      public Integer getVisibilityTimeout()
+      {
+        return 0;
+      }
+    })));
+    
+    assertEquals(1, messages.size());
+    assertEquals(message.getMessageId(), messages.get(0).getMessageId());
+    
+    // The third receive after the visibility timeout expires exceeds the max receive count.
+    assertTrue(receiver.receiveMessages(10, 2, new HashSet<>(), new HashSet<>()).isEmpty());
+    
+    messages = new ArrayList<>(queueManager.getReceiver("queue" + InMemoryKvTable.DEAD_LETTER_QUEUE_SUFFIX)
+        .receiveMessages(10, 0, new HashSet<>(), new HashSet<>()));
+    
+    assertEquals(1, messages.size());
+    assertEquals(message.getMessageId(), messages.get(0).getMessageId());
+    assertEquals("Hello", messages.get(0).getPayload());
+    
+    // A deleted message is not redelivered.
+    queueManager.getSender("queue").sendMessage(new PubSubMessage("Goodbye", trace, "text"));
+    
+    messages = new ArrayList<>(receiver.receiveMessages(10, 0, new HashSet<>(), new HashSet<>()));
+    
+    assertEquals(1, messages.size());
+    assertTrue(receiver.receiveMessages(10, 2, new HashSet<>(messages), new HashSet<>()).isEmpty());
+  }
+  
   @Test(expected = TransactionFailedException.class)
   public void testUpdate2() throws NoSuchObjectException, TransactionFailedException
   {
@@ -297,6 +407,48 @@ public class TestInMemoryKvTable
     txn.commit(trace);
   }
   
+  @Test
+  public void testStreamedFetch() throws NoSuchObjectException, IOException
+  {
+    InMemoryKvTable table = createTable();
+    
+    for(IKvItem item : ITEMS)
+    {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      
+      table.fetch(new KvPartitionSortKeyProvider(PARTITION_KEY1, item.getSortKey()), out, trace);
+      
+      assertEquals(item.getJson(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+  }
+  
+  @Test
+  public void testStreamedStore() throws NoSuchObjectException, IOException
+  {
+    InMemoryKvTable table = createTable();
+    String          payload = "{\"text\":\"Caf\u00e9 \u2013 streamed\"}";
+    byte[]          bytes   = payload.getBytes(StandardCharsets.UTF_8);
+    
+    IKvItem item = new KvItem(PART1, "2", "Not used")
+    {
+      @Override
+      public String getJson()
+      {
+        throw new IllegalStateException("The payload of a streamed item must not be read from the item");
+      }
+    };
+    
+    table.store(item, new ByteArrayInputStream(bytes), bytes.length, trace);
+    
+    KvPartitionSortKeyProvider key = new KvPartitionSortKeyProvider(PARTITION_KEY1, "2");
+    ByteArrayOutputStream      out = new ByteArrayOutputStream();
+    
+    table.fetch(key, out, trace);
+    
+    assertEquals(payload, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    assertEquals(payload, table.fetch(key, trace));
+  }
+  
   private InMemoryKvTable createTable()
   {
     InMemoryKvTable table = new InMemoryKvTable.Builder().withServiceId("test").build();
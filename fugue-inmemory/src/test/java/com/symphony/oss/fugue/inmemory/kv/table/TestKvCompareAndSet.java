@@ -0,0 +1,71 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.symphony.oss.fugue.kv.KvPartitionSortKeyProvider;
+import com.symphony.oss.fugue.kv.table.KvCompareAndSet;
+import com.symphony.oss.fugue.trace.ITraceContext;
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestKvCompareAndSet
+{
+  private static final KvPartitionSortKeyProvider KEY = new KvPartitionSortKeyProvider("PART1", "1");
+  
+  private ITraceContext trace = NoOpTraceContext.INSTANCE;
+  
+  @Test
+  public void testCompareAndSet()
+  {
+    InMemoryKvTable table = new InMemoryKvTable.Builder().withServiceId("test").build();
+    KvCompareAndSet cas   = new KvCompareAndSet(table, "TestRecord");
+    
+    assertNull(cas.fetch(KEY, trace));
+    
+    ObjectNode first = cas.newRecord().put("value", 1);
+    
+    assertTrue(cas.compareAndSet(KEY, null, first, null, trace));
+    assertFalse(cas.compareAndSet(KEY, null, cas.newRecord().put("value", 2), null, trace));
+    
+    ObjectNode fetched = cas.fetch(KEY, trace);
+    
+    assertNotNull(fetched);
+    assertEquals(1, fetched.get("value").asInt());
+    
+    assertTrue(cas.compareAndSet(KEY, fetched, cas.newRecord().put("value", 3), null, trace));
+    
+    // fetched is now stale
+    assertFalse(cas.compareAndSet(KEY, fetched, cas.newRecord().put("value", 4), null, trace));
+    assertEquals(3, cas.fetch(KEY, trace).get("value").asInt());
+  }
+}
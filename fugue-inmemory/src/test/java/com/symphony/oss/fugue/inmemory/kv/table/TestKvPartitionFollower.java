@@ -0,0 +1,130 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.inmemory.kv.table.TestInMemoryKvTable.KvItem;
+import com.symphony.oss.fugue.kv.IKvItem;
+import com.symphony.oss.fugue.kv.KvPartitionKeyProvider;
+import com.symphony.oss.fugue.kv.table.follow.KvPartitionFollower;
+import com.symphony.oss.fugue.trace.ITraceContext;
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestKvPartitionFollower
+{
+  private static final String                 PART1     = "PART1";
+  private static final KvPartitionKeyProvider PARTITION = new KvPartitionKeyProvider(PART1);
+  
+  private ITraceContext trace = NoOpTraceContext.INSTANCE;
+  
+  private void store(InMemoryKvTable table, String sortKey, String value)
+  {
+    List<IKvItem> kvItems = new ArrayList<>(1);
+    
+    kvItems.add(new KvItem(PART1, sortKey, value));
+    
+    table.store(kvItems, trace);
+  }
+  
+  @Test
+  public void testFollow() throws InterruptedException
+  {
+    InMemoryKvTable     table     = new InMemoryKvTable.Builder().withServiceId("test").build();
+    KvPartitionFollower follower  = new KvPartitionFollower.Builder()
+        .withKvTable(table)
+        .withPollInterval(5, 20)
+        .build();
+    
+    store(table, "1", "One");
+    store(table, "2", "Two");
+    
+    List<String>  result  = new ArrayList<>();
+    String        cursor  = follower.follow(PARTITION, null, null, 0, (sortKey, payload) -> result.add(payload), trace);
+    
+    assertEquals("2", cursor);
+    assertEquals(2, result.size());
+    
+    assertEquals("2", follower.follow(PARTITION, null, cursor, 50, (sortKey, payload) -> result.add(payload), trace));
+    assertEquals(2, result.size());
+  }
+  
+  @Test
+  public void testConcurrentFollowers() throws InterruptedException
+  {
+    InMemoryKvTable     table     = new InMemoryKvTable.Builder().withServiceId("test").build();
+    KvPartitionFollower follower  = new KvPartitionFollower.Builder()
+        .withKvTable(table)
+        .withPollInterval(5, 20)
+        .build();
+    
+    store(table, "1", "One");
+    
+    List<String>  result  = Collections.synchronizedList(new ArrayList<>());
+    List<Thread>  threads = new ArrayList<>();
+    
+    for(int i=0 ; i<10 ; i++)
+    {
+      Thread thread = new Thread(() ->
+      {
+        try
+        {
+          follower.follow(PARTITION, null, "1", 10000, (sortKey, payload) -> result.add(payload), trace);
+        }
+        catch(InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      });
+      
+      thread.start();
+      threads.add(thread);
+    }
+    
+    Thread.sleep(500);
+    
+    long readCount = follower.getReadCount();
+    
+    // One initial read each and then one poller at no more than the max poll interval.
+    assertTrue("readCount=" + readCount, readCount <= 10 + 500 / 5);
+    
+    store(table, "2", "Two");
+    
+    for(Thread thread : threads)
+      thread.join(5000);
+    
+    assertEquals(10, result.size());
+    
+    for(String payload : result)
+      assertEquals("Two", payload);
+  }
+}
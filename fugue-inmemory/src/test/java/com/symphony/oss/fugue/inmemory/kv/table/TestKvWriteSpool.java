@@ -0,0 +1,437 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.symphony.oss.fugue.inmemory.kv.table.TestInMemoryKvTable.KvItem;
+import com.symphony.oss.fugue.kv.IKvItem;
+import com.symphony.oss.fugue.kv.KvPartitionSortKeyProvider;
+import com.symphony.oss.fugue.kv.table.spool.IKvWriteSpoolSink;
+import com.symphony.oss.fugue.kv.table.spool.KvWriteSpool;
+import com.symphony.oss.fugue.kv.table.spool.SpoolFsyncPolicy;
+import com.symphony.oss.fugue.kv.table.spool.SpoolOverflowException;
+import com.symphony.oss.fugue.kv.table.spool.SpoolOverflowPolicy;
+import com.symphony.oss.fugue.trace.ITraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestKvWriteSpool
+{
+  private static final String PART1 = "PART1";
+  
+  private File directory_;
+  
+  @Before
+  public void before() throws IOException
+  {
+    directory_ = Files.createTempDirectory("TestKvWriteSpool").toFile();
+  }
+  
+  @After
+  public void after()
+  {
+    File[] files = directory_.listFiles();
+    
+    if(files != null)
+    {
+      for(File file : files)
+        file.delete();
+    }
+    
+    directory_.delete();
+  }
+  
+  private KvWriteSpool.Builder builder()
+  {
+    return new KvWriteSpool.Builder()
+        .withDirectory(directory_)
+        .withFsyncPolicy(SpoolFsyncPolicy.ALWAYS)
+        .withReplayRate(1000);
+  }
+  
+  private static List<IKvItem> items(String sortKey, String value)
+  {
+    return Collections.singletonList(new KvItem(PART1, sortKey, value));
+  }
+  
+  private File[] segments()
+  {
+    return directory_.listFiles((dir, name) -> name.startsWith("spool-"));
+  }
+  
+  private static void awaitEmpty(KvWriteSpool spool) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 10000;
+    
+    while(!spool.isEmpty())
+    {
+      if(System.currentTimeMillis() > deadline)
+        fail("Spool did not drain");
+      
+      Thread.sleep(10);
+    }
+  }
+  
+  @Test
+  public void testRecoverAndReplayInOrder() throws InterruptedException
+  {
+    KvWriteSpool spool = builder().build();
+    
+    spool.append(items("1", "One"), false, null);
+    spool.append(items("2", "Two"), false, null);
+    spool.append(items("1", "OneAgain"), true, null);
+    spool.stop();
+    
+    KvWriteSpool recovered = builder().build();
+    
+    assertEquals(3, recovered.getRecordCount());
+    assertEquals(spool.getSize(), recovered.getSize());
+    assertEquals("OneAgain", recovered.fetch(new KvPartitionSortKeyProvider(PART1, "1")));
+    assertEquals("Two", recovered.fetch(new KvPartitionSortKeyProvider(PART1, "2")));
+    
+    Sink sink = new Sink();
+    
+    recovered.start(sink);
+    awaitEmpty(recovered);
+    recovered.stop();
+    
+    assertEquals(3, sink.values_.size());
+    assertEquals("One", sink.values_.get(0));
+    assertEquals("Two", sink.values_.get(1));
+    assertEquals("OneAgain", sink.values_.get(2));
+    assertFalse(sink.transactional_.get(0));
+    assertTrue(sink.transactional_.get(2));
+    
+    assertNull(recovered.fetch(new KvPartitionSortKeyProvider(PART1, "1")));
+    assertEquals(0, segments().length);
+  }
+  
+  @Test
+  public void testTornTail() throws IOException
+  {
+    KvWriteSpool spool = builder().build();
+    
+    spool.append(items("1", "One"), false, null);
+    spool.append(items("2", "Two"), false, null);
+    spool.stop();
+    
+    long size = spool.getSize();
+    File segment = segments()[0];
+    
+    // A partial record header, as if we crashed during a write.
+    try(RandomAccessFile out = new RandomAccessFile(segment, "rw"))
+    {
+      out.seek(out.length());
+      out.writeInt(1000);
+      out.writeShort(7);
+    }
+    
+    KvWriteSpool recovered = builder().build();
+    
+    assertEquals(2, recovered.getRecordCount());
+    assertEquals(size, recovered.getSize());
+    assertEquals(size, segment.length());
+    recovered.stop();
+  }
+  
+  @Test
+  public void testCorruptRecord() throws IOException
+  {
+    KvWriteSpool spool = builder().build();
+    
+    spool.append(items("1", "One"), false, null);
+    
+    long firstSize = spool.getSize();
+    
+    spool.append(items("2", "Two"), false, null);
+    spool.stop();
+    
+    File segment = segments()[0];
+    
+    // Flip the last byte of the second record's payload so its CRC does not match.
+    try(RandomAccessFile out = new RandomAccessFile(segment, "rw"))
+    {
+      out.seek(out.length() - 1);
+      
+      int b = out.read();
+      
+      out.seek(out.length() - 1);
+      out.write(b ^ 0xff);
+    }
+    
+    KvWriteSpool recovered = builder().build();
+    
+    assertEquals(1, recovered.getRecordCount());
+    assertEquals(firstSize, segment.length());
+    assertEquals("One", recovered.fetch(new KvPartitionSortKeyProvider(PART1, "1")));
+    assertNull(recovered.fetch(new KvPartitionSortKeyProvider(PART1, "2")));
+    recovered.stop();
+  }
+  
+  @Test
+  public void testReject()
+  {
+    KvWriteSpool spool = builder()
+        .withSegmentSize(1)
+        .withMaxSize(300)
+        .withOverflowPolicy(SpoolOverflowPolicy.REJECT)
+        .build();
+    
+    int count = 0;
+    
+    try
+    {
+      while(count < 100)
+      {
+        spool.append(items(Integer.toString(count), "Value"), false, null);
+        count++;
+      }
+      fail("Spool accepted " + count + " records");
+    }
+    catch(SpoolOverflowException e)
+    {
+      // expected
+    }
+    
+    assertTrue(count > 0);
+    assertEquals(count, spool.getRecordCount());
+    assertTrue(spool.getSize() <= 300);
+    spool.stop();
+  }
+  
+  @Test
+  public void testBlock() throws InterruptedException
+  {
+    KvWriteSpool spool = builder()
+        .withSegmentSize(1)
+        .withMaxSize(150)
+        .withOverflowPolicy(SpoolOverflowPolicy.BLOCK)
+        .withOverflowTimeout(200)
+        .build();
+    
+    spool.append(items("1", "One"), false, null);
+    
+    long start = System.currentTimeMillis();
+    
+    try
+    {
+      spool.append(items("2", "Two"), false, null);
+      fail("Spool accepted a record with no space");
+    }
+    catch(SpoolOverflowException e)
+    {
+      assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+    
+    CountDownLatch              release = new CountDownLatch(1);
+    AtomicReference<Throwable>  error   = new AtomicReference<>();
+    Sink                        sink    = new Sink()
+    {
+      @Override
+      public void replay(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+      {
+        try
+        {
+          release.await();
+        }
+        catch (InterruptedException e)
+        {
+          throw new IllegalStateException(e);
+        }
+        super.replay(kvItems, transactional, trace);
+      }
+    };
+    
+    // The replay of the first record is held until the writer is blocked.
+    spool.start(sink);
+    
+    Thread writer = new Thread(() ->
+    {
+      try
+      {
+        spool.append(items("2", "Two"), false, null);
+      }
+      catch(RuntimeException e)
+      {
+        error.set(e);
+      }
+    });
+    
+    writer.start();
+    writer.join(100);
+    assertTrue("Writer should be blocked", writer.isAlive());
+    
+    release.countDown();
+    writer.join(5000);
+    
+    assertFalse(writer.isAlive());
+    assertNull(error.get());
+    
+    awaitEmpty(spool);
+    spool.stop();
+    
+    assertEquals(2, sink.values_.size());
+    assertEquals("One", sink.values_.get(0));
+    assertEquals("Two", sink.values_.get(1));
+  }
+  
+  @Test
+  public void testReadYourWrites() throws InterruptedException
+  {
+    KvWriteSpool                spool   = builder().build();
+    KvPartitionSortKeyProvider  key     = new KvPartitionSortKeyProvider(PART1, "1");
+    List<String>                fetched = new ArrayList<>();
+    
+    spool.append(items("1", "One"), false, null);
+    spool.append(items("1", "OneAgain"), false, null);
+    
+    assertEquals("OneAgain", spool.fetch(key));
+    
+    spool.start(new Sink()
+    {
+      @Override
+      public void replay(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+      {
+        super.replay(kvItems, transactional, trace);
+        fetched.add(spool.fetch(key));
+      }
+    });
+    
+    awaitEmpty(spool);
+    spool.stop();
+    
+    // Replaying the first write must not hide the second, which is still spooled.
+    assertEquals("OneAgain", fetched.get(0));
+    assertNull(spool.fetch(key));
+  }
+  
+  @Test
+  public void testQuarantine() throws InterruptedException
+  {
+    KvWriteSpool spool = builder().build();
+    
+    spool.append(items("1", "One"), false, null);
+    spool.append(items("2", "Bad"), false, null);
+    spool.append(items("3", "Three"), false, null);
+    
+    Sink sink = new Sink()
+    {
+      @Override
+      public void replay(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+      {
+        if("Bad".equals(kvItems.iterator().next().getJson()))
+          throw new IllegalArgumentException("Item is invalid");
+        
+        super.replay(kvItems, transactional, trace);
+      }
+
+      @Override
+      public boolean isRetryable(RuntimeException failure)
+      {
+        return !(failure instanceof IllegalArgumentException);
+      }
+    };
+    
+    spool.start(sink);
+    awaitEmpty(spool);
+    spool.stop();
+    
+    assertEquals(2, sink.values_.size());
+    assertEquals("One", sink.values_.get(0));
+    assertEquals("Three", sink.values_.get(1));
+    assertEquals(1, spool.getQuarantinedCount());
+    assertTrue(spool.getQuarantineFile().length() > 0);
+    assertNull(spool.fetch(new KvPartitionSortKeyProvider(PART1, "2")));
+  }
+
+  @Test
+  public void testQuarantineRotation() throws InterruptedException
+  {
+    KvWriteSpool spool = builder().withMaxQuarantineSize(150).build();
+
+    spool.append(items("1", "Bad1"), false, null);
+    spool.append(items("2", "Bad2"), false, null);
+    spool.append(items("3", "Bad3"), false, null);
+
+    Sink sink = new Sink()
+    {
+      @Override
+      public void replay(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+      {
+        throw new IllegalArgumentException("Item is invalid");
+      }
+
+      @Override
+      public boolean isRetryable(RuntimeException failure)
+      {
+        return false;
+      }
+    };
+
+    spool.start(sink);
+    awaitEmpty(spool);
+    spool.stop();
+
+    assertEquals(3, spool.getQuarantinedCount());
+    assertTrue(spool.getQuarantineBackupFile().exists());
+    assertTrue(spool.getQuarantineFile().length() <= 150);
+    assertTrue(spool.getQuarantineBackupFile().length() <= 150);
+  }
+
+  static class Sink implements IKvWriteSpoolSink
+  {
+    final List<String>  values_         = Collections.synchronizedList(new ArrayList<>());
+    final List<Boolean> transactional_  = Collections.synchronizedList(new ArrayList<>());
+    
+    @Override
+    public void replay(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+    {
+      for(IKvItem item : kvItems)
+      {
+        values_.add(item.getJson());
+        transactional_.add(transactional);
+      }
+    }
+  }
+}
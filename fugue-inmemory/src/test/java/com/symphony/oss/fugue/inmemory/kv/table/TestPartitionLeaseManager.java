@@ -0,0 +1,165 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.kv.table.lease.IShardOwnershipListener;
+import com.symphony.oss.fugue.kv.table.lease.PartitionLeaseManager;
+
+@SuppressWarnings("javadoc")
+public class TestPartitionLeaseManager
+{
+  private static final String[] SHARDS = new String[] {"A", "B", "C", "D"};
+  
+  class Listener implements IShardOwnershipListener
+  {
+    final Map<String, Long> owned_ = new HashMap<>();
+    
+    @Override
+    public void onOwnershipAcquired(String shard, long fencingToken)
+    {
+      owned_.put(shard, fencingToken);
+    }
+
+    @Override
+    public void onOwnershipLost(String shard, long fencingToken)
+    {
+      assertEquals(Long.valueOf(fencingToken), owned_.remove(shard));
+    }
+  }
+  
+  private PartitionLeaseManager createManager(InMemoryKvTable table, String instanceId, Listener listener)
+  {
+    return new PartitionLeaseManager.Builder()
+        .withKvTable(table)
+        .withName("TestGroup")
+        .withInstanceId(instanceId)
+        .withShards(Arrays.asList(SHARDS))
+        .withLeaseDuration(60000, 0)
+        .withListener(listener)
+        .build();
+  }
+  
+  @Test
+  public void testRebalance()
+  {
+    InMemoryKvTable       table     = new InMemoryKvTable.Builder().withServiceId("test").build();
+    Listener              listener1 = new Listener();
+    Listener              listener2 = new Listener();
+    PartitionLeaseManager manager1  = createManager(table, "instance1", listener1);
+    PartitionLeaseManager manager2  = createManager(table, "instance2", listener2);
+    
+    manager1.heartbeat();
+    
+    assertEquals(4, listener1.owned_.size());
+    assertEquals(listener1.owned_, manager1.getOwnedShards());
+    
+    // instance2 joins but all shards are leased.
+    manager2.heartbeat();
+    assertEquals(0, listener2.owned_.size());
+    
+    // instance1 releases its excess shards which instance2 then claims.
+    manager1.heartbeat();
+    assertEquals(2, listener1.owned_.size());
+    
+    manager2.heartbeat();
+    assertEquals(2, listener2.owned_.size());
+    
+    for(String shard : SHARDS)
+    {
+      assertTrue(manager1.isOwner(shard) != manager2.isOwner(shard));
+      
+      if(manager2.isOwner(shard))
+        assertEquals(Long.valueOf(2), listener2.owned_.get(shard));
+      else
+        assertEquals(Long.valueOf(1), listener1.owned_.get(shard));
+    }
+    
+    // instance2 leaves and instance1 takes over its shards.
+    manager2.stop();
+    assertEquals(0, listener2.owned_.size());
+    
+    manager1.heartbeat();
+    assertEquals(4, listener1.owned_.size());
+    
+    for(String shard : SHARDS)
+      assertTrue(manager1.isOwner(shard));
+  }
+  
+  @Test
+  public void testListenerCallsBackFromAnotherThread()
+  {
+    InMemoryKvTable       table     = new InMemoryKvTable.Builder().withServiceId("test").build();
+    ExecutorService       executor  = Executors.newSingleThreadExecutor();
+    Map<String, Boolean>  seen      = new HashMap<>();
+    PartitionLeaseManager[] manager = new PartitionLeaseManager[1];
+    
+    Listener listener = new Listener()
+    {
+      @Override
+      public void onOwnershipAcquired(String shard, long fencingToken)
+      {
+        super.onOwnershipAcquired(shard, fencingToken);
+        
+        try
+        {
+          // Waiting on another thread which queries the manager must not deadlock with the heartbeat.
+          seen.put(shard, executor.submit(() -> manager[0].isOwner(shard)).get(5, TimeUnit.SECONDS));
+        }
+        catch(InterruptedException | ExecutionException | TimeoutException e)
+        {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    
+    manager[0] = createManager(table, "instance1", listener);
+    manager[0].heartbeat();
+    
+    assertEquals(4, seen.size());
+    
+    for(String shard : SHARDS)
+      assertTrue(seen.get(shard));
+    
+    manager[0].stop();
+    
+    assertFalse(manager[0].isOwner(SHARDS[0]));
+    
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.pubsub.AckBatcher;
+import com.symphony.oss.fugue.pubsub.IAckBatchSink;
+
+@SuppressWarnings("javadoc")
+public class TestAckBatcher
+{
+  class Sink implements IAckBatchSink
+  {
+    final List<List<String>>  acks_           = new ArrayList<>();
+    final List<String>        modifications_  = new ArrayList<>();
+    final Set<String>         failing_        = new HashSet<>();
+    boolean                   closed_;
+    
+    @Override
+    public int getMaxBatchSize()
+    {
+      return 10;
+    }
+
+    @Override
+    public synchronized Collection<String> acknowledge(List<String> handles)
+    {
+      assertTrue(handles.size() <= 10);
+      
+      acks_.add(new ArrayList<>(handles));
+      
+      List<String> failed = new ArrayList<>(handles);
+      
+      failed.retainAll(failing_);
+      
+      return failed;
+    }
+
+    @Override
+    public synchronized Collection<String> modifyVisibility(List<String> handles, int timeoutSeconds)
+    {
+      for(String handle : handles)
+        modifications_.add(handle + "=" + timeoutSeconds);
+      
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void close()
+    {
+      closed_ = true;
+    }
+  }
+  
+  @Test
+  public void testSizeTrigger()
+  {
+    Sink        sink    = new Sink();
+    AckBatcher  batcher = new AckBatcher.Builder()
+        .withSink(sink)
+        .build();
+    
+    for(int i=0 ; i<25 ; i++)
+      batcher.acknowledge("M" + i);
+    
+    assertEquals(2, sink.acks_.size());
+    assertEquals(10, sink.acks_.get(0).size());
+    
+    batcher.flush();
+    
+    assertEquals(3, sink.acks_.size());
+    assertEquals(5, sink.acks_.get(2).size());
+    assertEquals(3, batcher.getRequestCount());
+    assertEquals(25, batcher.getEntryCount());
+  }
+  
+  @Test
+  public void testFailures()
+  {
+    Sink        sink    = new Sink();
+    AckBatcher  batcher = new AckBatcher.Builder()
+        .withSink(sink)
+        .withMaxAttempts(2)
+        .build();
+    
+    sink.failing_.add("M1");
+    
+    batcher.acknowledge("M1");
+    batcher.acknowledge("M2");
+    batcher.modifyVisibility("M3", 30);
+    batcher.modifyVisibility("M4", 5);
+    batcher.flush();
+    
+    assertEquals(Collections.singletonList(Arrays.asList("M1", "M2")), sink.acks_);
+    assertEquals(new HashSet<>(Arrays.asList("M3=30", "M4=5")), new HashSet<>(sink.modifications_));
+    
+    batcher.flush();
+    
+    // The second attempt also fails and is the last.
+    assertEquals(Collections.singletonList("M1"), sink.acks_.get(1));
+    assertEquals(1, batcher.getDroppedCount());
+    
+    batcher.flush();
+    
+    assertEquals(2, sink.acks_.size());
+    
+    batcher.close();
+    
+    assertTrue(sink.closed_);
+  }
+  
+  @Test
+  public void testTimeTrigger() throws InterruptedException
+  {
+    ScheduledExecutorService  scheduler = Executors.newSingleThreadScheduledExecutor();
+    Sink                      sink      = new Sink();
+    AckBatcher                batcher   = new AckBatcher.Builder()
+        .withSink(sink)
+        .withScheduler(scheduler, 10)
+        .build();
+    
+    try
+    {
+      batcher.acknowledge("M1");
+      
+      for(int i=0 ; i<100 ; i++)
+      {
+        synchronized(sink)
+        {
+          if(!sink.acks_.isEmpty())
+            break;
+        }
+        
+        Thread.sleep(10);
+      }
+      
+      synchronized(sink)
+      {
+        assertEquals(Collections.singletonList(Collections.singletonList("M1")), sink.acks_);
+      }
+    }
+    finally
+    {
+      batcher.close();
+      scheduler.shutdown();
+    }
+  }
+  
+  @Test
+  public void testLatestModificationWins()
+  {
+    Sink        sink    = new Sink();
+    AckBatcher  batcher = new AckBatcher.Builder()
+        .withSink(sink)
+        .build();
+    
+    // An extension queued just before a nack must not override the nack's retry delay.
+    batcher.modifyVisibility("M1", 30);
+    batcher.modifyVisibility("M2", 30);
+    batcher.modifyVisibility("M1", 0);
+    batcher.flush();
+    
+    assertEquals(new HashSet<>(Arrays.asList("M1=0", "M2=30")), new HashSet<>(sink.modifications_));
+    assertEquals(2, batcher.getEntryCount());
+    
+    sink.modifications_.clear();
+    
+    for(int i=0 ; i<10 ; i++)
+      batcher.modifyVisibility("M" + i, i % 2 == 0 ? 30 : 0);
+    
+    // The batch is full so it is sent as one request per timeout.
+    assertEquals(10, sink.modifications_.size());
+    assertEquals(4, batcher.getRequestCount());
+  }
+}
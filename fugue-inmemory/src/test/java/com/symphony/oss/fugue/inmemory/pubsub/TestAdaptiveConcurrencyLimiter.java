@@ -0,0 +1,116 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.pubsub.AdaptiveConcurrencyLimiter;
+
+@SuppressWarnings("javadoc")
+public class TestAdaptiveConcurrencyLimiter
+{
+  @Test
+  public void testFailuresReduceLimit() throws InterruptedException
+  {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+        .withLimits(1, 10)
+        .build();
+    
+    assertEquals(10, limiter.getLimit());
+    
+    for(int i=0 ; i<200 ; i++)
+    {
+      limiter.acquire();
+      limiter.release(1000000L, false);
+    }
+    
+    assertEquals(1, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+  
+  @Test
+  public void testSaturatedSuccessIncreasesLimit() throws InterruptedException
+  {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+        .withLimits(1, 4)
+        .withInitialLimit(1)
+        .build();
+    
+    for(int i=0 ; i<100 ; i++)
+    {
+      int limit = limiter.getLimit();
+      
+      for(int j=0 ; j<limit ; j++)
+        limiter.acquire();
+      
+      for(int j=0 ; j<limit ; j++)
+        limiter.release(1000000L, true);
+    }
+    
+    assertEquals(4, limiter.getLimit());
+    assertTrue(limiter.getLatencyMillis() > 0.9);
+  }
+  
+  @Test
+  public void testCancel() throws InterruptedException
+  {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+        .withLimits(1, 1)
+        .build();
+    
+    assertTrue(limiter.tryAcquire(0));
+    assertFalse(limiter.tryAcquire(0));
+    
+    limiter.cancel();
+    
+    assertEquals(0, limiter.getInFlight());
+    assertTrue(limiter.getLatencyMillis() == 0);
+    assertTrue(limiter.tryAcquire(0));
+  }
+  
+  @Test
+  public void testAwaitAvailable() throws InterruptedException
+  {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+        .withLimits(1, 4)
+        .build();
+    
+    assertEquals(4, limiter.awaitAvailable());
+    
+    limiter.acquire();
+    limiter.acquire();
+    
+    assertEquals(2, limiter.awaitAvailable());
+    
+    limiter.release(2000000L, true);
+    limiter.release(2000000L, true);
+    
+    assertEquals(4, limiter.awaitAvailable());
+    assertEquals(2.0, limiter.getBaselineLatencyMillis(), 0.001);
+  }
+}
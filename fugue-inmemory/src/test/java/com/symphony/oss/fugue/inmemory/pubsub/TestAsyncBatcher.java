@@ -0,0 +1,265 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.symphony.oss.fugue.pubsub.AsyncBatchFailure;
+import com.symphony.oss.fugue.pubsub.AsyncBatcher;
+import com.symphony.oss.fugue.pubsub.IAsyncBatchSink;
+
+@SuppressWarnings("javadoc")
+public class TestAsyncBatcher
+{
+  private final ScheduledExecutorService scheduler_ = Executors.newSingleThreadScheduledExecutor();
+  
+  class Sink implements IAsyncBatchSink<String>
+  {
+    final List<List<String>>  batches_    = new ArrayList<>();
+    final Set<String>         retryable_  = new HashSet<>();
+    final Set<String>         permanent_  = new HashSet<>();
+    
+    @Override
+    public int getMaxBatchSize()
+    {
+      return 10;
+    }
+
+    @Override
+    public int getMaxBatchBytes()
+    {
+      return 100;
+    }
+
+    @Override
+    public int getSize(String item)
+    {
+      return item.length();
+    }
+
+    @Override
+    public synchronized List<AsyncBatchFailure> send(List<String> batch)
+    {
+      assertTrue(batch.size() <= 10);
+      
+      batches_.add(new ArrayList<>(batch));
+      
+      List<AsyncBatchFailure> failures = new ArrayList<>();
+      
+      for(int i=0 ; i<batch.size() ; i++)
+      {
+        if(retryable_.contains(batch.get(i)))
+          failures.add(new AsyncBatchFailure(i, true, "Throttled"));
+        else if(permanent_.contains(batch.get(i)))
+          failures.add(new AsyncBatchFailure(i, false, "Invalid"));
+      }
+      
+      return failures;
+    }
+  }
+  
+  @After
+  public void after()
+  {
+    scheduler_.shutdown();
+  }
+  
+  private AsyncBatcher.Builder<String> builder(Sink sink)
+  {
+    return new AsyncBatcher.Builder<String>()
+        .withSink(sink)
+        .withScheduler(scheduler_)
+        .withExecutor((r) -> r.run())
+        .withLinger(60000);
+  }
+  
+  @Test
+  public void testSizeTrigger()
+  {
+    Sink                  sink    = new Sink();
+    AsyncBatcher<String>  batcher = builder(sink).build();
+    
+    for(int i=0 ; i<25 ; i++)
+      batcher.submit("M" + i);
+    
+    assertEquals(2, sink.batches_.size());
+    assertEquals(10, sink.batches_.get(0).size());
+    assertEquals(5, batcher.getPendingCount());
+    
+    batcher.flush();
+    
+    assertEquals(3, sink.batches_.size());
+    assertEquals(5, sink.batches_.get(2).size());
+    assertEquals(0, batcher.getPendingCount());
+    assertEquals(3, batcher.getRequestCount());
+    assertEquals(25, batcher.getEntryCount());
+  }
+  
+  @Test
+  public void testBytesTrigger() throws InterruptedException, ExecutionException
+  {
+    Sink                  sink    = new Sink();
+    AsyncBatcher<String>  batcher = builder(sink).build();
+    
+    String                  sixty     = String.format("%60s", "A");
+    CompletableFuture<Void> first     = batcher.submit(sixty);
+    CompletableFuture<Void> second    = batcher.submit(sixty);
+    CompletableFuture<Void> oversize  = batcher.submit(String.format("%101s", "B"));
+    
+    // The second item does not fit with the first.
+    assertEquals(1, sink.batches_.size());
+    first.get();
+    assertFalse(second.isDone());
+    assertTrue(oversize.isCompletedExceptionally());
+    
+    batcher.flush();
+    
+    assertEquals(2, sink.batches_.size());
+    second.get();
+    assertEquals(1, batcher.getFailedCount());
+  }
+  
+  private void flushUntilDone(AsyncBatcher<String> batcher, CompletableFuture<Void> future) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 5000;
+    
+    while(!future.isDone() && System.currentTimeMillis() < deadline)
+    {
+      Thread.sleep(10);
+      batcher.flush();
+    }
+  }
+  
+  @Test
+  public void testFailures() throws InterruptedException
+  {
+    Sink                  sink    = new Sink();
+    AsyncBatcher<String>  batcher = builder(sink)
+        .withMaxAttempts(2)
+        .withRetryDelay(200, 200)
+        .build();
+    
+    sink.retryable_.add("M1");
+    sink.permanent_.add("M3");
+    
+    CompletableFuture<Void> m1 = batcher.submit("M1");
+    CompletableFuture<Void> m2 = batcher.submit("M2");
+    CompletableFuture<Void> m3 = batcher.submit("M3");
+    
+    long start = System.currentTimeMillis();
+    
+    batcher.flush();
+    
+    assertFalse(m1.isDone());
+    assertTrue(m2.isDone() && !m2.isCompletedExceptionally());
+    assertTrue(m3.isCompletedExceptionally());
+    
+    // The retry waits for its backoff rather than going out with the next batch.
+    batcher.flush();
+    
+    synchronized(sink)
+    {
+      assertEquals(1, sink.batches_.size());
+    }
+    
+    flushUntilDone(batcher, m1);
+    
+    assertTrue(System.currentTimeMillis() - start >= 100);
+    
+    // The second attempt also fails and is the last.
+    assertEquals(2, sink.batches_.size());
+    assertEquals("M1", sink.batches_.get(1).get(0));
+    assertTrue(m1.isCompletedExceptionally());
+    assertEquals(2, batcher.getFailedCount());
+    assertEquals(0, batcher.getPendingCount());
+  }
+  
+  @Test
+  public void testMaxPendingBytes() throws InterruptedException
+  {
+    Sink                  sink    = new Sink();
+    AsyncBatcher<String>  batcher = builder(sink)
+        .withMaxPendingBytes(100)
+        .build();
+    
+    String sixty = String.format("%60s", "A");
+    
+    batcher.submit(sixty);
+    
+    assertEquals(60, batcher.getPendingBytes());
+    
+    AtomicReference<CompletableFuture<Void>> second = new AtomicReference<>();
+    Thread                                   thread = new Thread(() -> second.set(batcher.submit(sixty)));
+    
+    thread.start();
+    thread.join(200);
+    
+    // There is only room for 40 more bytes until the first item completes.
+    assertTrue(thread.isAlive());
+    assertEquals(60, batcher.getPendingBytes());
+    
+    batcher.flush();
+    thread.join(5000);
+    
+    assertFalse(thread.isAlive());
+    assertFalse(second.get().isDone());
+    assertEquals(60, batcher.getPendingBytes());
+  }
+  
+  @Test
+  public void testLinger() throws InterruptedException, ExecutionException, TimeoutException
+  {
+    Sink                  sink    = new Sink();
+    AsyncBatcher<String>  batcher = builder(sink)
+        .withLinger(10)
+        .build();
+    
+    batcher.submit("M1").get(5, TimeUnit.SECONDS);
+    
+    synchronized(sink)
+    {
+      assertEquals(1, sink.batches_.size());
+    }
+    
+    assertTrue(batcher.close(1000));
+    assertTrue(batcher.submit("M2").isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.symphony.oss.fugue.config.Configuration;
+import com.symphony.oss.fugue.naming.INameFactory;
+import com.symphony.oss.fugue.naming.NameFactory;
+import com.symphony.oss.fugue.naming.TopicName;
+import com.symphony.oss.fugue.pipeline.IThreadSafeRetryableConsumer;
+import com.symphony.oss.fugue.pipeline.LoggingErrorConsumer;
+import com.symphony.oss.fugue.pipeline.RetryableConsumerException;
+import com.symphony.oss.fugue.pubsub.IPublisher;
+import com.symphony.oss.fugue.pubsub.PubSubMessage;
+import com.symphony.oss.fugue.pubsub.TopicSubscription;
+import com.symphony.oss.fugue.trace.ITraceContext;
+import com.symphony.oss.fugue.trace.NoOpContextFactory;
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestInMemorySubscriberManager
+{
+  private static final int  MESSAGE_COUNT = 10000;
+  
+  private INameFactory nameFactory_ = new NameFactory("sym-s2-", "test", "s2test1", "us-east-1", "testTenant", 101, "testService");
+  
+  class CountingConsumer implements IThreadSafeRetryableConsumer<String>
+  {
+    final Map<String, AtomicInteger> counts_  = new ConcurrentHashMap<>();
+    final AtomicInteger              total_   = new AtomicInteger();
+    final int                        failures_;
+    
+    CountingConsumer(int failures)
+    {
+      failures_ = failures;
+    }
+    
+    @Override
+    public void consume(String item, ITraceContext trace) throws RetryableConsumerException
+    {
+      int count = counts_.computeIfAbsent(item, (k) -> new AtomicInteger()).incrementAndGet();
+      
+      total_.incrementAndGet();
+      
+      if(count <= failures_)
+        throw new RetryableConsumerException(TimeUnit.MILLISECONDS, 10L);
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+  
+  private InMemorySubscriberManager createSubscriberManager(String topicId, String subscriptionId, CountingConsumer consumer)
+  {
+    return new InMemorySubscriberManager.Builder()
+        .withNameFactory(nameFactory_)
+        .withConfig(new Configuration(new ObjectMapper().createObjectNode()) {})
+        .withTraceContextTransactionFactory(new NoOpContextFactory())
+        .withUnprocessableMessageConsumer(new LoggingErrorConsumer<>("test"))
+        .withSubscription(new TopicSubscription.Builder()
+            .withNameFactory(nameFactory_)
+            .withTopicIds(topicId)
+            .withSubscriptionId(subscriptionId)
+            .withConsumer(consumer)
+            .build())
+        .withBufferSize(256)
+        .build();
+  }
+  
+  private void publish(String topicId, int count)
+  {
+    InMemoryPublisherManager publisherManager = new InMemoryPublisherManager.Builder()
+        .withNameFactory(nameFactory_)
+        .withTopic(topicId)
+        .build();
+    
+    IPublisher publisher = publisherManager.getPublisherByName(topicId);
+    
+    for(int i=0 ; i<count ; i++)
+      publisher.consume(new PubSubMessage("Message " + i, NoOpTraceContext.INSTANCE, "test"));
+  }
+  
+  private void waitFor(AtomicInteger counter, int count) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 30000;
+    
+    while(counter.get() < count && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+  }
+  
+  @Test
+  public void testFanOut() throws InterruptedException
+  {
+    CountingConsumer          consumer1 = new CountingConsumer(0);
+    CountingConsumer          consumer2 = new CountingConsumer(0);
+    InMemorySubscriberManager manager1  = createSubscriberManager("FanOutTopic", "sub1", consumer1);
+    InMemorySubscriberManager manager2  = createSubscriberManager("FanOutTopic", "sub2", consumer2);
+    
+    manager1.start();
+    manager2.start();
+    
+    // The buffers are smaller than the number of messages so this relies on back pressure.
+    publish("FanOutTopic", MESSAGE_COUNT);
+    
+    waitFor(consumer1.total_, MESSAGE_COUNT);
+    waitFor(consumer2.total_, MESSAGE_COUNT);
+    
+    manager1.stop();
+    manager2.stop();
+    
+    assertEquals(MESSAGE_COUNT, consumer1.total_.get());
+    assertEquals(MESSAGE_COUNT, consumer1.counts_.size());
+    assertEquals(MESSAGE_COUNT, consumer2.total_.get());
+    assertEquals(MESSAGE_COUNT, consumer2.counts_.size());
+  }
+  
+  @Test
+  public void testRetry() throws InterruptedException
+  {
+    CountingConsumer          consumer  = new CountingConsumer(2);
+    InMemorySubscriberManager manager   = createSubscriberManager("RetryTopic", "sub", consumer);
+    
+    manager.start();
+    
+    publish("RetryTopic", 100);
+    
+    waitFor(consumer.total_, 300);
+    
+    manager.stop();
+    
+    assertEquals(300, consumer.total_.get());
+    
+    for(AtomicInteger count : consumer.counts_.values())
+      assertEquals(3, count.get());
+  }
+  
+  @Test
+  public void testVisibilityTimeout()
+  {
+    InMemorySubscription  subscription  = new InMemorySubscription("test", 4);
+    
+    assertTrue(subscription.offer(new PubSubMessage("Message", NoOpTraceContext.INSTANCE, "test")));
+    
+    InMemoryDelivery delivery = subscription.receive(-1);
+    
+    assertEquals(0, subscription.getBacklog());
+    assertEquals(1, subscription.redeliverExpired());
+    assertEquals(1, subscription.getRedeliveryCount());
+    
+    InMemoryDelivery redelivery = subscription.receive(60000);
+    
+    assertEquals(delivery.getMessageId(), redelivery.getMessageId());
+    assertEquals(1, redelivery.getDeliveryCount());
+    
+    // The late acknowledgement of the first delivery does not affect the redelivery.
+    subscription.ack(delivery);
+    assertEquals(1, subscription.getInFlightCount());
+    
+    subscription.ack(redelivery);
+    assertEquals(0, subscription.getInFlightCount());
+  }
+  
+  @Test
+  public void testDeleteAndRecreateTopic()
+  {
+    TopicName             topicName     = nameFactory_.getTopicName("recreatedTopic");
+    TopicName             otherTopic    = nameFactory_.getTopicName("otherTopic");
+    InMemorySubscription  subscription  = InMemoryPubSub.subscribe(topicName, "sub", 4);
+    
+    // The same subscription name on another topic is a different subscription.
+    assertNotSame(subscription, InMemoryPubSub.subscribe(otherTopic, "sub", 4));
+    assertSame(subscription, InMemoryPubSub.subscribe(topicName, "sub", 4));
+    
+    InMemoryPubSub.deleteTopic(topicName);
+    
+    InMemorySubscription recreated = InMemoryPubSub.subscribe(topicName, "sub", 4);
+    
+    assertNotSame(subscription, recreated);
+    assertEquals(1, InMemoryPubSub.getSubscriptions(topicName).size());
+    
+    InMemoryPubSub.send(topicName, new PubSubMessage("Message", NoOpTraceContext.INSTANCE, "test"));
+    
+    assertNotNull(recreated.receive(60000));
+    assertEquals(0, subscription.getBacklog());
+  }
+}
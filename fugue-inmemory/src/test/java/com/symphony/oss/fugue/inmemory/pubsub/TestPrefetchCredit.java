@@ -0,0 +1,100 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.pubsub.PrefetchCredit;
+
+@SuppressWarnings("javadoc")
+public class TestPrefetchCredit
+{
+  @Test
+  public void testMessageLimit() throws Exception
+  {
+    PrefetchCredit credit = new PrefetchCredit(20, 1000);
+    
+    assertEquals(20, credit.getCredit(Integer.MAX_VALUE));
+    assertEquals(5, credit.getCredit(5));
+    
+    credit.acquire(15, 100);
+    
+    assertEquals(5, credit.getCredit(Integer.MAX_VALUE));
+    assertEquals(0, credit.getCredit(10));
+    
+    credit.acquire(5, 100);
+    
+    assertEquals(0, credit.awaitCredit(Integer.MAX_VALUE, 10));
+    
+    assertTrue(credit.release(10, Integer.MAX_VALUE));
+    assertFalse(credit.release(10, Integer.MAX_VALUE));
+    
+    assertEquals(2, credit.getCredit(Integer.MAX_VALUE));
+    assertEquals(18, credit.getOutstanding());
+    assertEquals(180, credit.getOutstandingBytes());
+  }
+  
+  @Test
+  public void testByteLimit() throws Exception
+  {
+    PrefetchCredit credit = new PrefetchCredit(20, 1000);
+    
+    credit.acquire(2, 1000);
+    
+    assertEquals(0, credit.getCredit(Integer.MAX_VALUE));
+    
+    assertTrue(credit.release(500, Integer.MAX_VALUE));
+    
+    assertEquals(19, credit.getCredit(Integer.MAX_VALUE));
+  }
+  
+  @Test
+  public void testAwaitCredit() throws Exception
+  {
+    PrefetchCredit  credit    = new PrefetchCredit(2, 1000);
+    ExecutorService executor  = Executors.newSingleThreadExecutor();
+    
+    credit.acquire(2, 0);
+    
+    Future<Integer> future = executor.submit(() -> credit.awaitCredit(Integer.MAX_VALUE, 10000));
+    
+    Thread.sleep(100);
+    assertFalse(future.isDone());
+    
+    credit.release(0, Integer.MAX_VALUE);
+    
+    assertEquals(Integer.valueOf(1), future.get(10, TimeUnit.SECONDS));
+    
+    executor.shutdown();
+  }
+}
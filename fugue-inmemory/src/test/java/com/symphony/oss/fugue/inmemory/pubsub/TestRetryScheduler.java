@@ -0,0 +1,101 @@
+/*
+ *
+ *
+ * Copyright 2019 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.inmemory.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.symphony.oss.fugue.pubsub.RetryBackoff;
+import com.symphony.oss.fugue.pubsub.RetryScheduler;
+
+@SuppressWarnings("javadoc")
+public class TestRetryScheduler
+{
+  @Test
+  public void testBackoff()
+  {
+    RetryBackoff backoff = new RetryBackoff.Builder()
+        .withMultiplier(2.0)
+        .withMaxDelayMillis(5000)
+        .withJitter(0.5)
+        .build();
+    
+    for(int i=0 ; i<100 ; i++)
+    {
+      long delay = backoff.getDelay(1000, 1);
+      
+      assertTrue(delay >= 500 && delay <= 1000);
+      
+      delay = backoff.getDelay(1000, 3);
+      
+      assertTrue(delay >= 2000 && delay <= 4000);
+      
+      delay = backoff.getDelay(1000, 10);
+      
+      assertTrue(delay >= 2500 && delay <= 5000);
+    }
+  }
+  
+  @Test
+  public void testBudget() throws Exception
+  {
+    RetryScheduler scheduler = new RetryScheduler.Builder()
+        .withName("test-retry")
+        .withTickMillis(10)
+        .withMaxPendingPerSubscription(2)
+        .withBackoff(new RetryBackoff.Builder().withJitter(0).build())
+        .build();
+    
+    CountDownLatch        done  = new CountDownLatch(2);
+    RetryScheduler.Retry  first = scheduler.schedule("a", 10000, 0, () -> {});
+    
+    assertNotNull(first);
+    assertNotNull(scheduler.schedule("a", 10000, 0, () -> {}));
+    assertNull(scheduler.schedule("a", 10000, 0, () -> {}));
+    
+    // The budget is per subscription.
+    assertNotNull(scheduler.schedule("b", 50, 0, () -> done.countDown()));
+    assertEquals(3, scheduler.getPendingCount());
+    assertEquals(1, scheduler.getRejectedCount());
+    
+    assertTrue(first.cancel());
+    assertFalse(first.cancel());
+    assertEquals(1, scheduler.getPendingCount("a"));
+    assertNotNull(scheduler.schedule("a", 50, 0, () -> done.countDown()));
+    
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    
+    assertEquals(0, scheduler.getPendingCount("b"));
+    assertEquals(2, scheduler.getRetriedCount());
+    assertEquals(4, scheduler.getScheduledCount());
+  }
+}
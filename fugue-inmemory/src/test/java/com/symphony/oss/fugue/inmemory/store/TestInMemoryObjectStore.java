@@ -22,15 +22,22 @@
 package com.symphony.oss.fugue.inmemory.store;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.Test;
 
 import com.symphony.oss.commons.hash.Hash;
 import com.symphony.oss.commons.hash.HashProvider;
 import com.symphony.oss.commons.immutable.ImmutableByteArray;
+import com.symphony.oss.fugue.store.BatchFetchResult;
+import com.symphony.oss.fugue.store.FugueObjectDeletionType;
 import com.symphony.oss.fugue.store.IFugueObject;
 import com.symphony.oss.fugue.store.IFugueObjectPayload;
 import com.symphony.oss.fugue.store.IFuguePodId;
@@ -126,6 +133,160 @@ public class TestInMemoryObjectStore
     }
   }
   
+  @Test
+  public void testBatchFetch()
+  {
+    FugueObject  objectOne = new FugueObject("Object One");
+    FugueObject  objectTwo = new FugueObject("Object Two");
+    FugueObject  objectThree = new FugueObject("Object Three");
+
+    objectStore_.save(objectOne, payloadLimit_, NoOpTraceContext.INSTANCE);
+    objectStore_.save(objectTwo, payloadLimit_, NoOpTraceContext.INSTANCE);
+    
+    BatchFetchResult result = objectStore_.fetchAbsolute(Arrays.asList(objectOne.getAbsoluteHash(), objectTwo.getAbsoluteHash(), objectThree.getAbsoluteHash()));
+    
+    assertEquals(2, result.getFound().size());
+    assertEquals(objectOne.toString(), result.get(objectOne.getAbsoluteHash()));
+    assertEquals(objectTwo.toString(), result.get(objectTwo.getAbsoluteHash()));
+    assertEquals(Collections.singleton(objectThree.getAbsoluteHash()), result.getMissing());
+    
+    FugueObject  id = new FugueObject("ID Object");
+    
+    objectStore_.save(new FugueObject(id.getAbsoluteHash(), "Version 1"), payloadLimit_, NoOpTraceContext.INSTANCE);
+    objectStore_.save(new FugueObject(id.getAbsoluteHash(), "Version 2"), payloadLimit_, NoOpTraceContext.INSTANCE);
+    
+    result = objectStore_.fetchCurrent(Arrays.asList(id.getAbsoluteHash(), objectThree.getAbsoluteHash()));
+    
+    assertEquals("Version 2", result.get(id.getAbsoluteHash()));
+    assertEquals(Collections.singleton(objectThree.getAbsoluteHash()), result.getMissing());
+  }
+  
+  @Test
+  public void testFetchVersionsPaging()
+  {
+    FugueObject  id = new FugueObject("ID Object");
+    
+    for(int i=0 ; i<10 ; i++)
+      objectStore_.save(new FugueObject(id.getAbsoluteHash(), "Version " + i), payloadLimit_, NoOpTraceContext.INSTANCE);
+    
+    List<String>  result = new ArrayList<>();
+    String        after = null;
+    int           pages = 0;
+    
+    do
+    {
+      after = objectStore_.fetchVersions(id.getAbsoluteHash(), true, 3, after, result::add);
+      pages++;
+    } while(after != null);
+    
+    assertEquals(4, pages);
+    assertEquals(10, result.size());
+    
+    for(int i=0 ; i<10 ; i++)
+      assertEquals("Version " + i, result.get(i));
+    
+    result.clear();
+    after = objectStore_.fetchVersions(id.getAbsoluteHash(), false, 4, null, result::add);
+    
+    assertEquals(Arrays.asList("Version 9", "Version 8", "Version 7", "Version 6"), result);
+    
+    result.clear();
+    after = objectStore_.fetchVersions(id.getAbsoluteHash(), false, 4, after, result::add);
+    
+    assertEquals(Arrays.asList("Version 5", "Version 4", "Version 3", "Version 2"), result);
+    
+    result.clear();
+    after = objectStore_.fetchVersions(id.getAbsoluteHash(), false, 4, after, result::add);
+    
+    assertEquals(Arrays.asList("Version 1", "Version 0"), result);
+    assertNull(after);
+  }
+  
+  @Test
+  public void testConcurrentSave() throws InterruptedException, NoSuchObjectException
+  {
+    int           threadCnt = 8;
+    int           versionCnt = 200;
+    FugueObject[] ids = new FugueObject[threadCnt];
+    Thread[]      threads = new Thread[threadCnt];
+    
+    for(int t=0 ; t<threadCnt ; t++)
+    {
+      FugueObject id = ids[t] = new FugueObject("ID Object " + t);
+      
+      threads[t] = new Thread(() ->
+      {
+        for(int i=0 ; i<versionCnt ; i++)
+        {
+          objectStore_.save(new FugueObject(id.getAbsoluteHash(), String.format("Version %s %04d", id, i)), payloadLimit_, NoOpTraceContext.INSTANCE);
+          
+          try
+          {
+            objectStore_.fetchCurrent(id.getAbsoluteHash());
+          }
+          catch (NoSuchObjectException e)
+          {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    
+    for(Thread thread : threads)
+      thread.join();
+    
+    for(FugueObject id : ids)
+    {
+      List<String> versions = new ArrayList<>();
+      
+      assertNull(objectStore_.fetchVersions(id.getAbsoluteHash(), true, null, null, versions::add));
+      assertEquals(versionCnt, versions.size());
+      assertEquals(String.format("Version %s %04d", id, versionCnt - 1), objectStore_.fetchCurrent(id.getAbsoluteHash()));
+    }
+  }
+  
+  @Test
+  public void testFollowSequence() throws InterruptedException
+  {
+    Hash          sequenceHash  = new FugueObject("Sequence").getAbsoluteHash();
+    FugueObject   objectOne     = new FugueObject("Object One");
+    FugueObject   objectTwo     = new FugueObject("Object Two");
+    Instant       now           = Instant.now();
+    
+    objectStore_.saveToSequences(objectOne.getAbsoluteHash(), objectOne.toString(), FugueObjectDeletionType.NONE, null, payloadLimit_,
+        Collections.singletonList(sequenceHash), now, NoOpTraceContext.INSTANCE);
+    
+    List<String>  result  = Collections.synchronizedList(new ArrayList<>());
+    String        cursor  = objectStore_.followSequenceObjects(sequenceHash, null, null, 0, result::add);
+    
+    assertEquals(Collections.singletonList(objectOne.toString()), result);
+    assertEquals(cursor, objectStore_.followSequenceObjects(sequenceHash, null, cursor, 10, result::add));
+    
+    String  after   = cursor;
+    Thread  thread  = new Thread(() ->
+    {
+      try
+      {
+        objectStore_.followSequenceObjects(sequenceHash, null, after, 10000, result::add);
+      }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    });
+    
+    thread.start();
+    Thread.sleep(100);
+    
+    objectStore_.saveToSequences(objectTwo.getAbsoluteHash(), objectTwo.toString(), FugueObjectDeletionType.NONE, null, payloadLimit_,
+        Collections.singletonList(sequenceHash), now.plusMillis(1), NoOpTraceContext.INSTANCE);
+    
+    thread.join(5000);
+    
+    assertEquals(Arrays.asList(objectOne.toString(), objectTwo.toString()), result);
+  }
+  
   class FugueObjectPayload implements IFugueObjectPayload
   {
     final String             value_;
@@ -25,6 +25,10 @@ package com.symphony.oss.fugue.pubsub;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +36,7 @@ import org.slf4j.LoggerFactory;
 import com.symphony.oss.fugue.Fugue;
 import com.symphony.oss.fugue.batch.ExecutorBatch;
 import com.symphony.oss.fugue.batch.IBatch;
+import com.symphony.oss.fugue.concurrent.KeyedSerialExecutor;
 import com.symphony.oss.fugue.counter.IBusyCounter;
 import com.symphony.oss.fugue.counter.ICounter;
 import com.symphony.oss.fugue.counter.ScaleAction;
@@ -40,6 +45,7 @@ import com.symphony.oss.fugue.pipeline.ICloseableConsumer;
 public abstract class AbstractPullSubscriber implements Runnable
 {
   private static final Logger log_ = LoggerFactory.getLogger(AbstractPullSubscriber.class);
+  private static final long   CREDIT_WAIT_MILLIS = 1000;
   
   private final AbstractPullSubscriberManager<?, ?> manager_;
   private final String                              subscriptionName_;
@@ -47,7 +53,8 @@ public abstract class AbstractPullSubscriber implements Runnable
   private final IBusyCounter                        busyCounter_;
   private final long                                extensionFrequency_;
   private final ICloseableConsumer                  consumer_;
-  protected boolean                                 running_ = true;
+  private final PrefetchCredit                      credit_;
+  protected volatile boolean                        running_ = true;
 
   
   public AbstractPullSubscriber(AbstractPullSubscriberManager<?,?> manager,
@@ -62,6 +69,7 @@ public abstract class AbstractPullSubscriber implements Runnable
     busyCounter_ = busyCounter;
     extensionFrequency_ = extensionFrequency;
     consumer_ = consumer;
+    credit_ = manager.createPrefetchCredit();
   }
 
   public void close()
@@ -69,6 +77,15 @@ public abstract class AbstractPullSubscriber implements Runnable
     consumer_.close();
   }
 
+  /**
+   * 
+   * @return The name of the subscription.
+   */
+  public String getSubscriptionName()
+  {
+    return subscriptionName_;
+  }
+
   protected abstract IPullSubscriberContext getContext() throws IOException;
   
   protected abstract Runnable       getNonIdleSubscriber();
@@ -95,7 +112,15 @@ public abstract class AbstractPullSubscriber implements Runnable
     log_.info("About to read for " + subscriptionName_ + "...");
     try
     {
-      Collection<IPullSubscriberMessage> messages = context.nonBlockingPull();
+      int maxMessages = credit_.awaitCredit(manager_.getPrefetchDelayLimit(), CREDIT_WAIT_MILLIS);
+      
+      if(maxMessages == 0)
+      {
+        log_.debug("No credit for " + subscriptionName_ + ", outstanding=" + credit_.getOutstanding());
+        return;
+      }
+      
+      Collection<IPullSubscriberMessage> messages = context.nonBlockingPull(maxMessages);
       
      
       if(messages.isEmpty())
@@ -111,7 +136,7 @@ public abstract class AbstractPullSubscriber implements Runnable
         
         log_.info("Blocking read for " + subscriptionName_ + "...");
         
-        messages = context.blockingPull();
+        messages = context.blockingPull(maxMessages);
         
         log_.info("Blocking read for " + subscriptionName_ + " returned " + messages.size());
         
@@ -120,30 +145,86 @@ public abstract class AbstractPullSubscriber implements Runnable
           return;
         }
         
-        scheduleExtra(1);
+        acquireCredit(messages);
       }
       else
       {
         if(busyCounter_ != null)
           busyCounter_.busy(messages.size());
         
-        scheduleExtra(1);
+        acquireCredit(messages);
         
         log_.info("Non-Blocking read for " + subscriptionName_ + " returned " + messages.size());
       }
       
       
       
-      IBatch<IPullSubscriberMessage>  batch = new ExecutorBatch<>(manager_.getHandlerExecutor());
+      KeyedSerialExecutor             keyedExecutor = manager_.getKeyedHandlerExecutor();
+      KeyRouter                       router        = keyedExecutor == null ? null : new KeyRouter(keyedExecutor);
+      IBatch<IPullSubscriberMessage>  batch         = router == null ? new ExecutorBatch<>(manager_.getHandlerExecutor())
+                                                                      : new ExecutorBatch<>(router);
       
       if(counter_ != null)
         counter_.increment(messages.size());
       
-      for(IPullSubscriberMessage message : messages)
+      // Messages which have been pulled ahead of demand wait here for a handler.
+      LinkedList<IPullSubscriberMessage> waiting = new LinkedList<>(messages);
+      
+      try
+      {
+        IPullSubscriberMessage message;
+        
+        while((message = waiting.peek()) != null)
+        {
+          log_.debug("handle message " + message.getMessageId());
+//          log_.debug("handle message " + message);
+          
+          if(router == null)
+          {
+            while(!manager_.tryAcquireHandler(extensionFrequency_))
+            {
+              // Messages which have been handled already ignore this.
+              for(IPullSubscriberMessage pulledMessage : messages)
+              {
+                log_.debug("extend message " + pulledMessage.getMessageId());
+                pulledMessage.extend();
+              }
+            }
+            
+            boolean submitted = false;
+            
+            try
+            {
+              batch.submit(new LimitedMessage(message, true));
+              submitted = true;
+            }
+            finally
+            {
+              // A rejected message never runs, so it never releases the handler it was given.
+              if(!submitted)
+                manager_.cancelHandler();
+            }
+          }
+          else
+          {
+            // The handler is acquired when the message reaches the head of its lane, so that messages
+            // queued behind a busy key do not hold any of the concurrency limit.
+            router.key_ = manager_.getKeyExtractor().extractKey(message.getAttributes());
+            
+            batch.submit(new LimitedMessage(message, false));
+          }
+          
+          waiting.remove();
+        }
+      }
+      finally
       {
-        log_.debug("handle message " + message.getMessageId());
-//        log_.debug("handle message " + message);
-        batch.submit(message);
+        // Anything still waiting will be redelivered by the broker.
+        for(IPullSubscriberMessage message : waiting)
+        {
+          message.abandon();
+          releaseCredit(message);
+        }
       }
       
       Collection<IPullSubscriberMessage> incompleteTasks;
@@ -158,6 +239,12 @@ public abstract class AbstractPullSubscriber implements Runnable
         }
       } while(!incompleteTasks.isEmpty());
     }
+    catch(InterruptedException e)
+    {
+      log_.warn("Interrupted waiting for credit or handler capacity for " + subscriptionName_);
+      
+      Thread.currentThread().interrupt();
+    }
     catch(RuntimeException e)
     {
       log_.error("Error processing message", e);
@@ -189,6 +276,182 @@ public abstract class AbstractPullSubscriber implements Runnable
     }
   }
 
+  /**
+   * Record the credit used by the given pulled messages, and if more credit remains schedule another pull
+   * so that it overlaps with the handling of these messages.
+   * 
+   * @param messages Messages which have just been pulled.
+   */
+  private void acquireCredit(Collection<IPullSubscriberMessage> messages)
+  {
+    long bytes = 0;
+    
+    for(IPullSubscriberMessage message : messages)
+      bytes += message.getPayloadSize();
+    
+    credit_.acquire(messages.size(), bytes);
+    
+    if(credit_.getCredit(manager_.getPrefetchDelayLimit()) > 0)
+      scheduleExtra(1);
+  }
+  
+  private void releaseCredit(IPullSubscriberMessage message)
+  {
+    // If credit had run out there may be nobody waiting to pull, so start a pull now.
+    if(credit_.release(message.getPayloadSize(), manager_.getPrefetchDelayLimit()))
+      scheduleExtra(1);
+  }
+  
+  /**
+   * 
+   * @return The flow control for this subscription.
+   */
+  public PrefetchCredit getPrefetchCredit()
+  {
+    return credit_;
+  }
+
+  /**
+   * An Executor which passes each task to a KeyedSerialExecutor with the key of the message being submitted.
+   * 
+   * ExecutorBatch wraps each task before passing it to the executor, so the key can not be taken
+   * from the task itself. The batch calls execute synchronously from submit on the thread which
+   * builds the batch, so the key is set immediately before each call to submit.
+   */
+  private static class KeyRouter implements Executor
+  {
+    private final KeyedSerialExecutor executor_;
+    private Object                    key_;
+
+    private KeyRouter(KeyedSerialExecutor executor)
+    {
+      executor_ = executor;
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+      try
+      {
+        executor_.execute(key_, command);
+      }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        
+        throw new RejectedExecutionException("Interrupted waiting for ordered backlog", e);
+      }
+    }
+  }
+
+  /**
+   * A message whose handling is counted by the concurrency limiter of the manager.
+   */
+  private class LimitedMessage implements IPullSubscriberMessage
+  {
+    private final IPullSubscriberMessage message_;
+    private final boolean                acquired_;
+
+    /**
+     * Constructor.
+     * 
+     * @param message   The message to be handled.
+     * @param acquired  True if the handler has already been acquired from the manager, otherwise run()
+     *                  acquires it before handling the message.
+     */
+    private LimitedMessage(IPullSubscriberMessage message, boolean acquired)
+    {
+      message_  = message;
+      acquired_ = acquired;
+    }
+
+    @Override
+    public String getMessageId()
+    {
+      return message_.getMessageId();
+    }
+
+    @Override
+    public void extend()
+    {
+      message_.extend();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes()
+    {
+      return message_.getAttributes();
+    }
+
+    @Override
+    public int getPayloadSize()
+    {
+      return message_.getPayloadSize();
+    }
+
+    @Override
+    public void abandon()
+    {
+      message_.abandon();
+    }
+
+    @Override
+    public void run()
+    {
+      if(!acquired_ && !acquireHandler())
+        return;
+      
+      long    start   = System.nanoTime();
+      boolean success = false;
+      
+      try
+      {
+        message_.run();
+        success = true;
+      }
+      finally
+      {
+        success = !manager_.takeHandlerFailed() && success;
+        
+        manager_.releaseHandler(System.nanoTime() - start, success);
+        
+        releaseCredit(message_);
+      }
+    }
+
+    private boolean acquireHandler()
+    {
+      try
+      {
+        while(!manager_.tryAcquireHandler(extensionFrequency_))
+        {
+          log_.debug("extend message " + message_.getMessageId());
+          message_.extend();
+        }
+        
+        return true;
+      }
+      catch(InterruptedException e)
+      {
+        log_.warn("Interrupted waiting for handler capacity for " + subscriptionName_);
+        
+        Thread.currentThread().interrupt();
+        
+        // The message will be redelivered by the broker.
+        message_.abandon();
+        releaseCredit(message_);
+        
+        return false;
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return message_.toString();
+    }
+  }
+
   private void scheduleExtra(int count)
   {
 
@@ -243,12 +506,12 @@ public abstract class AbstractPullSubscriber implements Runnable
   
 
 
-  public synchronized boolean isRunning()
+  public boolean isRunning()
   {
     return running_;
   }
   
-  public synchronized void stop()
+  public void stop()
   {
     running_ = false;
   }
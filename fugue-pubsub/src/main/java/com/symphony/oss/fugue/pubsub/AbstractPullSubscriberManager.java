@@ -23,7 +23,12 @@
 
 package com.symphony.oss.fugue.pubsub;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -32,15 +37,46 @@ import org.slf4j.LoggerFactory;
 
 import com.symphony.oss.commons.concurrent.NamedThreadFactory;
 import com.symphony.oss.fugue.Fugue;
+import com.symphony.oss.fugue.concurrent.ElasticExecutor;
+import com.symphony.oss.fugue.concurrent.KeyedSerialExecutor;
 import com.symphony.oss.fugue.config.IConfiguration;
 import com.symphony.oss.fugue.counter.IBusyCounter;
 import com.symphony.oss.fugue.counter.ITopicBusyCounterFactory;
 import com.symphony.oss.fugue.naming.Name;
 import com.symphony.oss.fugue.naming.SubscriptionName;
+import com.symphony.oss.fugue.pipeline.IThreadSafeRetryableConsumer;
+import com.symphony.oss.fugue.trace.ITraceContext;
 
 /**
  * Base class for synchronous pull type implementations.
  * 
+ * By default subscribers and handlers run on fixed size thread pools. If the configuration value
+ * useVirtualThreads is true then each subscriber and handler task runs on its own thread, a virtual
+ * thread if the JVM supports them, and subscriberThreadPoolSize and handlerThreadPoolSize limit the
+ * number of tasks running at once rather than the number of threads.
+ * 
+ * If the configuration value adaptiveConcurrency is true, which is the default, then the number of
+ * messages being handled at once is limited by an AdaptiveConcurrencyLimiter, between one and
+ * handlerThreadPoolSize, according to handler latency and failures. Subscribers wait for the limiter
+ * before pulling and pull no more messages than it allows, so when handlers slow down messages stay
+ * in the queue rather than in the handler executor. The current limit and latencies are logged every
+ * concurrencyLogIntervalMillis and are available from the getHandlerConcurrency methods.
+ * 
+ * If a key extractor is set then messages with the same key are handled one at a time in the order
+ * in which they were received, on a KeyedSerialExecutor in front of the handler executor, while
+ * messages with different keys are handled concurrently. The number of ordered messages waiting to be
+ * handled is limited by the configuration value orderedBacklogLimit, which defaults to ten times
+ * handlerThreadPoolSize. Ordered messages wait for the concurrency limiter only when they reach the
+ * head of their key's queue, so a busy key does not use up the limit while its messages wait.
+ * 
+ * Each subscription pulls ahead of demand so that handlers do not wait for pull round trips. It aims
+ * to keep prefetchMessages messages pulled but not yet handled, which defaults to twice
+ * handlerThreadPoolSize, and stops pulling while the payloads of these messages total prefetchMaxBytes
+ * or more. When adaptive concurrency is enabled the number of outstanding messages is also limited to
+ * the number which the handlers are expected to complete within prefetchMaxDelayMillis, so that messages
+ * do not wait locally for longer than that. Messages waiting for a handler have their visibility
+ * extended in the same way as messages being handled.
+ * 
  * @author Bruce Skingle
  *
  * @param <T> Type of concrete manager, needed for fluent methods.
@@ -54,10 +90,24 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
 
   private int                                 subscriberThreadPoolSize_;
   private int                                 handlerThreadPoolSize_;
+  private final boolean                       useVirtualThreads_;
   private final LinkedBlockingQueue<Runnable> executorQueue_ = new LinkedBlockingQueue<Runnable>();
   private final LinkedBlockingQueue<Runnable> handlerQueue_  = new LinkedBlockingQueue<Runnable>();
-  private ThreadPoolExecutor                  subscriberExecutor_;
-  private ThreadPoolExecutor                  handlerExecutor_;
+  private ExecutorService                     subscriberExecutor_;
+  private ExecutorService                     handlerExecutor_;
+  private final long                          ackFlushInterval_;
+  private final ScheduledExecutorService      ackScheduler_  = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("PubSub-ack", true));
+  private final List<AckBatcher>              ackBatchers_   = new CopyOnWriteArrayList<>();
+  private final boolean                       adaptiveConcurrency_;
+  private final long                          concurrencyLogInterval_;
+  private final ThreadLocal<Boolean>          handlerFailed_ = new ThreadLocal<>();
+  private volatile AdaptiveConcurrencyLimiter handlerLimiter_;
+  private final IMessageKeyExtractor          keyExtractor_;
+  private final int                           orderedBacklogLimit_;
+  private KeyedSerialExecutor                 keyedHandlerExecutor_;
+  private final int                           prefetchMessages_;
+  private final long                          prefetchMaxBytes_;
+  private final long                          prefetchMaxDelay_;
 
   
   protected AbstractPullSubscriberManager(Builder<?,P,T> builder)
@@ -65,11 +115,20 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
     super(builder);
     
     busyCounterFactory_  = builder.busyCounterFactory_;
+    keyExtractor_        = builder.keyExtractor_;
     
     IConfiguration subscriberConfig = config_.getConfiguration(builder.getConfigPath());
     
     subscriberThreadPoolSize_ = subscriberConfig.getInt("subscriberThreadPoolSize", 4);
     handlerThreadPoolSize_ = subscriberConfig.getInt("handlerThreadPoolSize", 9 * subscriberThreadPoolSize_);
+    ackFlushInterval_ = subscriberConfig.getLong("ackFlushIntervalMillis", 100);
+    useVirtualThreads_ = subscriberConfig.getBoolean("useVirtualThreads", false);
+    adaptiveConcurrency_ = subscriberConfig.getBoolean("adaptiveConcurrency", true);
+    concurrencyLogInterval_ = subscriberConfig.getLong("concurrencyLogIntervalMillis", 60000);
+    orderedBacklogLimit_ = subscriberConfig.getInt("orderedBacklogLimit", 10 * handlerThreadPoolSize_);
+    prefetchMessages_ = subscriberConfig.getInt("prefetchMessages", 0);
+    prefetchMaxBytes_ = subscriberConfig.getLong("prefetchMaxBytes", 32L * 1024 * 1024);
+    prefetchMaxDelay_ = subscriberConfig.getLong("prefetchMaxDelayMillis", 10000);
 
 //    subscriberThreadPoolSize_ = 4; //8 * getTotalSubscriptionCnt();
   }
@@ -87,6 +146,7 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
   implements IPullSubscriberManagerBuilder<T,P,B>
   {
     private ITopicBusyCounterFactory         busyCounterFactory_;
+    private IMessageKeyExtractor             keyExtractor_;
 
     protected Builder(Class<T> type)
     {
@@ -101,6 +161,14 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
       return self();
     }
     
+    @Override
+    public T withKeyExtractor(IMessageKeyExtractor keyExtractor)
+    {
+      keyExtractor_ = keyExtractor;
+      
+      return self();
+    }
+    
     protected abstract String getConfigPath();
   }
 
@@ -148,17 +216,53 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
       }
     }
     
-    log_.info("Starting AbstractPullSubscriberManager with " + subscriberThreadPoolSize_ +
-        " subscriber threads and " + handlerThreadPoolSize_ + " handler threads for a total of " +
-        getTotalSubscriptionCnt() + " subscriptions...");
-
-    subscriberExecutor_ = new ThreadPoolExecutor(subscriberThreadPoolSize_, subscriberThreadPoolSize_,
-        10000L, TimeUnit.MILLISECONDS,
-        executorQueue_, new NamedThreadFactory("PubSub-subscriber"));
+    if(useVirtualThreads_)
+    {
+      ElasticExecutor subscriberExecutor  = new ElasticExecutor("PubSub-subscriber", subscriberThreadPoolSize_, true);
+      
+      log_.info("Starting AbstractPullSubscriberManager with " + subscriberThreadPoolSize_ +
+          " concurrent subscribers and " + handlerThreadPoolSize_ + " concurrent handlers on " +
+          (subscriberExecutor.isVirtual() ? "virtual" : "platform") + " threads for a total of " +
+          getTotalSubscriptionCnt() + " subscriptions...");
+      
+      subscriberExecutor_ = subscriberExecutor;
+      handlerExecutor_ = new ElasticExecutor("PubSub-handler", handlerThreadPoolSize_, true);
+    }
+    else
+    {
+      log_.info("Starting AbstractPullSubscriberManager with " + subscriberThreadPoolSize_ +
+          " subscriber threads and " + handlerThreadPoolSize_ + " handler threads for a total of " +
+          getTotalSubscriptionCnt() + " subscriptions...");
+  
+      subscriberExecutor_ = new ThreadPoolExecutor(subscriberThreadPoolSize_, subscriberThreadPoolSize_,
+          10000L, TimeUnit.MILLISECONDS,
+          executorQueue_, new NamedThreadFactory("PubSub-subscriber"));
+      
+      handlerExecutor_ = new ThreadPoolExecutor(handlerThreadPoolSize_, handlerThreadPoolSize_,
+          10000L, TimeUnit.MILLISECONDS,
+          handlerQueue_, new NamedThreadFactory("PubSub-handler", true));
+    }
     
-    handlerExecutor_ = new ThreadPoolExecutor(handlerThreadPoolSize_, handlerThreadPoolSize_,
-        10000L, TimeUnit.MILLISECONDS,
-        handlerQueue_, new NamedThreadFactory("PubSub-handler", true));
+    if(keyExtractor_ != null)
+    {
+      log_.info("Messages are ordered by key with a backlog limit of " + orderedBacklogLimit_);
+      
+      keyedHandlerExecutor_ = new KeyedSerialExecutor(handlerExecutor_, orderedBacklogLimit_);
+    }
+    
+    if(adaptiveConcurrency_ && handlerThreadPoolSize_ > 1)
+    {
+      handlerLimiter_ = new AdaptiveConcurrencyLimiter.Builder()
+          .withLimits(1, handlerThreadPoolSize_)
+          .build();
+      
+      ackScheduler_.scheduleWithFixedDelay(() ->
+      {
+        log_.info("Handler concurrency limit=" + getHandlerConcurrencyLimit() +
+            " inFlight=" + getHandlerConcurrencyInFlight() +
+            String.format(" latency=%.1fms baseline=%.1fms", getHandlerConcurrencyLatencyMillis(), getHandlerConcurrencyBaselineLatencyMillis()));
+      }, concurrencyLogInterval_, concurrencyLogInterval_, TimeUnit.MILLISECONDS);
+    }
       
     super.start();
   }
@@ -177,9 +281,59 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
     
     if(handlerExecutor_ != null)
       stop(handlerExecutor_, 10);
+    
+    // Handlers have finished so all acknowledgements have been queued.
+    for(AckBatcher ackBatcher : ackBatchers_)
+      ackBatcher.close();
+    
+    ackScheduler_.shutdown();
+  }
+  
+  /**
+   * Create a batcher for the acknowledgements of a subscription, which is flushed periodically
+   * and closed when subscriptions are stopped.
+   * 
+   * @param sink  The batch operations of the subscription.
+   * 
+   * @return A batcher for the acknowledgements of the subscription.
+   */
+  protected AckBatcher createAckBatcher(IAckBatchSink sink)
+  {
+    AckBatcher ackBatcher = new AckBatcher.Builder()
+        .withSink(sink)
+        .withScheduler(ackScheduler_, ackFlushInterval_)
+        .build();
+    
+    ackBatchers_.add(ackBatcher);
+    
+    return ackBatcher;
+  }
+  
+  /**
+   * Run the given task periodically until subscriptions are stopped.
+   * 
+   * The task runs on the thread which flushes acknowledgements, so it must be short and must not block.
+   * 
+   * @param task      The task to run.
+   * @param interval  The delay between the end of one run and the start of the next.
+   * @param unit      The unit of interval.
+   */
+  protected void schedulePeriodic(Runnable task, long interval, TimeUnit unit)
+  {
+    ackScheduler_.scheduleWithFixedDelay(() ->
+    {
+      try
+      {
+        task.run();
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Periodic subscription task failed", e);
+      }
+    }, interval, interval, unit);
   }
 
-  private void stop(ThreadPoolExecutor executor, int delay)
+  private void stop(ExecutorService executor, int delay)
   {
     try {
       // Wait a while for existing tasks to terminate
@@ -199,13 +353,21 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
 
   protected void submit(Runnable subscriber, boolean force)
   {
-    if(force || executorQueue_.size() < subscriberThreadPoolSize_)
+    if(force || getSubscriberBacklog() < subscriberThreadPoolSize_)
       subscriberExecutor_.submit(subscriber);
   }
+  
+  private int getSubscriberBacklog()
+  {
+    if(subscriberExecutor_ instanceof ElasticExecutor)
+      return ((ElasticExecutor)subscriberExecutor_).getWaitingCount();
+    
+    return executorQueue_.size();
+  }
 
   protected void printQueueSize()
   {
-    log_.debug("Queue size " + executorQueue_.size());
+    log_.debug("Queue size " + getSubscriberBacklog());
   }
   
 //  public IBatch newBatch()
@@ -213,11 +375,169 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
 //    return new ExecutorBatch(handlerExecutor_);
 //  }
 
-  ThreadPoolExecutor getHandlerExecutor()
+  ExecutorService getHandlerExecutor()
   {
     return handlerExecutor_;
   }
   
+  /**
+   * 
+   * @return The executor for messages which are ordered by key, or null if no key extractor is set.
+   */
+  KeyedSerialExecutor getKeyedHandlerExecutor()
+  {
+    return keyedHandlerExecutor_;
+  }
+  
+  /**
+   * 
+   * @return The key extractor, or null if messages are not ordered.
+   */
+  IMessageKeyExtractor getKeyExtractor()
+  {
+    return keyExtractor_;
+  }
+  
+  /**
+   * 
+   * @return The number of ordered messages waiting to be handled or being handled.
+   */
+  public int getOrderedBacklog()
+  {
+    return keyedHandlerExecutor_ == null ? 0 : keyedHandlerExecutor_.getPendingCount();
+  }
+  
+  /**
+   * Create the flow control for a subscription.
+   * 
+   * @return The flow control for a subscription.
+   */
+  PrefetchCredit createPrefetchCredit()
+  {
+    return new PrefetchCredit(prefetchMessages_ > 0 ? prefetchMessages_ : 2 * handlerThreadPoolSize_, prefetchMaxBytes_);
+  }
+  
+  /**
+   * Return the number of messages which the handlers are expected to complete within prefetchMaxDelayMillis
+   * at the current concurrency limit and latency.
+   * 
+   * @return The limit on the number of outstanding messages for a subscription, or Integer.MAX_VALUE if
+   * adaptive concurrency is disabled or no latency has been measured yet.
+   */
+  int getPrefetchDelayLimit()
+  {
+    AdaptiveConcurrencyLimiter limiter = handlerLimiter_;
+    
+    if(limiter == null)
+      return Integer.MAX_VALUE;
+    
+    double latency = limiter.getLatencyMillis();
+    int    limit   = limiter.getLimit();
+    
+    if(latency <= 0)
+      return Integer.MAX_VALUE;
+    
+    return (int) Math.max(limit, Math.min(Integer.MAX_VALUE, limit * prefetchMaxDelay_ / latency));
+  }
+  
+  /**
+   * Start handling a message if the concurrency limit allows it within the given time.
+   * 
+   * Every successful call must be matched by a call to releaseHandler.
+   * 
+   * @param timeoutMillis The maximum time to wait in milliseconds.
+   * 
+   * @return True if the message can be handled, false if the timeout expired.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  boolean tryAcquireHandler(long timeoutMillis) throws InterruptedException
+  {
+    return handlerLimiter_ == null || handlerLimiter_.tryAcquire(timeoutMillis);
+  }
+  
+  /**
+   * Complete the handling of a message.
+   * 
+   * @param latencyNanos  The time taken to handle the message in nanoseconds.
+   * @param success       False if the handler failed.
+   */
+  void releaseHandler(long latencyNanos, boolean success)
+  {
+    if(handlerLimiter_ != null)
+      handlerLimiter_.release(latencyNanos, success);
+  }
+  
+  /**
+   * Give back a handler acquired with tryAcquireHandler for a message which could not be submitted.
+   */
+  void cancelHandler()
+  {
+    if(handlerLimiter_ != null)
+      handlerLimiter_.cancel();
+  }
+  
+  /**
+   * Return and clear the outcome of the last call to handleMessage on the calling thread.
+   * 
+   * @return true if handleMessage was called on this thread and the message needs to be retried.
+   */
+  boolean takeHandlerFailed()
+  {
+    Boolean failed = handlerFailed_.get();
+    
+    handlerFailed_.remove();
+    
+    return failed != null;
+  }
+  
+  @Override
+  public long handleMessage(IThreadSafeRetryableConsumer<P> consumer, P payload, ITraceContext trace, String messageId)
+  {
+    long retryTime = super.handleMessage(consumer, payload, trace, messageId);
+    
+    if(retryTime != MESSAGE_PROCESSED_OK)
+      handlerFailed_.set(Boolean.TRUE);
+    
+    return retryTime;
+  }
+  
+  /**
+   * 
+   * @return The current limit on the number of messages handled at once, or the handler pool size if adaptive concurrency is disabled.
+   */
+  public int getHandlerConcurrencyLimit()
+  {
+    return handlerLimiter_ == null ? handlerThreadPoolSize_ : handlerLimiter_.getLimit();
+  }
+  
+  /**
+   * 
+   * @return The number of messages being handled, or zero if adaptive concurrency is disabled.
+   */
+  public int getHandlerConcurrencyInFlight()
+  {
+    return handlerLimiter_ == null ? 0 : handlerLimiter_.getInFlight();
+  }
+  
+  /**
+   * 
+   * @return The short term average time to handle a message in milliseconds, or zero if adaptive concurrency is disabled.
+   */
+  public double getHandlerConcurrencyLatencyMillis()
+  {
+    return handlerLimiter_ == null ? 0 : handlerLimiter_.getLatencyMillis();
+  }
+  
+  /**
+   * 
+   * @return The long term average time to handle a message in milliseconds, or zero if adaptive concurrency is disabled.
+   */
+  public double getHandlerConcurrencyBaselineLatencyMillis()
+  {
+    return handlerLimiter_ == null ? 0 : handlerLimiter_.getBaselineLatencyMillis();
+  }
+  
   protected IBusyCounter createBusyCounter(Name subscriptionName)
   {
     if(getBusyCounterFactory() == null)
@@ -71,6 +71,7 @@ implements ISubscriberManager
   protected final IConfiguration                  config_;
   protected final ICounter                        counter_;
   protected final int                             totalSubscriptionCnt_;
+  protected final RetryScheduler                  retryScheduler_;
 
   // TODO: replace this with a local topic
   private Cache<String, Integer>            failureCache_                 = CacheBuilder.newBuilder()
@@ -90,6 +91,7 @@ implements ISubscriberManager
     config_                       = builder.config_;
     counter_                      = builder.counter_;
     totalSubscriptionCnt_         = builder.totalSubscriptionCnt_;
+    retryScheduler_               = builder.retryScheduler_ == null ? RetryScheduler.getDefault() : builder.retryScheduler_;
   }
 
   @Override
@@ -117,6 +119,7 @@ implements ISubscriberManager
     protected IConfiguration                   config_;
     protected ICounter                         counter_;
     protected int                              totalSubscriptionCnt_;
+    protected RetryScheduler                   retryScheduler_;
 
     protected Builder(Class<T> type)
     {
@@ -174,6 +177,14 @@ implements ISubscriberManager
       return self();
     }
 
+    @Override
+    public T withRetryScheduler(RetryScheduler retryScheduler)
+    {
+      retryScheduler_ = retryScheduler;
+      
+      return self();
+    }
+
     @Override
     public T withConfig(IConfiguration config)
     {
@@ -238,6 +249,15 @@ implements ISubscriberManager
   {
     return traceFactory_;
   }
+  
+  /**
+   * 
+   * @return The scheduler for local retries of failed messages.
+   */
+  public RetryScheduler getRetryScheduler()
+  {
+    return retryScheduler_;
+  }
 
   @Override
   public synchronized void start()
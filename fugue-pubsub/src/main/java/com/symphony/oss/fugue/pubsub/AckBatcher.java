@@ -0,0 +1,508 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+
+/**
+ * Accumulates acknowledgements and visibility changes for a pull subscription and sends them
+ * in batches.
+ * 
+ * A batch is sent as soon as the maximum batch size of the sink is reached, on the calling thread,
+ * and anything pending is sent every flush interval on the given scheduler. Visibility changes are
+ * sent before acknowledgements so that a message which is acknowledged after being extended is not
+ * made visible again.
+ * 
+ * Only the most recent visibility change for each message is kept, and batches are sent one at a
+ * time, so an extension queued just before a nack cannot overwrite the retry delay set by the nack.
+ * 
+ * Entries which fail are retried on the next flush, up to the maximum number of attempts, after which
+ * they are dropped and the message will be delivered again when its visibility timeout expires.
+ * 
+ * @author Bruce Skingle
+ */
+public class AckBatcher
+{
+  private static final Logger                 log_              = LoggerFactory.getLogger(AckBatcher.class);
+
+  private final IAckBatchSink                 sink_;
+  private final int                           maxBatchSize_;
+  private final int                           maxAttempts_;
+  private final ScheduledFuture<?>            flushFuture_;
+
+  private final ReentrantLock                 sendLock_         = new ReentrantLock();
+
+  private List<Pending>                       acks_             = new ArrayList<>();
+  private Map<String, Pending>                modifications_    = new LinkedHashMap<>();
+  private boolean                             closed_;
+
+  private final AtomicLong                    requestCount_     = new AtomicLong();
+  private final AtomicLong                    entryCount_       = new AtomicLong();
+  private final AtomicLong                    droppedCount_     = new AtomicLong();
+
+  protected AckBatcher(AbstractBuilder<?,?> builder)
+  {
+    sink_         = builder.sink_;
+    maxBatchSize_ = sink_.getMaxBatchSize();
+    maxAttempts_  = builder.maxAttempts_;
+    
+    if(builder.scheduler_ == null)
+      flushFuture_ = null;
+    else
+      flushFuture_ = builder.scheduler_.scheduleWithFixedDelay(() -> flushQuietly(), builder.flushInterval_, builder.flushInterval_, TimeUnit.MILLISECONDS);
+  }
+  
+  private static class Pending
+  {
+    final String  handle_;
+    final int     timeoutSeconds_;
+    final int     attempts_;
+    
+    Pending(String handle, int timeoutSeconds, int attempts)
+    {
+      handle_         = handle;
+      timeoutSeconds_ = timeoutSeconds;
+      attempts_       = attempts;
+    }
+  }
+
+  /**
+   * Acknowledge (delete) the given message.
+   * 
+   * @param handle The receipt handle or ack ID of the message.
+   */
+  public void acknowledge(String handle)
+  {
+    List<Pending> batch = null;
+    
+    synchronized(this)
+    {
+      checkOpen();
+      
+      acks_.add(new Pending(handle, 0, 0));
+      
+      if(acks_.size() >= maxBatchSize_)
+      {
+        batch = acks_;
+        acks_ = new ArrayList<>();
+      }
+    }
+    
+    if(batch != null)
+      sendAcks(batch);
+  }
+
+  /**
+   * Set the visibility timeout (ack deadline) of the given message.
+   * 
+   * This is used both to extend the processing time of a message and to schedule a retry. If a change
+   * for the same message is already pending it is replaced.
+   * 
+   * @param handle          The receipt handle or ack ID of the message.
+   * @param timeoutSeconds  The time in seconds before the message is delivered again.
+   */
+  public void modifyVisibility(String handle, int timeoutSeconds)
+  {
+    boolean full;
+    
+    synchronized(this)
+    {
+      checkOpen();
+      
+      modifications_.put(handle, new Pending(handle, timeoutSeconds, 0));
+      
+      full = modifications_.size() >= maxBatchSize_;
+    }
+    
+    if(full)
+    {
+      sendLock_.lock();
+      try
+      {
+        Map<String, Pending> modifications;
+        
+        synchronized(this)
+        {
+          modifications   = modifications_;
+          modifications_  = new LinkedHashMap<>();
+        }
+        
+        sendModifications(modifications.values());
+      }
+      finally
+      {
+        sendLock_.unlock();
+      }
+    }
+  }
+  
+  private void checkOpen()
+  {
+    if(closed_)
+      throw new IllegalStateException("AckBatcher is closed");
+  }
+  
+  /**
+   * Send everything which is pending.
+   */
+  public void flush()
+  {
+    List<Pending>         acks;
+    Map<String, Pending>  modifications;
+    
+    // Batches of visibility changes must reach the sink in the order in which they were made.
+    sendLock_.lock();
+    try
+    {
+      synchronized(this)
+      {
+        if(acks_.isEmpty() && modifications_.isEmpty())
+          return;
+        
+        acks            = acks_;
+        modifications   = modifications_;
+        acks_           = new ArrayList<>();
+        modifications_  = new LinkedHashMap<>();
+      }
+      
+      sendModifications(modifications.values());
+    }
+    finally
+    {
+      sendLock_.unlock();
+    }
+    
+    for(List<Pending> batch : partition(acks))
+      sendAcks(batch);
+  }
+  
+  private void flushQuietly()
+  {
+    try
+    {
+      flush();
+    }
+    catch(RuntimeException e)
+    {
+      log_.error("Failed to flush acknowledgements", e);
+    }
+  }
+  
+  /**
+   * Stop the periodic flush, send everything which is pending and close the sink.
+   * 
+   * Entries which fail during the final flush are not retried.
+   */
+  public void close()
+  {
+    synchronized(this)
+    {
+      if(closed_)
+        return;
+      
+      closed_ = true;
+    }
+    
+    if(flushFuture_ != null)
+      flushFuture_.cancel(false);
+    
+    flush();
+    
+    synchronized(this)
+    {
+      if(!acks_.isEmpty() || !modifications_.isEmpty())
+      {
+        log_.warn("Dropping " + (acks_.size() + modifications_.size()) + " acknowledgements which failed during close");
+        droppedCount_.addAndGet(acks_.size() + modifications_.size());
+      }
+    }
+    
+    sink_.close();
+  }
+  
+  private List<List<Pending>> partition(List<Pending> pending)
+  {
+    List<List<Pending>> batches = new ArrayList<>();
+    
+    for(int i=0 ; i<pending.size() ; i += maxBatchSize_)
+      batches.add(pending.subList(i, Math.min(pending.size(), i + maxBatchSize_)));
+    
+    return batches;
+  }
+  
+  private void sendAcks(List<Pending> batch)
+  {
+    Collection<String> failed;
+    
+    requestCount_.incrementAndGet();
+    entryCount_.addAndGet(batch.size());
+    
+    try
+    {
+      failed = sink_.acknowledge(handles(batch));
+    }
+    catch(RuntimeException e)
+    {
+      log_.warn("Failed to acknowledge " + batch.size() + " messages", e);
+      failed = handles(batch);
+    }
+    
+    List<Pending> retry = retries(batch, failed);
+    
+    if(!retry.isEmpty())
+    {
+      synchronized(this)
+      {
+        acks_.addAll(retry);
+      }
+    }
+  }
+  
+  private void sendModifications(Collection<Pending> modifications)
+  {
+    // Each request has a single timeout, so group the changes by timeout.
+    Map<Integer, List<Pending>> timeoutMap = new LinkedHashMap<>();
+    
+    for(Pending pending : modifications)
+      timeoutMap.computeIfAbsent(pending.timeoutSeconds_, (k) -> new ArrayList<>()).add(pending);
+    
+    for(Entry<Integer, List<Pending>> entry : timeoutMap.entrySet())
+    {
+      for(List<Pending> batch : partition(entry.getValue()))
+        sendModifications(batch, entry.getKey());
+    }
+  }
+  
+  private void sendModifications(List<Pending> batch, int timeoutSeconds)
+  {
+    Collection<String> failed;
+    
+    requestCount_.incrementAndGet();
+    entryCount_.addAndGet(batch.size());
+    
+    try
+    {
+      failed = sink_.modifyVisibility(handles(batch), timeoutSeconds);
+    }
+    catch(RuntimeException e)
+    {
+      log_.warn("Failed to modify visibility of " + batch.size() + " messages", e);
+      failed = handles(batch);
+    }
+    
+    List<Pending> retry = retries(batch, failed);
+    
+    if(!retry.isEmpty())
+    {
+      synchronized(this)
+      {
+        // A change made since this batch was taken replaces the failed one.
+        for(Pending pending : retry)
+          modifications_.putIfAbsent(pending.handle_, pending);
+      }
+    }
+  }
+  
+  private List<String> handles(List<Pending> batch)
+  {
+    List<String> handles = new ArrayList<>(batch.size());
+    
+    for(Pending pending : batch)
+      handles.add(pending.handle_);
+    
+    return handles;
+  }
+  
+  private List<Pending> retries(List<Pending> batch, Collection<String> failed)
+  {
+    List<Pending> retry = new ArrayList<>();
+    
+    if(failed.isEmpty())
+      return retry;
+    
+    Iterator<Pending> it = batch.iterator();
+    
+    while(it.hasNext())
+    {
+      Pending pending = it.next();
+      
+      if(failed.contains(pending.handle_))
+      {
+        if(pending.attempts_ + 1 >= maxAttempts_)
+        {
+          log_.warn("Dropping acknowledgement after " + maxAttempts_ + " attempts");
+          droppedCount_.incrementAndGet();
+        }
+        else
+        {
+          retry.add(new Pending(pending.handle_, pending.timeoutSeconds_, pending.attempts_ + 1));
+        }
+      }
+    }
+    
+    return retry;
+  }
+
+  /**
+   * 
+   * @return The number of batch requests sent to the sink.
+   */
+  public long getRequestCount()
+  {
+    return requestCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of entries sent to the sink, including retries.
+   */
+  public long getEntryCount()
+  {
+    return entryCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of entries dropped after failing.
+   */
+  public long getDroppedCount()
+  {
+    return droppedCount_.get();
+  }
+  
+  /**
+   * Builder for AckBatcher.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, AckBatcher>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected AckBatcher construct()
+    {
+      return new AckBatcher(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends AckBatcher> extends BaseAbstractBuilder<T,B>
+  {
+    protected IAckBatchSink             sink_;
+    protected ScheduledExecutorService  scheduler_;
+    protected long                      flushInterval_  = 100;
+    protected int                       maxAttempts_    = 3;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(sink_, "sink");
+      
+      if(sink_ != null && sink_.getMaxBatchSize() < 1)
+        faultAccumulator.error("sink maxBatchSize must be positive");
+      
+      if(flushInterval_ < 1)
+        faultAccumulator.error("flushInterval must be positive");
+      
+      if(maxAttempts_ < 1)
+        faultAccumulator.error("maxAttempts must be positive");
+    }
+
+    /**
+     * Set the sink to which batches are sent.
+     * 
+     * @param sink The sink to which batches are sent.
+     * 
+     * @return This (fluent method).
+     */
+    public T withSink(IAckBatchSink sink)
+    {
+      sink_ = sink;
+      
+      return self();
+    }
+
+    /**
+     * Set the scheduler on which pending entries are flushed.
+     * 
+     * If no scheduler is set then entries are sent only when a batch is full or flush is called.
+     * 
+     * @param scheduler     A scheduler, which may be shared by many batchers.
+     * @param flushInterval The interval in milliseconds between flushes.
+     * 
+     * @return This (fluent method).
+     */
+    public T withScheduler(ScheduledExecutorService scheduler, long flushInterval)
+    {
+      scheduler_      = scheduler;
+      flushInterval_  = flushInterval;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of attempts to send each entry.
+     * 
+     * @param maxAttempts The maximum number of attempts to send each entry.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxAttempts(int maxAttempts)
+    {
+      maxAttempts_ = maxAttempts;
+      
+      return self();
+    }
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+
+/**
+ * Limits the number of concurrent executions of a handler, adjusting the limit according to the
+ * observed latency of the handler.
+ * 
+ * The limit is adjusted with additive increase, multiplicative decrease (AIMD). A short term moving
+ * average of latency is compared with a long term average, if the short term average exceeds the
+ * long term one by more than the tolerance, or an execution fails, the limit is multiplied by the
+ * backoff ratio, otherwise each successful execution while the limit is in use increases it by
+ * 1/limit, so that it grows by about one per limit executions.
+ * 
+ * After a decrease the limit is not decreased again until another limit executions have completed,
+ * so that a burst of slow executions which were already in flight do not collapse the limit.
+ * 
+ * @author Bruce Skingle
+ */
+public class AdaptiveConcurrencyLimiter
+{
+  private static final double SHORT_WEIGHT  = 0.1;
+  private static final double LONG_WEIGHT   = 0.01;
+
+  private final int           minLimit_;
+  private final int           maxLimit_;
+  private final double        tolerance_;
+  private final double        backoffRatio_;
+
+  private final ReentrantLock lock_         = new ReentrantLock();
+  private final Condition     available_    = lock_.newCondition();
+
+  private double              limit_;
+  private int                 inFlight_;
+  private double              shortLatency_;
+  private double              longLatency_;
+  private int                 samplesSinceDecrease_;
+
+  protected AdaptiveConcurrencyLimiter(AbstractBuilder<?,?> builder)
+  {
+    minLimit_     = builder.minLimit_;
+    maxLimit_     = builder.maxLimit_;
+    tolerance_    = builder.tolerance_;
+    backoffRatio_ = builder.backoffRatio_;
+    limit_        = builder.initialLimit_ == null ? maxLimit_ : builder.initialLimit_;
+  }
+
+  /**
+   * Wait until the number of executions in flight is below the limit, and start one.
+   * 
+   * Every successful call must be matched by a call to release.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  public void acquire() throws InterruptedException
+  {
+    lock_.lockInterruptibly();
+    try
+    {
+      while(inFlight_ >= (int)limit_)
+        available_.await();
+      
+      inFlight_++;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Start an execution, waiting up to the given time until the number of executions in flight is below the limit.
+   * 
+   * Every successful call must be matched by a call to release.
+   * 
+   * @param timeoutMillis The maximum time to wait in milliseconds.
+   * 
+   * @return True if an execution was started, false if the timeout expired.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  public boolean tryAcquire(long timeoutMillis) throws InterruptedException
+  {
+    long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    
+    lock_.lockInterruptibly();
+    try
+    {
+      while(inFlight_ >= (int)limit_)
+      {
+        if(remaining <= 0)
+          return false;
+        
+        remaining = available_.awaitNanos(remaining);
+      }
+      
+      inFlight_++;
+      
+      return true;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Wait until the number of executions in flight is below the limit, without starting one.
+   * 
+   * @return The number of executions which could be started before the limit is reached.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  public int awaitAvailable() throws InterruptedException
+  {
+    lock_.lockInterruptibly();
+    try
+    {
+      while(inFlight_ >= (int)limit_)
+        available_.await();
+      
+      return (int)limit_ - inFlight_;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Give back an execution which was started but never ran, without recording a latency sample.
+   */
+  public void cancel()
+  {
+    lock_.lock();
+    try
+    {
+      inFlight_--;
+      available_.signalAll();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Complete an execution.
+   * 
+   * @param latencyNanos  The time taken by the execution in nanoseconds.
+   * @param success       False if the execution failed, which is treated as a sign of overload.
+   */
+  public void release(long latencyNanos, boolean success)
+  {
+    lock_.lock();
+    try
+    {
+      boolean saturated = inFlight_ >= (int)limit_;
+      
+      inFlight_--;
+      
+      if(longLatency_ == 0)
+      {
+        shortLatency_ = latencyNanos;
+        longLatency_  = latencyNanos;
+      }
+      else
+      {
+        shortLatency_ += (latencyNanos - shortLatency_) * SHORT_WEIGHT;
+        longLatency_  += (latencyNanos - longLatency_) * LONG_WEIGHT;
+      }
+      
+      samplesSinceDecrease_++;
+      
+      if(!success || shortLatency_ > longLatency_ * tolerance_)
+      {
+        if(samplesSinceDecrease_ >= limit_)
+        {
+          limit_ = Math.max(minLimit_, limit_ * backoffRatio_);
+          samplesSinceDecrease_ = 0;
+        }
+      }
+      else if(saturated)
+      {
+        limit_ = Math.min(maxLimit_, limit_ + 1.0 / limit_);
+      }
+      
+      available_.signalAll();
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+
+  /**
+   * 
+   * @return The current limit.
+   */
+  public int getLimit()
+  {
+    lock_.lock();
+    try
+    {
+      return (int)limit_;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+
+  /**
+   * 
+   * @return The number of executions in flight.
+   */
+  public int getInFlight()
+  {
+    lock_.lock();
+    try
+    {
+      return inFlight_;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+
+  /**
+   * 
+   * @return The short term average latency in milliseconds.
+   */
+  public double getLatencyMillis()
+  {
+    lock_.lock();
+    try
+    {
+      return shortLatency_ / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+
+  /**
+   * 
+   * @return The long term average latency in milliseconds, against which the short term average is compared.
+   */
+  public double getBaselineLatencyMillis()
+  {
+    lock_.lock();
+    try
+    {
+      return longLatency_ / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Builder for AdaptiveConcurrencyLimiter.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, AdaptiveConcurrencyLimiter>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected AdaptiveConcurrencyLimiter construct()
+    {
+      return new AdaptiveConcurrencyLimiter(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends AdaptiveConcurrencyLimiter> extends BaseAbstractBuilder<T,B>
+  {
+    protected int     minLimit_     = 1;
+    protected int     maxLimit_     = 100;
+    protected Integer initialLimit_;
+    protected double  tolerance_    = 2.0;
+    protected double  backoffRatio_ = 0.9;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      if(minLimit_ < 1)
+        faultAccumulator.error("minLimit must be positive");
+      
+      if(maxLimit_ < minLimit_)
+        faultAccumulator.error("maxLimit must not be less than minLimit");
+      
+      if(initialLimit_ != null && (initialLimit_ < minLimit_ || initialLimit_ > maxLimit_))
+        faultAccumulator.error("initialLimit must be between minLimit and maxLimit");
+      
+      if(tolerance_ < 1.0)
+        faultAccumulator.error("tolerance must be at least 1");
+      
+      if(backoffRatio_ <= 0.0 || backoffRatio_ >= 1.0)
+        faultAccumulator.error("backoffRatio must be between 0 and 1");
+    }
+
+    /**
+     * Set the range of the limit.
+     * 
+     * @param minLimit  The minimum limit.
+     * @param maxLimit  The maximum limit.
+     * 
+     * @return This (fluent method).
+     */
+    public T withLimits(int minLimit, int maxLimit)
+    {
+      minLimit_ = minLimit;
+      maxLimit_ = maxLimit;
+      
+      return self();
+    }
+
+    /**
+     * Set the initial limit, the default is the maximum limit.
+     * 
+     * @param initialLimit The initial limit.
+     * 
+     * @return This (fluent method).
+     */
+    public T withInitialLimit(int initialLimit)
+    {
+      initialLimit_ = initialLimit;
+      
+      return self();
+    }
+
+    /**
+     * Set the ratio of short term to long term latency above which the limit is decreased.
+     * 
+     * @param tolerance The ratio of short term to long term latency above which the limit is decreased.
+     * 
+     * @return This (fluent method).
+     */
+    public T withTolerance(double tolerance)
+    {
+      tolerance_ = tolerance;
+      
+      return self();
+    }
+
+    /**
+     * Set the factor by which the limit is multiplied when it is decreased.
+     * 
+     * @param backoffRatio The factor by which the limit is multiplied when it is decreased.
+     * 
+     * @return This (fluent method).
+     */
+    public T withBackoffRatio(double backoffRatio)
+    {
+      backoffRatio_ = backoffRatio;
+      
+      return self();
+    }
+  }
+}
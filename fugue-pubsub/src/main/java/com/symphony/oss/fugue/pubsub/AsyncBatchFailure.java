@@ -0,0 +1,77 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+/**
+ * The failure of a single entry in a batch sent by an IAsyncBatchSink.
+ * 
+ * @author Bruce Skingle
+ */
+public class AsyncBatchFailure
+{
+  private final int     index_;
+  private final boolean retryable_;
+  private final String  message_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param index     The index of the failed entry in the batch.
+   * @param retryable True if the entry may succeed if it is sent again.
+   * @param message   A description of the failure.
+   */
+  public AsyncBatchFailure(int index, boolean retryable, String message)
+  {
+    index_      = index;
+    retryable_  = retryable;
+    message_    = message;
+  }
+
+  /**
+   * 
+   * @return The index of the failed entry in the batch.
+   */
+  public int getIndex()
+  {
+    return index_;
+  }
+
+  /**
+   * 
+   * @return True if the entry may succeed if it is sent again.
+   */
+  public boolean isRetryable()
+  {
+    return retryable_;
+  }
+
+  /**
+   * 
+   * @return A description of the failure.
+   */
+  public String getMessage()
+  {
+    return message_;
+  }
+}
@@ -0,0 +1,654 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+
+/**
+ * Accumulates items and sends them to an IAsyncBatchSink in batches, completing a future for each item
+ * when it has been sent.
+ * 
+ * A batch is sent as soon as it reaches the maximum number of items or bytes of the sink, or when the
+ * linger time has passed since the first item was added to it. Batches are sent on the given executor
+ * so callers never block on a send.
+ * 
+ * The number and total size of items which have been submitted but not yet completed are bounded, submit
+ * blocks when either limit is reached, which bounds the memory used by each batcher and applies backpressure
+ * to callers when the sink cannot keep up.
+ * 
+ * Items which fail with a retryable error are sent again after an exponential backoff with jitter, up to
+ * the maximum number of attempts, after which their future completes exceptionally.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of the items sent.
+ */
+public class AsyncBatcher<T>
+{
+  private static final Logger                 log_              = LoggerFactory.getLogger(AsyncBatcher.class);
+
+  private final IAsyncBatchSink<T>            sink_;
+  private final int                           maxBatchSize_;
+  private final int                           maxBatchBytes_;
+  private final int                           maxPending_;
+  private final int                           maxPendingBytes_;
+  private final int                           maxAttempts_;
+  private final long                          linger_;
+  private final long                          minRetryDelay_;
+  private final long                          maxRetryDelay_;
+  private final ScheduledExecutorService      scheduler_;
+  private final Executor                      executor_;
+  private final Semaphore                     permits_;
+  private final Semaphore                     bytePermits_;
+
+  private List<Pending<T>>                    pending_          = new ArrayList<>();
+  private int                                 pendingBytes_;
+  private ScheduledFuture<?>                  lingerFuture_;
+  private boolean                             closed_;
+
+  private final AtomicLong                    requestCount_     = new AtomicLong();
+  private final AtomicLong                    entryCount_       = new AtomicLong();
+  private final AtomicLong                    failedCount_      = new AtomicLong();
+
+  protected AsyncBatcher(AbstractBuilder<T,?,?> builder)
+  {
+    sink_            = builder.sink_;
+    maxBatchSize_    = sink_.getMaxBatchSize();
+    maxBatchBytes_   = sink_.getMaxBatchBytes();
+    maxPending_      = builder.maxPending_;
+    maxPendingBytes_ = builder.maxPendingBytes_;
+    maxAttempts_     = builder.maxAttempts_;
+    linger_          = builder.linger_;
+    minRetryDelay_   = builder.minRetryDelay_;
+    maxRetryDelay_   = builder.maxRetryDelay_;
+    scheduler_       = builder.scheduler_;
+    executor_        = builder.executor_ == null ? builder.scheduler_ : builder.executor_;
+    permits_         = new Semaphore(maxPending_);
+    bytePermits_     = new Semaphore(maxPendingBytes_);
+  }
+  
+  private static class Pending<T>
+  {
+    final T                       item_;
+    final int                     size_;
+    final CompletableFuture<Void> future_;
+    final int                     attempts_;
+    
+    Pending(T item, int size, CompletableFuture<Void> future, int attempts)
+    {
+      item_     = item;
+      size_     = size;
+      future_   = future;
+      attempts_ = attempts;
+    }
+  }
+
+  /**
+   * Submit the given item to be sent.
+   * 
+   * This method blocks if the maximum number or total size of pending items has been reached.
+   * 
+   * @param item An item to be sent.
+   * 
+   * @return A future which completes when the item has been sent, or exceptionally if it could not be sent.
+   */
+  public CompletableFuture<Void> submit(T item)
+  {
+    CompletableFuture<Void> future  = new CompletableFuture<>();
+    int                     size    = sink_.getSize(item);
+    
+    if(size > maxBatchBytes_)
+    {
+      failedCount_.incrementAndGet();
+      future.completeExceptionally(new IllegalArgumentException("Item of " + size + " bytes exceeds the maximum batch size of " + maxBatchBytes_));
+      
+      return future;
+    }
+    
+    try
+    {
+      permits_.acquire();
+    }
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      future.completeExceptionally(e);
+      
+      return future;
+    }
+    
+    try
+    {
+      bytePermits_.acquire(size);
+    }
+    catch(InterruptedException e)
+    {
+      permits_.release();
+      Thread.currentThread().interrupt();
+      future.completeExceptionally(e);
+      
+      return future;
+    }
+    
+    future.whenComplete((v, t) ->
+    {
+      bytePermits_.release(size);
+      permits_.release();
+    });
+    
+    List<List<Pending<T>>> batches;
+    
+    synchronized(this)
+    {
+      if(closed_)
+      {
+        future.completeExceptionally(new IllegalStateException("AsyncBatcher is closed"));
+        
+        return future;
+      }
+      
+      batches = enqueue(new Pending<T>(item, size, future, 0));
+    }
+    
+    dispatchAll(batches);
+    
+    return future;
+  }
+  
+  /*
+   * Must be called while synchronized, returns any batches which are ready to send.
+   */
+  private List<List<Pending<T>>> enqueue(Pending<T> pending)
+  {
+    List<List<Pending<T>>> batches = new ArrayList<>();
+    
+    if(pendingBytes_ + pending.size_ > maxBatchBytes_)
+      batches.add(cut());
+    
+    pending_.add(pending);
+    pendingBytes_ += pending.size_;
+    
+    if(pending_.size() >= maxBatchSize_ || pendingBytes_ >= maxBatchBytes_ || closed_)
+    {
+      batches.add(cut());
+    }
+    else if(lingerFuture_ == null)
+    {
+      lingerFuture_ = scheduler_.schedule(() -> flush(), linger_, TimeUnit.MILLISECONDS);
+    }
+    
+    return batches;
+  }
+  
+  /*
+   * Must be called while synchronized.
+   */
+  private List<Pending<T>> cut()
+  {
+    List<Pending<T>> batch = pending_;
+    
+    pending_      = new ArrayList<>();
+    pendingBytes_ = 0;
+    
+    if(lingerFuture_ != null)
+    {
+      lingerFuture_.cancel(false);
+      lingerFuture_ = null;
+    }
+    
+    return batch;
+  }
+  
+  /**
+   * Send everything which is pending without waiting for the linger time.
+   */
+  public void flush()
+  {
+    List<Pending<T>> batch;
+    
+    synchronized(this)
+    {
+      if(pending_.isEmpty())
+      {
+        lingerFuture_ = null;
+        return;
+      }
+      
+      batch = cut();
+    }
+    
+    dispatch(batch);
+  }
+  
+  private void dispatchAll(List<List<Pending<T>>> batches)
+  {
+    for(List<Pending<T>> batch : batches)
+      dispatch(batch);
+  }
+  
+  private void dispatch(List<Pending<T>> batch)
+  {
+    if(batch.isEmpty())
+      return;
+    
+    try
+    {
+      executor_.execute(() -> send(batch));
+    }
+    catch(RejectedExecutionException e)
+    {
+      for(Pending<T> pending : batch)
+        fail(pending, e);
+    }
+  }
+  
+  private void send(List<Pending<T>> batch)
+  {
+    List<T> items = new ArrayList<>(batch.size());
+    
+    for(Pending<T> pending : batch)
+      items.add(pending.item_);
+    
+    requestCount_.incrementAndGet();
+    entryCount_.addAndGet(batch.size());
+    
+    Map<Integer, AsyncBatchFailure> failures = new HashMap<>();
+    
+    try
+    {
+      for(AsyncBatchFailure failure : sink_.send(items))
+        failures.put(failure.getIndex(), failure);
+    }
+    catch(RuntimeException e)
+    {
+      log_.warn("Failed to send batch of " + batch.size() + " items", e);
+      
+      for(int i=0 ; i<batch.size() ; i++)
+        failures.put(i, new AsyncBatchFailure(i, true, e.toString()));
+    }
+    
+    // Retries are grouped by attempt number so that each group waits for its own backoff.
+    TreeMap<Integer, List<Pending<T>>> retries = new TreeMap<>();
+    
+    for(int i=0 ; i<batch.size() ; i++)
+    {
+      Pending<T>        pending = batch.get(i);
+      AsyncBatchFailure failure = failures.get(i);
+      
+      if(failure == null)
+      {
+        pending.future_.complete(null);
+      }
+      else if(failure.isRetryable() && pending.attempts_ + 1 < maxAttempts_)
+      {
+        retries.computeIfAbsent(pending.attempts_ + 1, (k) -> new ArrayList<>())
+          .add(new Pending<T>(pending.item_, pending.size_, pending.future_, pending.attempts_ + 1));
+      }
+      else
+      {
+        fail(pending, new IllegalStateException("Failed to send after " + (pending.attempts_ + 1) + " attempts: " + failure.getMessage()));
+      }
+    }
+    
+    for(Map.Entry<Integer, List<Pending<T>>> entry : retries.entrySet())
+      retry(entry.getValue(), getRetryDelay(entry.getKey()));
+  }
+  
+  private long getRetryDelay(int attempts)
+  {
+    // Exponential in the number of attempts so far, with the upper half of the delay randomised.
+    long delay = minRetryDelay_ << Math.min(attempts - 1, 30);
+    
+    if(delay <= 0 || delay > maxRetryDelay_)
+      delay = maxRetryDelay_;
+    
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+  
+  private void retry(List<Pending<T>> retries, long delay)
+  {
+    try
+    {
+      scheduler_.schedule(() ->
+      {
+        List<List<Pending<T>>> batches = new ArrayList<>();
+        
+        synchronized(this)
+        {
+          for(Pending<T> pending : retries)
+            batches.addAll(enqueue(pending));
+        }
+        
+        dispatchAll(batches);
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    catch(RejectedExecutionException e)
+    {
+      for(Pending<T> pending : retries)
+        fail(pending, e);
+    }
+  }
+  
+  private void fail(Pending<T> pending, Throwable cause)
+  {
+    failedCount_.incrementAndGet();
+    pending.future_.completeExceptionally(cause);
+  }
+  
+  /**
+   * Send everything which is pending and wait for all outstanding items to complete.
+   * 
+   * Further calls to submit will fail.
+   * 
+   * @param timeout The maximum time to wait in milliseconds.
+   * 
+   * @return True if all outstanding items completed within the timeout.
+   */
+  public boolean close(long timeout)
+  {
+    synchronized(this)
+    {
+      closed_ = true;
+    }
+    
+    flush();
+    
+    try
+    {
+      if(permits_.tryAcquire(maxPending_, timeout, TimeUnit.MILLISECONDS))
+      {
+        permits_.release(maxPending_);
+        return true;
+      }
+    }
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    
+    log_.warn("AsyncBatcher closed with " + (maxPending_ - permits_.availablePermits()) + " items outstanding");
+    
+    return false;
+  }
+  
+  /**
+   * 
+   * @return The number of items which have been submitted but not yet completed.
+   */
+  public int getPendingCount()
+  {
+    return maxPending_ - permits_.availablePermits();
+  }
+
+  /**
+   * 
+   * @return The total size in bytes of items which have been submitted but not yet completed.
+   */
+  public int getPendingBytes()
+  {
+    return maxPendingBytes_ - bytePermits_.availablePermits();
+  }
+
+  /**
+   * 
+   * @return The number of batch requests sent to the sink.
+   */
+  public long getRequestCount()
+  {
+    return requestCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of items sent to the sink, including retries.
+   */
+  public long getEntryCount()
+  {
+    return entryCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of items whose future completed exceptionally.
+   */
+  public long getFailedCount()
+  {
+    return failedCount_.get();
+  }
+  
+  /**
+   * Builder for AsyncBatcher.
+   * 
+   * @author Bruce Skingle
+   *
+   * @param <T> The type of the items sent.
+   */
+  public static class Builder<T> extends AbstractBuilder<T, Builder<T>, AsyncBatcher<T>>
+  {
+    /**
+     * Constructor.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Builder()
+    {
+      super((Class<Builder<T>>)(Class)Builder.class);
+    }
+
+    @Override
+    protected AsyncBatcher<T> construct()
+    {
+      return new AsyncBatcher<T>(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<I, T extends AbstractBuilder<I,T,B>, B extends AsyncBatcher<I>> extends BaseAbstractBuilder<T,B>
+  {
+    protected IAsyncBatchSink<I>        sink_;
+    protected ScheduledExecutorService  scheduler_;
+    protected Executor                  executor_;
+    protected long                      linger_          = 10;
+    protected int                       maxPending_      = 1000;
+    protected int                       maxPendingBytes_ = 32 * 1024 * 1024;
+    protected int                       maxAttempts_     = 3;
+    protected long                      minRetryDelay_   = 100;
+    protected long                      maxRetryDelay_   = 5000;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(sink_, "sink");
+      faultAccumulator.checkNotNull(scheduler_, "scheduler");
+      
+      if(sink_ != null)
+      {
+        if(sink_.getMaxBatchSize() < 1)
+          faultAccumulator.error("sink maxBatchSize must be positive");
+        
+        if(sink_.getMaxBatchBytes() < 1)
+          faultAccumulator.error("sink maxBatchBytes must be positive");
+        
+        // Otherwise an item of the largest size the sink accepts could never be submitted.
+        if(maxPendingBytes_ < sink_.getMaxBatchBytes())
+          faultAccumulator.error("maxPendingBytes must be at least the sink maxBatchBytes");
+      }
+      
+      if(linger_ < 0)
+        faultAccumulator.error("linger must not be negative");
+      
+      if(maxPending_ < 1)
+        faultAccumulator.error("maxPending must be positive");
+      
+      if(maxAttempts_ < 1)
+        faultAccumulator.error("maxAttempts must be positive");
+      
+      if(minRetryDelay_ < 1 || maxRetryDelay_ < minRetryDelay_)
+        faultAccumulator.error("maxRetryDelay must be at least minRetryDelay which must be positive");
+    }
+
+    /**
+     * Set the sink to which batches are sent.
+     * 
+     * @param sink The sink to which batches are sent.
+     * 
+     * @return This (fluent method).
+     */
+    public T withSink(IAsyncBatchSink<I> sink)
+    {
+      sink_ = sink;
+      
+      return self();
+    }
+
+    /**
+     * Set the scheduler on which linger timeouts run.
+     * 
+     * If no executor is set then batches are also sent on this scheduler.
+     * 
+     * @param scheduler A scheduler, which may be shared by many batchers.
+     * 
+     * @return This (fluent method).
+     */
+    public T withScheduler(ScheduledExecutorService scheduler)
+    {
+      scheduler_ = scheduler;
+      
+      return self();
+    }
+
+    /**
+     * Set the executor on which batches are sent.
+     * 
+     * @param executor An executor, which may be shared by many batchers.
+     * 
+     * @return This (fluent method).
+     */
+    public T withExecutor(Executor executor)
+    {
+      executor_ = executor;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum time in milliseconds for which an item waits for a batch to fill before it is sent.
+     * 
+     * @param linger The maximum time in milliseconds for which an item waits for a batch to fill.
+     * 
+     * @return This (fluent method).
+     */
+    public T withLinger(long linger)
+    {
+      linger_ = linger;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of items which may be submitted but not yet completed.
+     * 
+     * @param maxPending The maximum number of items which may be submitted but not yet completed.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxPending(int maxPending)
+    {
+      maxPending_ = maxPending;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum total size in bytes, as given by the sink, of items which may be submitted but not yet completed.
+     * 
+     * @param maxPendingBytes The maximum total size in bytes of items which may be submitted but not yet completed.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxPendingBytes(int maxPendingBytes)
+    {
+      maxPendingBytes_ = maxPendingBytes;
+      
+      return self();
+    }
+
+    /**
+     * Set the delays in milliseconds before an item which failed with a retryable error is sent again.
+     * 
+     * The delay doubles with each attempt from minRetryDelay up to maxRetryDelay, and a random amount of
+     * up to half of it is subtracted so that retries from many batchers do not arrive together.
+     * 
+     * @param minRetryDelay The delay before the first retry.
+     * @param maxRetryDelay The maximum delay before any retry.
+     * 
+     * @return This (fluent method).
+     */
+    public T withRetryDelay(long minRetryDelay, long maxRetryDelay)
+    {
+      minRetryDelay_ = minRetryDelay;
+      maxRetryDelay_ = maxRetryDelay;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of attempts to send each item.
+     * 
+     * @param maxAttempts The maximum number of attempts to send each item.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxAttempts(int maxAttempts)
+    {
+      maxAttempts_ = maxAttempts;
+      
+      return self();
+    }
+  }
+}
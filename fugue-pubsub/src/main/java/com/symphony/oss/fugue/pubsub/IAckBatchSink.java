@@ -0,0 +1,67 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The batch operations of a pull subscription to which an AckBatcher flushes.
+ * 
+ * @author Bruce Skingle
+ */
+public interface IAckBatchSink
+{
+  /**
+   * 
+   * @return The maximum number of handles which may be passed in a single call.
+   */
+  int getMaxBatchSize();
+  
+  /**
+   * Acknowledge (delete) the given messages.
+   * 
+   * @param handles The receipt handles or ack IDs of the messages.
+   * 
+   * @return The handles which failed and may be retried, failures which cannot be retried should be logged and not returned.
+   */
+  Collection<String> acknowledge(List<String> handles);
+  
+  /**
+   * Set the visibility timeout (ack deadline) of the given messages.
+   * 
+   * @param handles         The receipt handles or ack IDs of the messages.
+   * @param timeoutSeconds  The time in seconds before the messages are delivered again.
+   * 
+   * @return The handles which failed and may be retried, failures which cannot be retried should be logged and not returned.
+   */
+  Collection<String> modifyVisibility(List<String> handles, int timeoutSeconds);
+  
+  /**
+   * Release any resources held by this sink, called once the final flush has completed.
+   */
+  default void close()
+  {
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.List;
+
+/**
+ * The batch send operation to which an AsyncBatcher sends.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of the items sent.
+ */
+public interface IAsyncBatchSink<T>
+{
+  /**
+   * 
+   * @return The maximum number of items in a batch.
+   */
+  int getMaxBatchSize();
+  
+  /**
+   * 
+   * @return The maximum total size of the items in a batch in bytes.
+   */
+  int getMaxBatchBytes();
+  
+  /**
+   * Return the size of the given item as it counts towards the maximum batch size.
+   * 
+   * @param item An item.
+   * 
+   * @return The size of the given item in bytes.
+   */
+  int getSize(T item);
+  
+  /**
+   * Send the given batch.
+   * 
+   * If this method throws an exception then every item in the batch is treated as a retryable failure.
+   * 
+   * @param batch A batch of items.
+   * 
+   * @return The items which failed, items which are not included have been sent.
+   */
+  List<AsyncBatchFailure> send(List<T> batch);
+}
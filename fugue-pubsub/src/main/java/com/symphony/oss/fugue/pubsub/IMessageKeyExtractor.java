@@ -0,0 +1,64 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Extracts the ordering key of a received message from its attributes.
+ * 
+ * Messages with the same key are handled one at a time in the order in which they were received,
+ * messages with different keys are handled concurrently.
+ * 
+ * @author Bruce Skingle
+ */
+@FunctionalInterface
+public interface IMessageKeyExtractor
+{
+  /**
+   * Return the ordering key for a message.
+   * 
+   * This method is called on the subscriber thread and must not block or throw.
+   * 
+   * @param attributes The attributes of the message, as returned by IPubSubMessage.getAttributes().
+   * 
+   * @return The key for the message, or null if the message may be handled in any order.
+   */
+  @Nullable Object extractKey(@Nonnull Map<String, Object> attributes);
+  
+  /**
+   * Return an extractor which uses the value of the given attribute as the key.
+   * 
+   * @param attributeName The name of the attribute which holds the key.
+   * 
+   * @return An extractor which uses the value of the given attribute as the key.
+   */
+  static IMessageKeyExtractor ofAttribute(String attributeName)
+  {
+    return (attributes) -> attributes.get(attributeName);
+  }
+}
@@ -23,6 +23,8 @@
 
 package com.symphony.oss.fugue.pubsub;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.symphony.oss.fugue.pipeline.IThreadSafeConsumer;
 
 /**
@@ -55,4 +57,34 @@ public interface IPublisher extends IThreadSafeConsumer<IPubSubMessage>
    * @param item The item to be consumed.
    */
   void consume(IPubSubMessage item);
+  
+  /**
+   * Consume the given item asynchronously.
+   * 
+   * Implementations which support batching may hold the item until a batch is full, so the
+   * returned future may not complete immediately. This method may block if the implementation
+   * has reached a limit on the number of outstanding items.
+   * 
+   * The default implementation calls consume(item) and returns a completed future.
+   * 
+   * @param item The item to be consumed.
+   * 
+   * @return A future which completes when the item has been fully processed, or exceptionally if it could not be.
+   */
+  default CompletableFuture<Void> consumeAsync(IPubSubMessage item)
+  {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    
+    try
+    {
+      consume(item);
+      future.complete(null);
+    }
+    catch(RuntimeException e)
+    {
+      future.completeExceptionally(e);
+    }
+    
+    return future;
+  }
 }
@@ -30,4 +30,34 @@ public interface IPullSubscriberContext extends Closeable
 {
   Collection<IPullSubscriberMessage> nonBlockingPull();
   Collection<IPullSubscriberMessage> blockingPull();
+  
+  /**
+   * Pull messages without waiting, receiving no more than the given number.
+   * 
+   * The default implementation ignores the limit, implementations should override this to reduce the
+   * size of the request.
+   * 
+   * @param maxMessages The maximum number of messages which the caller can handle.
+   * 
+   * @return Received messages, possibly none.
+   */
+  default Collection<IPullSubscriberMessage> nonBlockingPull(int maxMessages)
+  {
+    return nonBlockingPull();
+  }
+  
+  /**
+   * Pull messages, waiting for some to become available, receiving no more than the given number.
+   * 
+   * The default implementation ignores the limit, implementations should override this to reduce the
+   * size of the request.
+   * 
+   * @param maxMessages The maximum number of messages which the caller can handle.
+   * 
+   * @return Received messages, possibly none.
+   */
+  default Collection<IPullSubscriberMessage> blockingPull(int maxMessages)
+  {
+    return blockingPull();
+  }
 }
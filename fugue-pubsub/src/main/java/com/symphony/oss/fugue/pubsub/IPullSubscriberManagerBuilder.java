@@ -45,5 +45,18 @@ extends ISubscriberManagerBuilder<T,P,B>
    * @return this (fluent method)
    */
   T withBusyCounterFactory(ITopicBusyCounterFactory busyCounterFactory);
+  
+  /**
+   * Set a key extractor to order the handling of messages.
+   * 
+   * Messages with the same key are handled one at a time in the order in which they were received,
+   * messages with different keys are handled concurrently. Keys are shared by all subscriptions of the
+   * manager. If no key extractor is set messages are handled in any order.
+   * 
+   * @param keyExtractor An extractor for the ordering key of each message.
+   * 
+   * @return this (fluent method)
+   */
+  T withKeyExtractor(IMessageKeyExtractor keyExtractor);
 
 }
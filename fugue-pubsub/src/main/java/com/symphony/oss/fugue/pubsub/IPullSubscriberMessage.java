@@ -23,6 +23,11 @@
 
 package com.symphony.oss.fugue.pubsub;
 
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
 /**
  * A message returned from a pull subscriber.
  * 
@@ -35,5 +40,34 @@ public interface IPullSubscriberMessage extends Runnable
 {
   String  getMessageId();
   void extend();
+  
+  /**
+   * 
+   * @return The attributes of the message, or an empty map if the implementation does not support attributes.
+   */
+  default @Nonnull Map<String, Object> getAttributes()
+  {
+    return Collections.emptyMap();
+  }
+  
+  /**
+   * 
+   * @return The size of the message payload in bytes, or zero if the implementation does not support this.
+   */
+  default int getPayloadSize()
+  {
+    return 0;
+  }
+  
+  /**
+   * Called instead of run() when a pulled message will not be handled, for example because the subscriber
+   * was interrupted, so that any local flow control held for it can be released.
+   * 
+   * The message is neither acknowledged nor nacked, the broker will deliver it again when its visibility
+   * timeout expires.
+   */
+  default void abandon()
+  {
+  }
 
 }
@@ -23,6 +23,8 @@
 
 package com.symphony.oss.fugue.pubsub;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A component capable of sending messages to a queue.
  * 
@@ -37,4 +39,34 @@ public interface IQueueSender
    * @param pubSubMessage A message to be sent.
    */
   void sendMessage(IPubSubMessage pubSubMessage);
+  
+  /**
+   * Send the given message to the queue asynchronously.
+   * 
+   * Implementations which support batching may hold the message until a batch is full, so the
+   * returned future may not complete immediately. This method may block if the implementation
+   * has reached a limit on the number of outstanding messages.
+   * 
+   * The default implementation calls sendMessage(pubSubMessage) and returns a completed future.
+   * 
+   * @param pubSubMessage A message to be sent.
+   * 
+   * @return A future which completes when the message has been sent, or exceptionally if it could not be.
+   */
+  default CompletableFuture<Void> sendMessageAsync(IPubSubMessage pubSubMessage)
+  {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    
+    try
+    {
+      sendMessage(pubSubMessage);
+      future.complete(null);
+    }
+    catch(RuntimeException e)
+    {
+      future.completeExceptionally(e);
+    }
+    
+    return future;
+  }
 }
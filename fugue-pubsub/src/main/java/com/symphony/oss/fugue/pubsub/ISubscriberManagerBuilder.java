@@ -96,4 +96,15 @@ public interface ISubscriberManagerBuilder<T extends ISubscriberManagerBuilder<T
    * @return this (fluent method)
    */
   T withSubscription(ISubscription<P> subscription);
+
+  /**
+   * Set the scheduler for local retries of failed messages.
+   * 
+   * If this is not set then RetryScheduler.getDefault() is used.
+   * 
+   * @param retryScheduler The scheduler for local retries of failed messages.
+   * 
+   * @return this (fluent method)
+   */
+  T withRetryScheduler(RetryScheduler retryScheduler);
 }
@@ -0,0 +1,240 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Credit based flow control for a pull subscription.
+ * 
+ * The subscription aims to keep a target number of messages outstanding, that is pulled but not yet
+ * completely handled, so that pulls are issued ahead of demand and the latency of each pull is hidden
+ * behind the handling of previously pulled messages. The credit is the number of messages which may be
+ * pulled without exceeding the target. No credit is available while the total payload size of the
+ * outstanding messages is at or above the byte limit.
+ * 
+ * The caller may further limit the number of outstanding messages on each call, which is used to
+ * bound the time for which a message waits locally for a handler.
+ * 
+ * @author Bruce Skingle
+ */
+@ThreadSafe
+public class PrefetchCredit
+{
+  private final int           maxMessages_;
+  private final long          maxBytes_;
+  private final ReentrantLock lock_       = new ReentrantLock();
+  private final Condition     available_  = lock_.newCondition();
+  private int                 outstanding_;
+  private long                outstandingBytes_;
+
+  /**
+   * Constructor.
+   * 
+   * @param maxMessages The target number of outstanding messages.
+   * @param maxBytes    The limit on the total payload size of outstanding messages.
+   */
+  public PrefetchCredit(int maxMessages, long maxBytes)
+  {
+    if(maxMessages < 1)
+      throw new IllegalArgumentException("maxMessages must be positive");
+    
+    if(maxBytes < 1)
+      throw new IllegalArgumentException("maxBytes must be positive");
+    
+    maxMessages_ = maxMessages;
+    maxBytes_    = maxBytes;
+  }
+  
+  /*
+   * Must be called while locked.
+   */
+  private int credit(int limit)
+  {
+    if(outstandingBytes_ >= maxBytes_)
+      return 0;
+    
+    return Math.max(0, Math.min(maxMessages_, limit) - outstanding_);
+  }
+  
+  /**
+   * 
+   * @param limit An additional limit on the number of outstanding messages.
+   * 
+   * @return The number of messages which may be pulled now.
+   */
+  public int getCredit(int limit)
+  {
+    lock_.lock();
+    try
+    {
+      return credit(limit);
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Wait until credit is available.
+   * 
+   * @param limit         An additional limit on the number of outstanding messages.
+   * @param timeoutMillis The maximum time to wait in milliseconds.
+   * 
+   * @return The number of messages which may be pulled, which is zero if the timeout expired.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  public int awaitCredit(int limit, long timeoutMillis) throws InterruptedException
+  {
+    long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    
+    lock_.lockInterruptibly();
+    try
+    {
+      int credit;
+      
+      while((credit = credit(limit)) == 0 && remaining > 0)
+        remaining = available_.awaitNanos(remaining);
+      
+      return credit;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Record that messages have been pulled.
+   * 
+   * The number of outstanding messages may exceed the target if more messages were pulled than the
+   * credit allowed.
+   * 
+   * @param count The number of messages pulled.
+   * @param bytes The total payload size of the messages pulled.
+   */
+  public void acquire(int count, long bytes)
+  {
+    lock_.lock();
+    try
+    {
+      outstanding_      += count;
+      outstandingBytes_ += bytes;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * Record that a message has been completely handled.
+   * 
+   * @param bytes The payload size of the message.
+   * @param limit An additional limit on the number of outstanding messages.
+   * 
+   * @return True if no credit was available before this call and some is available now, in which case
+   * the caller should make sure that a pull is issued.
+   */
+  public boolean release(long bytes, int limit)
+  {
+    lock_.lock();
+    try
+    {
+      boolean wasBlocked = credit(limit) == 0;
+      
+      outstanding_--;
+      outstandingBytes_ -= bytes;
+      
+      if(credit(limit) == 0)
+        return false;
+      
+      available_.signal();
+      
+      return wasBlocked;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of messages which have been pulled but not completely handled.
+   */
+  public int getOutstanding()
+  {
+    lock_.lock();
+    try
+    {
+      return outstanding_;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The total payload size of the messages which have been pulled but not completely handled.
+   */
+  public long getOutstandingBytes()
+  {
+    lock_.lock();
+    try
+    {
+      return outstandingBytes_;
+    }
+    finally
+    {
+      lock_.unlock();
+    }
+  }
+  
+  /**
+   * 
+   * @return The target number of outstanding messages.
+   */
+  public int getMaxMessages()
+  {
+    return maxMessages_;
+  }
+  
+  /**
+   * 
+   * @return The limit on the total payload size of outstanding messages.
+   */
+  public long getMaxBytes()
+  {
+    return maxBytes_;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+
+/**
+ * A policy which converts the retry time requested by a handler into the delay before a retry.
+ * 
+ * The requested time is multiplied by the multiplier for each previous attempt, limited to the maximum
+ * delay, and then reduced by a random amount of up to the jitter ratio, so that messages which failed
+ * together are not all retried at the same moment.
+ * 
+ * @author Bruce Skingle
+ */
+@Immutable
+public class RetryBackoff
+{
+  private final double multiplier_;
+  private final long   maxDelay_;
+  private final double jitter_;
+  
+  protected RetryBackoff(AbstractBuilder<?,?> builder)
+  {
+    multiplier_ = builder.multiplier_;
+    maxDelay_   = builder.maxDelay_;
+    jitter_     = builder.jitter_;
+  }
+  
+  /**
+   * Return the delay before a retry.
+   * 
+   * @param retryTimeMillis The retry time requested by the handler in milliseconds.
+   * @param attempt         The number of attempts which have been made, starting at 1, or 0 if this is not known.
+   * 
+   * @return The delay before the retry in milliseconds.
+   */
+  public long getDelay(long retryTimeMillis, int attempt)
+  {
+    double delay = Math.max(0, retryTimeMillis);
+    
+    for(int i=1 ; i<attempt && delay < maxDelay_ ; i++)
+      delay *= multiplier_;
+    
+    delay = Math.min(delay, maxDelay_);
+    
+    if(jitter_ > 0)
+      delay -= delay * jitter_ * ThreadLocalRandom.current().nextDouble();
+    
+    return (long)delay;
+  }
+  
+  /**
+   * Builder for RetryBackoff.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, RetryBackoff>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected RetryBackoff construct()
+    {
+      return new RetryBackoff(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends RetryBackoff> extends BaseAbstractBuilder<T,B>
+  {
+    protected double  multiplier_ = 1.0;
+    protected long    maxDelay_   = TimeUnit.MINUTES.toMillis(10);
+    protected double  jitter_     = 0.2;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      if(multiplier_ < 1.0)
+        faultAccumulator.error("multiplier must be at least 1");
+      
+      if(maxDelay_ < 0)
+        faultAccumulator.error("maxDelay must not be negative");
+      
+      if(jitter_ < 0.0 || jitter_ > 1.0)
+        faultAccumulator.error("jitter must be between 0 and 1");
+    }
+
+    /**
+     * Set the factor by which the retry time is multiplied for each previous attempt, the default is 1.
+     * 
+     * @param multiplier The factor by which the retry time is multiplied for each previous attempt.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMultiplier(double multiplier)
+    {
+      multiplier_ = multiplier;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum delay, the default is 10 minutes.
+     * 
+     * @param maxDelayMillis The maximum delay in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxDelayMillis(long maxDelayMillis)
+    {
+      maxDelay_ = maxDelayMillis;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum proportion by which the delay is randomly reduced, the default is 0.2.
+     * 
+     * @param jitter The maximum proportion by which the delay is randomly reduced.
+     * 
+     * @return This (fluent method).
+     */
+    public T withJitter(double jitter)
+    {
+      jitter_ = jitter;
+      
+      return self();
+    }
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.pubsub;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.concurrent.HashedWheelTimer;
+
+/**
+ * Schedules the local retry of messages which could not be handled, for subscribers which hold failed
+ * messages until they are due to be redelivered.
+ * 
+ * Retries are held in a HashedWheelTimer so scheduling and cancelling a retry takes constant time however
+ * many retries are pending. The delay before each retry is determined by a RetryBackoff. Each subscription
+ * has a budget of pending retries, when it is exhausted further retries for that subscription are rejected
+ * and the caller should leave the message to be redelivered by the broker, so that a failure storm on one
+ * subscription can not exhaust memory or starve the retries of other subscriptions.
+ * 
+ * Retry actions run on the timer thread and must not block.
+ * 
+ * A single scheduler may be shared by any number of subscriber managers, getDefault() returns a scheduler
+ * shared by all managers which are not given one explicitly.
+ * 
+ * @author Bruce Skingle
+ */
+@ThreadSafe
+public class RetryScheduler
+{
+  private final HashedWheelTimer                            timer_;
+  private final RetryBackoff                                backoff_;
+  private final int                                         maxPendingPerSubscription_;
+  private final ConcurrentHashMap<String, AtomicInteger>    pendingMap_     = new ConcurrentHashMap<>();
+  private final AtomicLong                                  scheduledCount_ = new AtomicLong();
+  private final AtomicLong                                  rejectedCount_  = new AtomicLong();
+  private final AtomicLong                                  retriedCount_   = new AtomicLong();
+  
+  protected RetryScheduler(AbstractBuilder<?,?> builder)
+  {
+    timer_                      = new HashedWheelTimer(builder.name_, builder.tickMillis_, builder.wheelSize_);
+    backoff_                    = builder.backoff_ == null ? new RetryBackoff.Builder().build() : builder.backoff_;
+    maxPendingPerSubscription_  = builder.maxPendingPerSubscription_;
+  }
+  
+  private static class DefaultHolder
+  {
+    static final RetryScheduler INSTANCE = new Builder().build();
+  }
+  
+  /**
+   * 
+   * @return The scheduler shared by all subscriber managers which are not given one explicitly.
+   */
+  public static RetryScheduler getDefault()
+  {
+    return DefaultHolder.INSTANCE;
+  }
+  
+  /**
+   * Schedule the retry of a message.
+   * 
+   * @param subscriptionName  The subscription from which the message was received.
+   * @param retryTimeMillis   The retry time requested by the handler in milliseconds.
+   * @param attempt           The number of attempts which have been made to handle the message, or 0 if this is not known.
+   * @param retry             The action which causes the message to be redelivered, which must not block.
+   * 
+   * @return A handle through which the retry may be cancelled, or null if the retry budget of the subscription is exhausted.
+   */
+  public @Nullable Retry schedule(String subscriptionName, long retryTimeMillis, int attempt, Runnable retry)
+  {
+    AtomicInteger pending = pendingMap_.computeIfAbsent(subscriptionName, (k) -> new AtomicInteger());
+    
+    if(pending.incrementAndGet() > maxPendingPerSubscription_)
+    {
+      pending.decrementAndGet();
+      rejectedCount_.incrementAndGet();
+      
+      return null;
+    }
+    
+    scheduledCount_.incrementAndGet();
+    
+    return new Retry(pending, timer_.schedule(() ->
+    {
+      pending.decrementAndGet();
+      retriedCount_.incrementAndGet();
+      retry.run();
+    }, backoff_.getDelay(retryTimeMillis, attempt)));
+  }
+  
+  /**
+   * A handle on a scheduled retry.
+   */
+  public static class Retry
+  {
+    private final AtomicInteger             pending_;
+    private final HashedWheelTimer.Timeout  timeout_;
+    
+    private Retry(AtomicInteger pending, HashedWheelTimer.Timeout timeout)
+    {
+      pending_ = pending;
+      timeout_ = timeout;
+    }
+    
+    /**
+     * Cancel the retry.
+     * 
+     * @return True if the retry was cancelled, false if it has already run or been cancelled.
+     */
+    public boolean cancel()
+    {
+      if(!timeout_.cancel())
+        return false;
+      
+      pending_.decrementAndGet();
+      
+      return true;
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of retries which are waiting to run.
+   */
+  public int getPendingCount()
+  {
+    return timer_.getPendingCount();
+  }
+  
+  /**
+   * 
+   * @param subscriptionName The name of a subscription.
+   * 
+   * @return The number of retries for the given subscription which are waiting to run.
+   */
+  public int getPendingCount(String subscriptionName)
+  {
+    AtomicInteger pending = pendingMap_.get(subscriptionName);
+    
+    return pending == null ? 0 : pending.get();
+  }
+  
+  /**
+   * 
+   * @return The maximum number of retries for each subscription which may be waiting to run.
+   */
+  public int getMaxPendingPerSubscription()
+  {
+    return maxPendingPerSubscription_;
+  }
+  
+  /**
+   * 
+   * @return The number of retries which have been scheduled.
+   */
+  public long getScheduledCount()
+  {
+    return scheduledCount_.get();
+  }
+  
+  /**
+   * 
+   * @return The number of retries which were rejected because the budget of their subscription was exhausted.
+   */
+  public long getRejectedCount()
+  {
+    return rejectedCount_.get();
+  }
+  
+  /**
+   * 
+   * @return The number of retries which have run.
+   */
+  public long getRetriedCount()
+  {
+    return retriedCount_.get();
+  }
+  
+  /**
+   * Builder for RetryScheduler.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, RetryScheduler>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected RetryScheduler construct()
+    {
+      return new RetryScheduler(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends RetryScheduler> extends BaseAbstractBuilder<T,B>
+  {
+    protected String        name_                       = "PubSub-retry";
+    protected long          tickMillis_                 = 100;
+    protected int           wheelSize_                  = 1024;
+    protected int           maxPendingPerSubscription_  = 10000;
+    protected RetryBackoff  backoff_;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(name_, "name");
+      
+      if(tickMillis_ < 1)
+        faultAccumulator.error("tickMillis must be positive");
+      
+      if(wheelSize_ < 1)
+        faultAccumulator.error("wheelSize must be positive");
+      
+      if(maxPendingPerSubscription_ < 1)
+        faultAccumulator.error("maxPendingPerSubscription must be positive");
+    }
+
+    /**
+     * Set the name of the timer thread, the default is PubSub-retry.
+     * 
+     * @param name The name of the timer thread.
+     * 
+     * @return This (fluent method).
+     */
+    public T withName(String name)
+    {
+      name_ = name;
+      
+      return self();
+    }
+
+    /**
+     * Set the resolution of the timer, the default is 100ms.
+     * 
+     * @param tickMillis The duration of one tick of the timer in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withTickMillis(long tickMillis)
+    {
+      tickMillis_ = tickMillis;
+      
+      return self();
+    }
+
+    /**
+     * Set the number of buckets in the timing wheel, the default is 1024.
+     * 
+     * @param wheelSize The number of buckets in the timing wheel.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWheelSize(int wheelSize)
+    {
+      wheelSize_ = wheelSize;
+      
+      return self();
+    }
+
+    /**
+     * Set the retry budget of each subscription, the default is 10000.
+     * 
+     * @param maxPendingPerSubscription The maximum number of retries for each subscription which may be waiting to run.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxPendingPerSubscription(int maxPendingPerSubscription)
+    {
+      maxPendingPerSubscription_ = maxPendingPerSubscription;
+      
+      return self();
+    }
+
+    /**
+     * Set the backoff policy, the default is a RetryBackoff with default settings.
+     * 
+     * @param backoff The policy which determines the delay before each retry.
+     * 
+     * @return This (fluent method).
+     */
+    public T withBackoff(RetryBackoff backoff)
+    {
+      backoff_ = backoff;
+      
+      return self();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv;
+
+import java.time.Instant;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.symphony.oss.commons.hash.Hash;
+import com.symphony.oss.fugue.store.IFuguePodId;
+
+/**
+ * An IKvItem which takes its keys and metadata from another item and has a separately supplied payload.
+ * 
+ * This is used where the payload of an item has been read from a stream, the getJson() method of the
+ * original item is never called.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class KvItemWithPayload implements IKvItem
+{
+  private final IKvItem item_;
+  private final String  json_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param item  The item which provides the keys and metadata.
+   * @param json  The payload.
+   */
+  public KvItemWithPayload(IKvItem item, String json)
+  {
+    item_ = item;
+    json_ = json;
+  }
+
+  @Override
+  public String getJson()
+  {
+    return json_;
+  }
+
+  @Override
+  public IKvPartitionKey getPartitionKey()
+  {
+    return item_.getPartitionKey();
+  }
+
+  @Override
+  public IKvSortKey getSortKey()
+  {
+    return item_.getSortKey();
+  }
+
+  @Override
+  public @Nullable String getType()
+  {
+    return item_.getType();
+  }
+
+  @Override
+  public @Nullable Instant getPurgeDate()
+  {
+    return item_.getPurgeDate();
+  }
+
+  @Override
+  public boolean isSaveToSecondaryStorage()
+  {
+    return item_.isSaveToSecondaryStorage();
+  }
+
+  @Override
+  public Hash getAbsoluteHash()
+  {
+    return item_.getAbsoluteHash();
+  }
+
+  @Override
+  public @Nullable IFuguePodId getPodId()
+  {
+    return item_.getPodId();
+  }
+
+  @Override
+  public @Nullable Map<String, Object> getAdditionalAttributes()
+  {
+    return item_.getAdditionalAttributes();
+  }
+
+  @Override
+  public String getTraceSubjectType()
+  {
+    return item_.getTraceSubjectType();
+  }
+
+  @Override
+  public String getTraceSubjectId()
+  {
+    return item_.getTraceSubjectId();
+  }
+}
@@ -23,7 +23,14 @@
 
 package com.symphony.oss.fugue.kv.table;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
@@ -37,6 +44,7 @@ import com.symphony.oss.fugue.kv.IKvPagination;
 import com.symphony.oss.fugue.kv.IKvPartitionKeyProvider;
 import com.symphony.oss.fugue.kv.IKvPartitionSortKeyProvider;
 import com.symphony.oss.fugue.kv.KvCondition;
+import com.symphony.oss.fugue.kv.KvItemWithPayload;
 import com.symphony.oss.fugue.kv.KvPartitionUser;
 import com.symphony.oss.fugue.store.NoSuchObjectException;
 import com.symphony.oss.fugue.trace.ITraceContext;
@@ -65,6 +73,34 @@ public interface IKvTable extends IFugueComponent
    */
   void storeNonTransactional(Collection<IKvItem> kvItems, ITraceContext trace);
   
+  /**
+   * Store the given item, reading its payload from the given stream, overwriting any existing object with the same partition and sort keys.
+   * 
+   * The getJson() method of the given item is not called, the payload is read from the stream instead.
+   * 
+   * The default implementation reads the payload into memory and calls storeNonTransactional(Collection, ITraceContext),
+   * implementations which hold large payloads in secondary storage should override this to copy them to secondary
+   * storage as they are read.
+   * 
+   * @param kvItem        Item to be stored.
+   * @param payload       A stream from which the UTF-8 encoded payload is read, which is not closed.
+   * @param contentLength The exact length of the payload in bytes.
+   * @param trace         Trace context.
+   * 
+   * @throws IOException  If the payload cannot be read from the given stream.
+   */
+  default void store(IKvItem kvItem, InputStream payload, long contentLength, ITraceContext trace) throws IOException
+  {
+    if(contentLength < 0 || contentLength > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Invalid contentLength " + contentLength);
+    
+    byte[] bytes = new byte[(int)contentLength];
+    
+    new DataInputStream(payload).readFully(bytes);
+    
+    storeNonTransactional(Collections.singletonList(new KvItemWithPayload(kvItem, new String(bytes, StandardCharsets.UTF_8))), trace);
+  }
+  
   
   /**
    * Store the given item, provided the given condition is met.
@@ -75,6 +111,34 @@ public interface IKvTable extends IFugueComponent
    */
   void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace);
   
+  /**
+   * Store the given item, provided the given condition is met, and report whether it was stored.
+   * 
+   * The default implementation calls store(IKvItem, KvCondition, ITraceContext), which is silent when the
+   * condition is not met, and then fetches the item back. That read may be stale, and another writer may
+   * change the item in between, so a store which succeeded can be reported as having failed. Implementations
+   * should override this method to report the outcome of the conditional write itself.
+   * 
+   * @param kvItem      Item to be stored.
+   * @param kvCondition Condition.
+   * @param trace       Trace context.
+   * 
+   * @return true if the item was stored, false if the condition was not met.
+   */
+  default boolean tryStore(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
+  {
+    store(kvItem, kvCondition, trace);
+    
+    try
+    {
+      return kvItem.getJson().equals(fetch(kvItem, trace));
+    }
+    catch(NoSuchObjectException e)
+    {
+      return false;
+    }
+  }
+  
   /**
    * Store the given item, provided the given list of conditions are met.
    * 
@@ -149,6 +213,55 @@ public interface IKvTable extends IFugueComponent
    */
   String fetch(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace) throws NoSuchObjectException;
   
+  /**
+   * Fetch the object with the given partition key and sort key, writing the payload to the given stream as UTF-8.
+   * 
+   * The default implementation calls fetch(IKvPartitionSortKeyProvider, ITraceContext), implementations
+   * which hold large payloads in secondary storage should override this to copy them without materializing
+   * them as a String.
+   * 
+   * @param partitionSortKey  The key of the required object.
+   * @param out               A stream to receive the payload, which is not closed.
+   * @param trace             Trace context.
+   * 
+   * @throws NoSuchObjectException  If there is no object with the given key.
+   * @throws IOException            If the payload cannot be written to the given stream.
+   */
+  default void fetch(IKvPartitionSortKeyProvider partitionSortKey, OutputStream out, ITraceContext trace) throws NoSuchObjectException, IOException
+  {
+    out.write(fetch(partitionSortKey, trace).getBytes(StandardCharsets.UTF_8));
+  }
+  
+  /**
+   * Fetch the objects with the given partition and sort keys.
+   * 
+   * The default implementation calls fetch(IKvPartitionSortKeyProvider, ITraceContext) for each key,
+   * implementations should override this with a more efficient method where possible.
+   * 
+   * @param partitionSortKeys The keys of the required objects.
+   * @param trace             Trace context.
+   * 
+   * @return                  A map from each of the given keys for which an object exists to that object.
+   */
+  default Map<IKvPartitionSortKeyProvider, String> fetch(Collection<? extends IKvPartitionSortKeyProvider> partitionSortKeys, ITraceContext trace)
+  {
+    Map<IKvPartitionSortKeyProvider, String> result = new HashMap<>();
+    
+    for(IKvPartitionSortKeyProvider partitionSortKey : partitionSortKeys)
+    {
+      try
+      {
+        result.put(partitionSortKey, fetch(partitionSortKey, trace));
+      }
+      catch(NoSuchObjectException e)
+      {
+        // Absent from the result.
+      }
+    }
+    
+    return result;
+  }
+  
   /**
    * Fetch the first object with the given partition key.
    * 
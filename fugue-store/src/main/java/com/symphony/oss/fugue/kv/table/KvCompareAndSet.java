@@ -0,0 +1,236 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.symphony.oss.commons.hash.Hash;
+import com.symphony.oss.commons.hash.HashProvider;
+import com.symphony.oss.fugue.kv.IKvItem;
+import com.symphony.oss.fugue.kv.IKvPartitionKey;
+import com.symphony.oss.fugue.kv.IKvPartitionSortKeyProvider;
+import com.symphony.oss.fugue.kv.IKvSortKey;
+import com.symphony.oss.fugue.kv.KvComparison;
+import com.symphony.oss.fugue.kv.KvCondition;
+import com.symphony.oss.fugue.store.IFuguePodId;
+import com.symphony.oss.fugue.store.NoSuchObjectException;
+import com.symphony.oss.fugue.trace.ITraceContext;
+
+/**
+ * Compare and set of small JSON records in an IKvTable.
+ * 
+ * Each record carries a version which is replaced on every write, and writes are made with
+ * IKvTable.tryStore(IKvItem, KvCondition, ITraceContext) conditional on the version being unchanged,
+ * so the result of compareAndSet is the outcome of the conditional write itself. Tables which do not
+ * override tryStore confirm the write with a read, see that method for the limitations of this.
+ * 
+ * @author Bruce Skingle
+ */
+public class KvCompareAndSet
+{
+  /** The name of the attribute holding the version of a record. */
+  public static final String        VERSION_ATTRIBUTE = "casVersion";
+
+  private static final String       VERSION_FIELD     = "_casVersion";
+  private static final String       NO_VERSION        = "-";
+  private static final ObjectMapper MAPPER            = new ObjectMapper();
+
+  private final IKvTable            kvTable_;
+  private final String              type_;
+
+  /**
+   * Constructor.
+   * 
+   * @param kvTable The table in which records are stored.
+   * @param type    The type id of records.
+   */
+  public KvCompareAndSet(IKvTable kvTable, String type)
+  {
+    kvTable_  = kvTable;
+    type_     = type;
+  }
+  
+  /**
+   * Create a new, empty, record.
+   * 
+   * @return A new, empty, record.
+   */
+  public ObjectNode newRecord()
+  {
+    return MAPPER.createObjectNode();
+  }
+  
+  /**
+   * Fetch the record with the given key.
+   * 
+   * @param key   The key of the record.
+   * @param trace Trace context.
+   * 
+   * @return The current value of the record, or null if it does not exist.
+   */
+  public @Nullable ObjectNode fetch(IKvPartitionSortKeyProvider key, ITraceContext trace)
+  {
+    try
+    {
+      JsonNode node = MAPPER.readTree(kvTable_.fetch(key, trace));
+      
+      if(node instanceof ObjectNode)
+        return (ObjectNode) node;
+      
+      throw new IllegalStateException("Record " + key.getPartitionKey() + " " + key.getSortKey() + " is not a JSON object");
+    }
+    catch(NoSuchObjectException e)
+    {
+      return null;
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException("Unable to parse record " + key.getPartitionKey() + " " + key.getSortKey(), e);
+    }
+  }
+  
+  /**
+   * Store the given value, provided that the record has not been changed since the expected value was fetched.
+   * 
+   * @param key       The key of the record.
+   * @param expected  The value previously fetched, or null if the record is expected not to exist.
+   * @param value     The new value, which is updated with its new version.
+   * @param purgeDate An optional purge date for the record.
+   * @param trace     Trace context.
+   * 
+   * @return true if the value was stored, false if the record was changed by another writer.
+   */
+  public boolean compareAndSet(IKvPartitionSortKeyProvider key, @Nullable ObjectNode expected, ObjectNode value,
+      @Nullable Instant purgeDate, ITraceContext trace)
+  {
+    String expectedVersion  = expected == null ? NO_VERSION : getVersion(expected);
+    String version          = UUID.randomUUID().toString();
+    
+    value.put(VERSION_FIELD, version);
+    
+    return kvTable_.tryStore(new CasItem(key, value.toString(), version, purgeDate),
+        new KvCondition(VERSION_ATTRIBUTE, KvComparison.EQUALS, expectedVersion), trace);
+  }
+  
+  private static String getVersion(ObjectNode value)
+  {
+    JsonNode version = value.get(VERSION_FIELD);
+    
+    return version == null ? NO_VERSION : version.asText();
+  }
+  
+  private class CasItem implements IKvItem
+  {
+    private final IKvPartitionSortKeyProvider key_;
+    private final String                      json_;
+    private final Hash                        absoluteHash_;
+    private final Instant                     purgeDate_;
+    private final Map<String, Object>         additionalAttributes_;
+
+    CasItem(IKvPartitionSortKeyProvider key, String json, String version, @Nullable Instant purgeDate)
+    {
+      key_                  = key;
+      json_                 = json;
+      absoluteHash_         = HashProvider.getHashOf(json.getBytes(StandardCharsets.UTF_8));
+      purgeDate_            = purgeDate;
+      additionalAttributes_ = Collections.singletonMap(VERSION_ATTRIBUTE, version);
+    }
+
+    @Override
+    public IKvPartitionKey getPartitionKey()
+    {
+      return key_.getPartitionKey();
+    }
+
+    @Override
+    public IKvSortKey getSortKey()
+    {
+      return key_.getSortKey();
+    }
+
+    @Override
+    public String getJson()
+    {
+      return json_;
+    }
+
+    @Override
+    public String getType()
+    {
+      return type_;
+    }
+
+    @Override
+    public @Nullable Instant getPurgeDate()
+    {
+      return purgeDate_;
+    }
+
+    @Override
+    public boolean isSaveToSecondaryStorage()
+    {
+      return false;
+    }
+
+    @Override
+    public Hash getAbsoluteHash()
+    {
+      return absoluteHash_;
+    }
+
+    @Override
+    public @Nullable IFuguePodId getPodId()
+    {
+      return null;
+    }
+
+    @Override
+    public Map<String, Object> getAdditionalAttributes()
+    {
+      return additionalAttributes_;
+    }
+
+    @Override
+    public String getTraceSubjectType()
+    {
+      return type_;
+    }
+
+    @Override
+    public String getTraceSubjectId()
+    {
+      return key_.getPartitionKey() + " " + key_.getSortKey();
+    }
+  }
+}
@@ -0,0 +1,522 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.capacity;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.IFugueComponent;
+import com.symphony.oss.fugue.config.IConfiguration;
+
+/**
+ * Adjusts the provisioned capacity of a table according to observed demand.
+ * 
+ * The table records consumed capacity and throttled requests, and at each evaluation interval the policy
+ * recommends new read and write capacity. Recommendations are bounded by the configured minimum and maximum
+ * values. Increases are made at most once per scale up cooldown. Decreases are made at most once per scale
+ * down cooldown and never more than maxDecreasesPerDay times in any 24 hour period, so that capacity is not
+ * stranded at a low value by exhausting the DynamoDB daily decrease allowance.
+ * 
+ * Tables with on demand capacity are ignored. In dry run mode changes are logged but not made.
+ * 
+ * @author Bruce Skingle
+ */
+public class CapacityController implements IFugueComponent
+{
+  private static final Logger         log_                = LoggerFactory.getLogger(CapacityController.class);
+  private static final long           DAY_MILLIS          = TimeUnit.DAYS.toMillis(1);
+
+  private final String                tableName_;
+  private final ICapacityControlPlane controlPlane_;
+  private final ICapacityPolicy       policy_;
+  private final long                  evaluationInterval_;
+  private final long                  scaleUpCooldown_;
+  private final long                  scaleDownCooldown_;
+  private final int                   maxDecreasesPerDay_;
+  private final long                  minReadUnits_;
+  private final long                  maxReadUnits_;
+  private final long                  minWriteUnits_;
+  private final long                  maxWriteUnits_;
+  private final boolean               dryRun_;
+
+  private final DoubleAdder           consumedReadUnits_  = new DoubleAdder();
+  private final DoubleAdder           consumedWriteUnits_ = new DoubleAdder();
+  private final LongAdder             readThrottles_      = new LongAdder();
+  private final LongAdder             writeThrottles_     = new LongAdder();
+  private final Deque<Long>           decreaseTimes_      = new ArrayDeque<>();
+
+  private long                        lastEvaluation_     = System.currentTimeMillis();
+  private long                        lastIncrease_;
+  private long                        lastChange_;
+  private int                         increaseCount_;
+  private int                         decreaseCount_;
+  private CapacityObservation         lastObservation_;
+  private ScheduledExecutorService    scheduler_;
+
+  protected CapacityController(AbstractBuilder<?,?> builder)
+  {
+    tableName_          = builder.tableName_;
+    controlPlane_       = builder.controlPlane_;
+    policy_             = builder.policy_;
+    evaluationInterval_ = builder.evaluationInterval_;
+    scaleUpCooldown_    = builder.scaleUpCooldown_;
+    scaleDownCooldown_  = builder.scaleDownCooldown_;
+    maxDecreasesPerDay_ = builder.maxDecreasesPerDay_;
+    minReadUnits_       = builder.minReadUnits_;
+    maxReadUnits_       = builder.maxReadUnits_;
+    minWriteUnits_      = builder.minWriteUnits_;
+    maxWriteUnits_      = builder.maxWriteUnits_;
+    dryRun_             = builder.dryRun_;
+  }
+
+  @Override
+  public synchronized void start()
+  {
+    if(scheduler_ == null && evaluationInterval_ > 0)
+    {
+      scheduler_ = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapacityController-" + tableName_, true));
+      scheduler_.scheduleWithFixedDelay(() ->
+      {
+        try
+        {
+          evaluate();
+        }
+        catch(RuntimeException e)
+        {
+          log_.error("Failed to evaluate capacity for " + tableName_, e);
+        }
+      }, evaluationInterval_, evaluationInterval_, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void stop()
+  {
+    if(scheduler_ != null)
+    {
+      scheduler_.shutdownNow();
+      scheduler_ = null;
+    }
+  }
+  
+  /**
+   * Record capacity consumed by a read.
+   * 
+   * @param units The number of read capacity units consumed.
+   */
+  public void recordRead(double units)
+  {
+    consumedReadUnits_.add(units);
+  }
+  
+  /**
+   * Record capacity consumed by a write.
+   * 
+   * @param units The number of write capacity units consumed.
+   */
+  public void recordWrite(double units)
+  {
+    consumedWriteUnits_.add(units);
+  }
+  
+  /**
+   * Record a read which was throttled.
+   */
+  public void recordReadThrottle()
+  {
+    readThrottles_.increment();
+  }
+  
+  /**
+   * Record a write which was throttled.
+   */
+  public void recordWriteThrottle()
+  {
+    writeThrottles_.increment();
+  }
+
+  /**
+   * Evaluate the demand observed since the last evaluation and adjust capacity if required.
+   * 
+   * This is called periodically once the controller is started, it is public so that the
+   * controller can also be driven by an external scheduler.
+   */
+  public synchronized void evaluate()
+  {
+    long    now       = System.currentTimeMillis();
+    double  seconds   = Math.max(1, now - lastEvaluation_) / 1000.0;
+    double  consumedRead  = consumedReadUnits_.sumThenReset();
+    double  consumedWrite = consumedWriteUnits_.sumThenReset();
+    long    readThrottles   = readThrottles_.sumThenReset();
+    long    writeThrottles  = writeThrottles_.sumThenReset();
+    
+    lastEvaluation_ = now;
+    
+    TableCapacity current = controlPlane_.describeCapacity(tableName_);
+    
+    if(!current.isProvisioned())
+    {
+      log_.debug("Table " + tableName_ + " has on demand capacity, nothing to do.");
+      return;
+    }
+    
+    CapacityObservation observation = new CapacityObservation(current, consumedRead / seconds, consumedWrite / seconds,
+        readThrottles, writeThrottles);
+    
+    lastObservation_ = observation;
+    
+    long readUnits  = limit(policy_.recommendReadUnits(observation),  minReadUnits_,  maxReadUnits_);
+    long writeUnits = limit(policy_.recommendWriteUnits(observation), minWriteUnits_, maxWriteUnits_);
+    
+    boolean canIncrease = now - lastIncrease_ >= scaleUpCooldown_;
+    boolean canDecrease = canDecrease(now, current);
+    
+    readUnits   = constrain(current.getReadUnits(),   readUnits,  canIncrease, canDecrease);
+    writeUnits  = constrain(current.getWriteUnits(),  writeUnits, canIncrease, canDecrease);
+    
+    if(readUnits == current.getReadUnits() && writeUnits == current.getWriteUnits())
+      return;
+    
+    boolean increase = readUnits > current.getReadUnits() || writeUnits > current.getWriteUnits();
+    boolean decrease = readUnits < current.getReadUnits() || writeUnits < current.getWriteUnits();
+    
+    if(dryRun_)
+    {
+      log_.info("DRY RUN: would change capacity of " + tableName_ + " from " + current + " to {read=" + readUnits +
+          ", write=" + writeUnits + "} after observing " + observation);
+    }
+    else
+    {
+      log_.info("Changing capacity of " + tableName_ + " from " + current + " to {read=" + readUnits +
+          ", write=" + writeUnits + "} after observing " + observation);
+      
+      controlPlane_.updateCapacity(tableName_, readUnits, writeUnits);
+    }
+    
+    lastChange_ = now;
+    
+    if(increase)
+    {
+      lastIncrease_ = now;
+      increaseCount_++;
+    }
+    
+    if(decrease)
+    {
+      decreaseTimes_.addLast(now);
+      decreaseCount_++;
+    }
+  }
+
+  private boolean canDecrease(long now, TableCapacity current)
+  {
+    while(!decreaseTimes_.isEmpty() && now - decreaseTimes_.peekFirst() >= DAY_MILLIS)
+      decreaseTimes_.removeFirst();
+    
+    return now - lastChange_ >= scaleDownCooldown_ &&
+        decreaseTimes_.size() < maxDecreasesPerDay_ &&
+        current.getNumberOfDecreasesToday() < maxDecreasesPerDay_;
+  }
+
+  private static long limit(long units, long min, long max)
+  {
+    return Math.max(min, Math.min(max, units));
+  }
+
+  private static long constrain(long current, long recommended, boolean canIncrease, boolean canDecrease)
+  {
+    if(recommended > current)
+      return canIncrease ? recommended : current;
+    
+    if(recommended < current)
+      return canDecrease ? recommended : current;
+    
+    return current;
+  }
+
+  /**
+   * 
+   * @return The number of capacity increases made (or which would have been made in dry run mode).
+   */
+  public synchronized int getIncreaseCount()
+  {
+    return increaseCount_;
+  }
+
+  /**
+   * 
+   * @return The number of capacity decreases made (or which would have been made in dry run mode).
+   */
+  public synchronized int getDecreaseCount()
+  {
+    return decreaseCount_;
+  }
+
+  /**
+   * 
+   * @return The observation made at the last evaluation, or null if no evaluation has been made.
+   */
+  public synchronized @Nullable CapacityObservation getLastObservation()
+  {
+    return lastObservation_;
+  }
+
+  /**
+   * Builder.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, CapacityController>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected CapacityController construct()
+    {
+      return new CapacityController(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends CapacityController> extends BaseAbstractBuilder<T,B>
+  {
+    protected String                tableName_;
+    protected ICapacityControlPlane controlPlane_;
+    protected ICapacityPolicy       policy_;
+    protected long                  evaluationInterval_ = 60000;
+    protected long                  scaleUpCooldown_    = 60000;
+    protected long                  scaleDownCooldown_  = 3600000;
+    protected int                   maxDecreasesPerDay_ = 4;
+    protected long                  minReadUnits_       = 1;
+    protected long                  maxReadUnits_       = 40000;
+    protected long                  minWriteUnits_      = 1;
+    protected long                  maxWriteUnits_      = 40000;
+    protected boolean               dryRun_;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(tableName_, "tableName");
+      faultAccumulator.checkNotNull(controlPlane_, "controlPlane");
+      
+      if(policy_ == null)
+        policy_ = new TargetUtilizationCapacityPolicy();
+      
+      if(evaluationInterval_ < 0 || scaleUpCooldown_ < 0 || scaleDownCooldown_ < 0)
+        faultAccumulator.error("evaluationInterval and cooldowns must not be negative");
+      
+      if(maxDecreasesPerDay_ < 0)
+        faultAccumulator.error("maxDecreasesPerDay must not be negative");
+      
+      if(minReadUnits_ < 1 || maxReadUnits_ < minReadUnits_)
+        faultAccumulator.error("maxReadUnits must be at least minReadUnits which must be positive");
+      
+      if(minWriteUnits_ < 1 || maxWriteUnits_ < minWriteUnits_)
+        faultAccumulator.error("maxWriteUnits must be at least minWriteUnits which must be positive");
+    }
+
+    /**
+     * Set all parameters from the given configuration.
+     * 
+     * Any value not present in the configuration is unchanged.
+     * 
+     * @param config A configuration containing some or all of evaluationIntervalMillis, scaleUpCooldownMillis,
+     *          scaleDownCooldownMillis, maxDecreasesPerDay, minReadUnits, maxReadUnits, minWriteUnits,
+     *          maxWriteUnits and dryRun.
+     * 
+     * @return This (fluent method).
+     */
+    public T withConfiguration(IConfiguration config)
+    {
+      evaluationInterval_ = config.getLong(   "evaluationIntervalMillis", evaluationInterval_);
+      scaleUpCooldown_    = config.getLong(   "scaleUpCooldownMillis",    scaleUpCooldown_);
+      scaleDownCooldown_  = config.getLong(   "scaleDownCooldownMillis",  scaleDownCooldown_);
+      maxDecreasesPerDay_ = config.getInt(    "maxDecreasesPerDay",       maxDecreasesPerDay_);
+      minReadUnits_       = config.getLong(   "minReadUnits",             minReadUnits_);
+      maxReadUnits_       = config.getLong(   "maxReadUnits",             maxReadUnits_);
+      minWriteUnits_      = config.getLong(   "minWriteUnits",            minWriteUnits_);
+      maxWriteUnits_      = config.getLong(   "maxWriteUnits",            maxWriteUnits_);
+      dryRun_             = config.getBoolean("dryRun",                   dryRun_);
+      
+      return self();
+    }
+
+    /**
+     * Set the name of the table to be controlled.
+     * 
+     * @param tableName The name of the table.
+     * 
+     * @return This (fluent method).
+     */
+    public T withTableName(String tableName)
+    {
+      tableName_ = tableName;
+      
+      return self();
+    }
+
+    /**
+     * Set the control plane used to describe and update the table.
+     * 
+     * @param controlPlane The control plane.
+     * 
+     * @return This (fluent method).
+     */
+    public T withControlPlane(ICapacityControlPlane controlPlane)
+    {
+      controlPlane_ = controlPlane;
+      
+      return self();
+    }
+
+    /**
+     * Set the policy, the default is a TargetUtilizationCapacityPolicy with default values.
+     * 
+     * @param policy The capacity policy.
+     * 
+     * @return This (fluent method).
+     */
+    public T withPolicy(ICapacityPolicy policy)
+    {
+      policy_ = policy;
+      
+      return self();
+    }
+
+    /**
+     * Set the interval between evaluations, zero means that evaluate() is called externally.
+     * 
+     * @param evaluationInterval The interval in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withEvaluationInterval(long evaluationInterval)
+    {
+      evaluationInterval_ = evaluationInterval;
+      
+      return self();
+    }
+
+    /**
+     * Set the cooldowns.
+     * 
+     * @param scaleUpCooldown   The minimum interval in milliseconds between increases.
+     * @param scaleDownCooldown The minimum interval in milliseconds between any change and a decrease.
+     * 
+     * @return This (fluent method).
+     */
+    public T withCooldown(long scaleUpCooldown, long scaleDownCooldown)
+    {
+      scaleUpCooldown_    = scaleUpCooldown;
+      scaleDownCooldown_  = scaleDownCooldown;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of decreases in any 24 hour period.
+     * 
+     * @param maxDecreasesPerDay The maximum number of decreases.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxDecreasesPerDay(int maxDecreasesPerDay)
+    {
+      maxDecreasesPerDay_ = maxDecreasesPerDay;
+      
+      return self();
+    }
+
+    /**
+     * Set the limits for read capacity.
+     * 
+     * @param minReadUnits The minimum read capacity units.
+     * @param maxReadUnits The maximum read capacity units.
+     * 
+     * @return This (fluent method).
+     */
+    public T withReadUnits(long minReadUnits, long maxReadUnits)
+    {
+      minReadUnits_ = minReadUnits;
+      maxReadUnits_ = maxReadUnits;
+      
+      return self();
+    }
+
+    /**
+     * Set the limits for write capacity.
+     * 
+     * @param minWriteUnits The minimum write capacity units.
+     * @param maxWriteUnits The maximum write capacity units.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWriteUnits(long minWriteUnits, long maxWriteUnits)
+    {
+      minWriteUnits_ = minWriteUnits;
+      maxWriteUnits_ = maxWriteUnits;
+      
+      return self();
+    }
+
+    /**
+     * Set dry run mode, in which changes are logged but not made.
+     * 
+     * @param dryRun If true then no changes are made.
+     * 
+     * @return This (fluent method).
+     */
+    public T withDryRun(boolean dryRun)
+    {
+      dryRun_ = dryRun;
+      
+      return self();
+    }
+  }
+}
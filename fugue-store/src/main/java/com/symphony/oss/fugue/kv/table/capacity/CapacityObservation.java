@@ -0,0 +1,112 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.capacity;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The demand on a table observed over one evaluation interval of a CapacityController.
+ * 
+ * @author Bruce Skingle
+ */
+@Immutable
+public class CapacityObservation
+{
+  private final TableCapacity capacity_;
+  private final double        consumedReadUnits_;
+  private final double        consumedWriteUnits_;
+  private final long          readThrottleCount_;
+  private final long          writeThrottleCount_;
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity            The current capacity of the table.
+   * @param consumedReadUnits   The average consumed read capacity units per second.
+   * @param consumedWriteUnits  The average consumed write capacity units per second.
+   * @param readThrottleCount   The number of reads which were throttled.
+   * @param writeThrottleCount  The number of writes which were throttled.
+   */
+  public CapacityObservation(TableCapacity capacity, double consumedReadUnits, double consumedWriteUnits,
+      long readThrottleCount, long writeThrottleCount)
+  {
+    capacity_           = capacity;
+    consumedReadUnits_  = consumedReadUnits;
+    consumedWriteUnits_ = consumedWriteUnits;
+    readThrottleCount_  = readThrottleCount;
+    writeThrottleCount_ = writeThrottleCount;
+  }
+
+  /**
+   * 
+   * @return The current capacity of the table.
+   */
+  public TableCapacity getCapacity()
+  {
+    return capacity_;
+  }
+
+  /**
+   * 
+   * @return The average consumed read capacity units per second.
+   */
+  public double getConsumedReadUnits()
+  {
+    return consumedReadUnits_;
+  }
+
+  /**
+   * 
+   * @return The average consumed write capacity units per second.
+   */
+  public double getConsumedWriteUnits()
+  {
+    return consumedWriteUnits_;
+  }
+
+  /**
+   * 
+   * @return The number of reads which were throttled.
+   */
+  public long getReadThrottleCount()
+  {
+    return readThrottleCount_;
+  }
+
+  /**
+   * 
+   * @return The number of writes which were throttled.
+   */
+  public long getWriteThrottleCount()
+  {
+    return writeThrottleCount_;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "{capacity=" + capacity_ + ", consumedRead=" + consumedReadUnits_ + ", consumedWrite=" + consumedWriteUnits_ +
+        ", readThrottles=" + readThrottleCount_ + ", writeThrottles=" + writeThrottleCount_ + "}";
+  }
+}
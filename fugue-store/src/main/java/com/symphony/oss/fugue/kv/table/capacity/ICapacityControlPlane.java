@@ -0,0 +1,50 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.capacity;
+
+/**
+ * The control plane for a table's capacity.
+ * 
+ * @author Bruce Skingle
+ */
+public interface ICapacityControlPlane
+{
+  /**
+   * Return the current capacity of the given table.
+   * 
+   * @param tableName The name of the table.
+   * 
+   * @return The current capacity of the given table.
+   */
+  TableCapacity describeCapacity(String tableName);
+  
+  /**
+   * Set the provisioned capacity of the given table.
+   * 
+   * @param tableName   The name of the table.
+   * @param readUnits   The required read capacity units.
+   * @param writeUnits  The required write capacity units.
+   */
+  void updateCapacity(String tableName, long readUnits, long writeUnits);
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.capacity;
+
+/**
+ * A policy which decides the capacity a table should have.
+ * 
+ * Each method is called once per evaluation of the controller so implementations may keep state
+ * between calls, for example to require sustained demand before scaling. The controller applies
+ * minimum and maximum limits, cooldowns and decrease limits to the recommendations.
+ * 
+ * @author Bruce Skingle
+ */
+public interface ICapacityPolicy
+{
+  /**
+   * 
+   * @param observation The demand observed during the last evaluation interval.
+   * 
+   * @return The recommended read capacity units.
+   */
+  long recommendReadUnits(CapacityObservation observation);
+  
+  /**
+   * 
+   * @param observation The demand observed during the last evaluation interval.
+   * 
+   * @return The recommended write capacity units.
+   */
+  long recommendWriteUnits(CapacityObservation observation);
+}
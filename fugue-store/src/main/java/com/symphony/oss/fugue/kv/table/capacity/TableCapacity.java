@@ -0,0 +1,98 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.capacity;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The capacity of a table as reported by the control plane.
+ * 
+ * @author Bruce Skingle
+ */
+@Immutable
+public class TableCapacity
+{
+  private final boolean provisioned_;
+  private final long    readUnits_;
+  private final long    writeUnits_;
+  private final int     numberOfDecreasesToday_;
+
+  /**
+   * Constructor.
+   * 
+   * @param provisioned             True if the table has provisioned capacity, false if it is on demand.
+   * @param readUnits               The provisioned read capacity units.
+   * @param writeUnits              The provisioned write capacity units.
+   * @param numberOfDecreasesToday  The number of capacity decreases made today, as reported by the control plane.
+   */
+  public TableCapacity(boolean provisioned, long readUnits, long writeUnits, int numberOfDecreasesToday)
+  {
+    provisioned_            = provisioned;
+    readUnits_              = readUnits;
+    writeUnits_             = writeUnits;
+    numberOfDecreasesToday_ = numberOfDecreasesToday;
+  }
+
+  /**
+   * 
+   * @return True if the table has provisioned capacity, false if it is on demand.
+   */
+  public boolean isProvisioned()
+  {
+    return provisioned_;
+  }
+
+  /**
+   * 
+   * @return The provisioned read capacity units.
+   */
+  public long getReadUnits()
+  {
+    return readUnits_;
+  }
+
+  /**
+   * 
+   * @return The provisioned write capacity units.
+   */
+  public long getWriteUnits()
+  {
+    return writeUnits_;
+  }
+
+  /**
+   * 
+   * @return The number of capacity decreases made today.
+   */
+  public int getNumberOfDecreasesToday()
+  {
+    return numberOfDecreasesToday_;
+  }
+
+  @Override
+  public String toString()
+  {
+    return provisioned_ ? "{read=" + readUnits_ + ", write=" + writeUnits_ + ", decreasesToday=" + numberOfDecreasesToday_ + "}" : "{on-demand}";
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.capacity;
+
+import com.symphony.oss.fugue.config.IConfiguration;
+
+/**
+ * A capacity policy which aims to keep consumed capacity at a target percentage of provisioned capacity.
+ * 
+ * Capacity is raised as soon as any request is throttled, or once utilization has been above the target
+ * for scaleUpPeriods consecutive evaluations. Capacity is lowered only once utilization has been below
+ * scaleDownThreshold for scaleDownPeriods consecutive evaluations, since DynamoDB limits the number of
+ * decreases which can be made each day.
+ * 
+ * @author Bruce Skingle
+ */
+public class TargetUtilizationCapacityPolicy implements ICapacityPolicy
+{
+  private final int       targetUtilization_;
+  private final int       scaleDownThreshold_;
+  private final int       scaleUpPeriods_;
+  private final int       scaleDownPeriods_;
+  private final int       throttleScaleUpPercent_;
+
+  private final Dimension read_  = new Dimension();
+  private final Dimension write_ = new Dimension();
+
+  /**
+   * Constructor.
+   * 
+   * @param targetUtilization       The target utilization as a percentage of provisioned capacity.
+   * @param scaleDownThreshold      The utilization percentage below which capacity is considered idle.
+   * @param scaleUpPeriods          The number of consecutive busy evaluations before capacity is raised.
+   * @param scaleDownPeriods        The number of consecutive idle evaluations before capacity is lowered.
+   * @param throttleScaleUpPercent  The percentage of current capacity to raise to when requests are throttled.
+   */
+  public TargetUtilizationCapacityPolicy(int targetUtilization, int scaleDownThreshold, int scaleUpPeriods,
+      int scaleDownPeriods, int throttleScaleUpPercent)
+  {
+    if(targetUtilization < 1 || targetUtilization > 100)
+      throw new IllegalArgumentException("targetUtilization must be between 1 and 100");
+    
+    if(scaleDownThreshold < 0 || scaleDownThreshold >= targetUtilization)
+      throw new IllegalArgumentException("scaleDownThreshold must be between 0 and targetUtilization");
+    
+    if(throttleScaleUpPercent <= 100)
+      throw new IllegalArgumentException("throttleScaleUpPercent must be greater than 100");
+    
+    targetUtilization_      = targetUtilization;
+    scaleDownThreshold_     = scaleDownThreshold;
+    scaleUpPeriods_         = Math.max(1, scaleUpPeriods);
+    scaleDownPeriods_       = Math.max(1, scaleDownPeriods);
+    throttleScaleUpPercent_ = throttleScaleUpPercent;
+  }
+  
+  /**
+   * Constructor with default values.
+   */
+  public TargetUtilizationCapacityPolicy()
+  {
+    this(70, 30, 2, 15, 150);
+  }
+  
+  /**
+   * Constructor from configuration.
+   * 
+   * @param config Configuration.
+   */
+  public TargetUtilizationCapacityPolicy(IConfiguration config)
+  {
+    this(
+        config.getInt("targetUtilization", 70),
+        config.getInt("scaleDownThreshold", 30),
+        config.getInt("scaleUpPeriods", 2),
+        config.getInt("scaleDownPeriods", 15),
+        config.getInt("throttleScaleUpPercent", 150)
+        );
+  }
+
+  @Override
+  public synchronized long recommendReadUnits(CapacityObservation observation)
+  {
+    return read_.recommend(observation.getCapacity().getReadUnits(), observation.getConsumedReadUnits(),
+        observation.getReadThrottleCount());
+  }
+
+  @Override
+  public synchronized long recommendWriteUnits(CapacityObservation observation)
+  {
+    return write_.recommend(observation.getCapacity().getWriteUnits(), observation.getConsumedWriteUnits(),
+        observation.getWriteThrottleCount());
+  }
+  
+  private class Dimension
+  {
+    private int busyCycles_;
+    private int idleCycles_;
+    
+    long recommend(long current, double consumed, long throttleCount)
+    {
+      long required = (long)Math.ceil(consumed * 100 / targetUtilization_);
+      
+      if(throttleCount > 0)
+      {
+        reset();
+        
+        return Math.max(required, (current * throttleScaleUpPercent_ + 99) / 100);
+      }
+      
+      double utilization = current <= 0 ? 100 : consumed * 100 / current;
+      
+      if(utilization > targetUtilization_)
+      {
+        idleCycles_ = 0;
+        
+        if(++busyCycles_ >= scaleUpPeriods_)
+        {
+          reset();
+          
+          return Math.max(required, current + 1);
+        }
+      }
+      else if(utilization < scaleDownThreshold_)
+      {
+        busyCycles_ = 0;
+        
+        if(++idleCycles_ >= scaleDownPeriods_)
+        {
+          reset();
+          
+          return Math.max(1, Math.min(required, current));
+        }
+      }
+      else
+      {
+        reset();
+      }
+      
+      return current;
+    }
+
+    private void reset()
+    {
+      busyCycles_ = 0;
+      idleCycles_ = 0;
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.follow;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.kv.IKvPartitionKeyProvider;
+import com.symphony.oss.fugue.kv.table.IKvTable;
+import com.symphony.oss.fugue.trace.ITraceContext;
+
+/**
+ * Long poll reads of new objects in partitions of an IKvTable which has no change feed.
+ * 
+ * Callers which have read all of a partition wait locally while a single caller per partition polls
+ * the table on their behalf. The poll interval grows while the partition is idle and is reset when
+ * new objects are found, at which point the waiting callers are woken to read them. Callers which
+ * are behind read the table immediately.
+ * 
+ * Objects are returned in the order of their sort keys, so this is intended for partitions such as
+ * sequences whose sort keys increase over time.
+ * 
+ * @author Bruce Skingle
+ */
+public class KvPartitionFollower
+{
+  private final IKvTable                        kvTable_;
+  private final long                            minPollInterval_;
+  private final long                            maxPollInterval_;
+
+  private final Map<String, PartitionState>     partitionMap_ = new ConcurrentHashMap<>();
+  private final AtomicLong                      readCount_    = new AtomicLong();
+
+  protected KvPartitionFollower(AbstractBuilder<?,?> builder)
+  {
+    kvTable_          = builder.kvTable_;
+    minPollInterval_  = builder.minPollInterval_;
+    maxPollInterval_  = builder.maxPollInterval_;
+  }
+
+  /**
+   * Return objects from the given partition after the given cursor, waiting until at least one is
+   * available or the given timeout elapses.
+   * 
+   * @param partitionKey  The ID of the partition.
+   * @param limit         An optional limit to the number of objects retrieved.
+   * @param after         An optional cursor returned by a previous call, if null then the partition is followed from the start.
+   * @param timeoutMillis The maximum time in milliseconds to wait for an object to be added.
+   * @param consumer      A consumer to receive the sort key and payload of the retrieved objects.
+   * @param trace         Trace context.
+   * 
+   * @return              A cursor to continue following the partition, which is the given cursor if no objects were retrieved.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  public @Nullable String follow(IKvPartitionKeyProvider partitionKey, @Nullable Integer limit, @Nullable String after, long timeoutMillis,
+      BiConsumer<String, String> consumer, ITraceContext trace) throws InterruptedException
+  {
+    PartitionState  state     = partitionMap_.computeIfAbsent(partitionKey.getPartitionKey().asString(), (k) -> new PartitionState());
+    long            deadline  = System.currentTimeMillis() + timeoutMillis;
+    long            seen      = -1;
+    boolean         poller    = false;
+    
+    try
+    {
+      while(true)
+      {
+        if(poller || seen != state.version_)
+        {
+          seen = state.version_;
+          
+          String cursor = read(partitionKey, limit, after, consumer, trace);
+          
+          if(cursor != null)
+          {
+            if(poller)
+              state.found();
+            
+            return cursor;
+          }
+          
+          if(poller)
+            state.backOff();
+        }
+        
+        synchronized(state)
+        {
+          if(seen != state.version_)
+            continue;
+          
+          long timeout = deadline - System.currentTimeMillis();
+          
+          if(timeout <= 0)
+            return after;
+          
+          if(!poller && !state.polling_)
+          {
+            poller          = true;
+            state.polling_  = true;
+          }
+          
+          state.wait(poller ? Math.min(timeout, state.interval_) : timeout);
+        }
+      }
+    }
+    finally
+    {
+      if(poller)
+      {
+        synchronized(state)
+        {
+          // Wake the other callers so that one of them takes over polling.
+          state.polling_ = false;
+          state.notifyAll();
+        }
+      }
+    }
+  }
+  
+  private @Nullable String read(IKvPartitionKeyProvider partitionKey, @Nullable Integer limit, @Nullable String after,
+      BiConsumer<String, String> consumer, ITraceContext trace)
+  {
+    String[] lastSortKey = new String[1];
+    
+    readCount_.incrementAndGet();
+    
+    kvTable_.fetchPartitionObjects(partitionKey, true, limit, after, null, null, null, null,
+        (sortKey, payload) ->
+        {
+          consumer.accept(sortKey, payload);
+          lastSortKey[0] = sortKey;
+        }, trace);
+    
+    return lastSortKey[0];
+  }
+
+  /**
+   * 
+   * @return The number of reads made from the underlying table.
+   */
+  public long getReadCount()
+  {
+    return readCount_.get();
+  }
+  
+  private class PartitionState
+  {
+    volatile long version_;
+    boolean       polling_;
+    long          interval_ = minPollInterval_;
+    
+    synchronized void found()
+    {
+      version_++;
+      interval_ = minPollInterval_;
+      notifyAll();
+    }
+    
+    synchronized void backOff()
+    {
+      interval_ = Math.min(maxPollInterval_, (long)(interval_ * 1.2) + 1);
+    }
+  }
+  
+  /**
+   * Builder for KvPartitionFollower.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, KvPartitionFollower>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected KvPartitionFollower construct()
+    {
+      return new KvPartitionFollower(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends KvPartitionFollower> extends BaseAbstractBuilder<T,B>
+  {
+    protected IKvTable  kvTable_;
+    protected long      minPollInterval_ = 50;
+    protected long      maxPollInterval_ = 2000;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(kvTable_, "kvTable");
+      
+      if(minPollInterval_ < 1)
+        faultAccumulator.error("minPollInterval must be positive");
+      
+      if(maxPollInterval_ < minPollInterval_)
+        faultAccumulator.error("maxPollInterval must not be less than minPollInterval");
+    }
+
+    /**
+     * Set the table to be followed.
+     * 
+     * @param kvTable The table to be followed.
+     * 
+     * @return This (fluent method).
+     */
+    public T withKvTable(IKvTable kvTable)
+    {
+      kvTable_ = kvTable;
+      
+      return self();
+    }
+
+    /**
+     * Set the interval between polls of an idle partition.
+     * 
+     * The interval starts at the minimum and grows by 20% after each poll which finds nothing,
+     * up to the maximum.
+     * 
+     * @param minPollInterval The minimum poll interval in milliseconds.
+     * @param maxPollInterval The maximum poll interval in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withPollInterval(long minPollInterval, long maxPollInterval)
+    {
+      minPollInterval_ = minPollInterval;
+      maxPollInterval_ = maxPollInterval;
+      
+      return self();
+    }
+  }
+}
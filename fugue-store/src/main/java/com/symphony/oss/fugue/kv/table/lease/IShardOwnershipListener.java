@@ -0,0 +1,55 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.lease;
+
+/**
+ * A listener for changes in the ownership of shards by a PartitionLeaseManager.
+ * 
+ * Callbacks are made from the heartbeat thread of the lease manager and should return promptly. They are
+ * made without holding the lock used by isOwner and getOwnedShards, so listeners may call those methods.
+ * 
+ * @author Bruce Skingle
+ */
+public interface IShardOwnershipListener
+{
+  /**
+   * This instance has become the owner of the given shard.
+   * 
+   * The fencing token increases every time ownership of a shard changes, so it can be passed to
+   * downstream systems to reject work from a previous owner which has not yet noticed that it
+   * has lost its lease.
+   * 
+   * @param shard         The shard.
+   * @param fencingToken  The fencing token for this period of ownership.
+   */
+  void onOwnershipAcquired(String shard, long fencingToken);
+  
+  /**
+   * This instance is no longer the owner of the given shard.
+   * 
+   * @param shard         The shard.
+   * @param fencingToken  The fencing token for the period of ownership which has ended.
+   */
+  void onOwnershipLost(String shard, long fencingToken);
+}
@@ -0,0 +1,608 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.lease;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.IFugueComponent;
+import com.symphony.oss.fugue.kv.KvPartitionSortKeyProvider;
+import com.symphony.oss.fugue.kv.table.IKvTable;
+import com.symphony.oss.fugue.kv.table.KvCompareAndSet;
+import com.symphony.oss.fugue.trace.ITraceContext;
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+/**
+ * Shares ownership of a fixed set of shards between the instances of a service, so that each shard
+ * is processed by exactly one instance.
+ * 
+ * Instances register themselves in a membership record and claim leases on shards, both held in an
+ * IKvTable and updated with conditional writes. On each heartbeat an instance renews the leases it holds,
+ * releases any shards above its fair share and claims unowned or expired shards up to its fair share, so
+ * that shards are spread evenly as instances join and leave. Each change of ownership of a shard increments
+ * its fencing token.
+ * 
+ * An instance considers that it owns a shard until one lease duration after the start of the heartbeat
+ * which last renewed it, so if heartbeats stop the instance stops processing no later than any other
+ * instance can claim the shard, subject to clock skew between instances.
+ * 
+ * Heartbeats are serialized by a lock of their own, the table I/O and listener callbacks are made without
+ * holding any lock used by isOwner or getOwnedShards, which read an immutable snapshot of the owned leases.
+ * Listeners may therefore call those methods.
+ * 
+ * @author Bruce Skingle
+ */
+public class PartitionLeaseManager implements IFugueComponent
+{
+  private static final Logger             log_          = LoggerFactory.getLogger(PartitionLeaseManager.class);
+
+  private static final String             TYPE          = "PartitionLease";
+  private static final String             MEMBERS       = "members";
+  private static final String             OWNER         = "owner";
+  private static final String             EXPIRES       = "expires";
+  private static final String             FENCE         = "fence";
+  private static final String             LEASE_PREFIX  = "lease#";
+  private static final int                MAX_ATTEMPTS  = 10;
+
+  private final KvCompareAndSet           cas_;
+  private final String                    name_;
+  private final String                    instanceId_;
+  private final List<String>              shards_;
+  private final long                      leaseDuration_;
+  private final long                      heartbeatInterval_;
+  private final IShardOwnershipListener   listener_;
+  private final KvPartitionSortKeyProvider membersKey_;
+  private final ITraceContext             trace_        = NoOpTraceContext.INSTANCE;
+
+  private final Object                    heartbeatLock_ = new Object();
+  private final Map<String, OwnedLease>   ownedMap_     = new HashMap<>();
+  private volatile Map<String, OwnedLease> owned_       = Collections.emptyMap();
+  private ScheduledExecutorService        scheduler_;
+
+  protected PartitionLeaseManager(AbstractBuilder<?,?> builder)
+  {
+    cas_                = new KvCompareAndSet(builder.kvTable_, TYPE);
+    name_               = builder.name_;
+    instanceId_         = builder.instanceId_ == null ? UUID.randomUUID().toString() : builder.instanceId_;
+    shards_             = new ArrayList<>(new TreeSet<>(builder.shards_));
+    leaseDuration_      = builder.leaseDuration_;
+    heartbeatInterval_  = builder.heartbeatInterval_;
+    listener_           = builder.listener_;
+    membersKey_         = new KvPartitionSortKeyProvider(name_, MEMBERS);
+  }
+
+  @Override
+  public synchronized void start()
+  {
+    if(scheduler_ == null && heartbeatInterval_ > 0)
+    {
+      scheduler_ = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("PartitionLeaseManager-" + name_, true));
+      scheduler_.scheduleWithFixedDelay(() ->
+      {
+        try
+        {
+          heartbeat();
+        }
+        catch(RuntimeException e)
+        {
+          log_.error("Lease heartbeat failed for " + name_, e);
+        }
+      }, 0, heartbeatInterval_, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void stop()
+  {
+    synchronized(this)
+    {
+      if(scheduler_ != null)
+      {
+        scheduler_.shutdownNow();
+        scheduler_ = null;
+      }
+    }
+    
+    leave();
+  }
+  
+  /**
+   * 
+   * @return The id of this instance.
+   */
+  public String getInstanceId()
+  {
+    return instanceId_;
+  }
+  
+  /**
+   * 
+   * @param shard A shard.
+   * 
+   * @return true if this instance currently owns the given shard.
+   */
+  public boolean isOwner(String shard)
+  {
+    OwnedLease lease = owned_.get(shard);
+    
+    return lease != null && System.currentTimeMillis() < lease.localExpires_;
+  }
+  
+  /**
+   * 
+   * @return A map of the shards currently owned by this instance to their fencing tokens.
+   */
+  public Map<String, Long> getOwnedShards()
+  {
+    long              now = System.currentTimeMillis();
+    Map<String, Long> result = new HashMap<>();
+    
+    for(Entry<String, OwnedLease> entry : owned_.entrySet())
+    {
+      if(now < entry.getValue().localExpires_)
+        result.put(entry.getKey(), entry.getValue().fence_);
+    }
+    
+    return result;
+  }
+
+  /**
+   * Renew the membership of this instance and its leases, and rebalance shards.
+   * 
+   * This is called periodically once the manager is started, it is public so that the
+   * manager can also be driven by an external scheduler.
+   */
+  public void heartbeat()
+  {
+    synchronized(heartbeatLock_)
+    {
+      doHeartbeat();
+    }
+  }
+  
+  private void doHeartbeat()
+  {
+    long now = System.currentTimeMillis();
+    
+    for(Entry<String, OwnedLease> entry : new ArrayList<>(ownedMap_.entrySet()))
+    {
+      if(now >= entry.getValue().localExpires_)
+      {
+        log_.warn("Lease on shard " + entry.getKey() + " expired before it was renewed");
+        removeOwned(entry.getKey());
+        notifyLost(entry.getKey(), entry.getValue().fence_);
+      }
+    }
+    
+    List<String>  members = updateMembership(now, true);
+    int           index   = Math.max(0, members.indexOf(instanceId_));
+    int           quota   = shards_.size() / members.size() + (index < shards_.size() % members.size() ? 1 : 0);
+    List<String>  order   = new ArrayList<>(shards_);
+    
+    // Each instance prefers a different range of shards, which reduces contention when claiming.
+    Collections.rotate(order, -(index * shards_.size() / members.size()));
+    
+    int owned = 0;
+    
+    for(String shard : order)
+    {
+      OwnedLease lease = ownedMap_.get(shard);
+      
+      if(lease != null)
+      {
+        if(owned < quota)
+        {
+          if(renew(shard, lease, now))
+            owned++;
+        }
+        else
+        {
+          release(shard, lease);
+        }
+      }
+    }
+    
+    for(String shard : order)
+    {
+      if(owned >= quota)
+        break;
+      
+      if(!ownedMap_.containsKey(shard) && claim(shard, now))
+        owned++;
+    }
+  }
+  
+  private void leave()
+  {
+    synchronized(heartbeatLock_)
+    {
+      for(Entry<String, OwnedLease> entry : new ArrayList<>(ownedMap_.entrySet()))
+        release(entry.getKey(), entry.getValue());
+      
+      updateMembership(System.currentTimeMillis(), false);
+    }
+  }
+
+  private List<String> updateMembership(long now, boolean join)
+  {
+    List<String> members = new ArrayList<>();
+    
+    for(int attempt = 0 ; attempt < MAX_ATTEMPTS ; attempt++)
+    {
+      ObjectNode existing  = cas_.fetch(membersKey_, trace_);
+      ObjectNode value     = cas_.newRecord();
+      ObjectNode memberMap = value.putObject(MEMBERS);
+      
+      if(existing != null && existing.get(MEMBERS) != null)
+      {
+        Iterator<Entry<String, JsonNode>> it = existing.get(MEMBERS).fields();
+        
+        while(it.hasNext())
+        {
+          Entry<String, JsonNode> entry = it.next();
+          
+          if(entry.getValue().asLong() > now)
+            memberMap.put(entry.getKey(), entry.getValue().asLong());
+        }
+      }
+      
+      if(join)
+        memberMap.put(instanceId_, now + leaseDuration_);
+      else
+        memberMap.remove(instanceId_);
+      
+      members.clear();
+      memberMap.fieldNames().forEachRemaining(members::add);
+      Collections.sort(members);
+      
+      if(cas_.compareAndSet(membersKey_, existing, value, null, trace_))
+        return members;
+    }
+    
+    log_.warn("Failed to update membership of " + name_ + " after " + MAX_ATTEMPTS + " attempts");
+    
+    if(join && members.isEmpty())
+      members.add(instanceId_);
+    
+    return members;
+  }
+
+  private boolean renew(String shard, OwnedLease lease, long now)
+  {
+    KvPartitionSortKeyProvider  key       = leaseKey(shard);
+    ObjectNode                  existing  = cas_.fetch(key, trace_);
+    
+    if(existing != null && instanceId_.equals(existing.path(OWNER).asText()) && existing.path(FENCE).asLong() == lease.fence_)
+    {
+      if(cas_.compareAndSet(key, existing, leaseRecord(instanceId_, now + leaseDuration_, lease.fence_), null, trace_))
+      {
+        putOwned(shard, new OwnedLease(lease.fence_, now + leaseDuration_));
+        return true;
+      }
+    }
+    
+    log_.warn("Lost lease on shard " + shard);
+    removeOwned(shard);
+    notifyLost(shard, lease.fence_);
+    
+    return false;
+  }
+
+  private boolean claim(String shard, long now)
+  {
+    KvPartitionSortKeyProvider  key       = leaseKey(shard);
+    ObjectNode                  existing  = cas_.fetch(key, trace_);
+    long                        fence     = 1;
+    
+    if(existing != null)
+    {
+      if(!existing.path(OWNER).asText().isEmpty() && existing.path(EXPIRES).asLong() > now)
+        return false;
+      
+      fence = existing.path(FENCE).asLong() + 1;
+    }
+    
+    if(cas_.compareAndSet(key, existing, leaseRecord(instanceId_, now + leaseDuration_, fence), null, trace_))
+    {
+      log_.info("Acquired lease on shard " + shard + " with fencing token " + fence);
+      putOwned(shard, new OwnedLease(fence, now + leaseDuration_));
+      notifyAcquired(shard, fence);
+      
+      return true;
+    }
+    
+    return false;
+  }
+
+  private void release(String shard, OwnedLease lease)
+  {
+    log_.info("Releasing lease on shard " + shard);
+    removeOwned(shard);
+    
+    // Stop processing before the lease becomes available to other instances.
+    notifyLost(shard, lease.fence_);
+    
+    KvPartitionSortKeyProvider  key       = leaseKey(shard);
+    ObjectNode                  existing  = cas_.fetch(key, trace_);
+    
+    if(existing != null && instanceId_.equals(existing.path(OWNER).asText()) && existing.path(FENCE).asLong() == lease.fence_)
+    {
+      if(!cas_.compareAndSet(key, existing, leaseRecord("", 0, lease.fence_), null, trace_))
+        log_.warn("Failed to release lease on shard " + shard + ", it will expire.");
+    }
+  }
+
+  /*
+   * Must be called while holding heartbeatLock_, publishes the change before it returns.
+   */
+  private void putOwned(String shard, OwnedLease lease)
+  {
+    ownedMap_.put(shard, lease);
+    owned_ = Collections.unmodifiableMap(new HashMap<>(ownedMap_));
+  }
+  
+  /*
+   * Must be called while holding heartbeatLock_, publishes the change before it returns.
+   */
+  private void removeOwned(String shard)
+  {
+    ownedMap_.remove(shard);
+    owned_ = Collections.unmodifiableMap(new HashMap<>(ownedMap_));
+  }
+
+  private ObjectNode leaseRecord(String owner, long expires, long fence)
+  {
+    return cas_.newRecord()
+        .put(OWNER,   owner)
+        .put(EXPIRES, expires)
+        .put(FENCE,   fence);
+  }
+
+  private KvPartitionSortKeyProvider leaseKey(String shard)
+  {
+    return new KvPartitionSortKeyProvider(name_, LEASE_PREFIX + shard);
+  }
+  
+  private void notifyAcquired(String shard, long fence)
+  {
+    if(listener_ != null)
+    {
+      try
+      {
+        listener_.onOwnershipAcquired(shard, fence);
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Ownership listener failed for shard " + shard, e);
+      }
+    }
+  }
+  
+  private void notifyLost(String shard, long fence)
+  {
+    if(listener_ != null)
+    {
+      try
+      {
+        listener_.onOwnershipLost(shard, fence);
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Ownership listener failed for shard " + shard, e);
+      }
+    }
+  }
+
+  private static class OwnedLease
+  {
+    private final long fence_;
+    private final long localExpires_;
+
+    OwnedLease(long fence, long localExpires)
+    {
+      fence_        = fence;
+      localExpires_ = localExpires;
+    }
+  }
+
+  /**
+   * Builder.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, PartitionLeaseManager>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected PartitionLeaseManager construct()
+    {
+      return new PartitionLeaseManager(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends PartitionLeaseManager> extends BaseAbstractBuilder<T,B>
+  {
+    protected IKvTable                kvTable_;
+    protected String                  name_;
+    protected String                  instanceId_;
+    protected Collection<String>      shards_             = new ArrayList<>();
+    protected long                    leaseDuration_      = 30000;
+    protected long                    heartbeatInterval_  = 10000;
+    protected IShardOwnershipListener listener_;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(kvTable_, "kvTable");
+      faultAccumulator.checkNotNull(name_, "name");
+      
+      if(shards_.isEmpty())
+        faultAccumulator.error("At least one shard is required");
+      
+      if(leaseDuration_ < 1)
+        faultAccumulator.error("leaseDuration must be positive");
+      
+      if(heartbeatInterval_ < 0 || heartbeatInterval_ >= leaseDuration_)
+        faultAccumulator.error("heartbeatInterval must be less than leaseDuration");
+    }
+
+    /**
+     * Set the table in which membership and leases are held.
+     * 
+     * @param kvTable The table in which membership and leases are held.
+     * 
+     * @return This (fluent method).
+     */
+    public T withKvTable(IKvTable kvTable)
+    {
+      kvTable_ = kvTable;
+      
+      return self();
+    }
+
+    /**
+     * Set the name of the group of instances sharing the shards, which is the partition key for its records.
+     * 
+     * @param name The name of the group.
+     * 
+     * @return This (fluent method).
+     */
+    public T withName(String name)
+    {
+      name_ = name;
+      
+      return self();
+    }
+
+    /**
+     * Set the id of this instance, by default a random UUID is used.
+     * 
+     * @param instanceId The id of this instance, which must be unique within the group.
+     * 
+     * @return This (fluent method).
+     */
+    public T withInstanceId(String instanceId)
+    {
+      instanceId_ = instanceId;
+      
+      return self();
+    }
+
+    /**
+     * Add the given shards.
+     * 
+     * All instances in the group must be configured with the same shards.
+     * 
+     * @param shards Shard ids.
+     * 
+     * @return This (fluent method).
+     */
+    public T withShards(Collection<String> shards)
+    {
+      shards_.addAll(shards);
+      
+      return self();
+    }
+
+    /**
+     * Add the given shard.
+     * 
+     * @param shard A shard id.
+     * 
+     * @return This (fluent method).
+     */
+    public T withShard(String shard)
+    {
+      shards_.add(shard);
+      
+      return self();
+    }
+
+    /**
+     * Set the lease timing.
+     * 
+     * @param leaseDuration     The time in milliseconds for which a lease is valid after it is renewed.
+     * @param heartbeatInterval The interval in milliseconds between heartbeats, zero means that heartbeat()
+     *                          is called externally.
+     * 
+     * @return This (fluent method).
+     */
+    public T withLeaseDuration(long leaseDuration, long heartbeatInterval)
+    {
+      leaseDuration_      = leaseDuration;
+      heartbeatInterval_  = heartbeatInterval;
+      
+      return self();
+    }
+
+    /**
+     * Set the listener for ownership changes.
+     * 
+     * @param listener The listener for ownership changes.
+     * 
+     * @return This (fluent method).
+     */
+    public T withListener(@Nullable IShardOwnershipListener listener)
+    {
+      listener_ = listener;
+      
+      return self();
+    }
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.limiter;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.kv.KvPartitionSortKeyProvider;
+import com.symphony.oss.fugue.kv.table.IKvTable;
+import com.symphony.oss.fugue.kv.table.KvCompareAndSet;
+import com.symphony.oss.fugue.trace.ITraceContext;
+
+/**
+ * A token bucket rate limiter shared by all instances of a service.
+ * 
+ * The state of each bucket is held in an IKvTable and updated with conditional writes. Each instance takes
+ * a lease of several tokens at a time and serves requests from its lease locally, so that most calls to
+ * tryAcquire make no remote call. Leased tokens which are not used within the lease duration are discarded.
+ * 
+ * A lease never takes more than maxLeaseShare percent of the tokens available in the bucket, unless that is
+ * less than the number of permits requested, so that one busy instance cannot starve the others.
+ * 
+ * @author Bruce Skingle
+ */
+public class DistributedRateLimiter
+{
+  private static final String             TYPE          = "RateLimitBucket";
+  private static final String             TOKENS        = "tokens";
+  private static final String             UPDATED       = "updated";
+
+  private final KvCompareAndSet           cas_;
+  private final String                    name_;
+  private final double                    rate_;
+  private final long                      burst_;
+  private final long                      leaseSize_;
+  private final long                      leaseDuration_;
+  private final int                       maxLeaseShare_;
+  private final int                       maxAttempts_;
+
+  private final Map<String, LocalLease>   leaseMap_     = new ConcurrentHashMap<>();
+  private final AtomicLong                remoteCount_  = new AtomicLong();
+  private final AtomicLong                conflictCount_ = new AtomicLong();
+
+  protected DistributedRateLimiter(AbstractBuilder<?,?> builder)
+  {
+    cas_            = new KvCompareAndSet(builder.kvTable_, TYPE);
+    name_           = builder.name_;
+    rate_           = builder.rate_;
+    burst_          = builder.burst_;
+    leaseSize_      = builder.leaseSize_;
+    leaseDuration_  = builder.leaseDuration_;
+    maxLeaseShare_  = builder.maxLeaseShare_;
+    maxAttempts_    = builder.maxAttempts_;
+  }
+
+  /**
+   * Try to acquire a single permit for the given key.
+   * 
+   * @param key   The key to be limited, for example a tenant or downstream service id.
+   * @param trace Trace context.
+   * 
+   * @return true if the permit was granted.
+   */
+  public boolean tryAcquire(String key, ITraceContext trace)
+  {
+    return tryAcquire(key, 1, trace);
+  }
+
+  /**
+   * Try to acquire the given number of permits for the given key, without waiting.
+   * 
+   * @param key     The key to be limited, for example a tenant or downstream service id.
+   * @param permits The number of permits required.
+   * @param trace   Trace context.
+   * 
+   * @return true if the permits were granted.
+   */
+  public boolean tryAcquire(String key, int permits, ITraceContext trace)
+  {
+    if(permits < 1)
+      throw new IllegalArgumentException("permits must be positive");
+    
+    if(permits > burst_)
+      return false;
+    
+    LocalLease lease = leaseMap_.computeIfAbsent(key, (k) -> new LocalLease());
+    
+    synchronized(lease)
+    {
+      long now = System.currentTimeMillis();
+      
+      if(now >= lease.expires_)
+        lease.tokens_ = 0;
+      
+      if(lease.tokens_ < permits && !renew(key, lease, permits - lease.tokens_, now, trace))
+        return false;
+      
+      lease.tokens_ -= permits;
+      
+      return true;
+    }
+  }
+
+  /**
+   * Try to acquire the given number of permits for the given key, waiting up to the given time for them.
+   * 
+   * @param key     The key to be limited, for example a tenant or downstream service id.
+   * @param permits The number of permits required.
+   * @param timeout The maximum time to wait in milliseconds.
+   * @param trace   Trace context.
+   * 
+   * @return true if the permits were granted.
+   * 
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public boolean tryAcquire(String key, int permits, long timeout, ITraceContext trace) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + timeout;
+    long delay    = Math.max(1, (long)(1000 * permits / rate_) / 4);
+    
+    while(!tryAcquire(key, permits, trace))
+    {
+      long remaining = deadline - System.currentTimeMillis();
+      
+      if(remaining <= 0)
+        return false;
+      
+      Thread.sleep(Math.min(delay, remaining));
+      
+      if(delay < 1000)
+        delay *= 1.2;
+    }
+    
+    return true;
+  }
+  
+  private boolean renew(String key, LocalLease lease, long required, long now, ITraceContext trace)
+  {
+    KvPartitionSortKeyProvider  kvKey = new KvPartitionSortKeyProvider(name_, key);
+    
+    for(int attempt = 0 ; attempt < maxAttempts_ ; attempt++)
+    {
+      remoteCount_.incrementAndGet();
+      
+      ObjectNode  existing  = cas_.fetch(kvKey, trace);
+      double      tokens    = burst_;
+      
+      if(existing != null)
+      {
+        long elapsed = Math.max(0, now - existing.get(UPDATED).asLong());
+        
+        tokens = Math.min(burst_, existing.get(TOKENS).asDouble() + elapsed * rate_ / 1000);
+      }
+      
+      if(tokens < required)
+      {
+        trace.trace("RATE-LIMITED");
+        return false;
+      }
+      
+      long grant = Math.max(required, Math.min(Math.max(leaseSize_, required), (long)(tokens * maxLeaseShare_ / 100)));
+      
+      ObjectNode value = cas_.newRecord();
+      
+      value.put(TOKENS,  tokens - grant);
+      value.put(UPDATED, now);
+      
+      // The bucket is full again after burst / rate seconds, after which the record is redundant and can be purged.
+      Instant purgeDate = Instant.ofEpochMilli(now + (long)(1000 * burst_ / rate_)).plusSeconds(86400);
+      
+      if(cas_.compareAndSet(kvKey, existing, value, purgeDate, trace))
+      {
+        lease.tokens_ += grant;
+        lease.expires_ = now + leaseDuration_;
+        
+        return true;
+      }
+      
+      conflictCount_.incrementAndGet();
+      trace.trace("RATE-LIMIT-CONFLICT");
+      now = System.currentTimeMillis();
+    }
+    
+    return false;
+  }
+
+  /**
+   * 
+   * @return The number of remote calls made to renew leases.
+   */
+  public long getRemoteCount()
+  {
+    return remoteCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of lease renewals which failed due to a concurrent update from another instance.
+   */
+  public long getConflictCount()
+  {
+    return conflictCount_.get();
+  }
+
+  private static class LocalLease
+  {
+    private long tokens_;
+    private long expires_;
+  }
+
+  /**
+   * Builder.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, DistributedRateLimiter>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected DistributedRateLimiter construct()
+    {
+      return new DistributedRateLimiter(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends DistributedRateLimiter> extends BaseAbstractBuilder<T,B>
+  {
+    protected IKvTable  kvTable_;
+    protected String    name_;
+    protected double    rate_;
+    protected long      burst_;
+    protected long      leaseSize_      = 10;
+    protected long      leaseDuration_  = 1000;
+    protected int       maxLeaseShare_  = 25;
+    protected int       maxAttempts_    = 5;
+
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(kvTable_, "kvTable");
+      faultAccumulator.checkNotNull(name_, "name");
+      
+      if(rate_ <= 0)
+        faultAccumulator.error("rate must be positive");
+      
+      if(burst_ < 1)
+        faultAccumulator.error("burst must be positive");
+      
+      if(leaseSize_ < 1)
+        faultAccumulator.error("leaseSize must be positive");
+      
+      if(leaseDuration_ < 1)
+        faultAccumulator.error("leaseDuration must be positive");
+      
+      if(maxLeaseShare_ < 1 || maxLeaseShare_ > 100)
+        faultAccumulator.error("maxLeaseShare must be between 1 and 100");
+      
+      if(maxAttempts_ < 1)
+        faultAccumulator.error("maxAttempts must be positive");
+    }
+
+    /**
+     * Set the table in which bucket state is held.
+     * 
+     * @param kvTable The table in which bucket state is held.
+     * 
+     * @return This (fluent method).
+     */
+    public T withKvTable(IKvTable kvTable)
+    {
+      kvTable_ = kvTable;
+      
+      return self();
+    }
+
+    /**
+     * Set the name of the limiter, which is the partition key for its buckets.
+     * 
+     * All instances which share a limit must use the same name and limits.
+     * 
+     * @param name The name of the limiter.
+     * 
+     * @return This (fluent method).
+     */
+    public T withName(String name)
+    {
+      name_ = name;
+      
+      return self();
+    }
+
+    /**
+     * Set the limit.
+     * 
+     * @param rate  The rate at which permits are granted, per second, for each key.
+     * @param burst The maximum number of permits which may be granted at once, for each key.
+     * 
+     * @return This (fluent method).
+     */
+    public T withLimit(double rate, long burst)
+    {
+      rate_   = rate;
+      burst_  = burst;
+      
+      return self();
+    }
+
+    /**
+     * Set the local lease parameters.
+     * 
+     * Larger leases make fewer remote calls but allow the instances to be less fair to each other.
+     * 
+     * @param leaseSize     The number of tokens taken with each lease.
+     * @param leaseDuration The time in milliseconds after which unused leased tokens are discarded.
+     * @param maxLeaseShare The maximum percentage of the available tokens taken by one lease.
+     * 
+     * @return This (fluent method).
+     */
+    public T withLease(long leaseSize, long leaseDuration, int maxLeaseShare)
+    {
+      leaseSize_      = leaseSize;
+      leaseDuration_  = leaseDuration;
+      maxLeaseShare_  = maxLeaseShare;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of attempts to update a bucket if other instances update it concurrently.
+     * 
+     * @param maxAttempts The maximum number of attempts.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxAttempts(int maxAttempts)
+    {
+      maxAttempts_ = maxAttempts;
+      
+      return self();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.spool;
+
+import java.util.Collection;
+
+import com.symphony.oss.fugue.kv.IKvItem;
+import com.symphony.oss.fugue.trace.ITraceContext;
+
+/**
+ * The destination to which a KvWriteSpool replays spooled writes.
+ * 
+ * @author Bruce Skingle
+ */
+public interface IKvWriteSpoolSink
+{
+  /**
+   * Write the given items to the underlying table, bypassing the spool.
+   * 
+   * A normal return indicates that the items have been durably stored and can be removed from the spool.
+   * An exception for which {@link #isRetryable(RuntimeException)} returns true causes the same record to be
+   * retried after a backoff, any other exception causes the record to be quarantined.
+   * 
+   * @param kvItems       The items to be written.
+   * @param transactional True if the items were originally stored as a single transaction.
+   * @param trace         A trace context.
+   */
+  void replay(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace);
+  
+  /**
+   * Determine if the given replay failure is transient.
+   * 
+   * A record which fails with a non-retryable error (for example because the item is too large for the table)
+   * will never succeed, so it is moved to the quarantine file rather than blocking the replay of all later records.
+   * 
+   * @param failure An exception thrown by {@link #replay(Collection, boolean, ITraceContext)}.
+   * 
+   * @return true if the record should be retried.
+   */
+  default boolean isRetryable(RuntimeException failure)
+  {
+    return true;
+  }
+}
@@ -0,0 +1,1079 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.spool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.symphony.oss.commons.concurrent.NamedThreadFactory;
+import com.symphony.oss.commons.fault.FaultAccumulator;
+import com.symphony.oss.commons.fluent.BaseAbstractBuilder;
+import com.symphony.oss.fugue.kv.IKvItem;
+import com.symphony.oss.fugue.kv.IKvPartitionSortKeyProvider;
+import com.symphony.oss.fugue.trace.NoOpTraceContext;
+
+/**
+ * A local, durable, write ahead spool for a KvTable.
+ * 
+ * When the remote table rejects writes (typically due to throttling or a brief outage) the table can
+ * append them to the spool instead of failing. The spool is an append only log split into segment files
+ * in a local directory. Once started, a background thread replays records in the order in which they were
+ * appended, at a limited rate, deleting each segment once all of its records have been written to the table.
+ * 
+ * While an item is in the spool, the most recently spooled version can be read back with {@link #fetch(IKvPartitionSortKeyProvider)}
+ * so that callers see their own writes. Only point reads are supported, the spool cannot be queried by partition.
+ * 
+ * A record which the sink rejects with a non-retryable error is appended to a quarantine file in the spool
+ * directory (in the same record format as the segments) and skipped, so that one bad write cannot block
+ * the replay of everything behind it. Quarantined records are never replayed automatically. The quarantine
+ * file has its own size limit, when it is reached the file is rotated to a single backup (replacing any previous
+ * backup) so the quarantine never uses more than twice that limit on disk.
+ * 
+ * Replay is at least once: after a restart the unreplayed segments are replayed from the start, so only
+ * idempotent (unconditional) writes should be spooled. Deletes are not spooled, so a row deleted while
+ * a write to it is still spooled will be re-created when the spool is replayed.
+ * 
+ * The total size of the spool is bounded, the behaviour when it is full is given by the {@link SpoolOverflowPolicy}.
+ * 
+ * @author Bruce Skingle
+ */
+public class KvWriteSpool
+{
+  private static final Logger log_                = LoggerFactory.getLogger(KvWriteSpool.class);
+
+  private static final String SEGMENT_PREFIX      = "spool-";
+  private static final String SEGMENT_SUFFIX      = ".log";
+  private static final String QUARANTINE_FILE     = "quarantine.log";
+  private static final String QUARANTINE_BACKUP   = "quarantine.log.1";
+  private static final int    RECORD_HEADER_SIZE  = 4 + 8;
+  private static final long   MAX_REPLAY_DELAY    = 10000;
+
+  private final File                      directory_;
+  private final long                      segmentSize_;
+  private final long                      maxSize_;
+  private final long                      maxQuarantineSize_;
+  private final SpoolFsyncPolicy          fsyncPolicy_;
+  private final long                      fsyncInterval_;
+  private final SpoolOverflowPolicy       overflowPolicy_;
+  private final long                      overflowTimeout_;
+  private final long                      replayIntervalNanos_;
+
+  private final Object                    lock_          = new Object();
+  private final TreeMap<Long, File>       segments_      = new TreeMap<>();
+  private final Map<String, SpoolPosition> index_        = new HashMap<>();
+  private long                            totalSize_;
+  private long                            nextSegment_;
+  private long                            currentSegment_ = -1;
+  private FileChannel                     currentChannel_;
+  private long                            currentSize_;
+  private boolean                         dirty_;
+  private long                            recordCount_;
+  private long                            quarantinedCount_;
+
+  private IKvWriteSpoolSink               sink_;
+  private Thread                          replayThread_;
+  private boolean                         running_;
+  private long                            replaySegment_ = -1;
+  private long                            replayOffset_;
+  private RandomAccessFile                replayFile_;
+
+  protected KvWriteSpool(AbstractBuilder<?,?> builder)
+  {
+    directory_            = builder.directory_;
+    segmentSize_          = builder.segmentSize_;
+    maxSize_              = builder.maxSize_;
+    maxQuarantineSize_    = builder.maxQuarantineSize_;
+    fsyncPolicy_          = builder.fsyncPolicy_;
+    fsyncInterval_        = builder.fsyncInterval_;
+    overflowPolicy_       = builder.overflowPolicy_;
+    overflowTimeout_      = builder.overflowTimeout_;
+    replayIntervalNanos_  = (long)(TimeUnit.SECONDS.toNanos(1) / builder.replayRate_);
+    
+    if(!directory_.isDirectory() && !directory_.mkdirs())
+      throw new IllegalStateException("Unable to create spool directory " + directory_.getAbsolutePath());
+    
+    recover();
+  }
+  
+  private void recover()
+  {
+    File[] files = directory_.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    
+    if(files != null)
+    {
+      for(File file : files)
+      {
+        String name = file.getName();
+        
+        try
+        {
+          segments_.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+        }
+        catch(NumberFormatException e)
+        {
+          log_.warn("Ignoring unrecognized file " + file.getAbsolutePath() + " in spool directory");
+        }
+      }
+    }
+    
+    for(Entry<Long, File> entry : segments_.entrySet())
+    {
+      try(RandomAccessFile in = new RandomAccessFile(entry.getValue(), "rw"))
+      {
+        long offset = 0;
+        SpoolRecord record;
+        
+        while((record = readRecord(in, entry.getKey(), offset, in.length())) != null)
+        {
+          index(record);
+          recordCount_++;
+          offset += record.length_;
+        }
+        
+        if(offset < in.length())
+        {
+          // A torn write from a crash, nothing after this point was acknowledged to the caller.
+          log_.warn("Truncating spool segment " + entry.getValue().getAbsolutePath() + " from " + in.length() + " to " + offset + " bytes.");
+          in.setLength(offset);
+        }
+        
+        totalSize_ += offset;
+      }
+      catch(IOException e)
+      {
+        throw new IllegalStateException("Unable to recover spool segment " + entry.getValue().getAbsolutePath(), e);
+      }
+      
+      nextSegment_ = entry.getKey() + 1;
+    }
+    
+    if(recordCount_ > 0)
+      log_.info("Recovered " + recordCount_ + " spooled records (" + totalSize_ + " bytes) from " + directory_.getAbsolutePath());
+  }
+
+  /**
+   * Start replaying spooled writes to the given sink.
+   * 
+   * @param sink The destination for spooled writes.
+   */
+  public void start(IKvWriteSpoolSink sink)
+  {
+    synchronized(lock_)
+    {
+      if(running_)
+        throw new IllegalStateException("Spool is already running");
+      
+      sink_     = sink;
+      running_  = true;
+      
+      replayThread_ = new NamedThreadFactory("KvWriteSpool-replay", true).newThread(() -> replay());
+      replayThread_.start();
+    }
+  }
+  
+  /**
+   * Stop the replay thread and close the current segment.
+   * 
+   * Any unreplayed records remain on disk and will be replayed when the spool is next started.
+   */
+  public void stop()
+  {
+    Thread replayThread;
+    
+    synchronized(lock_)
+    {
+      running_ = false;
+      replayThread = replayThread_;
+      lock_.notifyAll();
+    }
+    
+    if(replayThread != null)
+    {
+      try
+      {
+        replayThread.join(MAX_REPLAY_DELAY);
+      }
+      catch (InterruptedException e)
+      {
+        log_.warn("Interrupted waiting for replay thread to stop", e);
+      }
+    }
+    
+    synchronized(lock_)
+    {
+      closeCurrentSegment();
+    }
+  }
+  
+  /**
+   * 
+   * @return true if there are no records waiting to be replayed.
+   */
+  public boolean isEmpty()
+  {
+    synchronized(lock_)
+    {
+      return recordCount_ == 0;
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of records waiting to be replayed.
+   */
+  public long getRecordCount()
+  {
+    synchronized(lock_)
+    {
+      return recordCount_;
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of records which have been quarantined since the spool was created.
+   */
+  public long getQuarantinedCount()
+  {
+    synchronized(lock_)
+    {
+      return quarantinedCount_;
+    }
+  }
+  
+  /**
+   * 
+   * @return The file to which records which failed with a non-retryable error are appended.
+   */
+  public File getQuarantineFile()
+  {
+    return new File(directory_, QUARANTINE_FILE);
+  }
+  
+  /**
+   * 
+   * @return The file to which the quarantine file is rotated when it reaches its size limit.
+   */
+  public File getQuarantineBackupFile()
+  {
+    return new File(directory_, QUARANTINE_BACKUP);
+  }
+  
+  /**
+   * 
+   * @return The number of bytes currently used on disk.
+   */
+  public long getSize()
+  {
+    synchronized(lock_)
+    {
+      return totalSize_;
+    }
+  }
+
+  /**
+   * Append the given items to the spool as a single record.
+   * 
+   * @param kvItems       The items to be written.
+   * @param transactional True if the items must be written to the table as a single transaction.
+   * @param cause         The failure which caused the items to be spooled, if any.
+   * 
+   * @throws SpoolOverflowException If the spool is full.
+   */
+  public void append(Collection<IKvItem> kvItems, boolean transactional, @Nullable Throwable cause)
+  {
+    List<SpooledKvItem> items   = new ArrayList<>(kvItems.size());
+    byte[]              payload;
+    
+    try
+    {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream      out = new DataOutputStream(bos);
+      
+      out.writeBoolean(transactional);
+      out.writeInt(kvItems.size());
+      
+      for(IKvItem kvItem : kvItems)
+      {
+        SpooledKvItem item = new SpooledKvItem(kvItem);
+        
+        item.write(out);
+        items.add(item);
+      }
+      
+      out.flush();
+      payload = bos.toByteArray();
+    }
+    catch(IOException e)
+    {
+      // "Can't happen" writing to a byte array
+      throw new IllegalStateException("Failed to serialize spool record", e);
+    }
+    
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+    
+    buffer.putInt(payload.length);
+    buffer.putLong(crc.getValue());
+    buffer.put(payload);
+    buffer.flip();
+    
+    long recordLength = buffer.remaining();
+    
+    if(recordLength > maxSize_)
+      throw new SpoolOverflowException("Record of " + recordLength + " bytes is larger than the maximum spool size", cause);
+    
+    synchronized(lock_)
+    {
+      waitForSpace(recordLength, cause);
+      
+      try
+      {
+        if(currentChannel_ == null || (currentSize_ > 0 && currentSize_ + recordLength > segmentSize_))
+          openSegment();
+        
+        long offset = currentSize_;
+        
+        while(buffer.hasRemaining())
+          currentChannel_.write(buffer);
+        
+        if(fsyncPolicy_ == SpoolFsyncPolicy.ALWAYS)
+          currentChannel_.force(false);
+        else
+          dirty_ = true;
+        
+        currentSize_ += recordLength;
+        totalSize_ += recordLength;
+        recordCount_++;
+        
+        index(new SpoolRecord(currentSegment_, offset, recordLength, transactional, items));
+        
+        lock_.notifyAll();
+      }
+      catch(IOException e)
+      {
+        throw new IllegalStateException("Failed to write to spool", e);
+      }
+    }
+  }
+  
+  private void waitForSpace(long recordLength, Throwable cause)
+  {
+    if(totalSize_ + recordLength <= maxSize_)
+      return;
+    
+    if(overflowPolicy_ == SpoolOverflowPolicy.REJECT)
+      throw new SpoolOverflowException("Spool is full (" + totalSize_ + " bytes)", cause);
+    
+    long deadline = System.currentTimeMillis() + overflowTimeout_;
+    
+    while(totalSize_ + recordLength > maxSize_)
+    {
+      long timeout = deadline - System.currentTimeMillis();
+      
+      if(timeout <= 0)
+        throw new SpoolOverflowException("Spool is full (" + totalSize_ + " bytes) after waiting " + overflowTimeout_ + "ms", cause);
+      
+      try
+      {
+        lock_.wait(timeout);
+      }
+      catch (InterruptedException e)
+      {
+        throw new SpoolOverflowException("Interrupted waiting for spool space", e);
+      }
+    }
+  }
+  
+  /**
+   * Return the most recently spooled version of the given item.
+   * 
+   * @param partitionSortKey  The partition and sort key of the required item.
+   * 
+   * @return The JSON of the most recently spooled version of the item, or null if it is not in the spool.
+   */
+  public @Nullable String fetch(IKvPartitionSortKeyProvider partitionSortKey)
+  {
+    String key = key(partitionSortKey);
+    
+    synchronized(lock_)
+    {
+      SpoolPosition position = index_.get(key);
+      
+      if(position == null)
+        return null;
+      
+      File file = segments_.get(position.segment_);
+      
+      try(RandomAccessFile in = new RandomAccessFile(file, "r"))
+      {
+        SpoolRecord record = readRecord(in, position.segment_, position.offset_, in.length());
+        
+        if(record != null)
+        {
+          for(int i=record.items_.size() - 1 ; i>=0 ; i--)
+          {
+            if(key.equals(key(record.items_.get(i))))
+              return record.items_.get(i).getJson();
+          }
+        }
+      }
+      catch(IOException e)
+      {
+        throw new IllegalStateException("Failed to read from spool", e);
+      }
+      
+      throw new IllegalStateException("Spool index for " + key + " refers to an invalid record");
+    }
+  }
+  
+  private void replay()
+  {
+    try
+    {
+      doReplay();
+    }
+    catch(RuntimeException e)
+    {
+      log_.error("Spool replay failed, unreplayed records will remain on disk until the spool is restarted", e);
+    }
+    
+    synchronized(lock_)
+    {
+      closeReplayFile();
+    }
+  }
+  
+  private void doReplay()
+  {
+    long nextReplayTime = System.nanoTime();
+    
+    while(isRunning())
+    {
+      SpoolRecord record = nextRecord();
+      
+      if(record == null)
+        continue;
+      
+      long delay = 10;
+      
+      while(isRunning())
+      {
+        try
+        {
+          sink_.replay(new ArrayList<IKvItem>(record.items_), record.transactional_, NoOpTraceContext.INSTANCE);
+          complete(record);
+          break;
+        }
+        catch(RuntimeException e)
+        {
+          if(!sink_.isRetryable(e))
+          {
+            log_.error("Failed to replay spooled record with a non-retryable error, moving it to " + getQuarantineFile().getAbsolutePath(), e);
+            quarantine(record);
+            complete(record);
+            break;
+          }
+          
+          log_.warn("Failed to replay spooled record, retry after " + delay + "ms.", e);
+          
+          pause(delay);
+          
+          if(delay < MAX_REPLAY_DELAY)
+            delay *= 1.2;
+        }
+      }
+      
+      nextReplayTime += replayIntervalNanos_;
+      
+      long now = System.nanoTime();
+      
+      if(nextReplayTime > now)
+        pause(TimeUnit.NANOSECONDS.toMillis(nextReplayTime - now));
+      else
+        nextReplayTime = now;
+    }
+  }
+  
+  private boolean isRunning()
+  {
+    synchronized(lock_)
+    {
+      return running_;
+    }
+  }
+  
+  private void pause(long millis)
+  {
+    if(millis <= 0)
+      return;
+    
+    long deadline = System.currentTimeMillis() + millis;
+    
+    synchronized(lock_)
+    {
+      long timeout;
+      
+      // Appends notify the lock so we need to loop until the deadline or until we are stopped.
+      while(running_ && (timeout = deadline - System.currentTimeMillis()) > 0)
+      {
+        try
+        {
+          lock_.wait(timeout);
+        }
+        catch (InterruptedException e)
+        {
+          log_.warn("Sleep interrupted", e);
+          return;
+        }
+      }
+    }
+  }
+  
+  private @Nullable SpoolRecord nextRecord()
+  {
+    synchronized(lock_)
+    {
+      while(running_)
+      {
+        if(segments_.isEmpty())
+        {
+          waitForRecords();
+          continue;
+        }
+        
+        long segment = segments_.firstKey();
+        
+        try
+        {
+          if(segment != replaySegment_)
+          {
+            closeReplayFile();
+            replaySegment_  = segment;
+            replayOffset_   = 0;
+            replayFile_     = new RandomAccessFile(segments_.get(segment), "r");
+          }
+          
+          long limit = segment == currentSegment_ ? currentSize_ : replayFile_.length();
+          
+          if(replayOffset_ < limit)
+          {
+            SpoolRecord record = readRecord(replayFile_, segment, replayOffset_, limit);
+            
+            if(record == null)
+              throw new IllegalStateException("Corrupt record in spool segment " + segments_.get(segment).getAbsolutePath() + " at offset " + replayOffset_);
+            
+            return record;
+          }
+          
+          if(segment == currentSegment_)
+          {
+            if(fsyncPolicy_ == SpoolFsyncPolicy.INTERVAL && dirty_)
+            {
+              currentChannel_.force(false);
+              dirty_ = false;
+            }
+            
+            if(recordCount_ > 0)
+            {
+              waitForRecords();
+              continue;
+            }
+            
+            // Everything has been replayed, start a new segment for the next write.
+            closeCurrentSegment();
+          }
+          
+          deleteSegment(segment);
+        }
+        catch(IOException e)
+        {
+          throw new IllegalStateException("Failed to read from spool", e);
+        }
+      }
+      
+      return null;
+    }
+  }
+  
+  private void waitForRecords()
+  {
+    try
+    {
+      lock_.wait(fsyncInterval_);
+    }
+    catch (InterruptedException e)
+    {
+      log_.warn("Sleep interrupted", e);
+    }
+    
+    if(fsyncPolicy_ == SpoolFsyncPolicy.INTERVAL && dirty_ && currentChannel_ != null)
+    {
+      try
+      {
+        currentChannel_.force(false);
+        dirty_ = false;
+      }
+      catch(IOException e)
+      {
+        log_.error("Failed to sync spool segment", e);
+      }
+    }
+  }
+  
+  private void complete(SpoolRecord record)
+  {
+    synchronized(lock_)
+    {
+      replayOffset_ = record.offset_ + record.length_;
+      recordCount_--;
+      
+      for(SpooledKvItem item : record.items_)
+      {
+        String key = key(item);
+        SpoolPosition position = index_.get(key);
+        
+        // Only forget the item if it has not been spooled again since this record was written.
+        if(position != null && position.segment_ == record.segment_ && position.offset_ == record.offset_)
+          index_.remove(key);
+      }
+    }
+  }
+  
+  private void quarantine(SpoolRecord record)
+  {
+    synchronized(lock_)
+    {
+      quarantinedCount_++;
+      
+      if(record.length_ > maxQuarantineSize_)
+      {
+        log_.error("Spooled record of " + record.length_ + " bytes is larger than the quarantine limit, it has been dropped");
+        return;
+      }
+      
+      File quarantineFile = getQuarantineFile();
+      
+      if(quarantineFile.length() + record.length_ > maxQuarantineSize_)
+      {
+        File backup = getQuarantineBackupFile();
+        
+        log_.warn("Quarantine file " + quarantineFile.getAbsolutePath() + " is full, rotating it to " + backup.getName()
+            + ", any previous backup is discarded.");
+        
+        if((backup.exists() && !backup.delete()) || !quarantineFile.renameTo(backup))
+        {
+          log_.error("Unable to rotate quarantine file, the record has been dropped");
+          return;
+        }
+      }
+      
+      try(FileOutputStream out = new FileOutputStream(quarantineFile, true))
+      {
+        byte[] data = new byte[(int)record.length_];
+        
+        // The record is always in the segment currently being replayed.
+        replayFile_.seek(record.offset_);
+        replayFile_.readFully(data);
+        
+        out.write(data);
+        out.getFD().sync();
+      }
+      catch(IOException e)
+      {
+        log_.error("Failed to quarantine spooled record, it has been dropped", e);
+      }
+    }
+  }
+  
+  private void deleteSegment(long segment)
+  {
+    File file = segments_.remove(segment);
+    
+    if(segment == replaySegment_)
+    {
+      closeReplayFile();
+      replaySegment_ = -1;
+    }
+    
+    totalSize_ -= file.length();
+    
+    if(!file.delete())
+      log_.error("Failed to delete spool segment " + file.getAbsolutePath());
+    
+    lock_.notifyAll();
+  }
+
+  private void openSegment() throws IOException
+  {
+    closeCurrentSegment();
+    
+    long segment = nextSegment_++;
+    File file = new File(directory_, String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    
+    @SuppressWarnings("resource")
+    FileChannel channel = new FileOutputStream(file, true).getChannel();
+    
+    segments_.put(segment, file);
+    currentSegment_ = segment;
+    currentChannel_ = channel;
+    currentSize_    = 0;
+  }
+  
+  private void closeCurrentSegment()
+  {
+    if(currentChannel_ != null)
+    {
+      try
+      {
+        if(fsyncPolicy_ != SpoolFsyncPolicy.NEVER && dirty_)
+          currentChannel_.force(false);
+        
+        currentChannel_.close();
+      }
+      catch(IOException e)
+      {
+        log_.error("Failed to close spool segment", e);
+      }
+      
+      currentChannel_ = null;
+      currentSegment_ = -1;
+      currentSize_    = 0;
+      dirty_          = false;
+    }
+  }
+  
+  private void closeReplayFile()
+  {
+    if(replayFile_ != null)
+    {
+      try
+      {
+        replayFile_.close();
+      }
+      catch(IOException e)
+      {
+        log_.error("Failed to close spool segment", e);
+      }
+      
+      replayFile_ = null;
+    }
+  }
+
+  private void index(SpoolRecord record)
+  {
+    SpoolPosition position = new SpoolPosition(record.segment_, record.offset_);
+    
+    for(SpooledKvItem item : record.items_)
+      index_.put(key(item), position);
+  }
+  
+  private static String key(IKvPartitionSortKeyProvider partitionSortKey)
+  {
+    return partitionSortKey.getPartitionKey().asString() + '\u0000' + partitionSortKey.getSortKey().asString();
+  }
+  
+  private static @Nullable SpoolRecord readRecord(RandomAccessFile in, long segment, long offset, long limit) throws IOException
+  {
+    if(offset + RECORD_HEADER_SIZE > limit)
+      return null;
+    
+    in.seek(offset);
+    
+    int   length    = in.readInt();
+    long  checksum  = in.readLong();
+    
+    if(length < 0 || offset + RECORD_HEADER_SIZE + length > limit)
+      return null;
+    
+    byte[] payload = new byte[length];
+    
+    in.readFully(payload);
+    
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    
+    if(crc.getValue() != checksum)
+      return null;
+    
+    DataInputStream     data          = new DataInputStream(new ByteArrayInputStream(payload));
+    boolean             transactional = data.readBoolean();
+    int                 count         = data.readInt();
+    List<SpooledKvItem> items         = new ArrayList<>(count);
+    
+    for(int i=0 ; i<count ; i++)
+      items.add(new SpooledKvItem(data));
+    
+    return new SpoolRecord(segment, offset, RECORD_HEADER_SIZE + length, transactional, items);
+  }
+  
+  private static class SpoolPosition
+  {
+    private final long segment_;
+    private final long offset_;
+    
+    SpoolPosition(long segment, long offset)
+    {
+      segment_  = segment;
+      offset_   = offset;
+    }
+  }
+  
+  private static class SpoolRecord
+  {
+    private final long                segment_;
+    private final long                offset_;
+    private final long                length_;
+    private final boolean             transactional_;
+    private final List<SpooledKvItem> items_;
+    
+    SpoolRecord(long segment, long offset, long length, boolean transactional, List<SpooledKvItem> items)
+    {
+      segment_        = segment;
+      offset_         = offset;
+      length_         = length;
+      transactional_  = transactional;
+      items_          = items;
+    }
+  }
+  
+  /**
+   * Builder.
+   * 
+   * @author Bruce Skingle
+   */
+  public static class Builder extends AbstractBuilder<Builder, KvWriteSpool>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected KvWriteSpool construct()
+    {
+      return new KvWriteSpool(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends KvWriteSpool> extends BaseAbstractBuilder<T,B>
+  {
+    protected File                directory_;
+    protected long                segmentSize_      = 64L * 1024 * 1024;
+    protected long                maxSize_          = 1024L * 1024 * 1024;
+    protected long                maxQuarantineSize_ = 64L * 1024 * 1024;
+    protected SpoolFsyncPolicy    fsyncPolicy_      = SpoolFsyncPolicy.INTERVAL;
+    protected long                fsyncInterval_    = 1000;
+    protected SpoolOverflowPolicy overflowPolicy_   = SpoolOverflowPolicy.REJECT;
+    protected long                overflowTimeout_  = 5000;
+    protected double              replayRate_       = 100;
+    
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+    
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(directory_,   "directory");
+      
+      if(segmentSize_ < 1)
+        faultAccumulator.error("segmentSize must be positive");
+      
+      if(maxSize_ < segmentSize_)
+        faultAccumulator.error("maxSize must be at least segmentSize");
+      
+      if(maxQuarantineSize_ < 1)
+        faultAccumulator.error("maxQuarantineSize must be positive");
+      
+      if(fsyncInterval_ < 1)
+        faultAccumulator.error("fsyncInterval must be positive");
+      
+      if(replayRate_ <= 0)
+        faultAccumulator.error("replayRate must be positive");
+    }
+
+    /**
+     * Set the directory in which spool segments are stored.
+     * 
+     * The directory must not be shared with any other spool.
+     * 
+     * @param directory The spool directory.
+     * 
+     * @return This (fluent method).
+     */
+    public T withDirectory(File directory)
+    {
+      directory_ = directory;
+      
+      return self();
+    }
+
+    /**
+     * Set the size in bytes after which a new segment file is started.
+     * 
+     * @param segmentSize The segment size in bytes.
+     * 
+     * @return This (fluent method).
+     */
+    public T withSegmentSize(long segmentSize)
+    {
+      segmentSize_ = segmentSize;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of bytes which the spool may use on disk.
+     * 
+     * @param maxSize The maximum spool size in bytes.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxSize(long maxSize)
+    {
+      maxSize_ = maxSize;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum size of the quarantine file.
+     * 
+     * When a quarantined record would take the file past this size it is rotated to a single backup file,
+     * so the quarantine uses at most twice this many bytes on disk. This is in addition to the limit set
+     * by {@link #withMaxSize(long)}.
+     * 
+     * @param maxQuarantineSize The maximum quarantine file size in bytes.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxQuarantineSize(long maxQuarantineSize)
+    {
+      maxQuarantineSize_ = maxQuarantineSize;
+      
+      return self();
+    }
+
+    /**
+     * Set the fsync policy.
+     * 
+     * @param fsyncPolicy The policy for forcing spooled records to disk.
+     * 
+     * @return This (fluent method).
+     */
+    public T withFsyncPolicy(SpoolFsyncPolicy fsyncPolicy)
+    {
+      fsyncPolicy_ = fsyncPolicy;
+      
+      return self();
+    }
+
+    /**
+     * Set the interval between syncs when the fsync policy is INTERVAL.
+     * 
+     * @param fsyncInterval The interval in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withFsyncInterval(long fsyncInterval)
+    {
+      fsyncInterval_ = fsyncInterval;
+      
+      return self();
+    }
+
+    /**
+     * Set the behaviour when the spool is full.
+     * 
+     * @param overflowPolicy The overflow policy.
+     * 
+     * @return This (fluent method).
+     */
+    public T withOverflowPolicy(SpoolOverflowPolicy overflowPolicy)
+    {
+      overflowPolicy_ = overflowPolicy;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum time to wait for space when the overflow policy is BLOCK.
+     * 
+     * @param overflowTimeout The timeout in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withOverflowTimeout(long overflowTimeout)
+    {
+      overflowTimeout_ = overflowTimeout;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum rate at which spooled records are replayed.
+     * 
+     * @param replayRate The maximum number of records per second.
+     * 
+     * @return This (fluent method).
+     */
+    public T withReplayRate(double replayRate)
+    {
+      replayRate_ = replayRate;
+      
+      return self();
+    }
+  }
+}
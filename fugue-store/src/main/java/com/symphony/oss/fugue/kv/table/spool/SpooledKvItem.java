@@ -0,0 +1,301 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.kv.table.spool;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.symphony.oss.commons.hash.Hash;
+import com.symphony.oss.fugue.kv.IKvItem;
+import com.symphony.oss.fugue.kv.IKvPartitionKey;
+import com.symphony.oss.fugue.kv.IKvSortKey;
+import com.symphony.oss.fugue.kv.KvPartitionKey;
+import com.symphony.oss.fugue.kv.KvSortKey;
+import com.symphony.oss.fugue.store.IFuguePodId;
+
+/**
+ * A copy of an IKvItem which can be written to and read from a spool segment.
+ * 
+ * @author Bruce Skingle
+ */
+@Immutable
+class SpooledKvItem implements IKvItem
+{
+  private static final byte ATTR_STRING = 'S';
+  private static final byte ATTR_LONG   = 'L';
+  private static final byte ATTR_DOUBLE = 'D';
+
+  private final IKvPartitionKey     partitionKey_;
+  private final IKvSortKey          sortKey_;
+  private final String              json_;
+  private final String              type_;
+  private final Instant             purgeDate_;
+  private final boolean             saveToSecondaryStorage_;
+  private final Hash                absoluteHash_;
+  private final IFuguePodId         podId_;
+  private final String              traceSubjectType_;
+  private final String              traceSubjectId_;
+  private final Map<String, Object> additionalAttributes_;
+
+  SpooledKvItem(IKvItem kvItem)
+  {
+    partitionKey_           = new KvPartitionKey(kvItem.getPartitionKey().asString());
+    sortKey_                = new KvSortKey(kvItem.getSortKey().asString());
+    json_                   = kvItem.getJson();
+    type_                   = kvItem.getType();
+    purgeDate_              = kvItem.getPurgeDate();
+    saveToSecondaryStorage_ = kvItem.isSaveToSecondaryStorage();
+    absoluteHash_           = kvItem.getAbsoluteHash();
+    podId_                  = kvItem.getPodId() == null ? null : new PodId(kvItem.getPodId().getValue());
+    traceSubjectType_       = kvItem.getTraceSubjectType();
+    traceSubjectId_         = kvItem.getTraceSubjectId();
+    additionalAttributes_   = kvItem.getAdditionalAttributes() == null ? null : new HashMap<>(kvItem.getAdditionalAttributes());
+  }
+
+  SpooledKvItem(DataInput in) throws IOException
+  {
+    partitionKey_           = new KvPartitionKey(readString(in));
+    sortKey_                = new KvSortKey(readString(in));
+    json_                   = readString(in);
+    type_                   = readString(in);
+    purgeDate_              = in.readBoolean() ? Instant.ofEpochMilli(in.readLong()) : null;
+    saveToSecondaryStorage_ = in.readBoolean();
+    String absoluteHash     = readString(in);
+    absoluteHash_           = absoluteHash == null ? null : Hash.ofBase64String(absoluteHash);
+    podId_                  = in.readBoolean() ? new PodId(in.readInt()) : null;
+    traceSubjectType_       = readString(in);
+    traceSubjectId_         = readString(in);
+    
+    int attrCnt = in.readInt();
+    
+    if(attrCnt < 0)
+    {
+      additionalAttributes_ = null;
+    }
+    else
+    {
+      additionalAttributes_ = new HashMap<>();
+      
+      for(int i=0 ; i<attrCnt ; i++)
+      {
+        String name = readString(in);
+        byte   tag  = in.readByte();
+        
+        switch(tag)
+        {
+          case ATTR_LONG:
+            additionalAttributes_.put(name, in.readLong());
+            break;
+            
+          case ATTR_DOUBLE:
+            additionalAttributes_.put(name, in.readDouble());
+            break;
+            
+          case ATTR_STRING:
+            additionalAttributes_.put(name, readString(in));
+            break;
+            
+          default:
+            throw new IOException("Invalid attribute type " + tag + " in spool record");
+        }
+      }
+    }
+  }
+
+  void write(DataOutput out) throws IOException
+  {
+    writeString(out, partitionKey_.asString());
+    writeString(out, sortKey_.asString());
+    writeString(out, json_);
+    writeString(out, type_);
+    
+    out.writeBoolean(purgeDate_ != null);
+    if(purgeDate_ != null)
+      out.writeLong(purgeDate_.toEpochMilli());
+    
+    out.writeBoolean(saveToSecondaryStorage_);
+    writeString(out, absoluteHash_ == null ? null : absoluteHash_.toStringBase64());
+    
+    out.writeBoolean(podId_ != null && podId_.getValue() != null);
+    if(podId_ != null && podId_.getValue() != null)
+      out.writeInt(podId_.getValue());
+    
+    writeString(out, traceSubjectType_);
+    writeString(out, traceSubjectId_);
+    
+    if(additionalAttributes_ == null)
+    {
+      out.writeInt(-1);
+    }
+    else
+    {
+      out.writeInt(additionalAttributes_.size());
+      
+      for(Entry<String, Object> entry : additionalAttributes_.entrySet())
+      {
+        writeString(out, entry.getKey());
+        
+        Object value = entry.getValue();
+        
+        // Numbers are stored as numbers and anything else as a String, as in the DynamoDB implementation.
+        if(value instanceof Double || value instanceof Float)
+        {
+          out.writeByte(ATTR_DOUBLE);
+          out.writeDouble(((Number)value).doubleValue());
+        }
+        else if(value instanceof Number)
+        {
+          out.writeByte(ATTR_LONG);
+          out.writeLong(((Number)value).longValue());
+        }
+        else
+        {
+          out.writeByte(ATTR_STRING);
+          writeString(out, value.toString());
+        }
+      }
+    }
+  }
+  
+  private static void writeString(DataOutput out, @Nullable String value) throws IOException
+  {
+    // DataOutput.writeUTF is limited to 64K which is too small for a document.
+    if(value == null)
+    {
+      out.writeInt(-1);
+    }
+    else
+    {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+  
+  private static @Nullable String readString(DataInput in) throws IOException
+  {
+    int length = in.readInt();
+    
+    if(length < 0)
+      return null;
+    
+    byte[] bytes = new byte[length];
+    
+    in.readFully(bytes);
+    
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public IKvPartitionKey getPartitionKey()
+  {
+    return partitionKey_;
+  }
+
+  @Override
+  public IKvSortKey getSortKey()
+  {
+    return sortKey_;
+  }
+
+  @Override
+  public String getJson()
+  {
+    return json_;
+  }
+
+  @Override
+  public String getType()
+  {
+    return type_;
+  }
+
+  @Override
+  public Instant getPurgeDate()
+  {
+    return purgeDate_;
+  }
+
+  @Override
+  public boolean isSaveToSecondaryStorage()
+  {
+    return saveToSecondaryStorage_;
+  }
+
+  @Override
+  public Hash getAbsoluteHash()
+  {
+    return absoluteHash_;
+  }
+
+  @Override
+  public IFuguePodId getPodId()
+  {
+    return podId_;
+  }
+
+  @Override
+  public Map<String, Object> getAdditionalAttributes()
+  {
+    return additionalAttributes_;
+  }
+
+  @Override
+  public String getTraceSubjectType()
+  {
+    return traceSubjectType_;
+  }
+
+  @Override
+  public String getTraceSubjectId()
+  {
+    return traceSubjectId_;
+  }
+  
+  private static class PodId implements IFuguePodId
+  {
+    private final Integer value_;
+
+    PodId(Integer value)
+    {
+      value_ = value;
+    }
+
+    @Override
+    public Integer getValue()
+    {
+      return value_;
+    }
+  }
+}
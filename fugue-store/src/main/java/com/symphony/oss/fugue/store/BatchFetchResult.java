@@ -0,0 +1,88 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.store;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.symphony.oss.commons.hash.Hash;
+
+/**
+ * The result of a batch fetch of objects by hash.
+ * 
+ * Every requested hash appears exactly once, either in the found objects or in the missing hashes.
+ * 
+ * @author Bruce Skingle
+ */
+@Immutable
+public class BatchFetchResult
+{
+  private final Map<Hash, String> found_;
+  private final Set<Hash>         missing_;
+
+  /**
+   * Constructor.
+   * 
+   * @param found   The objects which were found, keyed by the requested hash.
+   * @param missing The requested hashes for which no object exists.
+   */
+  public BatchFetchResult(Map<Hash, String> found, Set<Hash> missing)
+  {
+    found_    = Collections.unmodifiableMap(found);
+    missing_  = Collections.unmodifiableSet(missing);
+  }
+
+  /**
+   * 
+   * @return The objects which were found, keyed by the requested hash.
+   */
+  public Map<Hash, String> getFound()
+  {
+    return found_;
+  }
+
+  /**
+   * 
+   * @return The requested hashes for which no object exists.
+   */
+  public Set<Hash> getMissing()
+  {
+    return missing_;
+  }
+  
+  /**
+   * 
+   * @param hash A requested hash.
+   * 
+   * @return The object for the given hash, or null if it does not exist.
+   */
+  public @Nullable String get(Hash hash)
+  {
+    return found_.get(hash);
+  }
+}
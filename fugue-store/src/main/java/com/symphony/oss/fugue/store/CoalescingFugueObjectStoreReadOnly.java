@@ -0,0 +1,153 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.symphony.oss.commons.hash.Hash;
+import com.symphony.oss.fugue.concurrent.SingleFlight;
+
+/**
+ * A wrapper for an IFugueObjectStoreReadOnly which coalesces concurrent identical point reads.
+ * 
+ * Concurrent calls to fetchAbsolute or fetchCurrent for the same hash share a single call to the
+ * underlying store and its result or failure. Nothing is cached beyond the duration of the call, so
+ * the consistency of the underlying store is unchanged. Range reads, batch reads and
+ * streamed reads are passed straight through.
+ * 
+ * @author Bruce Skingle
+ */
+public class CoalescingFugueObjectStoreReadOnly implements IFugueObjectStoreReadOnly
+{
+  private final IFugueObjectStoreReadOnly    store_;
+  private final SingleFlight<String, String> flight_ = new SingleFlight<>();
+
+  /**
+   * Constructor.
+   * 
+   * @param store The underlying store.
+   */
+  public CoalescingFugueObjectStoreReadOnly(IFugueObjectStoreReadOnly store)
+  {
+    store_ = store;
+  }
+
+  @Override
+  public @Nonnull String fetchAbsolute(Hash absoluteHash) throws NoSuchObjectException
+  {
+    return coalesce("A#" + absoluteHash.toStringBase64(), () -> store_.fetchAbsolute(absoluteHash));
+  }
+
+  @Override
+  public @Nonnull String fetchCurrent(Hash baseHash) throws NoSuchObjectException
+  {
+    return coalesce("C#" + baseHash.toStringBase64(), () -> store_.fetchCurrent(baseHash));
+  }
+  
+  @Override
+  public void fetchAbsolute(Hash absoluteHash, OutputStream out) throws NoSuchObjectException, IOException
+  {
+    store_.fetchAbsolute(absoluteHash, out);
+  }
+
+  @Override
+  public void fetchCurrent(Hash baseHash, OutputStream out) throws NoSuchObjectException, IOException
+  {
+    store_.fetchCurrent(baseHash, out);
+  }
+  
+  @Override
+  public @Nonnull BatchFetchResult fetchAbsolute(Collection<Hash> absoluteHashes)
+  {
+    return store_.fetchAbsolute(absoluteHashes);
+  }
+
+  @Override
+  public @Nonnull BatchFetchResult fetchCurrent(Collection<Hash> baseHashes)
+  {
+    return store_.fetchCurrent(baseHashes);
+  }
+  
+  private String coalesce(String key, Callable<String> fetcher) throws NoSuchObjectException
+  {
+    try
+    {
+      return flight_.execute(key, fetcher);
+    }
+    catch(NoSuchObjectException | RuntimeException e)
+    {
+      throw e;
+    }
+    catch(Exception e) // Callable made me do this...
+    {
+      throw new IllegalStateException("Failed to read object", e);
+    }
+  }
+
+  @Override
+  public String fetchSequenceObjects(Hash sequenceHash, boolean scanForwards, @Nullable Integer limit, @Nullable String after,
+      Consumer<String> consumer)
+  {
+    return store_.fetchSequenceObjects(sequenceHash, scanForwards, limit, after, consumer);
+  }
+
+  @Override
+  public String fetchVersions(Hash baseHash, boolean scanForwards, @Nullable Integer limit, @Nullable String after,
+      Consumer<String> consumer)
+  {
+    return store_.fetchVersions(baseHash, scanForwards, limit, after, consumer);
+  }
+
+  @Override
+  public String followSequenceObjects(Hash sequenceHash, @Nullable Integer limit, @Nullable String after, long timeoutMillis,
+      Consumer<String> consumer) throws InterruptedException
+  {
+    return store_.followSequenceObjects(sequenceHash, limit, after, timeoutMillis, consumer);
+  }
+  
+  /**
+   * 
+   * @return The number of reads which were satisfied by waiting for an identical concurrent read.
+   */
+  public long getCoalescedCount()
+  {
+    return flight_.getCoalescedCount();
+  }
+  
+  /**
+   * 
+   * @return The number of reads which were passed to the underlying store.
+   */
+  public long getExecutedCount()
+  {
+    return flight_.getExecutedCount();
+  }
+}
@@ -23,6 +23,14 @@
 
 package com.symphony.oss.fugue.store;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -59,6 +67,98 @@ public interface IFugueObjectStoreReadOnly
    * Equivalent to fetchCurrent(baseHash, false);
    */
   @Nonnull String fetchCurrent(Hash baseHash) throws NoSuchObjectException;
+
+  /**
+   * Fetch the object with the given absoluteHash, writing it to the given stream as UTF-8.
+   * 
+   * The default implementation calls fetchAbsolute(Hash), implementations which hold large objects
+   * in secondary storage should override this to copy them to the stream as they are read.
+   * 
+   * @param absoluteHash  The ID of the required object.
+   * @param out           A stream to receive the object, which is not closed.
+   * 
+   * @throws NoSuchObjectException  If there is no object with the given absoluteHash.
+   * @throws IOException            If the object cannot be written to the given stream.
+   */
+  default void fetchAbsolute(Hash absoluteHash, OutputStream out) throws NoSuchObjectException, IOException
+  {
+    out.write(fetchAbsolute(absoluteHash).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Fetch the current (latest) version of the object with the given baseHash, writing it to the given stream as UTF-8.
+   * 
+   * The default implementation calls fetchCurrent(Hash), implementations which hold large objects
+   * in secondary storage should override this to copy them to the stream as they are read.
+   * 
+   * @param baseHash  The ID of the required object.
+   * @param out       A stream to receive the object, which is not closed.
+   * 
+   * @throws NoSuchObjectException  If there is no object with the given baseHash.
+   * @throws IOException            If the object cannot be written to the given stream.
+   */
+  default void fetchCurrent(Hash baseHash, OutputStream out) throws NoSuchObjectException, IOException
+  {
+    out.write(fetchCurrent(baseHash).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Fetch the objects with the given absoluteHashes.
+   * 
+   * The default implementation calls fetchAbsolute(Hash) for each hash, implementations should override
+   * this with a more efficient method where possible.
+   * 
+   * @param absoluteHashes  The IDs of the required objects.
+   * @return                The objects which exist and the hashes of those which do not.
+   */
+  default @Nonnull BatchFetchResult fetchAbsolute(Collection<Hash> absoluteHashes)
+  {
+    Map<Hash, String> found   = new HashMap<>();
+    Set<Hash>         missing = new HashSet<>();
+    
+    for(Hash absoluteHash : absoluteHashes)
+    {
+      try
+      {
+        found.put(absoluteHash, fetchAbsolute(absoluteHash));
+      }
+      catch(NoSuchObjectException e)
+      {
+        missing.add(absoluteHash);
+      }
+    }
+    
+    return new BatchFetchResult(found, missing);
+  }
+
+  /**
+   * Fetch the current (latest) versions of the objects with the given baseHashes.
+   * 
+   * The default implementation calls fetchCurrent(Hash) for each hash, implementations should override
+   * this with a more efficient method where possible.
+   * 
+   * @param baseHashes  The IDs of the required objects.
+   * @return            The objects which exist, keyed by baseHash, and the hashes of those which do not.
+   */
+  default @Nonnull BatchFetchResult fetchCurrent(Collection<Hash> baseHashes)
+  {
+    Map<Hash, String> found   = new HashMap<>();
+    Set<Hash>         missing = new HashSet<>();
+    
+    for(Hash baseHash : baseHashes)
+    {
+      try
+      {
+        found.put(baseHash, fetchCurrent(baseHash));
+      }
+      catch(NoSuchObjectException e)
+      {
+        missing.add(baseHash);
+      }
+    }
+    
+    return new BatchFetchResult(found, missing);
+  }
   
   /**
    * Return objects from the given sequence, with more recent objects before older ones.
@@ -69,10 +169,39 @@ public interface IFugueObjectStoreReadOnly
    * @param after         An optional page cursor to continue a previous query.
    * @param consumer      A consumer to receive the retrieved objects.
    * 
-   * @return              A new after token to allow a continuation query to be made.
+   * @return              A new after token to allow a continuation query to be made, or null if there are no more objects.
    */
   String fetchSequenceObjects(Hash sequenceHash, boolean scanForwards, @Nullable Integer limit, @Nullable String after, Consumer<String> consumer);
 
+  /**
+   * Follow the given sequence, returning objects after the given cursor in chronological order and waiting
+   * until at least one is available or the given timeout elapses.
+   * 
+   * Many callers may follow the same sequence concurrently, implementations should ensure that callers
+   * which are waiting for new objects do not each poll the underlying storage.
+   * 
+   * The default implementation polls fetchSequenceObjects on behalf of each caller, starting at 50ms and
+   * backing off to 2 seconds while the sequence is idle. Its cursors are only valid for this method.
+   * 
+   * Objects whose position in the sequence is before the cursor when they are added, such as objects
+   * with an earlier created date, are not returned.
+   * 
+   * @param sequenceHash  The hash ID of the sequence.
+   * @param limit         An optional limit to the number of objects retrieved.
+   * @param after         An optional cursor returned by a previous call, if null then the sequence is followed from the start.
+   * @param timeoutMillis The maximum time in milliseconds to wait for an object to be added.
+   * @param consumer      A consumer to receive the retrieved objects.
+   * 
+   * @return              A cursor to continue following the sequence, which is the given cursor if no objects were retrieved.
+   * 
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  default @Nullable String followSequenceObjects(Hash sequenceHash, @Nullable Integer limit, @Nullable String after, long timeoutMillis,
+      Consumer<String> consumer) throws InterruptedException
+  {
+    return new SequencePoller(this, sequenceHash, limit, after).follow(after, timeoutMillis, consumer);
+  }
+
   /**
    * Return versions of the given object, with more recent versions before older ones.
    * 
@@ -81,7 +210,7 @@ public interface IFugueObjectStoreReadOnly
    * @param limit         An optional limit to the number of versions retrieved.
    * @param after         An optional page cursor to continue a previous query.
    * @param consumer      A consumer to receive the retrieved objects.
-   * @return              A new after token to allow a continuation query to be made.
+   * @return              A new after token to allow a continuation query to be made, or null if there are no more versions.
    */
   String fetchVersions(Hash baseHash, boolean scanForwards, @Nullable Integer limit, @Nullable String after, Consumer<String> consumer);
 }
@@ -0,0 +1,133 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.symphony.oss.fugue.store;
+
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import com.symphony.oss.commons.hash.Hash;
+
+/**
+ * The default implementation of IFugueObjectStoreReadOnly.followSequenceObjects, which polls
+ * fetchSequenceObjects.
+ * 
+ * The page cursor returned by fetchSequenceObjects is null at the end of the data, so the follow cursor
+ * is the page cursor from which the last read started together with the number of objects already
+ * returned from that page.
+ * 
+ * The poll interval starts at 50ms and grows by 20% after each poll which finds nothing, up to 2 seconds.
+ * 
+ * @author Bruce Skingle
+ */
+class SequencePoller
+{
+  private static final long MIN_POLL_INTERVAL = 50;
+  private static final long MAX_POLL_INTERVAL = 2000;
+
+  private final IFugueObjectStoreReadOnly store_;
+  private final Hash                      sequenceHash_;
+  private final @Nullable Integer         limit_;
+  private @Nullable String                pageCursor_;
+  private int                             skip_;
+
+  SequencePoller(IFugueObjectStoreReadOnly store, Hash sequenceHash, @Nullable Integer limit, @Nullable String after)
+  {
+    store_        = store;
+    sequenceHash_ = sequenceHash;
+    limit_        = limit;
+    
+    if(after != null)
+    {
+      int i = after.indexOf(':');
+      
+      if(i == -1)
+        throw new IllegalArgumentException("Invalid follow cursor \"" + after + "\"");
+      
+      try
+      {
+        skip_       = Integer.parseInt(after.substring(0, i));
+        pageCursor_ = i == after.length() - 1 ? null : after.substring(i + 1);
+      }
+      catch(NumberFormatException e)
+      {
+        throw new IllegalArgumentException("Invalid follow cursor \"" + after + "\"", e);
+      }
+    }
+  }
+  
+  @Nullable String follow(@Nullable String after, long timeoutMillis, Consumer<String> consumer) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long interval = MIN_POLL_INTERVAL;
+    
+    while(true)
+    {
+      int[]   index     = new int[1];
+      int[]   returned  = new int[1];
+      String  next      = store_.fetchSequenceObjects(sequenceHash_, true, limit_ == null ? null : skip_ + limit_, pageCursor_,
+          (object) ->
+          {
+            if(index[0]++ >= skip_)
+            {
+              consumer.accept(object);
+              returned[0]++;
+            }
+          });
+      
+      if(next != null)
+      {
+        // Everything up to next has been seen.
+        pageCursor_ = next;
+        skip_       = 0;
+        
+        if(returned[0] > 0)
+          return cursor();
+        
+        continue;
+      }
+      
+      if(returned[0] > 0)
+      {
+        skip_ += returned[0];
+        
+        return cursor();
+      }
+      
+      long timeout = deadline - System.currentTimeMillis();
+      
+      if(timeout <= 0)
+        return after;
+      
+      Thread.sleep(Math.min(timeout, interval));
+      
+      interval = Math.min(MAX_POLL_INTERVAL, (long)(interval * 1.2) + 1);
+    }
+  }
+  
+  private String cursor()
+  {
+    return skip_ + ":" + (pageCursor_ == null ? "" : pageCursor_);
+  }
+}